@@ -0,0 +1,28 @@
+package edu.aav66;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of the benchmarks jar. Accepts the usual JMH command line options and always adds the GC profiler, so
+ * that the allocation rate and bytes allocated per operation are reported next to every score.
+ */
+public class BenchmarkRunner
+{
+    /**
+     * Runs the benchmarks selected on the command line, all of them by default.
+     *
+     * @param args JMH command line options, for example a benchmark name pattern or -p rows=5
+     * @throws CommandLineOptionException if the options cannot be parsed
+     * @throws RunnerException if a benchmark fails
+     */
+    public static void main( String[] args ) throws CommandLineOptionException, RunnerException
+    {
+        CommandLineOptions options = new CommandLineOptions( args );
+        new Runner( new OptionsBuilder().parent( options ).addProfiler( GCProfiler.class ).build() ).run();
+    }
+}
@@ -0,0 +1,574 @@
+package edu.aav66;
+
+import java.awt.Graphics2D;
+import java.awt.event.KeyEvent;
+import java.awt.event.KeyListener;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Random;
+import java.util.TreeSet;
+
+/**
+ * Macro benchmark that plays scripted scenarios on a headless GamePanel for thousands of ticks at full speed. Unlike
+ * the microbenchmarks it exercises whole ticks, including wave transitions, difficulty changes and bursts of
+ * explosions. For each scenario it reports ticks per second, bytes allocated per tick and tick latency percentiles,
+ * writes them to a results file and compares them with a checked-in baseline; the process exits with status 1 when
+ * any metric is worse than the baseline by more than the tolerance.
+ *
+ * With --allocation-budget the runner also acts as a zero-allocation gate: it fails when the 99th percentile of the
+ * bytes allocated by a single steady-state tick exceeds the budget in any scenario. A steady-state tick is one that
+ * neither starts a wave, ends the game nor restarts it; those lay out a new formation and shelters or show the replay
+ * button, and they make up a few percent of the ticks of the last alien rush and bullet stress scenarios. Every other
+ * tick, hits and explosions included, is expected not to allocate, so a budget of 0 holds. The bytes allocated per
+ * tick, on the other hand, average over all ticks.
+ *
+ * A last pass measures input latency through the same path as the game: key events go to the panel's key listener, the
+ * timer action samples them and ticks, and the panel paints into an offscreen image. Since every key arrives just
+ * before the tick, the key to tick and key to frame percentiles measure the processing of input rather than the wait
+ * for the next timer tick, which adds up to one tick period in the game.
+ *
+ * The stress pass then plays every stress wave of the waves resource, smallest first, ticking and painting each frame
+ * into an offscreen image, and reports the tick, paint and frame percentiles of each wave and the largest wave whose
+ * frames stay within one tick period of 16 ms at the 99th percentile. Since nothing stops a formation at the bottom of
+ * the screen, a stress wave is played again from the start once it marches down to the shelters or the game ends, so
+ * every frame is measured against a formation on screen.
+ *
+ * Usage: ScenarioRunner [--ticks N] [--tolerance F] [--baseline FILE] [--results FILE] [--update-baseline]
+ *                       [--allocation-budget BYTES]
+ */
+public class ScenarioRunner
+{
+    private static final int WARMUP_TICKS = 20_000;
+    private static final long SEED = 42;
+    private static final long STRESS_FRAMES = 2_000; // Measured frames of each stress wave, at most
+    private static final String USAGE =
+        "Usage: ScenarioRunner [--ticks N] [--tolerance F] [--baseline FILE] [--results FILE] [--update-baseline]\n" +
+        "                      [--allocation-budget BYTES]";
+
+    /**
+     * A scripted scenario: prepares the game state once and then steers the game before every tick. The default
+     * script is a bot that sweeps the ship across the screen while firing continuously.
+     */
+    abstract static class Scenario
+    {
+        final String name;
+
+        /**
+         * Constructs a scenario.
+         *
+         * @param name the name used as the key prefix in the results
+         */
+        Scenario( String name ) { this.name = name; }
+
+        /**
+         * Prepares the game state after the panel has been created.
+         *
+         * @param panel the headless panel
+         */
+        void setUp( GamePanel panel ) {}
+
+        /**
+         * Steers the game before a tick.
+         *
+         * @param panel the headless panel
+         * @param tick the number of the tick about to run
+         */
+        void beforeTick( GamePanel panel, long tick )
+        {
+            panel.session.shipMoving = true;
+            panel.session.shipShooting = true;
+            if ( panel.session.xOfShip[0] <= 0 )
+                panel.session.shipDirection = 'R';
+            else if ( panel.session.xOfShip[0] >= GamePanel.SCREEN_WIDTH - GamePanel.UNIT_SIZE )
+                panel.session.shipDirection = 'L';
+            else if ( panel.session.shipDirection == ' ' )
+                panel.session.shipDirection = 'R';
+        }
+    }
+
+    /**
+     * The scenarios run by default.
+     *
+     * @return the opening wave, last alien rush, wave 5 and bullet stress scenarios
+     */
+    static List<Scenario> scenarios()
+    {
+        List<Scenario> scenarios = new ArrayList<>();
+
+        // The first wave as the game starts
+        scenarios.add( new Scenario( "opening" ) {} );
+
+        // A single fast alien left, every kill immediately triggers the next wave
+        scenarios.add( new Scenario( "lastAlienRush" ) {
+            @Override void beforeTick( GamePanel panel, long tick )
+            {
+                super.beforeTick( panel, tick );
+                while ( panel.session.xOfAliens.size() > 1 )
+                {
+                    panel.session.xOfAliens.remove( panel.session.xOfAliens.size() - 1 );
+                    panel.session.yOfAliens.remove( panel.session.yOfAliens.size() - 1 );
+                    panel.session.slotOfAliens.remove( panel.session.slotOfAliens.size() - 1 );
+                }
+                panel.session.setAlienMovementDelay( 3 );
+            }
+        } );
+
+        // The difficulty reached after clearing four waves
+        scenarios.add( new Scenario( "wave5" ) {
+            @Override void setUp( GamePanel panel )
+            {
+                panel.session.difficultyMultiplier = 4;
+                panel.session.alienMovementGameWonDelay =
+                    panel.session.wave.marchDelay - ( panel.session.difficultyMultiplier * 20 );
+                panel.session.setAlienMovementDelay( Math.max( 20, panel.session.alienMovementGameWonDelay ) );
+            }
+        } );
+
+        // Hundreds of alien bullets on screen at all times
+        scenarios.add( new Scenario( "bulletStress" ) {
+            private final Random positions = new Random( 42 );
+            private int nextIndex = 0;
+
+            @Override void beforeTick( GamePanel panel, long tick )
+            {
+                super.beforeTick( panel, tick );
+                while ( panel.session.alienBullet.size() < 256 )
+                {
+                    nextIndex = ( nextIndex + 1 ) % 2048;
+                    if ( panel.session.alienBullet.contains( nextIndex ) )
+                        continue;
+                    panel.session.xOfAlienBullet[nextIndex] = positions.nextInt( GamePanel.SCREEN_WIDTH );
+                    panel.session.yOfAlienBullet[nextIndex] = positions.nextInt( GamePanel.SCREEN_HEIGHT / 2 );
+                    panel.session.alienBullet.add( nextIndex );
+                }
+            }
+        } );
+
+        return scenarios;
+    }
+
+    /**
+     * Runs every scenario, writes the results and compares them with the baseline. An unknown option, an option
+     * without its value or a number that does not parse prints the usage and exits with status 1.
+     *
+     * @param args the command line options described in the class documentation
+     * @throws IOException if the baseline or results file cannot be read or written
+     */
+    public static void main( String[] args ) throws IOException
+    {
+        long ticks = 20_000;
+        double tolerance = 0.25;
+        Path baselinePath = Paths.get( "scenario-baseline.properties" );
+        Path resultsPath = Paths.get( "target", "scenario-results.properties" );
+        boolean updateBaseline = false;
+        long allocationBudget = -1;
+
+        try
+        {
+            for ( int i = 0; i < args.length; i++ )
+            {
+                switch ( args[i] )
+                {
+                case "--ticks":
+                    ticks = Main.longValue( args, ++i );
+                    break;
+                case "--tolerance":
+                    tolerance = doubleValue( args, ++i );
+                    break;
+                case "--baseline":
+                    baselinePath = Paths.get( Main.value( args, ++i ) );
+                    break;
+                case "--results":
+                    resultsPath = Paths.get( Main.value( args, ++i ) );
+                    break;
+                case "--update-baseline":
+                    updateBaseline = true;
+                    break;
+                case "--allocation-budget":
+                    allocationBudget = Main.longValue( args, ++i );
+                    break;
+                default:
+                    throw new IllegalArgumentException( "Unknown option " + args[i] );
+                }
+            }
+        }
+        catch ( IllegalArgumentException e )
+        {
+            System.err.println( e.getMessage() );
+            System.err.println( USAGE );
+            System.exit( 1 );
+        }
+
+        Properties results = new Properties();
+        for ( Scenario scenario : scenarios() )
+        {
+            run( scenario, ticks, results );
+        }
+        runInputLatency( ticks, results );
+        runStressWaves( Math.min( ticks, STRESS_FRAMES ), results );
+
+        store( results, resultsPath );
+        if ( allocationBudget >= 0 && overBudget( results, allocationBudget ) > 0 )
+            System.exit( 1 );
+        if ( updateBaseline )
+        {
+            store( results, baselinePath );
+            System.out.println( "Baseline updated: " + baselinePath.toAbsolutePath() );
+            return;
+        }
+
+        if ( !Files.exists( baselinePath ) )
+        {
+            System.out.println( "No baseline at " + baselinePath.toAbsolutePath() + ", nothing to compare." );
+            return;
+        }
+
+        Properties baseline = new Properties();
+        try ( Reader reader = Files.newBufferedReader( baselinePath ) )
+        {
+            baseline.load( reader );
+        }
+        if ( compare( baseline, results, tolerance ) > 0 )
+            System.exit( 1 );
+    }
+
+    /**
+     * Retrieves the value of an option that takes a double, as Main.longValue does for a long.
+     *
+     * @param args the command line arguments
+     * @param i the index of the value, just after the option
+     * @return the value
+     * @throws IllegalArgumentException if the option is the last argument or its value is not a number
+     */
+    private static double doubleValue( String[] args, int i )
+    {
+        String value = Main.value( args, i );
+        try
+        {
+            return Double.parseDouble( value );
+        }
+        catch ( NumberFormatException e )
+        {
+            throw new IllegalArgumentException( args[i - 1] + " expects a number, not " + value );
+        }
+    }
+
+    /**
+     * Plays one scenario for the warmup ticks and then for the measured ticks, adding its metrics to the results.
+     *
+     * @param scenario the scenario to play
+     * @param ticks the number of measured ticks
+     * @param results the properties receiving the metrics
+     */
+    static void run( Scenario scenario, long ticks, Properties results )
+    {
+        GamePanel panel = newGame();
+        scenario.setUp( panel );
+        Driver driver = new Driver( panel );
+
+        for ( long tick = 0; tick < WARMUP_TICKS; tick++ )
+        {
+            scenario.beforeTick( panel, tick );
+            driver.tick();
+        }
+
+        LatencyHistogram latency = new LatencyHistogram();
+        LatencyHistogram tickAllocation = new LatencyHistogram();
+        long allocatedBefore = FrameMetrics.threadAllocatedBytes();
+        long start = System.nanoTime();
+        for ( long tick = 0; tick < ticks; tick++ )
+        {
+            scenario.beforeTick( panel, tick );
+            GameSession session = panel.session;
+            int wave = session.difficultyMultiplier;
+            long tickAllocatedBefore = FrameMetrics.threadAllocatedBytes();
+            long tickStart = System.nanoTime();
+            driver.tick();
+            latency.record( System.nanoTime() - tickStart );
+            long tickAllocated = FrameMetrics.threadAllocatedBytes() - tickAllocatedBefore;
+            if ( panel.session == session && session.difficultyMultiplier == wave && !session.isGameOver )
+                tickAllocation.record( tickAllocated ); // Only steady-state ticks count towards the gate
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = FrameMetrics.threadAllocatedBytes() - allocatedBefore;
+
+        put( results, scenario.name + ".ticksPerSecond", ticks * 1e9 / elapsed );
+        put( results, scenario.name + ".allocatedBytesPerTick", (double)allocated / ticks );
+        put( results, scenario.name + ".tickP50Micros", latency.percentile( 50 ) / 1000.0 );
+        put( results, scenario.name + ".tickP99Micros", latency.percentile( 99 ) / 1000.0 );
+        results.setProperty( scenario.name + ".tickAllocationP99Bytes",
+                             Long.toString( tickAllocation.percentile( 99 ) ) );
+        System.out.printf( Locale.ROOT, "%-14s %10.0f ticks/s %10.1f B/tick  p50 %7.2f us  p99 %7.2f us  waves %d%n",
+                           scenario.name, ticks * 1e9 / elapsed, (double)allocated / ticks,
+                           latency.percentile( 50 ) / 1000.0, latency.percentile( 99 ) / 1000.0,
+                           panel.session.difficultyMultiplier + 1 );
+    }
+
+    /**
+     * Plays frames through the panel's key listener, timer action and paint, pressing and releasing a direction every
+     * few frames and tapping fire, and adds the input latency percentiles to the results.
+     *
+     * @param frames the number of measured frames
+     * @param results the properties receiving the metrics
+     */
+    static void runInputLatency( long frames, Properties results )
+    {
+        GamePanel panel = newGame();
+        KeyListener keys = panel.getKeyListeners()[0];
+        BufferedImage image =
+            new BufferedImage( GamePanel.SCREEN_WIDTH, GamePanel.SCREEN_HEIGHT, BufferedImage.TYPE_INT_RGB );
+        Graphics2D g = image.createGraphics();
+
+        for ( long frame = -WARMUP_TICKS; frame < frames; frame++ )
+        {
+            if ( frame == 0 )
+                FrameMetrics.reset();
+            int direction = ( frame / 8 ) % 2 == 0 ? KeyEvent.VK_LEFT : KeyEvent.VK_RIGHT;
+            if ( frame % 8 == 0 )
+                keys.keyPressed( keyEvent( panel, KeyEvent.KEY_PRESSED, direction ) );
+            else if ( frame % 8 == 4 )
+                keys.keyReleased( keyEvent( panel, KeyEvent.KEY_RELEASED, direction ) );
+            if ( frame % 16 == 0 )
+                keys.keyPressed( keyEvent( panel, KeyEvent.KEY_PRESSED, KeyEvent.VK_SPACE ) );
+            else if ( frame % 16 == 2 )
+                keys.keyReleased( keyEvent( panel, KeyEvent.KEY_RELEASED, KeyEvent.VK_SPACE ) );
+
+            if ( panel.session.isGameOver )
+                GameState.restartGame( panel );
+            panel.actionPerformed( null );
+            panel.paintComponent( g );
+        }
+        g.dispose();
+
+        LatencyHistogram keyToTick = FrameMetrics.keyToTick();
+        LatencyHistogram keyToFrame = FrameMetrics.keyToFrame();
+        put( results, "inputLatency.keyToTickP50Micros", keyToTick.percentile( 50 ) / 1000.0 );
+        put( results, "inputLatency.keyToTickP99Micros", keyToTick.percentile( 99 ) / 1000.0 );
+        put( results, "inputLatency.keyToFrameP50Micros", keyToFrame.percentile( 50 ) / 1000.0 );
+        put( results, "inputLatency.keyToFrameP99Micros", keyToFrame.percentile( 99 ) / 1000.0 );
+        System.out.printf( Locale.ROOT, "%-14s key to tick p50 %7.2f us  p99 %7.2f us  key to frame p50 %7.2f us  "
+                                            + "p99 %7.2f us  (%d presses shown)%n",
+                           "inputLatency", keyToTick.percentile( 50 ) / 1000.0, keyToTick.percentile( 99 ) / 1000.0,
+                           keyToFrame.percentile( 50 ) / 1000.0, keyToFrame.percentile( 99 ) / 1000.0,
+                           keyToFrame.count() );
+    }
+
+    /**
+     * Plays every stress wave for a number of frames, each a tick and a paint into an offscreen image, and adds the
+     * tick, paint and frame percentiles of each wave to the results. Prints the largest wave whose frames fit in one
+     * tick period at the 99th percentile.
+     *
+     * @param frames the number of measured frames of each wave
+     * @param results the properties receiving the metrics
+     */
+    static void runStressWaves( long frames, Properties results )
+    {
+        if ( Helpers.getRedAlien() == null )
+            System.out.println( "Sprites not loaded, the paint times of the stress waves leave out the aliens." );
+        BufferedImage image =
+            new BufferedImage( GamePanel.SCREEN_WIDTH, GamePanel.SCREEN_HEIGHT, BufferedImage.TYPE_INT_RGB );
+        Graphics2D g = image.createGraphics();
+        long budgetNanos = GameState.DELAY * 1_000_000L;
+        String largestWithinBudget = null;
+
+        for ( Waves.Wave wave : Waves.stress() )
+        {
+            GamePanel panel = newGame();
+            panel.session.playWaves( List.of( wave ) ); // Kept by the sessions of restarted games
+            int bottom = wave.homeY( wave.slots() - 1 ) + GamePanel.UNIT_SIZE;
+            Scenario bot = new Scenario( wave.name ) {};
+            LatencyHistogram tickLatency = new LatencyHistogram();
+            LatencyHistogram paintLatency = new LatencyHistogram();
+            LatencyHistogram frameLatency = new LatencyHistogram();
+            for ( long frame = -frames / 4; frame < frames; frame++ )
+            {
+                if ( panel.session.isGameOver || bottom + panel.session.formationY > GameState.SHELTER_Y )
+                    GameState.restartGame( panel );
+                bot.beforeTick( panel, frame );
+                long tickStart = System.nanoTime();
+                panel.tick();
+                long paintStart = System.nanoTime();
+                panel.paintComponent( g );
+                long frameEnd = System.nanoTime();
+                if ( frame < 0 )
+                    continue; // Warming up
+                tickLatency.record( paintStart - tickStart );
+                paintLatency.record( frameEnd - paintStart );
+                frameLatency.record( frameEnd - tickStart );
+            }
+
+            boolean withinBudget = frameLatency.percentile( 99 ) <= budgetNanos;
+            if ( withinBudget )
+                largestWithinBudget = wave.name;
+            put( results, wave.name + ".tickP99Micros", tickLatency.percentile( 99 ) / 1000.0 );
+            put( results, wave.name + ".paintP99Micros", paintLatency.percentile( 99 ) / 1000.0 );
+            put( results, wave.name + ".frameP99Micros", frameLatency.percentile( 99 ) / 1000.0 );
+            System.out.printf( Locale.ROOT, "%-14s %4d aliens  tick p99 %8.2f us  paint p99 %8.2f us  "
+                                                + "frame p99 %8.2f us  max %8.2f us  %s %d ms%n",
+                               wave.name, wave.slots(), tickLatency.percentile( 99 ) / 1000.0,
+                               paintLatency.percentile( 99 ) / 1000.0, frameLatency.percentile( 99 ) / 1000.0,
+                               frameLatency.max() / 1000.0, withinBudget ? "within" : "MISSES", GameState.DELAY );
+        }
+        g.dispose();
+        System.out.println( largestWithinBudget == null
+                                ? "No stress wave keeps its frames within " + GameState.DELAY + " ms."
+                                : "Largest stress wave within " + GameState.DELAY + " ms: " + largestWithinBudget );
+    }
+
+    /**
+     * Creates a key event as the panel would receive it from the keyboard.
+     *
+     * @param panel the panel receiving the event
+     * @param id KeyEvent.KEY_PRESSED or KEY_RELEASED
+     * @param keyCode the key code
+     * @return the event
+     */
+    private static KeyEvent keyEvent( GamePanel panel, int id, int keyCode )
+    {
+        return new KeyEvent( panel, id, System.currentTimeMillis(), 0, keyCode, KeyEvent.CHAR_UNDEFINED );
+    }
+
+    /**
+     * Creates a headless panel with a fixed seed, so that every run plays the same games.
+     *
+     * @return the new panel
+     */
+    private static GamePanel newGame() { return GameState.newHeadlessGame( SEED ); }
+
+    /**
+     * Ticks a headless panel and restarts the game after a game over, as the replay button does in an interactive
+     * game.
+     */
+    static final class Driver
+    {
+        private final GamePanel panel;
+
+        /**
+         * Constructs a driver for the panel.
+         *
+         * @param panel the headless panel to drive
+         */
+        Driver( GamePanel panel ) { this.panel = panel; }
+
+        /**
+         * Runs one tick of simulated time.
+         */
+        void tick()
+        {
+            if ( panel.session.isGameOver )
+                GameState.restartGame( panel );
+            panel.tick();
+        }
+    }
+
+    /**
+     * Compares results with the baseline and prints every regression. Throughput may not drop and the other metrics
+     * may not grow by more than the tolerance; a small absolute slack keeps metrics that are close to zero from
+     * failing on noise.
+     *
+     * @param baseline the baseline metrics
+     * @param results the measured metrics
+     * @param tolerance the allowed relative regression, for example 0.25 for 25%
+     * @return the number of regressions
+     */
+    static int compare( Properties baseline, Properties results, double tolerance )
+    {
+        int regressions = 0;
+        for ( String key : new TreeSet<>( baseline.stringPropertyNames() ) )
+        {
+            String measured = results.getProperty( key );
+            if ( measured == null )
+                continue;
+
+            double expected = Double.parseDouble( baseline.getProperty( key ) );
+            double actual = Double.parseDouble( measured );
+            boolean regressed;
+            if ( key.endsWith( ".ticksPerSecond" ) )
+                regressed = actual < expected * ( 1 - tolerance );
+            else
+                regressed = actual > expected * ( 1 + tolerance ) + slack( key );
+
+            if ( regressed )
+            {
+                regressions++;
+                System.out.printf( Locale.ROOT, "REGRESSION %s: %.2f, baseline %.2f%n", key, actual, expected );
+            }
+        }
+        System.out.println( regressions == 0 ? "No regressions against the baseline."
+                                             : regressions + " regression(s) against the baseline." );
+        return regressions;
+    }
+
+    /**
+     * Checks the per-tick allocation of every scenario against the budget and prints every scenario over it.
+     *
+     * @param results the measured metrics
+     * @param budget the maximum bytes a steady-state tick may allocate at the 99th percentile
+     * @return the number of scenarios over the budget
+     */
+    static int overBudget( Properties results, long budget )
+    {
+        int failures = 0;
+        for ( String key : new TreeSet<>( results.stringPropertyNames() ) )
+        {
+            if ( !key.endsWith( ".tickAllocationP99Bytes" ) )
+                continue;
+
+            long bytes = Long.parseLong( results.getProperty( key ) );
+            if ( bytes > budget )
+            {
+                failures++;
+                System.out.printf( Locale.ROOT, "OVER BUDGET %s: %d bytes per tick, budget %d%n", key, bytes, budget );
+            }
+        }
+        System.out.println( failures == 0 ? "Every scenario is within the allocation budget of " + budget + " bytes."
+                                          : failures + " scenario(s) over the allocation budget." );
+        return failures;
+    }
+
+    /**
+     * The absolute slack allowed for a metric on top of the relative tolerance.
+     *
+     * @param key the metric name
+     * @return 64 bytes for allocation metrics, 1 microsecond for latencies
+     */
+    private static double slack( String key ) { return key.contains( "Bytes" ) ? 64 : 1; }
+
+    /**
+     * Stores a metric with two decimals.
+     *
+     * @param results the properties receiving the metric
+     * @param key the metric name
+     * @param value the metric value
+     */
+    private static void put( Properties results, String key, double value )
+    {
+        results.setProperty( key, String.format( Locale.ROOT, "%.2f", value ) );
+    }
+
+    /**
+     * Writes metrics to a properties file, creating its directory if needed.
+     *
+     * @param results the metrics
+     * @param path the file to write
+     * @throws IOException if the file cannot be written
+     */
+    private static void store( Properties results, Path path ) throws IOException
+    {
+        Path parent = path.toAbsolutePath().getParent();
+        Files.createDirectories( parent );
+        try ( Writer writer = Files.newBufferedWriter( path ) )
+        {
+            results.store( writer, "Scenario results: ticks/s, bytes allocated per tick, latencies in us" );
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package edu.aav66;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Microbenchmarks for the simulation and rendering methods that run on every game tick. Each benchmark works on a
+ * headless GamePanel whose formation and bullets are rebuilt from the parameters: the formation has the given number
+ * of rows of 11 aliens, and the given number of ship and alien bullets is placed where they never hit anything, so
+ * every collision pass performs the full scan without changing the state between invocations.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( value = 1, jvmArgsAppend = { "-Djava.awt.headless=true", "-Daudio.mute=true" } )
+public class SimulationBenchmark
+{
+    private static final int COLUMNS = 11;
+
+    @Param( { "5", "10", "20" } ) public int rows;
+
+    @Param( { "2", "32", "256" } ) public int bullets;
+
+    private GamePanel panel;
+    private int[] startX;
+    private int[] startY;
+    private int[] startShipBulletY;
+    private int[] startAlienBulletY;
+    private BufferedImage frame;
+    private Graphics2D graphics;
+
+    /**
+     * Creates the headless panel and places the formation and bullets.
+     */
+    @Setup( Level.Trial ) public void setUp()
+    {
+        panel = new GamePanel( false );
+        panel.session.ufoActive = false;
+
+        panel.session.xOfAliens.clear();
+        panel.session.yOfAliens.clear();
+        panel.session.slotOfAliens.clear();
+        // Formation of rows x 11 aliens, rows are packed closer together so that tall formations stay above y = 420
+        double spacing = GamePanel.UNIT_SIZE / 1.5;
+        int rowHeight = (int)Math.min( GamePanel.UNIT_SIZE + spacing, 300.0 / rows );
+        for ( int row = 0; row < rows; row++ )
+        {
+            for ( int col = 0; col < COLUMNS; col++ )
+            {
+                panel.session.xOfAliens.add( (int)( 60 + col * ( GamePanel.UNIT_SIZE + spacing ) ) );
+                panel.session.yOfAliens.add( 96 + row * rowHeight );
+                panel.session.slotOfAliens.add( row * COLUMNS + col );
+            }
+        }
+        startX = new int[panel.session.xOfAliens.size()];
+        startY = new int[startX.length];
+        for ( int i = 0; i < startX.length; i++ )
+        {
+            startX[i] = panel.session.xOfAliens.get( i );
+            startY[i] = panel.session.yOfAliens.get( i );
+        }
+
+        // Ship bullets above the formation, alien bullets between the formation and the shelters
+        panel.session.shipBullet.clear();
+        panel.session.alienBullet.clear();
+        for ( int i = 0; i < bullets; i++ )
+        {
+            panel.session.xOfShipBullet[i] = 40 + ( i * 37 ) % ( GamePanel.SCREEN_WIDTH - 80 );
+            panel.session.yOfShipBullet[i] = 40 + ( i % 4 ) * 5;
+            panel.session.shipBullet.add( i );
+
+            panel.session.xOfAlienBullet[i] = 40 + ( i * 53 ) % ( GamePanel.SCREEN_WIDTH - 80 );
+            panel.session.yOfAlienBullet[i] = 420 + ( i % 8 ) * 5;
+            panel.session.alienBullet.add( i );
+        }
+        startShipBulletY = panel.session.yOfShipBullet.clone();
+        startAlienBulletY = panel.session.yOfAlienBullet.clone();
+
+        frame = new BufferedImage( GamePanel.SCREEN_WIDTH, GamePanel.SCREEN_HEIGHT, BufferedImage.TYPE_INT_RGB );
+        graphics = frame.createGraphics();
+    }
+
+    /**
+     * Moves the formation back to its starting position so that it never drifts off the screen.
+     */
+    @Setup( Level.Iteration ) public void resetFormation()
+    {
+        for ( int i = 0; i < startX.length; i++ )
+        {
+            panel.session.xOfAliens.set( i, startX[i] );
+            panel.session.yOfAliens.set( i, startY[i] );
+        }
+        panel.session.aliensDirection = 'R';
+    }
+
+    /**
+     * Releases the offscreen graphics.
+     */
+    @TearDown( Level.Trial ) public void tearDown() { graphics.dispose(); }
+
+    /**
+     * One step of the alien formation.
+     */
+    @Benchmark public void moveAliens() { panel.moveAliens(); }
+
+    /**
+     * Chooses a shooter among the lowest aliens and spawns its bullet, which is removed again afterwards.
+     */
+    @Benchmark public void createAlienBullet()
+    {
+        panel.createAlienBullet();
+        panel.session.alienBullet.removeLast();
+    }
+
+    /**
+     * Moves every bullet one step. The vertical positions are restored first so that no bullet leaves the screen.
+     */
+    @Benchmark public void moveBullets()
+    {
+        System.arraycopy( startShipBulletY, 0, panel.session.yOfShipBullet, 0, bullets );
+        System.arraycopy( startAlienBulletY, 0, panel.session.yOfAlienBullet, 0, bullets );
+        panel.moveBullets();
+    }
+
+    /**
+     * One full collision pass without hits.
+     */
+    @Benchmark public void checkCollisions() { panel.checkCollisions(); }
+
+    /**
+     * Draws the game elements into an offscreen image.
+     */
+    @Benchmark public void draw() { panel.draw( graphics ); }
+}
@@ -0,0 +1,76 @@
+package edu.aav66;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Microbenchmarks for saving and restoring a Snapshot of a game in progress. The game is played headlessly for a few
+ * seconds first, so the snapshot holds a partly destroyed formation, bullets, explosions and damaged shelters.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( value = 1, jvmArgsAppend = { "-Djava.awt.headless=true", "-Daudio.mute=true" } )
+public class SnapshotBenchmark
+{
+    private static final long SEED = 42;
+    private static final int WARMUP_TICKS = 1500;
+
+    private GamePanel panel;
+    private final ByteBuffer saveBuffer = ByteBuffer.allocate( Snapshot.MAX_SIZE );
+    private final ByteBuffer restoreBuffer = ByteBuffer.allocate( Snapshot.MAX_SIZE );
+
+    /**
+     * Plays the game into the middle of a wave and saves the snapshot that restore reads.
+     */
+    @Setup( Level.Trial ) public void setUp()
+    {
+        panel = GameState.newHeadlessGame( SEED );
+        for ( int i = 0; i < WARMUP_TICKS && !panel.session.isGameOver; i++ )
+        {
+            panel.session.shipShooting = true;
+            panel.session.shipMoving = ( i / 90 ) % 3 != 0;
+            panel.session.shipDirection = ( i / 270 ) % 2 == 0 ? 'L' : 'R';
+            panel.tick();
+        }
+        Snapshot.save( panel.session, restoreBuffer );
+        restoreBuffer.flip();
+    }
+
+    /**
+     * Writes the whole game into a reused buffer.
+     *
+     * @return the size of the snapshot, so that the work is not eliminated
+     */
+    @Benchmark public int save()
+    {
+        saveBuffer.clear();
+        Snapshot.save( panel.session, saveBuffer );
+        return saveBuffer.position();
+    }
+
+    /**
+     * Replaces the whole game with the snapshot taken at setup.
+     *
+     * @return the restored score, so that the work is not eliminated
+     */
+    @Benchmark public int restore()
+    {
+        restoreBuffer.rewind();
+        Snapshot.restore( panel.session, restoreBuffer );
+        return panel.session.score;
+    }
+}
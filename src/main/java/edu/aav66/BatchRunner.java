@@ -0,0 +1,302 @@
+package edu.aav66;
+
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Plays many independent headless games with a bot player, spread over a fork-join pool, and prints the distributions
+ * of survival time, score and wave reached. Game i is played from the seed base + i, and every game runs on its own
+ * GamePanel and GameSession, so the games share nothing but read-only constants: the batch scales with the cores and
+ * its results do not depend on the number of threads. It is meant for tuning the difficulty curve, which needs far more
+ * games than can be played by hand.
+ */
+final class BatchRunner
+{
+    static final long DEFAULT_MAX_TICKS = 60 * 60 * 1000 / GameState.DELAY; // One hour of play
+    static final int MAX_WAVE = 32; // Waves from here on are counted together
+
+    private static final int GAMES_PER_TASK = 16;
+
+    /**
+     * A bot that sets the ship's input before every tick, from what it can see of the game.
+     */
+    interface Player
+    {
+        /**
+         * Sets the input of the ship for the tick about to run.
+         *
+         * @param session the game being played
+         */
+        void beforeTick( GameSession session );
+    }
+
+    /**
+     * Sweeps the ship from one edge of the screen to the other while firing continuously, as the scenario bot does.
+     */
+    static final Player SWEEP = session -> {
+        session.shipMoving = true;
+        session.shipShooting = true;
+        if ( session.xOfShip[0] <= 0 )
+            session.shipDirection = 'R';
+        else if ( session.xOfShip[0] >= GamePanel.SCREEN_WIDTH - GamePanel.UNIT_SIZE )
+            session.shipDirection = 'L';
+        else if ( session.shipDirection == ' ' )
+            session.shipDirection = 'R';
+    };
+
+    /**
+     * Moves the ship under the lowest alien, the closest one if several are equally low, and fires continuously.
+     */
+    static final Player TRACK = session -> {
+        int target = -1;
+        for ( int i = 0; i < session.xOfAliens.size(); i++ )
+        {
+            if ( target < 0 || session.yOfAliens.get( i ) > session.yOfAliens.get( target ) ||
+                 ( session.yOfAliens.get( i ) == session.yOfAliens.get( target ) &&
+                   Math.abs( session.xOfAliens.get( i ) - session.xOfShip[0] ) <
+                       Math.abs( session.xOfAliens.get( target ) - session.xOfShip[0] ) ) )
+                target = i;
+        }
+        session.shipShooting = true;
+        int distance = target < 0 ? 0 : session.xOfAliens.get( target ) - session.xOfShip[0];
+        session.shipMoving = Math.abs( distance ) > GamePanel.UNIT_SIZE / 8;
+        session.shipDirection = distance < 0 ? 'L' : 'R';
+    };
+
+    /**
+     * The distributions gathered from a set of games. Each task fills its own results, which are added together as
+     * the tasks are joined.
+     */
+    static final class Results
+    {
+        final LatencyHistogram survivalTicks = new LatencyHistogram();
+        final LatencyHistogram scores = new LatencyHistogram();
+        final long[] waves = new long[MAX_WAVE + 1]; // Games by wave reached, index 0 unused
+        long games = 0;
+        long ticks = 0;
+        long scoreSum = 0;
+        long timedOut = 0; // Games stopped at the tick limit
+
+        /**
+         * Records a finished game.
+         *
+         * @param ticks the number of ticks the game lasted
+         * @param score the final score
+         * @param wave the wave reached, starting at 1
+         * @param over true if the game ended with a game over, false if it was stopped at the tick limit
+         */
+        void record( long ticks, int score, int wave, boolean over )
+        {
+            survivalTicks.record( ticks );
+            scores.record( score );
+            waves[Math.min( wave, MAX_WAVE )]++;
+            games++;
+            this.ticks += ticks;
+            scoreSum += score;
+            if ( !over )
+                timedOut++;
+        }
+
+        /**
+         * Adds the results of other games to these.
+         *
+         * @param other the results to add
+         */
+        void add( Results other )
+        {
+            survivalTicks.add( other.survivalTicks );
+            scores.add( other.scores );
+            for ( int i = 0; i < waves.length; i++ )
+            {
+                waves[i] += other.waves[i];
+            }
+            games += other.games;
+            ticks += other.ticks;
+            scoreSum += other.scoreSum;
+            timedOut += other.timedOut;
+        }
+    }
+
+    /**
+     * Plays a range of games, splitting it in halves until each task has at most GAMES_PER_TASK games.
+     */
+    @SuppressWarnings( "serial" ) // ForkJoinTask is serializable, the batches never leave the pool
+    private static final class Batch extends RecursiveTask<Results>
+    {
+        private final long seed;
+        private final long from;
+        private final long to;
+        private final Player player;
+        private final long maxTicks;
+
+        /**
+         * Constructs a task playing the games from one index up to another.
+         *
+         * @param seed the seed of game 0
+         * @param from the index of the first game
+         * @param to the index after the last game
+         * @param player the bot playing the games
+         * @param maxTicks the tick limit of each game
+         */
+        Batch( long seed, long from, long to, Player player, long maxTicks )
+        {
+            this.seed = seed;
+            this.from = from;
+            this.to = to;
+            this.player = player;
+            this.maxTicks = maxTicks;
+        }
+
+        @Override protected Results compute()
+        {
+            if ( to - from <= GAMES_PER_TASK )
+            {
+                Results results = new Results();
+                for ( long game = from; game < to; game++ )
+                {
+                    play( seed + game, player, maxTicks, results );
+                }
+                return results;
+            }
+
+            long middle = ( from + to ) >>> 1;
+            Batch second = new Batch( seed, middle, to, player, maxTicks );
+            second.fork();
+            Results results = new Batch( seed, from, middle, player, maxTicks ).compute();
+            results.add( second.join() );
+            return results;
+        }
+    }
+
+    private BatchRunner() {}
+
+    /**
+     * Looks up a player by name.
+     *
+     * @param name "sweep" or "track"
+     * @return the player, or null if there is no player with that name
+     */
+    static Player player( String name )
+    {
+        switch ( name )
+        {
+        case "sweep":
+            return SWEEP;
+        case "track":
+            return TRACK;
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * Plays one game from its seed until it is over or reaches the tick limit.
+     *
+     * @param seed the seed of the game
+     * @param player the bot playing the game
+     * @param maxTicks the tick limit
+     * @param results the results receiving the game
+     */
+    static void play( long seed, Player player, long maxTicks, Results results )
+    {
+        GamePanel panel = GameState.newHeadlessGame( seed );
+        GameSession session = panel.session;
+        long ticks = 0;
+        int wave = 1;
+        while ( !session.isGameOver && ticks < maxTicks )
+        {
+            player.beforeTick( session );
+            panel.tick();
+            ticks++;
+            if ( !session.isGameOver )
+                wave = session.difficultyMultiplier + 1; // Game over resets the difficulty
+        }
+        results.record( ticks, session.score, wave, session.isGameOver );
+    }
+
+    /**
+     * Plays a batch of games in parallel.
+     *
+     * @param games the number of games
+     * @param seed the seed of the first game, the following games use the next seeds
+     * @param player the bot playing the games
+     * @param maxTicks the tick limit of each game
+     * @param threads the parallelism of the pool
+     * @return the results of all the games
+     */
+    static Results play( long games, long seed, Player player, long maxTicks, int threads )
+    {
+        ForkJoinPool pool = new ForkJoinPool( threads );
+        try
+        {
+            return pool.invoke( new Batch( seed, 0, games, player, maxTicks ) );
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Plays a batch of games in parallel and prints the distributions of their results.
+     *
+     * @param games the number of games
+     * @param seed the seed of the first game
+     * @param playerName the name of the bot playing the games
+     * @param maxTicks the tick limit of each game
+     * @param threads the parallelism of the pool
+     * @return 0 if the batch ran, 1 if the arguments are invalid
+     */
+    static int run( long games, long seed, String playerName, long maxTicks, int threads )
+    {
+        Player player = player( playerName );
+        if ( player == null )
+        {
+            System.err.println( "Unknown player " + playerName + ", expected sweep or track." );
+            return 1;
+        }
+        if ( games <= 0 || maxTicks <= 0 || threads <= 0 )
+        {
+            System.err.println( "The number of games, the tick limit and the number of threads must be positive." );
+            return 1;
+        }
+
+        long start = System.nanoTime();
+        Results results = play( games, seed, player, maxTicks, threads );
+        double seconds = ( System.nanoTime() - start ) / 1e9;
+
+        System.out.printf( Locale.ROOT, "Played %d games with the %s player from seed %d on %d threads in %.2f s%n",
+                           results.games, playerName, seed, threads, seconds );
+        System.out.printf( Locale.ROOT, "%.0f games/s, %.0f ticks/s%n", results.games / seconds,
+                           results.ticks / seconds );
+        System.out.printf( Locale.ROOT, "Survival (s)  mean %8.1f  p10 %8.1f  p50 %8.1f  p90 %8.1f  max %8.1f%n",
+                           toSeconds( (double)results.ticks / results.games ),
+                           toSeconds( results.survivalTicks.percentile( 10 ) ),
+                           toSeconds( results.survivalTicks.percentile( 50 ) ),
+                           toSeconds( results.survivalTicks.percentile( 90 ) ),
+                           toSeconds( results.survivalTicks.max() ) );
+        System.out.printf( Locale.ROOT, "Score         mean %8.0f  p10 %8d  p50 %8d  p90 %8d  max %8d%n",
+                           (double)results.scoreSum / results.games, results.scores.percentile( 10 ),
+                           results.scores.percentile( 50 ), results.scores.percentile( 90 ), results.scores.max() );
+        System.out.println( "Wave reached:" );
+        for ( int wave = 1; wave <= MAX_WAVE; wave++ )
+        {
+            if ( results.waves[wave] > 0 )
+                System.out.printf( Locale.ROOT, "  %2d%s %10d  %5.1f%%%n", wave, wave == MAX_WAVE ? "+" : " ",
+                                   results.waves[wave], 100.0 * results.waves[wave] / results.games );
+        }
+        if ( results.timedOut > 0 )
+            System.out.println( results.timedOut + " games were still running after " + maxTicks +
+                                " ticks and were stopped." );
+        return 0;
+    }
+
+    /**
+     * Converts a number of ticks to seconds of play.
+     *
+     * @param ticks the number of ticks
+     * @return the seconds of play
+     */
+    private static double toSeconds( double ticks ) { return ticks * GameState.DELAY / 1000.0; }
+}
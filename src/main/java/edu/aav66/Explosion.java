@@ -3,22 +3,17 @@ package edu.aav66;
 import java.awt.Point;
 
 /**
- * Represents an explosion at a specific location with a timer.
+ * Represents an explosion at a specific location, removed when its timer on the game's TimerWheel expires.
  */
 class Explosion
 {
     Point location;
-    int timer;
+    int expiry = TimerWheel.NONE;
 
     /**
-     * Constructs an Explosion object with the given location and timer.
+     * Constructs an Explosion object at the given location. Its expiry is scheduled by the session adding it.
      *
      * @param location the location of the explosion as a Point object
-     * @param timer the timer for the explosion in seconds
      */
-    Explosion( Point location, int timer )
-    {
-        this.location = location;
-        this.timer = timer;
-    }
+    Explosion( Point location ) { this.location = location; }
 }
@@ -0,0 +1,93 @@
+package edu.aav66;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Custom Java Flight Recorder events emitted by the game. They let a recording line up game ticks, collision passes,
+ * paints, wave transitions and high score writes with GC pauses, safepoints and thread stalls. When no recording is
+ * running the events are disabled and cost almost nothing; the tick and collision pass events are not even created.
+ */
+final class FlightEvents
+{
+    private FlightEvents() {}
+
+    /**
+     * Tells whether the flight recorder has been started in this JVM, by --jfr or from outside such as with jcmd. The
+     * game loop only creates its per-tick events when it has, since even a disabled event is an allocation.
+     *
+     * @return true once the flight recorder is initialized
+     */
+    static boolean recorderRunning() { return FlightRecorder.isInitialized(); }
+
+    /**
+     * One simulation tick of the game loop.
+     */
+    @Name( "edu.aav66.Tick" )
+    @Label( "Game Tick" )
+    @Category( { "Space Invaders", "Simulation" } )
+    @Description( "One tick of the game loop" )
+    static final class Tick extends Event
+    {
+        @Label( "Aliens" ) int aliens;
+        @Label( "Ship Bullets" ) int shipBullets;
+        @Label( "Alien Bullets" ) int alienBullets;
+        @Label( "Explosions" ) int explosions;
+    }
+
+    /**
+     * One full collision pass over bullets, aliens, the UFO, the ship and the shelters.
+     */
+    @Name( "edu.aav66.CollisionPass" )
+    @Label( "Collision Pass" )
+    @Category( { "Space Invaders", "Simulation" } )
+    @Description( "One pass of checkCollisions" )
+    static final class CollisionPass extends Event
+    {
+        @Label( "Candidate Pairs" ) @Description( "Number of bounding box tests performed" ) int candidatePairs;
+        @Label( "Hits" ) @Description( "Number of tests that found a collision" ) int hits;
+    }
+
+    /**
+     * One call of the panel's paintComponent.
+     */
+    @Name( "edu.aav66.Paint" )
+    @Label( "Paint" )
+    @Category( { "Space Invaders", "Rendering" } )
+    @Description( "One call of paintComponent" )
+    static final class Paint extends Event
+    {
+        @Label( "Overlay Visible" ) boolean overlayVisible;
+    }
+
+    /**
+     * A cleared wave and the start of the next one.
+     */
+    @Name( "edu.aav66.WaveTransition" )
+    @Label( "Wave Transition" )
+    @Category( { "Space Invaders", "Simulation" } )
+    @Description( "Reset of the game state after all aliens of a wave are destroyed" )
+    static final class WaveTransition extends Event
+    {
+        @Label( "Wave" ) @Description( "The wave that starts, beginning at 1" ) int wave;
+        @Label( "Score" ) int score;
+        @Label( "Alien Movement Delay" ) @Description( "Delay of the alien timer in milliseconds" ) int alienDelay;
+    }
+
+    /**
+     * One write of the high score file.
+     */
+    @Name( "edu.aav66.HighScoreWrite" )
+    @Label( "High Score Write" )
+    @Category( { "Space Invaders", "Persistence" } )
+    @Description( "Write, fsync and rename of the high score file" )
+    static final class HighScoreWrite extends Event
+    {
+        @Label( "Score" ) int score;
+        @Label( "Success" ) boolean success;
+    }
+}
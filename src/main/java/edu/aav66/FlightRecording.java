@@ -0,0 +1,102 @@
+package edu.aav66;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.time.Duration;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicBoolean;
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+
+/**
+ * Continuous flight recording started with the --jfr launcher flag. The recording keeps only the last minute of
+ * events in a ring buffer; whenever a frame takes far longer than its period, the buffer is dumped to a
+ * spike-*.jfr file in the working directory so the stutter can be inspected together with what led up to it.
+ * Dumps run on a background thread and are rate limited so a burst of slow frames produces a single file.
+ */
+final class FlightRecording
+{
+    static final long SPIKE_THRESHOLD_NANOS = 50_000_000L; // A frame over 50 ms counts as a spike
+    private static final long DUMP_COOLDOWN_NANOS = 30_000_000_000L;
+    private static final Duration MAX_AGE = Duration.ofSeconds( 60 );
+    private static final long MAX_SIZE = 64L * 1024 * 1024;
+
+    private static volatile Recording recording;
+    private static final AtomicBoolean dumping = new AtomicBoolean();
+    private static volatile long lastDump = System.nanoTime() - DUMP_COOLDOWN_NANOS;
+
+    private FlightRecording() {}
+
+    /**
+     * Starts the continuous recording with the JDK's default settings and the game's custom events enabled.
+     */
+    static void start()
+    {
+        try
+        {
+            Recording ring = new Recording( Configuration.getConfiguration( "default" ) );
+            ring.setName( "Space Invaders" );
+            ring.setToDisk( true );
+            ring.setMaxAge( MAX_AGE );
+            ring.setMaxSize( MAX_SIZE );
+            ring.enable( FlightEvents.Tick.class );
+            ring.enable( FlightEvents.CollisionPass.class );
+            ring.enable( FlightEvents.Paint.class );
+            ring.enable( FlightEvents.WaveTransition.class );
+            ring.enable( FlightEvents.HighScoreWrite.class );
+            ring.start();
+            recording = ring;
+        }
+        catch ( Exception e )
+        {
+            System.err.println( "Problem starting flight recording." );
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Reports a frame interval. If it is a spike and no dump happened recently, the ring buffer is dumped in the
+     * background.
+     *
+     * @param intervalNanos the time since the previous frame in nanoseconds
+     */
+    static void frameCompleted( long intervalNanos )
+    {
+        Recording ring = recording;
+        if ( ring == null || intervalNanos < SPIKE_THRESHOLD_NANOS )
+            return;
+        if ( System.nanoTime() - lastDump < DUMP_COOLDOWN_NANOS || !dumping.compareAndSet( false, true ) )
+            return;
+
+        lastDump = System.nanoTime();
+        Thread.ofVirtual().name( "jfr-dump" ).start( () -> dump( ring, intervalNanos ) );
+    }
+
+    /**
+     * Writes the contents of the ring buffer to a timestamped file.
+     *
+     * @param ring the running recording
+     * @param intervalNanos the frame interval that triggered the dump
+     */
+    private static void dump( Recording ring, long intervalNanos )
+    {
+        Path file = Paths.get( "spike-" + new SimpleDateFormat( "yyyyMMdd-HHmmss" ).format( new Date() ) + ".jfr" );
+        try
+        {
+            ring.dump( file );
+            System.err.printf( "Frame took %.1f ms, flight recording dumped to %s%n", intervalNanos / 1_000_000.0,
+                               file.toAbsolutePath() );
+        }
+        catch ( IOException e )
+        {
+            System.err.println( "Problem dumping flight recording to " + file );
+            e.printStackTrace();
+        }
+        finally
+        {
+            dumping.set( false );
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package edu.aav66;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Registry of frame timing metrics and the debug overlay that displays them. Each stage of a game tick and the paint
+ * pass record their duration into a lock-free histogram; the interval between frame starts is tracked separately to
+ * measure frame pacing, jitter and dropped frames. The bytes allocated by the game loop thread during each tick are
+ * counted as well, using the per-thread allocation counter of the HotSpot ThreadMXBean. Input latency is tracked from
+ * the arrival of a key press to the end of the tick that consumed it, and to the end of the first paint that shows its
+ * effect, a moved ship or a new bullet. The overlay is toggled with F3 and shows the statistics gathered since it was
+ * last opened.
+ */
+class FrameMetrics
+{
+    // Stages
+    static final int INPUT = 0;
+    static final int MOVEMENT = 1;
+    static final int COLLISIONS = 2;
+    static final int TIMERS = 3;
+    static final int PAINT = 4;
+    static final int TICK = 5;
+
+    private static final String[] STAGE_NAMES = { "input", "movement", "collisions", "timers", "paint", "tick" };
+
+    private static final Font OVERLAY_FONT = new Font( Font.MONOSPACED, Font.PLAIN, 12 );
+    private static final Color OVERLAY_BACKGROUND = new Color( 0, 0, 0, 180 );
+    private static final Color OVERLAY_TEXT = new Color( 0, 255, 128 );
+
+    private static final LatencyHistogram[] stages = new LatencyHistogram[STAGE_NAMES.length];
+    private static final LatencyHistogram frameInterval = new LatencyHistogram();
+    private static final LatencyHistogram tickAllocation = new LatencyHistogram(); // Bytes, not nanoseconds
+    private static final LatencyHistogram keyToTick = new LatencyHistogram();
+    private static final LatencyHistogram keyToFrame = new LatencyHistogram();
+    private static final com.sun.management.ThreadMXBean THREADS = allocationCounter();
+    private static final AtomicLong droppedFrames = new AtomicLong();
+    private static final AtomicLong jitterSum = new AtomicLong();
+    private static long lastFrameStart = 0;
+    private static volatile boolean overlayVisible = false;
+
+    static
+    {
+        for ( int i = 0; i < stages.length; i++ )
+        {
+            stages[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Records the duration of a stage.
+     *
+     * @param stage the stage, one of the stage constants
+     * @param nanos the duration in nanoseconds
+     */
+    static void record( int stage, long nanos ) { stages[stage].record( nanos ); }
+
+    /**
+     * Records the start of a frame of the game clock, measuring the interval since the previous frame against the
+     * target period. An interval of more than one and a half periods counts the missing frames as dropped. Must be
+     * called from the game loop thread.
+     *
+     * @param now the start of the frame from System.nanoTime
+     */
+    static void frameStarted( long now )
+    {
+        if ( lastFrameStart != 0 )
+        {
+            long interval = now - lastFrameStart;
+            long target = GameState.DELAY * 1_000_000L;
+            frameInterval.record( interval );
+            jitterSum.addAndGet( Math.abs( interval - target ) );
+            if ( interval > target * 3 / 2 )
+                droppedFrames.addAndGet( Math.max( 1, ( interval + target / 2 ) / target - 1 ) );
+            FlightRecording.frameCompleted( interval );
+        }
+        lastFrameStart = now;
+    }
+
+    /**
+     * Notes that the game clock was stopped or paused, so that the gap before its next frame is not counted as
+     * dropped frames. Must be called from the game loop thread.
+     */
+    static void pacingInterrupted() { lastFrameStart = 0; }
+
+    /**
+     * Reads the number of bytes allocated so far by the calling thread.
+     *
+     * @return the allocated bytes, or -1 if the JVM does not count allocations per thread
+     */
+    static long threadAllocatedBytes() { return THREADS != null ? THREADS.getCurrentThreadAllocatedBytes() : -1; }
+
+    /**
+     * Records the bytes allocated by one tick.
+     *
+     * @param bytes the bytes allocated by the game loop thread during the tick, ignored if negative
+     */
+    static void recordTickAllocation( long bytes )
+    {
+        if ( bytes >= 0 )
+            tickAllocation.record( bytes );
+    }
+
+    /**
+     * Records the time from the arrival of a key press to the end of the tick that consumed it.
+     *
+     * @param nanos the latency in nanoseconds
+     */
+    static void recordKeyToTick( long nanos ) { keyToTick.record( nanos ); }
+
+    /**
+     * Records the time from the arrival of a key press to the end of the first paint that shows its effect.
+     *
+     * @param nanos the latency in nanoseconds
+     */
+    static void recordKeyToFrame( long nanos ) { keyToFrame.record( nanos ); }
+
+    /**
+     * Retrieves the histogram of key press to tick latency.
+     *
+     * @return the histogram
+     */
+    static LatencyHistogram keyToTick() { return keyToTick; }
+
+    /**
+     * Retrieves the histogram of key press to frame latency.
+     *
+     * @return the histogram
+     */
+    static LatencyHistogram keyToFrame() { return keyToFrame; }
+
+    /**
+     * Retrieves the histogram of bytes allocated per tick.
+     *
+     * @return the histogram, whose values are bytes
+     */
+    static LatencyHistogram tickAllocation() { return tickAllocation; }
+
+    /**
+     * Retrieves the number of dropped frames since the last reset.
+     *
+     * @return the dropped frame count
+     */
+    static long droppedFrames() { return droppedFrames.get(); }
+
+    /**
+     * Retrieves the histogram of a stage.
+     *
+     * @param stage the stage, one of the stage constants
+     * @return the histogram recording that stage
+     */
+    static LatencyHistogram stage( int stage ) { return stages[stage]; }
+
+    /**
+     * Shows or hides the overlay. Opening the overlay clears the statistics so it reflects only what follows.
+     */
+    static void toggleOverlay()
+    {
+        if ( !overlayVisible )
+            reset();
+        overlayVisible = !overlayVisible;
+    }
+
+    /**
+     * Checks whether the overlay is shown.
+     * @return true if the overlay is visible
+     */
+    static boolean isOverlayVisible() { return overlayVisible; }
+
+    /**
+     * Clears every histogram and counter.
+     */
+    static void reset()
+    {
+        for ( LatencyHistogram histogram : stages )
+        {
+            histogram.reset();
+        }
+        frameInterval.reset();
+        tickAllocation.reset();
+        keyToTick.reset();
+        keyToFrame.reset();
+        droppedFrames.set( 0 );
+        jitterSum.set( 0 );
+    }
+
+    /**
+     * Draws the overlay in the top left corner of the screen if it is visible: p50, p99 and maximum of every stage,
+     * followed by frame pacing, input latency, mean jitter and the dropped frame count.
+     *
+     * @param g the Graphics object used for drawing
+     */
+    static void drawOverlay( Graphics g )
+    {
+        if ( !overlayVisible )
+            return;
+
+        int lineHeight = OVERLAY_FONT.getSize() + 2;
+        int lines = stages.length + 7;
+        int x = 10;
+        int y = 45;
+
+        g.setColor( OVERLAY_BACKGROUND );
+        g.fillRect( x - 5, y - lineHeight, 300, lines * lineHeight + 8 );
+        g.setFont( OVERLAY_FONT );
+        g.setColor( OVERLAY_TEXT );
+
+        g.drawString( String.format( "%-11s %7s %7s %7s", "stage (ms)", "p50", "p99", "max" ), x, y );
+        for ( int i = 0; i < stages.length; i++ )
+        {
+            y += lineHeight;
+            g.drawString( formatRow( STAGE_NAMES[i], stages[i] ), x, y );
+        }
+
+        y += lineHeight;
+        g.drawString( formatRow( "interval", frameInterval ), x, y );
+        y += lineHeight;
+        g.drawString( formatRow( "key-tick", keyToTick ), x, y );
+        y += lineHeight;
+        g.drawString( formatRow( "key-frame", keyToFrame ), x, y );
+
+        long intervals = frameInterval.count();
+        double jitter = intervals == 0 ? 0 : jitterSum.get() / (double)intervals / 1_000_000.0;
+        y += lineHeight;
+        g.drawString( String.format( "jitter %.2f ms  target %d ms", jitter, GameState.DELAY ), x, y );
+        y += lineHeight;
+        g.drawString( String.format( "dropped %d of %d frames", droppedFrames.get(), intervals ), x, y );
+        y += lineHeight;
+        g.drawString( String.format( "alloc/tick  %5d B p50 %5d B p99 %6d B max", tickAllocation.percentile( 50 ),
+                                     tickAllocation.percentile( 99 ), tickAllocation.max() ),
+                      x, y );
+    }
+
+    /**
+     * Looks up the HotSpot thread bean and enables its allocation counter.
+     *
+     * @return the bean, or null if this JVM does not support per-thread allocation counting
+     */
+    private static com.sun.management.ThreadMXBean allocationCounter()
+    {
+        if ( !( ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean ) )
+            return null;
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        if ( !threads.isThreadAllocatedMemorySupported() )
+            return null;
+        threads.setThreadAllocatedMemoryEnabled( true );
+        return threads;
+    }
+
+    /**
+     * Formats one row of the overlay table.
+     *
+     * @param name the name of the row
+     * @param histogram the histogram to summarize
+     * @return the formatted row
+     */
+    private static String formatRow( String name, LatencyHistogram histogram )
+    {
+        return String.format( "%-11s %7.2f %7.2f %7.2f", name, histogram.percentile( 50 ) / 1_000_000.0,
+                              histogram.percentile( 99 ) / 1_000_000.0, histogram.max() / 1_000_000.0 );
+    }
+}
@@ -0,0 +1,148 @@
+package edu.aav66;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import javax.swing.Timer;
+
+/**
+ * The game clock of an interactive panel. Game time only advances in ticks of GameState.DELAY milliseconds, and every
+ * gameplay timer counts those ticks, so the clock controls the pace of the whole game by deciding how many ticks each
+ * frame runs: a Swing timer fires once per frame and the clock runs the ticks owed at the current speed, from one tick
+ * every four frames at 0.25x to 16 ticks per frame at 16x. Since each tick is the same fixed step, a game plays the
+ * same way at any speed and recordings are unaffected.
+ *
+ * Pausing stops the timer and the music, so a paused game uses no CPU; while paused, single steps run one tick at a
+ * time. The clock is stopped, rather than paused, while the game is over, except in a two-player game, whose players
+ * keep exchanging frames until they agree to restart.
+ */
+final class GameClock implements ActionListener
+{
+    static final double MIN_SPEED = 0.25;
+    static final double MAX_SPEED = 16;
+
+    private final GamePanel panel;
+    private final Timer timer;
+    private double speed = 1;
+    private double owed = 0; // Fraction of a tick carried over to the next frame
+    private boolean running = false;
+    private boolean paused = false;
+    private boolean musicWasPaused = false;
+
+    /**
+     * Constructs a stopped clock driving a panel.
+     *
+     * @param panel the panel whose ticks the clock runs
+     */
+    GameClock( GamePanel panel )
+    {
+        this.panel = panel;
+        this.timer = new Timer( GameState.DELAY, this );
+    }
+
+    /**
+     * Starts or restarts the clock for a game in progress, resuming it if it was paused.
+     */
+    void start()
+    {
+        running = true;
+        if ( paused )
+            setPaused( false );
+        owed = 0;
+        FrameMetrics.pacingInterrupted();
+        timer.restart();
+    }
+
+    /**
+     * Stops the clock, as when the game is over. A paused clock stays paused.
+     */
+    void stop()
+    {
+        running = false;
+        timer.stop();
+    }
+
+    /**
+     * @return true if the clock is running a game, paused or not
+     */
+    boolean isRunning() { return running; }
+
+    /**
+     * @return true if the clock is paused
+     */
+    boolean isPaused() { return paused; }
+
+    /**
+     * @return the number of ticks of game time per frame
+     */
+    double speed() { return speed; }
+
+    /**
+     * Pauses or resumes the game. Pausing stops the timer and the music; resuming restarts the timer and resumes the
+     * music if it was playing. Does nothing while the game is over.
+     *
+     * @param paused true to pause, false to resume
+     */
+    void setPaused( boolean paused )
+    {
+        if ( this.paused == paused || ( paused && !running ) )
+            return;
+
+        this.paused = paused;
+        if ( paused )
+        {
+            timer.stop();
+            musicWasPaused = Helpers.isMusicPaused();
+            Helpers.setMusicPaused( true );
+        }
+        else
+        {
+            Helpers.setMusicPaused( musicWasPaused );
+            if ( running )
+            {
+                FrameMetrics.pacingInterrupted();
+                timer.restart();
+            }
+        }
+        panel.repaint();
+    }
+
+    /**
+     * Runs a single tick of a paused game.
+     */
+    void step()
+    {
+        if ( !paused || !running )
+            return;
+
+        panel.actionPerformed( null );
+    }
+
+    /**
+     * Sets the speed of the game, clamped to the range from MIN_SPEED to MAX_SPEED.
+     *
+     * @param speed the number of ticks of game time per frame
+     */
+    void setSpeed( double speed )
+    {
+        this.speed = Math.max( MIN_SPEED, Math.min( MAX_SPEED, speed ) );
+        owed = 0;
+        panel.repaint();
+    }
+
+    /**
+     * Runs the ticks owed for one frame at the current speed, stopping early if the game ends or is paused.
+     *
+     * @param e the timer event
+     */
+    @Override public void actionPerformed( ActionEvent e )
+    {
+        FrameMetrics.frameStarted( System.nanoTime() );
+        owed += speed;
+        int ticks = (int)owed;
+        owed -= ticks;
+        for ( int i = 0; i < ticks && running && !paused; i++ )
+        {
+            panel.actionPerformed( e );
+        }
+    }
+}
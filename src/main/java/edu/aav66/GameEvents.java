@@ -0,0 +1,288 @@
+package edu.aav66;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free bus carrying the side effects of the simulation, such as an alien killed or the game ending, from the
+ * thread that ticks the game to the subscribers that play sounds, save scores, count statistics and repaint. The
+ * simulation only changes the game state and publishes what happened; it never calls into audio, files or Swing
+ * itself, which keeps those costs and failures out of the tick.
+ *
+ * Events live in a preallocated ring of CAPACITY slots held as parallel primitive arrays, written by the single
+ * producer and read by every subscriber, each at its own cursor, so publishing neither allocates nor locks. Subscribers
+ * see events in batches: inline subscribers are called on the game thread at the end of each tick with the events of
+ * that tick, and threaded subscribers run on a virtual thread of their own, woken once per tick that published
+ * something. The producer never waits: an event that would overwrite one a subscriber has not read yet is dropped and
+ * counted, as the sound mixer drops triggers when its ring is full.
+ */
+final class GameEvents
+{
+    // Event types
+    static final int SHOT_FIRED = 0;      // x, y of the bullet, value the ship
+    static final int ALIEN_KILLED = 1;    // x, y of the alien, value the points scored
+    static final int SHIP_HIT = 2;        // x, y of the ship, value the lives left
+    static final int SHELTER_DAMAGED = 3; // x, y of the bullet, value the hit points left
+    static final int UFO_SPAWNED = 4;     // x, y of the UFO
+    static final int UFO_HIT = 5;         // x, y of the UFO, value the points scored
+    static final int WAVE_CLEARED = 6;    // value the wave now starting
+    static final int GAME_OVER = 7;       // value the length of the game in milliseconds of game time
+
+    static final int CAPACITY = 1024; // Must be a power of two
+
+    /**
+     * Receives events from the bus.
+     */
+    interface Subscriber
+    {
+        /**
+         * Handles an event. The event object is reused for the next event and must not be kept.
+         *
+         * @param event the event
+         * @param endOfBatch true for the last event currently available, when batched work should be done
+         */
+        void onEvent( Event event, boolean endOfBatch );
+    }
+
+    /**
+     * An event, as handed to a subscriber. Every event records the tick it happened on and the score and wave after it.
+     */
+    static final class Event
+    {
+        int type;
+        long tick;
+        int x;
+        int y;
+        int value;
+        int score;
+        int wave;
+    }
+
+    /**
+     * A subscriber and its position in the ring.
+     */
+    private final class Cursor implements Runnable
+    {
+        final Subscriber subscriber;
+        final Event event = new Event();
+        final AtomicLong next; // Sequence number of the next event to read
+        final Thread thread;    // Null for an inline subscriber
+
+        /**
+         * Constructs a cursor at the next event to be published.
+         *
+         * @param subscriber the subscriber
+         * @param name the name of the subscriber's thread, or null to call it inline
+         */
+        Cursor( Subscriber subscriber, String name )
+        {
+            this.subscriber = subscriber;
+            this.next = new AtomicLong( tail.get() );
+            if ( name == null )
+            {
+                thread = null;
+                return;
+            }
+            thread = Thread.ofVirtual().name( name ).unstarted( this );
+        }
+
+        /**
+         * Hands the subscriber every event published, then waits for the game thread to publish more.
+         */
+        @Override public void run()
+        {
+            while ( true )
+            {
+                if ( !drain() )
+                    LockSupport.park( this );
+            }
+        }
+
+        /**
+         * Hands the subscriber every event published since the last drain.
+         *
+         * @return true if there was at least one event
+         */
+        boolean drain()
+        {
+            long n = next.get();
+            long t = tail.get();
+            if ( n == t )
+                return false;
+
+            for ( ; n < t; n++ )
+            {
+                int slot = (int)( n & ( CAPACITY - 1 ) );
+                event.type = types[slot];
+                event.tick = ticks[slot];
+                event.x = xs[slot];
+                event.y = ys[slot];
+                event.value = values[slot];
+                event.score = scores[slot];
+                event.wave = waves[slot];
+                try
+                {
+                    subscriber.onEvent( event, n == t - 1 );
+                }
+                catch ( RuntimeException e )
+                {
+                    System.err.println( "Problem handling game event " + event.type + "." );
+                    e.printStackTrace();
+                }
+                next.lazySet( n + 1 ); // Frees the slot as soon as it has been handled
+            }
+            return true;
+        }
+    }
+
+    // The ring, written by the game thread
+    private final int[] types = new int[CAPACITY];
+    private final long[] ticks = new long[CAPACITY];
+    private final int[] xs = new int[CAPACITY];
+    private final int[] ys = new int[CAPACITY];
+    private final int[] values = new int[CAPACITY];
+    private final int[] scores = new int[CAPACITY];
+    private final int[] waves = new int[CAPACITY];
+    private final AtomicLong tail = new AtomicLong(); // Sequence number of the next event published
+
+    // Subscribers, and state only touched by the game thread
+    private Cursor[] cursors = new Cursor[0];
+    private long freeUntil = CAPACITY; // Events up to here cannot overwrite unread ones
+    private long wokenAt = 0;          // Tail when the threaded subscribers were last woken
+    private long dropped = 0;
+
+    /**
+     * Adds a subscriber called on the game thread at the end of every tick that published an event. It sees the
+     * events published from now on.
+     *
+     * @param subscriber the subscriber
+     */
+    void subscribe( Subscriber subscriber ) { add( new Cursor( subscriber, null ) ); }
+
+    /**
+     * Adds a subscriber called on a virtual thread of its own, for work that may block or take long. It sees the events
+     * published from now on.
+     *
+     * @param subscriber the subscriber
+     * @param name the name of the thread
+     */
+    void subscribeOnThread( Subscriber subscriber, String name )
+    {
+        Cursor cursor = new Cursor( subscriber, name );
+        add( cursor );
+        cursor.thread.start();
+    }
+
+    /**
+     * Publishes an event. Must be called from the game thread; neither blocks nor allocates.
+     *
+     * @param type the type of the event, one of the event type constants
+     * @param session the game it happened in
+     * @param x the x coordinate of the event
+     * @param y the y coordinate of the event
+     * @param value the value of the event, which depends on its type
+     */
+    void publish( int type, GameSession session, int x, int y, int value )
+    {
+        long t = tail.get();
+        if ( t >= freeUntil )
+        {
+            freeUntil = slowestCursor() + CAPACITY;
+            if ( t >= freeUntil )
+            {
+                dropped++;
+                return;
+            }
+        }
+
+        int slot = (int)( t & ( CAPACITY - 1 ) );
+        types[slot] = type;
+        ticks[slot] = session.gameTicks;
+        xs[slot] = x;
+        ys[slot] = y;
+        values[slot] = value;
+        scores[slot] = session.score;
+        waves[slot] = session.isGameOver ? session.finalWave : session.difficultyMultiplier + 1;
+        tail.lazySet( t + 1 );
+    }
+
+    /**
+     * Delivers the events published during a tick: calls the inline subscribers and wakes the threaded ones. Must be
+     * called from the game thread at the end of every tick; does nothing if the tick published nothing.
+     */
+    void tickCompleted()
+    {
+        long t = tail.get();
+        if ( t == wokenAt )
+            return;
+
+        wokenAt = t;
+        for ( Cursor cursor : cursors )
+        {
+            if ( cursor.thread == null )
+                cursor.drain();
+            else
+                LockSupport.unpark( cursor.thread );
+        }
+    }
+
+    /**
+     * Waits for the threaded subscribers to handle every event published, waking them first in case the last events
+     * were published outside a tick. Must not be called while the game thread keeps publishing.
+     *
+     * @param timeoutMillis the longest time to wait
+     * @return true if every threaded subscriber caught up, false if the timeout expired first
+     */
+    boolean drain( long timeoutMillis )
+    {
+        long deadline = System.nanoTime() + timeoutMillis * 1_000_000;
+        for ( Cursor cursor : cursors )
+        {
+            if ( cursor.thread == null )
+                continue;
+            LockSupport.unpark( cursor.thread );
+            while ( cursor.next.get() < tail.get() )
+            {
+                if ( System.nanoTime() - deadline >= 0 )
+                    return false;
+                LockSupport.parkNanos( 1_000_000 );
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Retrieves how many events were dropped because a subscriber fell CAPACITY events behind.
+     *
+     * @return the number of events dropped
+     */
+    long dropped() { return dropped; }
+
+    /**
+     * Adds a cursor to the subscribers.
+     *
+     * @param cursor the cursor
+     */
+    private void add( Cursor cursor )
+    {
+        cursors = Arrays.copyOf( cursors, cursors.length + 1 );
+        cursors[cursors.length - 1] = cursor;
+        freeUntil = slowestCursor() + CAPACITY;
+    }
+
+    /**
+     * Finds the position of the subscriber furthest behind.
+     *
+     * @return the sequence number of the oldest event not read by every subscriber
+     */
+    private long slowestCursor()
+    {
+        long slowest = tail.get();
+        for ( Cursor cursor : cursors )
+        {
+            slowest = Math.min( slowest, cursor.next.get() );
+        }
+        return slowest;
+    }
+}
@@ -5,18 +5,32 @@
 package edu.aav66;
 
 import javax.swing.JFrame;
+import javax.swing.SwingUtilities;
 
+@SuppressWarnings( "serial" ) // Serializable as every JFrame is, but never serialized
 public class GameFrame extends JFrame
 {
     /**
      * Constructor for GameFrame class.
      * Initializes the frame with a GamePanel, sets title, default close operation,
      * resizable property, packs components, makes frame visible, and positions it in the center of the screen.
+     *
+     * @param seed the seed of the game's random choices
+     * @param recorder the recorder receiving the input of every tick, or null
+     * @param spectators the server publishing every tick to spectators, or null
+     * @param netPlay the connection to the other player of a two-player game, or null
+     * @param worldState the file publishing every tick to other processes, or null
      */
-    GameFrame()
+    GameFrame( long seed, InputRecorder recorder, SpectatorServer spectators, NetPlay netPlay,
+               WorldStateFile worldState )
     {
         // Add an instance of GamePanel to this frame
-        this.add( new GamePanel() );
+        GamePanel panel = new GamePanel( true, seed, recorder );
+        panel.spectators = spectators;
+        panel.worldState = worldState;
+        if ( netPlay != null )
+            SwingUtilities.invokeLater( () -> netPlay.attach( panel ) ); // On the thread that ticks the panel
+        this.add( panel );
 
         // Set the title of the frame to "Space Invaders"
         this.setTitle( "Space Invaders" );
@@ -3,12 +3,13 @@ package edu.aav66;
 import java.awt.*;
 import java.awt.event.*;
 import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.List;
-import java.util.stream.Collectors;
 import javax.swing.JButton;
 import javax.swing.JPanel;
 
+@SuppressWarnings( "serial" ) // Swing components are serializable, but the game never serializes them
 public class GamePanel extends JPanel implements ActionListener
 {
     static final int SCREEN_WIDTH = 672;  // 224 * 3
@@ -35,70 +36,56 @@ public class GamePanel extends JPanel implements ActionListener
     static final int ALIEN_BULLET_HEIGHT = 14;
     static final int ALIEN_BULLET_WIDTH = 8;
 
-    // Bullet Deques
-    static Deque<Integer> shipBullet = new ArrayDeque<>();
-    static Deque<Integer> alienBullet = new ArrayDeque<>();
+    private static final Font PLAYER_FONT = new Font( "Futura", Font.BOLD, 12 ); // Labels of the ships of two players
+    private static final int[] UFO_SCORES = { 50, 100, 150, 200, 300 };
 
-    // Ship and Bullet Coordinates
-    public final static int[] xOfShip = new int[GAME_UNITS];
+    // The game being played, replaced by a fresh session on restart
+    GameSession session;
 
-    public final int[] xOfShipBullet = new int[GAME_UNITS];
-    public final int[] yOfShipBullet = new int[GAME_UNITS];
+    // Ship buttons pressed and released on the EDT, sampled by the game loop once per tick
+    private final InputRing input = new InputRing();
+    private long effectPressedAt = -1; // Arrival of the key press whose effect has not been painted yet
 
-    public final int[] xOfAlienBullet = new int[GAME_UNITS];
-    public final int[] yOfAlienBullet = new int[GAME_UNITS];
-
-    private long lastAlienShotTime = System.currentTimeMillis();
-    static final long MIN_ALIEN_SHOT_STAGGER_TIME = 400;
-    static final long MAX_ALIEN_SHOT_STAGGER_TIME = 800;
-    private final Random randomShots = new Random();
-
-    // Alien Coordinates
-    static List<Integer> xOfAliens = new ArrayList<>();
-    static List<Integer> yOfAliens = new ArrayList<>();
-
-    // Ship Movement Variables
-    static Deque<Character> directionQueue = new ArrayDeque<>();
-    private Set<Integer> pressedKeys = new HashSet<>();
-
-    // GAME STATE VARIABLES
-    static int lives = 3;
-    static int score = 0;
-    static int highScore = 0;
-    static boolean isGameOver = false;
-    static int difficultyMultiplier = 0;
+    // High score of the player, shared by every session, raised by the persistence subscriber of the event bus
+    static volatile int highScore = 0;
 
     // Ship, Alien, and UFO Attributes:
     // Ship:
-    static char shipDirection = ' ';
-    static boolean shipMoving = false;
-    static boolean shipShooting = false;
     boolean shipShot = false;
 
     // Alien:
-    static char aliensDirection = 'R';
-    static boolean aliensMoving = true;
-    static boolean alienShooting = false;
     boolean smallAlienShot = false;
     boolean mediumAlienShot = false;
     boolean bigAlienShot = false;
 
     // UFO:
-    static int ufoX;
     private int ufoY = 50;
     private int ufoSpeed = 3;
-    static boolean ufoActive = false;
-    final static int UFO_INTERVAL = 20000; // 20 seconds
 
     // Processes
-    Random random;
-
-    // List to hold explosion details
-    List<Explosion> explosions = new ArrayList<>();
+    final GameClock clock = new GameClock( this );
+    JButton replayButton;
+    final long seed;
+    final boolean interactive; // False for headless panels driven by tools instead of Swing timers
+    final InputRecorder recorder; // Records the input of every tick, null when not recording
+    SpectatorServer spectators;   // Publishes the state after every tick, null when no one may watch
+    NetPlay netPlay;              // Exchanges input with the other player of a two-player game, null otherwise
+    WorldStateFile worldState;    // Publishes the state after every tick to other processes, null when not asked for
+    boolean resimulating = false; // True while NetPlay replays ticks after a rollback, which stay silent
+    GameEvents events;            // Carries the side effects of every tick to their subscribers, null when headless
+
+    // Quick-save slot and crash rollback point, allocated on first use
+    static final int ROLLBACK_INTERVAL = 60; // Ticks between rollback points
+    private ByteBuffer quickSave;
+    private ByteBuffer rollbackPoint;
     int explosionDuration = 10; // frames
 
-    // List to hold shelters
-    static List<Shelter> shelters = new ArrayList<>();
+    // Collision statistics of the last pass
+    int collisionPairs = 0;
+    int collisionHits = 0;
+
+    // Lowest alien of every column, reused by createAlienBullet
+    private int[] bottomAliens = new int[0];
 
     /**
      * Constructor for the GamePanel class. Initializes the game panel with necessary components.
@@ -107,9 +94,33 @@ public class GamePanel extends JPanel implements ActionListener
      * It also sets up key listeners for handling game controls, centers the ship, initializes game elements like
      * aliens, shelters, and the replay button, and starts the game timers.
      */
-    public GamePanel()
+    @SuppressWarnings( "this-escape" )
+    public GamePanel() { this( true ); }
+
+    /**
+     * Constructs a game panel that is either interactive or headless, seeded from the system clock.
+     *
+     * @param interactive true to start the game as the public constructor does, false for a headless panel
+     */
+    GamePanel( boolean interactive ) { this( interactive, System.nanoTime(), null ); }
+
+    /**
+     * Constructs a game panel that is either interactive or headless. A headless panel only initializes the game
+     * state: it starts no timers, music or sound effects and never touches the high score files, so benchmarks and
+     * tools can drive the simulation methods directly. All randomness is derived from the seed and all gameplay
+     * timing from the tick count, so two panels with the same seed and the same input per tick play the same game.
+     *
+     * @param interactive true to start the game as the public constructor does, false for a headless panel
+     * @param seed the seed of the game's random choices
+     * @param recorder the recorder receiving the input of every tick, or null
+     */
+    @SuppressWarnings( "this-escape" )
+    GamePanel( boolean interactive, long seed, InputRecorder recorder )
     {
-        random = new Random();
+        this.interactive = interactive;
+        this.seed = seed;
+        this.recorder = recorder;
+        session = new GameSession( seed );
         this.setPreferredSize( new Dimension( SCREEN_WIDTH, SCREEN_HEIGHT ) );
         this.setBackground( BACKGROUND_COLOR );
         this.setDoubleBuffered( true );
@@ -117,64 +128,32 @@ public class GamePanel extends JPanel implements ActionListener
         this.addKeyListener( new MyKeyAdapter() );
         this.setLayout( null );
 
-        // Initialize key listener setup
-        this.addKeyListener( new KeyAdapter() {
-            @Override public void keyPressed( KeyEvent e )
-            {
-                pressedKeys.add( e.getKeyCode() );
-                updateMovementAndShooting(); // Update based on current keys pressed
-            }
-
-            @Override public void keyReleased( KeyEvent e )
-            {
-                pressedKeys.remove( e.getKeyCode() );
-                updateMovementAndShooting(); // Update on key release too
-            }
-        } );
-
-        // Center the ship horizontally
-        xOfShip[0] = ( SCREEN_WIDTH / 2 ) - ( UNIT_SIZE / 2 );
-
-        GameState.initShelters();
-
         // Initialize the replay button
-        GameState.replayButton = new JButton( "Replay" );
-        GameState.replayButton.setFont( new Font( "Futura", Font.BOLD, 20 ) );
-        GameState.replayButton.addActionListener( e -> GameState.restartGame( this ) );
+        replayButton = new JButton( "Replay" );
+        replayButton.setFont( new Font( "Futura", Font.BOLD, 20 ) );
+        replayButton.addActionListener( e -> replayPressed() );
         int buttonWidth = 150;
         int buttonHeight = 50;
         int buttonX = ( SCREEN_WIDTH - buttonWidth ) / 2;
         int buttonY = SCREEN_HEIGHT - 120;
-        GameState.replayButton.setBounds( buttonX, buttonY, buttonWidth, buttonHeight );
-        GameState.replayButton.setEnabled( false );
-        GameState.replayButton.setFocusable( true );
-        this.add( GameState.replayButton );
-
-        GameState.initAliens();
-        GameState.initAlienTimer( this );
-        GameState.initUfoTimer( this );
-        highScore = Helpers.initializeHighScore( highScore );
-        GameState.startGame( this );
-        Helpers.playMusic();
-    }
+        replayButton.setBounds( buttonX, buttonY, buttonWidth, buttonHeight );
+        replayButton.setEnabled( false );
+        replayButton.setFocusable( true );
+        this.add( replayButton );
 
-    /**
-     * Updates the movement and shooting status of the ship based on currently pressed keys.
-     * Sets the ship's moving and shooting flags and updates the direction to left or right accordingly.
-     */
-    private void updateMovementAndShooting()
-    {
-        shipMoving = pressedKeys.contains( KeyEvent.VK_LEFT ) || pressedKeys.contains( KeyEvent.VK_RIGHT );
-        shipShooting = pressedKeys.contains( KeyEvent.VK_SPACE );
+        if ( !interactive )
+            return;
 
-        if ( pressedKeys.contains( KeyEvent.VK_LEFT ) )
-        {
-            shipDirection = 'L';
-        }
-        else if ( pressedKeys.contains( KeyEvent.VK_RIGHT ) )
-        {
-            shipDirection = 'R';
-        }
+        events = new GameEvents();
+        events.subscribe( Helpers::soundOf );
+        events.subscribe( GameStats::eventPublished );
+        events.subscribe( ( event, endOfBatch ) -> {
+            if ( endOfBatch )
+                repaint(); // Once per batch, however many events changed the picture
+        } );
+        events.subscribeOnThread( ( event, endOfBatch ) -> GameState.persist( this, event ), "game-persistence" );
+        Services.start( this );
+        GameState.startGame( this );
     }
 
     /**
@@ -187,13 +166,28 @@ public class GamePanel extends JPanel implements ActionListener
      */
     @Override public void paintComponent( Graphics g )
     {
+        FlightEvents.Paint event = new FlightEvents.Paint();
+        event.begin();
+        long paintStart = System.nanoTime();
         super.paintComponent( g );
         draw( g );
         drawShelters( g );
         GameState.UIelements( g, this );
 
-        if ( isGameOver )
+        if ( session.isGameOver )
             GameState.drawGameOverScreen( g, this );
+
+        long paintEnd = System.nanoTime();
+        FrameMetrics.record( FrameMetrics.PAINT, paintEnd - paintStart );
+        if ( effectPressedAt >= 0 )
+        {
+            FrameMetrics.recordKeyToFrame( paintEnd - effectPressedAt );
+            effectPressedAt = -1;
+        }
+        FrameMetrics.drawOverlay( g );
+
+        event.overlayVisible = FrameMetrics.isOverlayVisible();
+        event.commit();
     }
 
     /**
@@ -204,25 +198,35 @@ public class GamePanel extends JPanel implements ActionListener
      */
     void draw( Graphics g )
     {
-        // Draw the player's ship
+        // Draw the player's ship, and in a two-player game both ships labelled with their player
         BufferedImage playerShipImage = Helpers.getPlayerShip();
-        if ( playerShipImage != null )
+        for ( int ship = 0; ship < session.ships; ship++ )
         {
-            g.drawImage( playerShipImage, xOfShip[0], SCREEN_HEIGHT - playerShipImage.getHeight(), this );
+            if ( playerShipImage != null )
+            {
+                g.drawImage( playerShipImage, session.xOfShip[ship], SCREEN_HEIGHT - playerShipImage.getHeight(),
+                             this );
+            }
+            if ( session.ships > 1 )
+            {
+                g.setColor( netPlay != null && netPlay.player() == ship ? SHIP_COLOR : SCORE_COLOR );
+                g.setFont( PLAYER_FONT );
+                g.drawString( "P" + ( ship + 1 ), session.xOfShip[ship] + 4, SCREEN_HEIGHT - UNIT_SIZE - 4 );
+            }
         }
 
         // Draw aliens
-        for ( int i = 0; i < xOfAliens.size(); i++ )
+        for ( int i = 0; i < session.xOfAliens.size(); i++ )
         {
             BufferedImage alienImage;
 
-            // Determine the type of alien based on the row
-            int row = i / 11;
-            if ( row == 0 )
+            // Determine the type of alien based on the row of its slot
+            int sprite = session.wave.sprite( session.slotOfAliens.get( i ) );
+            if ( sprite == Waves.YELLOW )
             {
                 alienImage = Helpers.getYellowAlien(); // Small aliens
             }
-            else if ( row < 3 )
+            else if ( sprite == Waves.GREEN )
             {
                 alienImage = Helpers.getGreenAlien(); // Medium aliens
             }
@@ -233,41 +237,44 @@ public class GamePanel extends JPanel implements ActionListener
 
             if ( alienImage != null )
             {
-                g.drawImage( alienImage, xOfAliens.get( i ), yOfAliens.get( i ), this );
+                g.drawImage( alienImage, session.xOfAliens.get( i ), session.yOfAliens.get( i ), this );
             }
         }
 
         // Draw UFO
         BufferedImage ufoImage = Helpers.getUfo();
-        if ( ufoImage != null && ufoActive )
+        if ( ufoImage != null && session.ufoActive )
         {
-            g.drawImage( ufoImage, ufoX, ufoY, this );
+            g.drawImage( ufoImage, session.ufoX, ufoY, this );
         }
 
         // Draw ship bullets
         g.setColor( SHIP_BULLET_COLOR );
-        shipBullet.forEach(
-            index -> g.fillRect( xOfShipBullet[index], yOfShipBullet[index], BULLET_WIDTH, BULLET_HEIGHT ) );
+        for ( int b = 0; b < session.shipBullet.size(); b++ )
+        {
+            int index = session.shipBullet.get( b );
+            g.fillRect( session.xOfShipBullet[index], session.yOfShipBullet[index], BULLET_WIDTH, BULLET_HEIGHT );
+        }
 
         // Draw alien bullets
         g.setColor( ALIEN_BULLET_COLOR );
-        alienBullet.forEach(
-            index
-            -> g.fillRect( xOfAlienBullet[index], yOfAlienBullet[index], ALIEN_BULLET_WIDTH, ALIEN_BULLET_HEIGHT ) );
+        for ( int b = 0; b < session.alienBullet.size(); b++ )
+        {
+            int index = session.alienBullet.get( b );
+            g.fillRect( session.xOfAlienBullet[index], session.yOfAlienBullet[index], ALIEN_BULLET_WIDTH,
+                        ALIEN_BULLET_HEIGHT );
+        }
 
         // Draw explosions
-        for ( Explosion exp : explosions )
+        for ( Explosion exp : session.explosions )
         {
-            if ( exp.timer > 0 )
-            {
-                g.setColor( Color.orange );
-                g.fillOval( exp.location.x, exp.location.y, UNIT_SIZE, UNIT_SIZE ); // Simple explosion effect
-            }
+            g.setColor( Color.orange );
+            g.fillOval( exp.location.x, exp.location.y, UNIT_SIZE, UNIT_SIZE ); // Simple explosion effect
         }
 
         // Draw shelters
         g.setColor( new Color( 34, 177, 76 ) ); // Shelter color
-        for ( Shelter shelter : shelters )
+        for ( Shelter shelter : session.shelters )
         {
             if ( !shelter.isDestroyed() )
             {
@@ -285,7 +292,7 @@ public class GamePanel extends JPanel implements ActionListener
      */
     void drawShelters( Graphics g )
     {
-        for ( Shelter shelter : shelters )
+        for ( Shelter shelter : session.shelters )
         {
             if ( !shelter.isDestroyed() )
             {
@@ -345,29 +352,56 @@ public class GamePanel extends JPanel implements ActionListener
      * size to prevent the ship from moving off the screen to the right.
      */
     void moveShip()
+    {
+        if ( session.shipMoving )
+        {
+            moveShip( 0, session.shipDirection );
+        }
+    }
+
+    /**
+     * Moves a ship one step in a direction, keeping it on the screen.
+     *
+     * @param ship the index of the ship in xOfShip
+     * @param direction 'L' for left, 'R' for right, anything else to stay in place
+     */
+    void moveShip( int ship, char direction )
     {
         int shipMovementSpeed = UNIT_SIZE / 8; // Reduced speed
-        if ( shipMoving )
+        if ( direction == 'L' )
         {
-            if ( shipDirection == 'L' )
+            session.xOfShip[ship] -= shipMovementSpeed;
+            if ( session.xOfShip[ship] < 0 )
             {
-                xOfShip[0] -= shipMovementSpeed;
-                if ( xOfShip[0] < 0 )
-                {
-                    xOfShip[0] = 0;
-                }
+                session.xOfShip[ship] = 0;
             }
-            else if ( shipDirection == 'R' )
+        }
+        else if ( direction == 'R' )
+        {
+            session.xOfShip[ship] += shipMovementSpeed;
+            if ( session.xOfShip[ship] > SCREEN_WIDTH - UNIT_SIZE )
             {
-                xOfShip[0] += shipMovementSpeed;
-                if ( xOfShip[0] > SCREEN_WIDTH - UNIT_SIZE )
-                {
-                    xOfShip[0] = SCREEN_WIDTH - UNIT_SIZE;
-                }
+                session.xOfShip[ship] = SCREEN_WIDTH - UNIT_SIZE;
             }
         }
     }
 
+    /**
+     * Moves the second ship and fires from it as its input byte says, after the first ship has moved and fired.
+     */
+    void steerSecondShip()
+    {
+        int input = session.secondShipInput;
+        if ( ( input & InputRecorder.MOVING ) != 0 )
+        {
+            moveShip( 1, InputRecorder.directionOf( input ) );
+        }
+        if ( ( input & InputRecorder.SHOOTING ) != 0 )
+        {
+            fireFrom( 1 );
+        }
+    }
+
     /**
      * Moves the aliens in the game based on their current direction.
      * If any alien reaches the boundary, changes the direction of all aliens and moves them down.
@@ -378,74 +412,90 @@ public class GamePanel extends JPanel implements ActionListener
      * @param SCREEN_WIDTH the width of the game screen
      * @param UNIT_SIZE the size of each unit in the game
      */
-    static void moveAliens()
+    void moveAliens()
     {
-        int alienMovementSpeed = UNIT_SIZE / 20; // Smaller step size
+        int alienMovementSpeed = session.wave.marchStep;
         boolean changeDirection = false;
 
-        for ( int i = 0; i < xOfAliens.size(); i++ )
+        for ( int i = 0; i < session.xOfAliens.size(); i++ )
         {
-            if ( aliensDirection == 'R' )
+            if ( session.aliensDirection == 'R' )
             {
-                xOfAliens.set( i, xOfAliens.get( i ) + alienMovementSpeed );
-                if ( xOfAliens.get( i ) > SCREEN_WIDTH - ( UNIT_SIZE * 2 ) )
+                session.xOfAliens.set( i, session.xOfAliens.get( i ) + alienMovementSpeed );
+                if ( session.xOfAliens.get( i ) > SCREEN_WIDTH - ( UNIT_SIZE * 2 ) )
                 {
                     changeDirection = true;
                 }
             }
-            else if ( aliensDirection == 'L' )
+            else if ( session.aliensDirection == 'L' )
             {
-                xOfAliens.set( i, xOfAliens.get( i ) - alienMovementSpeed );
-                if ( xOfAliens.get( i ) < UNIT_SIZE )
+                session.xOfAliens.set( i, session.xOfAliens.get( i ) - alienMovementSpeed );
+                if ( session.xOfAliens.get( i ) < UNIT_SIZE )
                 {
                     changeDirection = true;
                 }
             }
         }
 
+        session.formationX += ( session.aliensDirection == 'R' ) ? alienMovementSpeed : -alienMovementSpeed;
         if ( changeDirection )
         {
-            aliensDirection = ( aliensDirection == 'R' ) ? 'L' : 'R';
-            for ( int i = 0; i < yOfAliens.size(); i++ )
+            session.formationY += session.wave.marchDrop;
+            session.aliensDirection = ( session.aliensDirection == 'R' ) ? 'L' : 'R';
+            for ( int i = 0; i < session.yOfAliens.size(); i++ )
             {
-                yOfAliens.set( i, yOfAliens.get( i ) + UNIT_SIZE );
+                session.yOfAliens.set( i, session.yOfAliens.get( i ) + session.wave.marchDrop );
             }
         }
     }
 
     /**
-     * Generates a bullet from the ship if it is currently shooting and there are no existing bullets.
+     * Generates a bullet from the ship if it is currently shooting and fewer than maxShipBullets bullets exist.
      * The bullet is created at the center of the ship's x-coordinate and at the bottom of the screen.
      */
     void bulletsFromShip()
     {
-        if ( shipShooting && shipBullet.isEmpty() )
+        if ( session.shipShooting )
         {
-            int bulletIndex = shipBullet.size();                         // Get the index of the bullet
-            xOfShipBullet[bulletIndex] = xOfShip[0] + UNIT_SIZE / 2 - 2; // Center the bullet
-            yOfShipBullet[bulletIndex] = SCREEN_HEIGHT - UNIT_SIZE;      // Bottom of the screen
-            shipBullet.addLast( bulletIndex );                           // Add the bullet to the list
+            fireFrom( 0 );
+        }
+    }
+
+    /**
+     * Generates a bullet from a ship unless the ships already have maxShipBullets bullets each on the screen, which
+     * two ships share between them.
+     *
+     * @param ship the index of the ship in xOfShip
+     */
+    void fireFrom( int ship )
+    {
+        if ( session.shipBullet.size() < session.maxShipBullets * session.ships )
+        {
+            // Next free index
+            int bulletIndex = session.shipBullet.isEmpty() ? 0 : ( session.shipBullet.last() + 1 ) % GAME_UNITS;
+            session.xOfShipBullet[bulletIndex] = session.xOfShip[ship] + UNIT_SIZE / 2 - 2; // Center the bullet
+            session.yOfShipBullet[bulletIndex] = SCREEN_HEIGHT - UNIT_SIZE;                 // Bottom of the screen
+            session.shipBullet.add( bulletIndex );                                          // Add it to the list
+            publish( GameEvents.SHOT_FIRED, session.xOfShipBullet[bulletIndex], session.yOfShipBullet[bulletIndex],
+                     ship );
         }
     }
 
     /**
      * Generates bullets from aliens based on a staggered timing mechanism if the alien shooting flag is true.
-     * Selects a random alien from the lowest in each column to shoot if fewer than two alien bullets are on screen.
+     * Selects a random alien from the lowest in each column to shoot if fewer alien bullets than the wave allows are
+     * on screen.
+     * The stagger is a timer on the session's wheel, so it follows the tick count rather than the wall clock.
      */
     void bulletsFromAliens()
     {
-        // Allow two bullets on the screen, staggered shots handled with time checking
-        if ( alienBullet.size() < 2 )
+        // Allow the wave's bullets on the screen, staggered shots wait for the volley timer to expire
+        if ( session.alienBullet.size() < session.maxAlienBullets && session.volleyTimer == TimerWheel.NONE )
         {
-            long currentTime = System.currentTimeMillis();
-            long timeSinceLastShot = currentTime - lastAlienShotTime;
-
-            if ( timeSinceLastShot >= MIN_ALIEN_SHOT_STAGGER_TIME )
-            {
-                createAlienBullet();
-                lastAlienShotTime =
-                    currentTime + getRandomDelay( MIN_ALIEN_SHOT_STAGGER_TIME, MAX_ALIEN_SHOT_STAGGER_TIME );
-            }
+            createAlienBullet();
+            session.lastAlienShotTime = session.gameTicks * GameState.DELAY +
+                                        getRandomDelay( session.minAlienShotStagger, session.maxAlienShotStagger );
+            session.scheduleVolley();
         }
     }
 
@@ -454,38 +504,45 @@ public class GamePanel extends JPanel implements ActionListener
      *
      * This method determines the lowest alien in each column and selects one of them as the shooter.
      * It then calculates the position of the bullet based on the shooter's position and adds it to the list of alien
-     * bullets.
+     * bullets. The columns are tallied in an array kept for the next call, which only grows with the widest wave.
      *
      * @throws IndexOutOfBoundsException if the bullet index exceeds the limit of GAME_UNITS
      */
-    private void createAlienBullet()
+    void createAlienBullet()
     {
-        int[] bottomAliens = new int[11];
-        Arrays.fill( bottomAliens, -1 ); // Initialize all columns with -1
+        if ( bottomAliens.length < session.wave.columns )
+            bottomAliens = new int[session.wave.columns];
+        Arrays.fill( bottomAliens, 0, session.wave.columns, -1 ); // Initialize all columns with -1
 
         // Determine the lowest alien in each column
-        for ( int i = 0; i < xOfAliens.size(); i++ )
+        for ( int i = 0; i < session.xOfAliens.size(); i++ )
         {
-            int col = i % 11;
-            int currentY = yOfAliens.get( i );
-            if ( currentY > ( bottomAliens[col] != -1 ? yOfAliens.get( bottomAliens[col] ) : -1 ) )
+            int col = session.wave.column( session.slotOfAliens.get( i ) );
+            int currentY = session.yOfAliens.get( i );
+            if ( currentY > ( bottomAliens[col] != -1 ? session.yOfAliens.get( bottomAliens[col] ) : -1 ) )
             {
                 bottomAliens[col] = i;
             }
         }
 
-        List<Integer> shooters =
-            Arrays.stream( bottomAliens ).filter( index -> index != -1 ).boxed().collect( Collectors.toList() );
+        // Move the columns that have aliens to the front, in order
+        int shooters = 0;
+        for ( int col = 0; col < session.wave.columns; col++ )
+        {
+            if ( bottomAliens[col] != -1 )
+                bottomAliens[shooters++] = bottomAliens[col];
+        }
 
-        if ( !shooters.isEmpty() )
+        if ( shooters > 0 )
         {
-            int shooterIndex = shooters.get( random.nextInt( shooters.size() ) );
-            int bulletIndex = alienBullet.isEmpty() ? 0 : Collections.max( alienBullet ) + 1;
+            int shooterIndex = bottomAliens[session.random.nextInt( shooters )];
+            int bulletIndex = session.alienBullet.isEmpty() ? 0 : session.alienBullet.max() + 1;
             if ( bulletIndex < GAME_UNITS )
             { // Ensure we do not exceed the limit
-                xOfAlienBullet[bulletIndex] = xOfAliens.get( shooterIndex ) + UNIT_SIZE / 2 - ALIEN_BULLET_WIDTH / 2;
-                yOfAlienBullet[bulletIndex] = yOfAliens.get( shooterIndex ) + UNIT_SIZE;
-                alienBullet.add( bulletIndex );
+                session.xOfAlienBullet[bulletIndex] =
+                    session.xOfAliens.get( shooterIndex ) + UNIT_SIZE / 2 - ALIEN_BULLET_WIDTH / 2;
+                session.yOfAlienBullet[bulletIndex] = session.yOfAliens.get( shooterIndex ) + UNIT_SIZE;
+                session.alienBullet.add( bulletIndex );
             }
         }
     }
@@ -500,23 +557,20 @@ public class GamePanel extends JPanel implements ActionListener
     private long getRandomDelay( long min, long max )
     {
         // Ensure that this provides a random delay that allows two bullets to coexist
-        long delay = randomShots.nextLong( max - min + 1 ) + min;
+        long delay = session.randomShots.nextLong( max - min + 1 ) + min;
         return delay;
     }
 
     /**
      * Resets the cooldown for alien shooting.
      *
-     * If you're keeping track of the last shot time to manage shooting frequency,
-     * this method updates the lastAlienShotTime to the current system time.
-     *
-     * If there's a stagger time or delay for alien shots, this method resets it to a default value.
+     * This method updates the lastAlienShotTime to the current game time and schedules the volley timer again, so
+     * the aliens hold their fire for the minimum stagger of the session.
      */
     public void resetAlienShootCooldown()
     {
-        this.lastAlienShotTime = System.currentTimeMillis();
-        // If there's a stagger time or delay for alien shots, reset that too
-        // this.alienShootStaggerTime = someDefaultValue;
+        session.lastAlienShotTime = session.gameTicks * GameState.DELAY;
+        session.scheduleVolley();
     }
 
     /**
@@ -530,25 +584,23 @@ public class GamePanel extends JPanel implements ActionListener
         int shipBulletSpeed = UNIT_SIZE / 2;
         int alienBulletSpeed = UNIT_SIZE / 5;
 
-        Iterator<Integer> shipIterator = shipBullet.iterator();
-        while ( shipIterator.hasNext() )
+        for ( int b = 0; b < session.shipBullet.size(); b++ )
         {
-            int index = shipIterator.next();
-            yOfShipBullet[index] -= shipBulletSpeed;
-            if ( yOfShipBullet[index] < 0 )
+            int index = session.shipBullet.get( b );
+            session.yOfShipBullet[index] -= shipBulletSpeed;
+            if ( session.yOfShipBullet[index] < 0 )
             {
-                shipIterator.remove();
+                session.shipBullet.remove( b-- );
             }
         }
 
-        Iterator<Integer> alienIterator = alienBullet.iterator();
-        while ( alienIterator.hasNext() )
+        for ( int b = 0; b < session.alienBullet.size(); b++ )
         {
-            int index = alienIterator.next();
-            yOfAlienBullet[index] += alienBulletSpeed;
-            if ( yOfAlienBullet[index] > SCREEN_HEIGHT )
+            int index = session.alienBullet.get( b );
+            session.yOfAlienBullet[index] += alienBulletSpeed;
+            if ( session.yOfAlienBullet[index] > SCREEN_HEIGHT )
             {
-                alienIterator.remove();
+                session.alienBullet.remove( b-- );
             }
         }
     }
@@ -556,73 +608,105 @@ public class GamePanel extends JPanel implements ActionListener
     /**
      * This method checks for collisions between ship bullets and aliens, as well as between alien bullets and the ship.
      * It also handles the logic for scoring, removing aliens and bullets upon collision, triggering explosions, and
-     * updating the game state.
-     *
-     * @throws ConcurrentModificationException if there is a concurrent modification while iterating through the
-     *     shipBullet or alienBullet lists
+     * updating the game state. A bullet that is removed shifts the later ones down, so the loops over the bullets stay
+     * on the same position after a removal.
      */
     void checkCollisions()
     {
-        boolean continueProcessing;
-        Iterator<Integer> shipBulletIterator = shipBullet.iterator();
+        FlightEvents.CollisionPass event = FlightEvents.recorderRunning() ? new FlightEvents.CollisionPass() : null;
+        if ( event != null )
+            event.begin();
+        collisionPairs = 0;
+        collisionHits = 0;
 
-        while ( shipBulletIterator.hasNext() )
+        boolean continueProcessing;
+        for ( int b = 0; b < session.shipBullet.size(); b++ )
         {
-            int index = shipBulletIterator.next();
-            Rectangle bulletRect =
-                new Rectangle( xOfShipBullet[index], yOfShipBullet[index], BULLET_WIDTH, BULLET_HEIGHT );
+            int index = session.shipBullet.get( b );
+            int bulletX = session.xOfShipBullet[index];
+            int bulletY = session.yOfShipBullet[index];
             continueProcessing = true; // Reset flag for each bullet
 
-            for ( int i = 0; i < xOfAliens.size() && continueProcessing; i++ )
+            for ( int i = 0; i < session.xOfAliens.size() && continueProcessing; i++ )
             {
-                Rectangle alienRect = new Rectangle( xOfAliens.get( i ), yOfAliens.get( i ), UNIT_SIZE, UNIT_SIZE );
-                if ( bulletRect.intersects( alienRect ) )
+                collisionPairs++;
+                if ( intersects( bulletX, bulletY, BULLET_WIDTH, BULLET_HEIGHT, session.xOfAliens.get( i ),
+                                 session.yOfAliens.get( i ), UNIT_SIZE, UNIT_SIZE ) )
                 {
-                    handleAlienCollision( i, shipBulletIterator );
+                    collisionHits++;
+                    handleAlienCollision( i, b-- );
                     continueProcessing = false; // Set flag to false to skip further processing
                 }
             }
 
-            if ( continueProcessing && ufoActive )
+            if ( continueProcessing && session.ufoActive && checkUfoCollision( b, bulletX, bulletY ) )
             {
-                checkUfoCollision( shipBulletIterator, bulletRect );
+                b--;
             }
         }
 
         checkAlienBulletCollisions();
         checkBulletCollisions();
         checkShelterCollisions();
+
+        if ( event != null )
+        {
+            event.end();
+            if ( event.shouldCommit() )
+            {
+                event.candidatePairs = collisionPairs;
+                event.hits = collisionHits;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Tells whether two rectangles overlap, as Rectangle.intersects does for rectangles of positive size, without
+     * creating the rectangles.
+     *
+     * @param x1 the x-coordinate of the first rectangle
+     * @param y1 the y-coordinate of the first rectangle
+     * @param width1 the width of the first rectangle
+     * @param height1 the height of the first rectangle
+     * @param x2 the x-coordinate of the second rectangle
+     * @param y2 the y-coordinate of the second rectangle
+     * @param width2 the width of the second rectangle
+     * @param height2 the height of the second rectangle
+     * @return true if the rectangles share some area
+     */
+    static boolean intersects( int x1, int y1, int width1, int height1, int x2, int y2, int width2, int height2 )
+    {
+        return x1 < x2 + width2 && x2 < x1 + width1 && y1 < y2 + height2 && y2 < y1 + height1;
     }
 
     /**
      * Checks for collisions between ship bullets and alien bullets.
      * If a collision is detected, removes the ship bullet, creates an explosion, and resets the ship bullet's position.
      *
-     * @throws NoSuchElementException if shipBulletIterator is empty
      */
     void checkBulletCollisions()
     {
-        Iterator<Integer> shipBulletIterator = shipBullet.iterator();
-
-        while ( shipBulletIterator.hasNext() )
+        for ( int b = 0; b < session.shipBullet.size(); b++ )
         {
-            Integer shipIndex = shipBulletIterator.next();
-            Rectangle shipBulletRect =
-                new Rectangle( xOfShipBullet[shipIndex], yOfShipBullet[shipIndex], BULLET_WIDTH, BULLET_HEIGHT );
+            int shipIndex = session.shipBullet.get( b );
 
-            for ( Integer alienIndex : alienBullet )
+            for ( int a = 0; a < session.alienBullet.size(); a++ )
             {
-                Rectangle alienBulletRect = new Rectangle( xOfAlienBullet[alienIndex], yOfAlienBullet[alienIndex],
-                                                           ALIEN_BULLET_WIDTH, ALIEN_BULLET_HEIGHT );
+                int alienIndex = session.alienBullet.get( a );
 
-                if ( shipBulletRect.intersects( alienBulletRect ) )
+                collisionPairs++;
+                if ( intersects( session.xOfShipBullet[shipIndex], session.yOfShipBullet[shipIndex], BULLET_WIDTH,
+                                 BULLET_HEIGHT, session.xOfAlienBullet[alienIndex], session.yOfAlienBullet[alienIndex],
+                                 ALIEN_BULLET_WIDTH, ALIEN_BULLET_HEIGHT ) )
                 {
-                    shipBulletIterator.remove();
+                    collisionHits++;
+                    session.shipBullet.remove( b-- );
                     // Explode both bullets
-                    explosions.add( new Explosion( new Point( xOfShipBullet[shipIndex], yOfShipBullet[shipIndex] ),
-                                                   explosionDuration ) );
-                    xOfShipBullet[shipIndex] = 0;
-                    yOfShipBullet[shipIndex] = 0;
+                    session.addExplosion( session.xOfShipBullet[shipIndex], session.yOfShipBullet[shipIndex],
+                                          explosionDuration );
+                    session.xOfShipBullet[shipIndex] = 0;
+                    session.yOfShipBullet[shipIndex] = 0;
                     break;
                 }
             }
@@ -633,44 +717,34 @@ public class GamePanel extends JPanel implements ActionListener
      * Handles the collision between the player's ship bullet and an alien at the specified index.
      * Triggers an explosion at the alien's position, removes the alien from the list of aliens,
      * removes the ship bullet from the iterator, scores the shot based on the alien's type,
-     * updates the player's score and high score, checks if all aliens are defeated, and adjusts
-     * the game difficulty based on the number of remaining aliens.
+     * updates the player's score, checks if all aliens are defeated, and adjusts
+     * the game difficulty based on the number of remaining aliens. The kill is published as an event, whose
+     * subscribers play its sound and raise the high score.
      *
      * @param alienIndex The index of the alien that was hit by the player's ship bullet
-     * @param shipBulletIterator An iterator for the list of ship bullets to remove the bullet after processing
+     * @param bullet The position in the list of ship bullets of the bullet that hit the alien, which is removed
      */
-    void handleAlienCollision( int alienIndex, Iterator<Integer> shipBulletIterator )
+    void handleAlienCollision( int alienIndex, int bullet )
     {
         // Trigger explosion
-        explosions.add(
-            new Explosion( new Point( xOfAliens.get( alienIndex ), yOfAliens.get( alienIndex ) ), explosionDuration ) );
-
-        // Remove the alien from the list
-        xOfAliens.remove( alienIndex );
-        yOfAliens.remove( alienIndex );
-        shipBulletIterator.remove(); // Remove the bullet after processing
+        int alienX = session.xOfAliens.get( alienIndex );
+        int alienY = session.yOfAliens.get( alienIndex );
+        session.addExplosion( alienX, alienY, explosionDuration );
 
         // Score the shot based on alien's type before removal
-        if ( alienIndex < 11 )
-        {
-            score += 30; // Assume small alien score
-        }
-        else if ( alienIndex < 33 )
-        {
-            score += 20; // Medium alien
-        }
-        else
-        {
-            score += 10; // Large alien
-        }
+        int points = session.wave.points( session.slotOfAliens.get( alienIndex ) );
+
+        // Remove the alien from the list
+        session.xOfAliens.remove( alienIndex );
+        session.yOfAliens.remove( alienIndex );
+        session.slotOfAliens.remove( alienIndex );
+        session.shipBullet.remove( bullet ); // Remove the bullet after processing
 
-        // Update the high score
-        highScore = Math.max( highScore, score );
-        if ( score > highScore )
-            Helpers.writeHighScore( highScore );
+        session.score += points;
+        publish( GameEvents.ALIEN_KILLED, alienX, alienY, points );
 
         // Check if all aliens are defeated
-        if ( xOfAliens.isEmpty() )
+        if ( session.xOfAliens.isEmpty() )
         {
             GameState.gameWon( this );
             return;
@@ -683,7 +757,7 @@ public class GamePanel extends JPanel implements ActionListener
     /**
      * Adjusts the game difficulty based on the number of remaining aliens.
      * Decreases the alien movement delay if the total number of aliens is less than a certain threshold.
-     * Updates the alien movement delay and restarts the timer if the delay has changed.
+     * The march picks up the new delay at its next step.
      *
      * @param xOfAliens a list containing the x-coordinates of all aliens
      * @param difficultyMultiplier a multiplier to adjust the difficulty of the game
@@ -691,33 +765,21 @@ public class GamePanel extends JPanel implements ActionListener
      */
     void adjustGameDifficulty()
     {
-        int totalAliens = xOfAliens.size();
-        double speedIncreaseThreshold = 55 / 1.58; // Approximately 34.8 aliens
-        int currentDelay = GameState.ALIEN_MOVEMENT_DELAY;
+        int totalAliens = session.xOfAliens.size();
+        int fullFormation = session.wave.slots();
+        double speedIncreaseThreshold = fullFormation / 1.58; // Approximately 34.8 of 55 aliens
 
         // Decrease delay based on remaining aliens
-        if ( totalAliens <= ( 55 - speedIncreaseThreshold ) )
-        { // 20.2 aliens
-            if ( GameState.ALIEN_MOVEMENT_GAMEWON_DELAY == 80 )
-                GameState.ALIEN_MOVEMENT_DELAY = Math.max( GameState.ALIEN_MOVEMENT_DELAY - 4, 3 );
-            if ( GameState.ALIEN_MOVEMENT_GAMEWON_DELAY == 60 )
-                GameState.ALIEN_MOVEMENT_DELAY = Math.max( GameState.ALIEN_MOVEMENT_DELAY - 3, 3 );
-            if ( GameState.ALIEN_MOVEMENT_GAMEWON_DELAY == 40 )
-                GameState.ALIEN_MOVEMENT_DELAY = Math.max( GameState.ALIEN_MOVEMENT_DELAY - 2, 3 );
-            if ( GameState.ALIEN_MOVEMENT_GAMEWON_DELAY == 20 )
-                GameState.ALIEN_MOVEMENT_DELAY = Math.max( GameState.ALIEN_MOVEMENT_DELAY - 1, 3 );
-        }
-
-        System.out.println( "\nAliens remaining: " + xOfAliens.size() );
-        System.out.println( "CURRENT DELAY: " + GameState.ALIEN_MOVEMENT_DELAY );
-        System.out.println( "GAME WON DELAY: " + GameState.ALIEN_MOVEMENT_GAMEWON_DELAY );
-        System.out.println( "DIFFICULTY MULTIPLIER: " + difficultyMultiplier );
-
-        // Apply delay change and restart timer if delay has changed
-        if ( currentDelay != GameState.ALIEN_MOVEMENT_DELAY )
-        {
-            GameState.alienTimer.setDelay( GameState.ALIEN_MOVEMENT_DELAY );
-            GameState.alienTimer.restart();
+        if ( totalAliens <= ( fullFormation - speedIncreaseThreshold ) )
+        { // 20.2 of 55 aliens
+            if ( session.alienMovementGameWonDelay == 80 )
+                session.setAlienMovementDelay( Math.max( session.alienMovementDelay - 4, 3 ) );
+            if ( session.alienMovementGameWonDelay == 60 )
+                session.setAlienMovementDelay( Math.max( session.alienMovementDelay - 3, 3 ) );
+            if ( session.alienMovementGameWonDelay == 40 )
+                session.setAlienMovementDelay( Math.max( session.alienMovementDelay - 2, 3 ) );
+            if ( session.alienMovementGameWonDelay == 20 )
+                session.setAlienMovementDelay( Math.max( session.alienMovementDelay - 1, 3 ) );
         }
     }
 
@@ -726,52 +788,62 @@ public class GamePanel extends JPanel implements ActionListener
      * If a collision is detected, triggers an explosion, updates the score, deactivates the UFO,
      * and removes the bullet.
      *
-     * @param shipBulletIterator An iterator for the ship's bullets
-     * @param bulletRect The rectangle representing the ship's bullet
+     * @param bullet The position of the bullet in the list of ship bullets
+     * @param bulletX The x-coordinate of the bullet
+     * @param bulletY The y-coordinate of the bullet
+     * @return true if the bullet hit the UFO and was removed
      */
-    void checkUfoCollision( Iterator<Integer> shipBulletIterator, Rectangle bulletRect )
+    boolean checkUfoCollision( int bullet, int bulletX, int bulletY )
     {
-        Rectangle ufoRect = new Rectangle( ufoX, ufoY, UNIT_SIZE * 2, UNIT_SIZE );
-        if ( bulletRect.intersects( ufoRect ) )
+        collisionPairs++;
+        if ( intersects( bulletX, bulletY, BULLET_WIDTH, BULLET_HEIGHT, session.ufoX, ufoY, UNIT_SIZE * 2, UNIT_SIZE ) )
         {
+            collisionHits++;
             // Trigger explosion
-            explosions.add( new Explosion( new Point( ufoX + UNIT_SIZE, ufoY ), explosionDuration ) );
+            session.addExplosion( session.ufoX + UNIT_SIZE, ufoY, explosionDuration );
 
             // UFO is hit, random score for hitting UFO
-            int[] possibleScores = { 50, 100, 150, 200, 300 };
-            score += possibleScores[random.nextInt( possibleScores.length )];
-            ufoActive = false;           // Deactivate UFO
-            shipBulletIterator.remove(); // Remove the bullet
+            int points = UFO_SCORES[session.random.nextInt( UFO_SCORES.length )];
+            session.score += points;
+            session.ufoActive = false;           // Deactivate UFO
+            session.shipBullet.remove( bullet ); // Remove the bullet
+            publish( GameEvents.UFO_HIT, session.ufoX, ufoY, points );
+            return true;
         }
+        return false;
     }
 
     /**
-     * Checks for collision between the alien's bullets and the ship.
+     * Checks for collision between the alien's bullets and the ships.
      * If a collision is detected, triggers an explosion for the ship, removes the bullet,
-     * subtracts a life, and triggers game over if no lives remain.
+     * subtracts a life, and triggers game over if no lives remain. In a two-player game the ships share the lives,
+     * and a bullet only hits the first ship it reaches.
      */
     void checkAlienBulletCollisions()
     {
-        Iterator<Integer> alienBulletIterator = alienBullet.iterator();
-        while ( alienBulletIterator.hasNext() )
+        for ( int b = 0; b < session.alienBullet.size(); b++ )
         {
-            int index = alienBulletIterator.next();
-            Rectangle bulletRect =
-                new Rectangle( xOfAlienBullet[index], yOfAlienBullet[index], ALIEN_BULLET_HEIGHT, ALIEN_BULLET_WIDTH );
-            Rectangle shipRect = new Rectangle( xOfShip[0], SCREEN_HEIGHT - UNIT_SIZE, UNIT_SIZE, UNIT_SIZE );
-
-            if ( bulletRect.intersects( shipRect ) )
+            int index = session.alienBullet.get( b );
+            for ( int ship = 0; ship < session.ships; ship++ )
             {
-                // Trigger explosion for ship hit
-                explosions.add(
-                    new Explosion( new Point( xOfShip[0], SCREEN_HEIGHT - UNIT_SIZE ), explosionDuration ) );
-
-                // Collision detected, remove the bullet and subtract a life
-                alienBulletIterator.remove();
-                lives--;
-                if ( lives <= 0 )
+                collisionPairs++;
+                if ( intersects( session.xOfAlienBullet[index], session.yOfAlienBullet[index], ALIEN_BULLET_HEIGHT,
+                                 ALIEN_BULLET_WIDTH, session.xOfShip[ship], SCREEN_HEIGHT - UNIT_SIZE, UNIT_SIZE,
+                                 UNIT_SIZE ) )
                 {
-                    GameState.gameOver();
+                    collisionHits++;
+                    // Trigger explosion for ship hit
+                    session.addExplosion( session.xOfShip[ship], SCREEN_HEIGHT - UNIT_SIZE, explosionDuration );
+
+                    // Collision detected, remove the bullet and subtract a life
+                    session.alienBullet.remove( b-- );
+                    session.lives--;
+                    publish( GameEvents.SHIP_HIT, session.xOfShip[ship], SCREEN_HEIGHT - UNIT_SIZE, session.lives );
+                    if ( session.lives <= 0 )
+                    {
+                        GameState.gameOver( this );
+                    }
+                    break;
                 }
             }
         }
@@ -788,42 +860,43 @@ public class GamePanel extends JPanel implements ActionListener
      */
     void checkShelterCollisions()
     {
-        List<Integer> bulletsToRemove = new ArrayList<>();
-        for ( Shelter shelter : shelters )
+        for ( Shelter shelter : session.shelters )
         {
             if ( !shelter.isDestroyed() )
             {
-                Iterator<Integer> shipBulletIterator = shipBullet.iterator();
-                while ( shipBulletIterator.hasNext() )
+                Rectangle bounds = shelter.bounds;
+                for ( int b = 0; b < session.shipBullet.size(); b++ )
                 {
-                    int bulletIndex = shipBulletIterator.next();
-                    Rectangle bulletRect = new Rectangle( xOfShipBullet[bulletIndex], yOfShipBullet[bulletIndex],
-                                                          BULLET_WIDTH, BULLET_HEIGHT );
-                    if ( bulletRect.intersects( shelter.bounds ) )
+                    int bulletIndex = session.shipBullet.get( b );
+                    collisionPairs++;
+                    if ( intersects( session.xOfShipBullet[bulletIndex], session.yOfShipBullet[bulletIndex],
+                                     BULLET_WIDTH, BULLET_HEIGHT, bounds.x, bounds.y, bounds.width, bounds.height ) )
                     {
-                        shelter.takeDamage( this );
-                        explosions.add(
-                            new Explosion( new Point( xOfShipBullet[bulletIndex] - ( ( UNIT_SIZE / 3 ) + 2 ),
-                                                      yOfShipBullet[bulletIndex] ),
-                                           explosionDuration ) );
-                        bulletsToRemove.add( bulletIndex );
+                        collisionHits++;
+                        shelter.takeDamage();
+                        publish( GameEvents.SHELTER_DAMAGED, session.xOfShipBullet[bulletIndex],
+                                 session.yOfShipBullet[bulletIndex], shelter.hitPoints );
+                        session.addExplosion( session.xOfShipBullet[bulletIndex] - ( ( UNIT_SIZE / 3 ) + 2 ),
+                                              session.yOfShipBullet[bulletIndex], explosionDuration );
+                        session.shipBullet.remove( b-- );
                     }
                 }
-                shipBullet.removeAll( bulletsToRemove );
 
-                Iterator<Integer> alienBulletIterator = alienBullet.iterator();
-                while ( alienBulletIterator.hasNext() )
+                for ( int b = 0; b < session.alienBullet.size(); b++ )
                 {
-                    int bulletIndex = alienBulletIterator.next();
-                    Rectangle bulletRect = new Rectangle( xOfAlienBullet[bulletIndex], yOfAlienBullet[bulletIndex],
-                                                          ALIEN_BULLET_WIDTH, ALIEN_BULLET_HEIGHT );
-                    if ( bulletRect.intersects( shelter.bounds ) )
+                    int bulletIndex = session.alienBullet.get( b );
+                    collisionPairs++;
+                    if ( intersects( session.xOfAlienBullet[bulletIndex], session.yOfAlienBullet[bulletIndex],
+                                     ALIEN_BULLET_WIDTH, ALIEN_BULLET_HEIGHT, bounds.x, bounds.y, bounds.width,
+                                     bounds.height ) )
                     {
-                        shelter.takeDamage( this );
-                        explosions.add(
-                            new Explosion( new Point( xOfAlienBullet[bulletIndex], yOfAlienBullet[bulletIndex] ),
-                                           explosionDuration ) );
-                        alienBulletIterator.remove();
+                        collisionHits++;
+                        shelter.takeDamage();
+                        publish( GameEvents.SHELTER_DAMAGED, session.xOfAlienBullet[bulletIndex],
+                                 session.yOfAlienBullet[bulletIndex], shelter.hitPoints );
+                        session.addExplosion( session.xOfAlienBullet[bulletIndex],
+                                              session.yOfAlienBullet[bulletIndex], explosionDuration );
+                        session.alienBullet.remove( b-- );
                     }
                 }
             }
@@ -831,111 +904,332 @@ public class GamePanel extends JPanel implements ActionListener
     }
 
     /**
-     * Responds to action events within the game such as timer ticks, handling movements of the UFO, ship, and bullets.
-     * Manages alien movements and firing, checks for collisions, and updates the state of explosions.
+     * Responds to action events within the game such as timer ticks by sampling the keys, advancing the game one tick
+     * and repainting. When the tick consumed a key press, its latency is recorded; if the tick also moved the ship or
+     * fired a bullet, the press is remembered until the next paint shows the effect. A two-player game hands the keys
+     * to NetPlay instead, which decides which ticks to run.
      */
     @Override public void actionPerformed( ActionEvent e )
     {
-        // Handle UFO movement
-        if ( ufoActive )
+        if ( netPlay != null )
         {
-            ufoX += ufoSpeed;
-            if ( ufoX > SCREEN_WIDTH )
-            { // UFO disappears after crossing the screen
-                ufoActive = false;
+            // A two-player game is ticked by its rollback session, which keeps its own saved states
+            netPlay.advance( input.sample() );
+            repaint();
+            return;
+        }
+
+        try
+        {
+            InputRecorder.apply( session, input.sample() );
+            int shipX = session.xOfShip[0];
+            int shipBullets = session.shipBullet.size();
+            tick();
+            long pressedAt = input.pressedAt();
+            if ( pressedAt >= 0 )
+            {
+                FrameMetrics.recordKeyToTick( System.nanoTime() - pressedAt );
+                if ( effectPressedAt < 0 && ( session.xOfShip[0] != shipX || session.shipBullet.size() > shipBullets ) )
+                    effectPressedAt = pressedAt;
             }
+            if ( session.gameTicks % ROLLBACK_INTERVAL == 0 )
+                rollbackPoint = save( rollbackPoint );
+        }
+        catch ( RuntimeException ex )
+        {
+            System.err.println( "Problem running tick " + session.gameTicks + ", rolling back." );
+            ex.printStackTrace();
+            if ( rollbackPoint != null )
+                restore( rollbackPoint );
+        }
+        repaint();
+    }
+
+    /**
+     * Publishes an event of the game on the event bus, unless the panel is headless or the tick is being replayed
+     * after a rollback and already published it.
+     *
+     * @param type the type of the event, one of the GameEvents event type constants
+     * @param x the x coordinate of the event
+     * @param y the y coordinate of the event
+     * @param value the value of the event, which depends on its type
+     */
+    void publish( int type, int x, int y, int value )
+    {
+        if ( events != null && !resimulating )
+            events.publish( type, session, x, y, value );
+    }
+
+    /**
+     * Restarts the game when the replay button is pressed. A two-player game restarts on the tick both players agree
+     * on, so the press is sent to the other player as input instead.
+     */
+    private void replayPressed()
+    {
+        if ( netPlay == null )
+        {
+            GameState.restartGame( this );
+            return;
         }
+        replayButton.setEnabled( false );
+        netPlay.requestRestart();
+    }
+
+    /**
+     * Saves a snapshot of the game into a buffer, allocating the buffer on first use.
+     *
+     * @param buffer the buffer to reuse, or null
+     * @return the buffer holding the snapshot, flipped for reading
+     */
+    private ByteBuffer save( ByteBuffer buffer )
+    {
+        if ( buffer == null )
+            buffer = ByteBuffer.allocate( Snapshot.MAX_SIZE );
+        buffer.clear();
+        Snapshot.save( session, buffer );
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Restores the game from a snapshot and resumes or stops the game to match it. The buffer is rewound afterwards,
+     * so the same snapshot can be restored again.
+     *
+     * @param buffer the buffer holding the snapshot, positioned at it
+     */
+    private void restore( ByteBuffer buffer )
+    {
+        buffer.mark();
+        Snapshot.restore( session, buffer );
+        buffer.reset();
+        GameState.snapshotRestored( this );
+    }
+
+    /**
+     * Saves the game into the quick-save slot, replacing the previous quick-save.
+     */
+    void quickSave() { quickSave = save( quickSave ); }
+
+    /**
+     * Restores the game from the quick-save slot. Does nothing if there is no quick-save, or while recording, since
+     * the recording cannot represent a jump back in time.
+     */
+    void quickLoad()
+    {
+        if ( quickSave == null )
+            return;
+        if ( recorder != null )
+        {
+            System.err.println( "Quick-load is disabled while recording." );
+            return;
+        }
+        if ( netPlay != null )
+        {
+            System.err.println( "Quick-load is disabled in a two-player game." );
+            return;
+        }
+        restore( quickSave );
+    }
+
+    /**
+     * Advances the session's timer wheel to the current tick, which removes the explosions that have run their
+     * course and ends the stagger after an alien volley, then acts on the march and UFO timers. The formation steps
+     * once for every ALIEN_MOVEMENT_DELAY milliseconds that have elapsed, several times in one tick if the delay is
+     * shorter than a tick, and a UFO is launched every ufoInterval milliseconds.
+     */
+    void advanceTimers()
+    {
+        session.timers.advance( session.gameTicks, session );
+
+        if ( session.marchTimer == TimerWheel.NONE )
+        {
+            session.marchBaseMillis = session.marchMillis();
+            session.marchBaseTick = session.gameTicks;
+            while ( session.marchBaseMillis >= session.alienMovementDelay )
+            {
+                moveAliens();
+                session.marchBaseMillis -= session.alienMovementDelay;
+            }
+            session.scheduleMarch();
+        }
+
+        if ( session.ufoTimer == TimerWheel.NONE )
+        {
+            session.ufoX = 0;
+            session.ufoActive = true;
+            session.resetUfoCountdown();
+            publish( GameEvents.UFO_SPAWNED, session.ufoX, ufoY, 0 );
+        }
+    }
+
+    /**
+     * Advances the game by one tick, handling movements of the UFO, ship, and bullets. Fires the timers due on this
+     * tick, manages alien firing and checks for collisions. For an interactive panel the duration of each stage is
+     * recorded in FrameMetrics; headless panels leave the metrics of the running game alone, so tools can tick many of
+     * them on many threads without contending on the shared histograms.
+     */
+    void tick()
+    {
+        FlightEvents.Tick event = FlightEvents.recorderRunning() ? new FlightEvents.Tick() : null;
+        if ( event != null )
+            event.begin();
+        long allocatedAtStart = interactive ? FrameMetrics.threadAllocatedBytes() : -1;
+        long tickStart = System.nanoTime();
+        if ( interactive && netPlay == null )
+            GameStats.applyPendingTuning( session );
+        session.gameTicks++;
+        if ( recorder != null )
+            recorder.recordInput( session );
 
         // Ship movement and bullet firing
-        if ( shipMoving )
+        if ( session.shipMoving )
         {
             moveShip();
         }
-        if ( shipShooting && shipBullet.isEmpty() )
+        if ( session.shipShooting && session.shipBullet.size() < session.maxShipBullets * session.ships )
         {
             bulletsFromShip();
         }
+        if ( session.ships > 1 )
+        {
+            steerSecondShip();
+        }
+        long inputEnd = System.nanoTime();
+
+        // Alien march, UFO spawns, volley stagger and explosion expiry
+        advanceTimers();
+        long timersEnd = System.nanoTime();
+
+        // Handle UFO movement
+        if ( session.ufoActive )
+        {
+            session.ufoX += ufoSpeed;
+            if ( session.ufoX > SCREEN_WIDTH )
+            { // UFO disappears after crossing the screen
+                session.ufoActive = false;
+            }
+        }
 
         // Alien movement and bullet firing
         moveBullets();
         bulletsFromAliens();
+        long movementEnd = System.nanoTime();
+
         checkCollisions();
+        long tickEnd = System.nanoTime();
 
-        // Update explosion timers
-        Iterator<Explosion> expIterator = explosions.iterator();
-        while ( expIterator.hasNext() )
+        if ( interactive )
+        {
+            FrameMetrics.record( FrameMetrics.INPUT, inputEnd - tickStart );
+            FrameMetrics.record( FrameMetrics.TIMERS, timersEnd - inputEnd );
+            FrameMetrics.record( FrameMetrics.MOVEMENT, movementEnd - timersEnd );
+            FrameMetrics.record( FrameMetrics.COLLISIONS, tickEnd - movementEnd );
+            FrameMetrics.record( FrameMetrics.TICK, tickEnd - tickStart );
+            if ( allocatedAtStart >= 0 )
+                FrameMetrics.recordTickAllocation( FrameMetrics.threadAllocatedBytes() - allocatedAtStart );
+            GameStats.tickCompleted( this, tickEnd - tickStart );
+        }
+        if ( recorder != null )
+            recorder.tickCompleted( this );
+        if ( spectators != null )
+            spectators.tickCompleted( session );
+        if ( worldState != null && !resimulating )
+            worldState.tickCompleted( session, inputEnd - tickStart, timersEnd - inputEnd, movementEnd - timersEnd,
+                                      tickEnd - movementEnd );
+        if ( events != null )
+            events.tickCompleted();
+
+        if ( event != null )
         {
-            Explosion exp = expIterator.next();
-            exp.timer--;
-            if ( exp.timer <= 0 )
+            event.end();
+            if ( event.shouldCommit() )
             {
-                expIterator.remove(); // Remove explosion once finished
+                event.aliens = session.xOfAliens.size();
+                event.shipBullets = session.shipBullet.size();
+                event.alienBullets = session.alienBullet.size();
+                event.explosions = session.explosions.size();
+                event.commit();
             }
         }
-
-        repaint();
     }
 
     /**
      * MyKeyAdapter is a class that extends KeyAdapter and handles key events for a game.
-     * It provides methods for handling key presses and releases to control the game's ship movement and shooting.
+     * Presses and releases of the ship buttons are queued for the game loop, which samples them at the start of the
+     * next tick; the other keys act immediately.
      */
     public class MyKeyAdapter extends KeyAdapter
     {
         /**
          * keyPressed is a method that is called when a key is pressed.
-         * It checks the key code and updates the direction queue accordingly.
-         * If the space key is pressed, it triggers shooting bullets from the ship.
+         * It queues a press of a ship button, or handles the overlay, quick-save, quick-load, clock and music keys.
          *
          * @param e The KeyEvent object representing the key event
          */
         @Override public void keyPressed( KeyEvent e )
         {
-            synchronized ( directionQueue )
+            int button = InputRing.buttonOf( e.getKeyCode() );
+            if ( button != 0 )
             {
-                char newDirection = ' ';
-                switch ( e.getKeyCode() )
-                {
-                case KeyEvent.VK_LEFT:
-                case KeyEvent.VK_A:
-                    newDirection = 'L';
-                    break;
-
-                case KeyEvent.VK_RIGHT:
-                case KeyEvent.VK_D:
-                    newDirection = 'R';
-                    break;
+                input.offer( button, true, System.nanoTime() );
+                return;
+            }
 
-                case KeyEvent.VK_SPACE:
-                    if ( shipBullet.isEmpty() )
-                    {
-                        shipShooting = true;
-                        bulletsFromShip();
-                    }
-                    return; // Skip direction queueing for shooting
-                }
-                if ( newDirection != ' ' && ( directionQueue.isEmpty() || directionQueue.getLast() != newDirection ) )
-                {
-                    directionQueue.add( newDirection );
-                }
+            switch ( e.getKeyCode() )
+            {
+            case KeyEvent.VK_F3:
+                FrameMetrics.toggleOverlay();
+                repaint();
+                break;
+
+            case KeyEvent.VK_F5:
+                quickSave();
+                break;
+
+            case KeyEvent.VK_F9:
+                quickLoad();
+                break;
+
+            case KeyEvent.VK_P:
+                clock.setPaused( !clock.isPaused() );
+                break;
+
+            case KeyEvent.VK_PERIOD:
+                clock.step();
+                break;
+
+            case KeyEvent.VK_OPEN_BRACKET:
+                clock.setSpeed( clock.speed() / 2 );
+                break;
+
+            case KeyEvent.VK_CLOSE_BRACKET:
+                clock.setSpeed( clock.speed() * 2 );
+                break;
+
+            case KeyEvent.VK_M:
+                Helpers.setMusicPaused( !Helpers.isMusicPaused() );
+                break;
+
+            case KeyEvent.VK_MINUS:
+                Helpers.setMusicVolume( Helpers.getMusicVolume() - 0.1f );
+                break;
+
+            case KeyEvent.VK_EQUALS:
+                Helpers.setMusicVolume( Helpers.getMusicVolume() + 0.1f );
+                break;
             }
         }
 
         /**
-         * Clears the direction queue and stops the ship from moving and shooting when a key is released.
+         * Queues a release of a ship button.
          *
          * @param e The KeyEvent object representing the key that was released
-         * @throws NullPointerException if the KeyEvent object is null
          */
         @Override public void keyReleased( KeyEvent e )
         {
-            synchronized ( directionQueue )
-            {
-                // Clear the direction queue when the key is released
-                directionQueue.clear();
-            }
-            shipMoving = false;
-            shipShooting = false; // Ensure we stop shooting when space is released
+            int button = InputRing.buttonOf( e.getKeyCode() );
+            if ( button != 0 )
+                input.offer( button, false, System.nanoTime() );
         }
     }
 }
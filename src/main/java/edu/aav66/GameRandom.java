@@ -0,0 +1,75 @@
+package edu.aav66;
+
+/**
+ * Seedable random number generator for the simulation. Unlike java.util.Random its whole state is a single long that
+ * can be read and restored, so a game started from the same seed, or resumed from a saved state, makes exactly the
+ * same random choices. The sequence is SplitMix64, which is fast and passes the usual statistical tests.
+ */
+final class GameRandom
+{
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    private long state;
+
+    /**
+     * Constructs a generator.
+     *
+     * @param seed the seed; equal seeds produce equal sequences
+     */
+    GameRandom( long seed ) { this.state = seed; }
+
+    /**
+     * Retrieves the state of the generator.
+     *
+     * @return the state, which restores the current position in the sequence when passed to setState
+     */
+    long getState() { return state; }
+
+    /**
+     * Restores a state previously read with getState.
+     *
+     * @param state the state to continue from
+     */
+    void setState( long state ) { this.state = state; }
+
+    /**
+     * Generates the next value of the sequence.
+     *
+     * @return a uniformly distributed long
+     */
+    long nextLong()
+    {
+        long z = ( state += GOLDEN_GAMMA );
+        z = ( z ^ ( z >>> 30 ) ) * 0xBF58476D1CE4E5B9L;
+        z = ( z ^ ( z >>> 27 ) ) * 0x94D049BB133111EBL;
+        return z ^ ( z >>> 31 );
+    }
+
+    /**
+     * Generates a value between 0 (inclusive) and the bound (exclusive).
+     *
+     * @param bound the upper bound, must be positive
+     * @return a uniformly distributed value below the bound
+     * @throws IllegalArgumentException if the bound is not positive
+     */
+    int nextInt( int bound )
+    {
+        if ( bound <= 0 )
+            throw new IllegalArgumentException( "bound must be positive" );
+        return (int)( ( ( nextLong() >>> 32 ) * bound ) >>> 32 );
+    }
+
+    /**
+     * Generates a value between 0 (inclusive) and the bound (exclusive).
+     *
+     * @param bound the upper bound, must be positive
+     * @return a value below the bound
+     * @throws IllegalArgumentException if the bound is not positive
+     */
+    long nextLong( long bound )
+    {
+        if ( bound <= 0 )
+            throw new IllegalArgumentException( "bound must be positive" );
+        return ( nextLong() >>> 1 ) % bound;
+    }
+}
@@ -0,0 +1,446 @@
+package edu.aav66;
+
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The state of one game: the ships, formation, bullets, UFO, shelters, explosions, score, lives, difficulty, the game
+ * clock and the random generators. A GamePanel owns one session and simulates it; nothing in a session is static, so
+ * any number of games can run side by side in one process. Restarting a game replaces the session with a fresh one
+ * that continues the random streams of the previous one, so a restarted game is as reproducible as the first.
+ *
+ * Every gameplay timer is a timer on the session's TimerWheel, counted in ticks: the march of the formation, UFO
+ * spawns, the stagger between alien volleys and the expiry of explosions. A session is the handler of its wheel.
+ *
+ * The wave being played, from the campaign of the session, lays out the formation and shelters and sets the march and
+ * the fire rate of the aliens. The ship bullet limit and the UFO interval, also tunable over JMX, belong to the session
+ * too and carry over to a restarted game. Constants and the high score, which belongs to the player rather than to a
+ * game, stay static on GamePanel and GameState.
+ */
+class GameSession implements TimerWheel.Handler
+{
+    // Kinds of timers on the wheel
+    static final int MARCH = 0;
+    static final int UFO = 1;
+    static final int VOLLEY = 2;
+    static final int EXPLOSION = 3;
+
+    static final int MAX_SHIPS = 2;
+    static final int DEFAULT_MAX_SHIP_BULLETS = 1;
+    static final int DEFAULT_UFO_INTERVAL = 20000; // 20 seconds
+
+    // Indices of the bullets on screen, oldest first
+    final IntList shipBullet = new IntList();
+    final IntList alienBullet = new IntList();
+
+    // Ship and Bullet Coordinates
+    final int[] xOfShip = new int[MAX_SHIPS];
+    int ships = 1;           // Ships in play; the first is steered by the ship fields below, the second by its input
+    int secondShipInput = 0; // Input byte of the second ship for the current tick, in the InputRecorder format
+
+    // Only the entries listed in the bullet lists are meaningful
+    final int[] xOfShipBullet;
+    final int[] yOfShipBullet;
+
+    final int[] xOfAlienBullet;
+    final int[] yOfAlienBullet;
+
+    long lastAlienShotTime = 0; // Game time in milliseconds
+
+    // Fire rate of the aliens, set by the wave and tunable over JMX until the next wave
+    int maxAlienBullets;
+    long minAlienShotStagger;
+    long maxAlienShotStagger;
+
+    // Bullets each ship may have on screen and milliseconds between UFOs, tunable over JMX
+    int maxShipBullets = DEFAULT_MAX_SHIP_BULLETS;
+    int ufoInterval = DEFAULT_UFO_INTERVAL;
+
+    // Waves played, from the waves resource, and the wave the formation was laid out from
+    List<Waves.Wave> campaign;
+    Waves.Wave wave;
+
+    // Alien Coordinates
+    final IntList xOfAliens = new IntList();
+    final IntList yOfAliens = new IntList();
+    final IntList slotOfAliens = new IntList(); // Grid slot of every alien, which gives its type and column
+    int formationX = 0; // Distance the formation has marched from its starting position
+    int formationY = 0;
+
+    // Game state
+    int lives = 3;
+    int score = 0;
+    boolean isGameOver = false;
+    int difficultyMultiplier = 0;
+    int alienMovementDelay;
+    int alienMovementGameWonDelay;
+    int finalWave = 1; // Wave the game ended on, kept since the difficulty is reset at game over
+
+    // Ship
+    char shipDirection = ' ';
+    boolean shipMoving = true;
+    boolean shipShooting = false;
+
+    // Aliens
+    char aliensDirection = 'R';
+    boolean aliensMoving = true;
+    boolean alienShooting = true;
+
+    // UFO
+    int ufoX;
+    boolean ufoActive = false;
+
+    // Random generators
+    final GameRandom random;
+    final GameRandom randomShots;
+
+    // Game clock: every gameplay timer counts ticks of GameState.DELAY milliseconds on the wheel
+    long gameTicks = 0;
+    final TimerWheel timers;
+    int marchTimer = TimerWheel.NONE;  // Next step of the formation
+    int ufoTimer = TimerWheel.NONE;    // Next UFO
+    int volleyTimer = TimerWheel.NONE; // End of the stagger after an alien volley, NONE once the aliens may fire
+    long marchBaseMillis = 0;          // Milliseconds of march owed as of marchBaseTick
+    long marchBaseTick = 0;
+    long ufoCountdownStart = 0;        // Tick the UFO countdown started on
+
+    // Explosions and shelters
+    final List<Explosion> explosions;
+    private final List<Explosion> expiredExplosions; // Reused by the next explosions
+    final List<Shelter> shelters = new ArrayList<>();
+
+    /**
+     * Creates the first session of a game from its seed.
+     *
+     * @param seed the seed of the game's random choices
+     */
+    GameSession( long seed )
+    {
+        random = new GameRandom( seed );
+        randomShots = new GameRandom( random.nextLong() );
+        timers = new TimerWheel();
+        explosions = new ArrayList<>();
+        expiredExplosions = new ArrayList<>();
+        xOfShipBullet = new int[GamePanel.GAME_UNITS];
+        yOfShipBullet = new int[GamePanel.GAME_UNITS];
+        xOfAlienBullet = new int[GamePanel.GAME_UNITS];
+        yOfAlienBullet = new int[GamePanel.GAME_UNITS];
+        campaign = Waves.campaign();
+        init();
+    }
+
+    /**
+     * Creates a fresh session for a restarted game, continuing the random streams of the previous session. The
+     * bullet coordinate arrays, the timer wheel and the lists of explosions, whose explosions all become expired ones,
+     * are taken over rather than allocated again, since a fresh session has no bullets, timers or explosions yet, so
+     * the previous session must not be used afterwards.
+     *
+     * @param previous the session of the game being restarted
+     */
+    GameSession( GameSession previous )
+    {
+        random = previous.random;
+        randomShots = previous.randomShots;
+        timers = previous.timers;
+        timers.reset( 0 );
+        explosions = previous.explosions;
+        expiredExplosions = previous.expiredExplosions;
+        expiredExplosions.addAll( explosions );
+        explosions.clear();
+        xOfShipBullet = previous.xOfShipBullet;
+        yOfShipBullet = previous.yOfShipBullet;
+        xOfAlienBullet = previous.xOfAlienBullet;
+        yOfAlienBullet = previous.yOfAlienBullet;
+        ships = previous.ships;
+        maxShipBullets = previous.maxShipBullets;
+        ufoInterval = previous.ufoInterval;
+        campaign = previous.campaign;
+        init();
+    }
+
+    /**
+     * Places the ships, the formation and the shelters of the first wave of the campaign for the start of a game, and
+     * starts its timers.
+     */
+    private void init()
+    {
+        startWave();
+        alienMovementDelay = wave.marchDelay;
+        alienMovementGameWonDelay = wave.marchDelay;
+        placeShips();
+        GameState.initAliens( this );
+        GameState.initShelters( this );
+        scheduleMarch();
+        scheduleUfo();
+        scheduleVolley();
+    }
+
+    /**
+     * Replaces the campaign of a game that has not started yet, such as a headless game playing the stress waves, and
+     * lays out its first wave instead.
+     *
+     * @param waves the waves to play in order, the last one repeating
+     */
+    void playWaves( List<Waves.Wave> waves )
+    {
+        campaign = waves;
+        xOfAliens.clear();
+        yOfAliens.clear();
+        slotOfAliens.clear();
+        init();
+    }
+
+    /**
+     * Picks the wave of the current difficulty from the campaign and takes over its fire rate. The formation, the
+     * shelters and the march are laid out by the caller.
+     */
+    void startWave()
+    {
+        wave = waveAt( difficultyMultiplier );
+        maxAlienBullets = wave.maxBullets;
+        minAlienShotStagger = wave.minStagger;
+        maxAlienShotStagger = wave.maxStagger;
+    }
+
+    /**
+     * Looks up the wave played at a difficulty.
+     *
+     * @param difficulty the number of waves cleared
+     * @return the wave of the campaign at that position, or its last wave past the end
+     */
+    Waves.Wave waveAt( int difficulty ) { return campaign.get( Math.min( difficulty, campaign.size() - 1 ) ); }
+
+    /**
+     * Places the ships evenly across the bottom of the screen, which centres a single ship.
+     */
+    void placeShips()
+    {
+        for ( int ship = 0; ship < ships; ship++ )
+        {
+            xOfShip[ship] = GamePanel.SCREEN_WIDTH * ( ship + 1 ) / ( ships + 1 ) - GamePanel.UNIT_SIZE / 2;
+        }
+    }
+
+    /**
+     * Brings a second ship into the game, for two players sharing the lives and the score, and places both ships.
+     */
+    void addSecondShip()
+    {
+        ships = MAX_SHIPS;
+        placeShips();
+    }
+
+    /**
+     * Computes how far the march has come towards the next step of the formation.
+     *
+     * @return the milliseconds of march owed as of the current tick, a step is due once they reach the movement delay
+     */
+    long marchMillis() { return marchBaseMillis + ( gameTicks - marchBaseTick ) * GameState.DELAY; }
+
+    /**
+     * Computes how far the UFO countdown has come.
+     *
+     * @return the milliseconds elapsed since the countdown started
+     */
+    long ufoMillis() { return ( gameTicks - ufoCountdownStart ) * GameState.DELAY; }
+
+    /**
+     * Changes the delay between two steps of the formation, moving the next step to match.
+     *
+     * @param delay the new delay in milliseconds
+     */
+    void setAlienMovementDelay( int delay )
+    {
+        alienMovementDelay = delay;
+        scheduleMarch();
+    }
+
+    /**
+     * Restarts the alien march so that the next step happens one full movement delay from now.
+     */
+    void resetAlienMarch()
+    {
+        marchBaseMillis = 0;
+        marchBaseTick = gameTicks;
+        scheduleMarch();
+    }
+
+    /**
+     * Restarts the UFO countdown so that the next UFO appears one full interval from now.
+     */
+    void resetUfoCountdown()
+    {
+        ufoCountdownStart = gameTicks;
+        scheduleUfo();
+    }
+
+    /**
+     * Schedules the next step of the formation on the first tick whose march reaches the movement delay, replacing
+     * the pending one.
+     */
+    void scheduleMarch()
+    {
+        timers.cancel( marchTimer );
+        long owed = alienMovementDelay - marchMillis();
+        marchTimer = timers.schedule( Math.floorDiv( owed + GameState.DELAY - 1, GameState.DELAY ), MARCH, null );
+    }
+
+    /**
+     * Schedules the next UFO one ufoInterval after the countdown started, replacing the pending one. A UFO that is
+     * already overdue, after the interval was shortened, appears on the next tick.
+     */
+    void scheduleUfo()
+    {
+        timers.cancel( ufoTimer );
+        long interval = Math.floorDiv( ufoInterval + GameState.DELAY - 1, GameState.DELAY );
+        ufoTimer = timers.schedule( ufoCountdownStart + interval - gameTicks, UFO, null );
+    }
+
+    /**
+     * Schedules the end of the stagger after the last alien volley, minAlienShotStagger after
+     * lastAlienShotTime, replacing the pending one. If the stagger is already over, the aliens may fire on the next
+     * tick and no timer is left pending.
+     */
+    void scheduleVolley()
+    {
+        timers.cancel( volleyTimer );
+        volleyTimer = TimerWheel.NONE;
+        long ready = Math.floorDiv( lastAlienShotTime + minAlienShotStagger + GameState.DELAY - 1, GameState.DELAY );
+        if ( ready > gameTicks )
+            volleyTimer = timers.schedule( ready - gameTicks, VOLLEY, null );
+    }
+
+    /**
+     * Adds an explosion that is shown for a number of ticks, counting the current one, and schedules its expiry. An
+     * expired explosion is reused if there is one, so that hits do not allocate.
+     *
+     * @param x the x-coordinate of the explosion
+     * @param y the y-coordinate of the explosion
+     * @param ticks the number of ticks the explosion lasts, at least 2 for it to be painted
+     */
+    void addExplosion( int x, int y, int ticks )
+    {
+        Explosion explosion;
+        if ( expiredExplosions.isEmpty() )
+        {
+            explosion = new Explosion( new Point( x, y ) );
+        }
+        else
+        {
+            explosion = expiredExplosions.remove( expiredExplosions.size() - 1 );
+            explosion.location.setLocation( x, y );
+        }
+        explosion.expiry = timers.schedule( ticks - 1, EXPLOSION, explosion );
+        explosions.add( explosion );
+    }
+
+    /**
+     * Cancels every timer and moves the wheel to the current tick, as before the timers of a restored snapshot are
+     * scheduled again.
+     */
+    void resetTimers()
+    {
+        timers.reset( gameTicks );
+        marchTimer = TimerWheel.NONE;
+        ufoTimer = TimerWheel.NONE;
+        volleyTimer = TimerWheel.NONE;
+    }
+
+    /**
+     * Handles an expired timer. The march, UFO and volley timers are only marked as expired, so that the tick acts on
+     * them in a fixed order; an expired explosion is removed and kept for reuse.
+     *
+     * @param kind the kind of the timer
+     * @param target the explosion for an explosion timer, otherwise null
+     */
+    @Override public void expired( int kind, Object target )
+    {
+        switch ( kind )
+        {
+        case MARCH:
+            marchTimer = TimerWheel.NONE;
+            break;
+        case UFO:
+            ufoTimer = TimerWheel.NONE;
+            break;
+        case VOLLEY:
+            volleyTimer = TimerWheel.NONE;
+            break;
+        case EXPLOSION:
+            explosions.remove( target );
+            expiredExplosions.add( (Explosion)target );
+            break;
+        }
+    }
+
+    /**
+     * Computes a checksum of the simulation state: the ships, formation, bullets, UFO, shelters, score, lives,
+     * difficulty, timers and random generators. Two games that have stayed in step have equal checksums; explosions
+     * and anything else that cannot influence the following ticks are left out. The second ship only counts when it
+     * is in play, so one-player games keep the checksums of recordings made before it existed.
+     *
+     * @return the checksum, an FNV-1a hash folded to 32 bits
+     */
+    int stateChecksum()
+    {
+        long hash = 0xCBF29CE484222325L;
+        hash = mix( hash, xOfShip[0] );
+        if ( ships > 1 )
+            hash = mix( hash, xOfShip[1] );
+        hash = mix( hash, aliensDirection );
+        for ( int i = 0; i < xOfAliens.size(); i++ )
+        {
+            hash = mix( hash, xOfAliens.get( i ) );
+            hash = mix( hash, yOfAliens.get( i ) );
+            hash = mix( hash, slotOfAliens.get( i ) );
+        }
+        for ( int i = 0; i < shipBullet.size(); i++ )
+        {
+            int index = shipBullet.get( i );
+            hash = mix( hash, index );
+            hash = mix( hash, xOfShipBullet[index] );
+            hash = mix( hash, yOfShipBullet[index] );
+        }
+        for ( int i = 0; i < alienBullet.size(); i++ )
+        {
+            int index = alienBullet.get( i );
+            hash = mix( hash, index );
+            hash = mix( hash, xOfAlienBullet[index] );
+            hash = mix( hash, yOfAlienBullet[index] );
+        }
+        for ( Shelter shelter : shelters )
+        {
+            hash = mix( hash, shelter.hitPoints );
+        }
+        hash = mix( hash, ufoActive ? ufoX : -1 );
+        hash = mix( hash, score );
+        hash = mix( hash, lives );
+        hash = mix( hash, isGameOver ? 1 : 0 );
+        hash = mix( hash, difficultyMultiplier );
+        hash = mix( hash, alienMovementDelay );
+        hash = mix( hash, lastAlienShotTime );
+        hash = mix( hash, marchMillis() );
+        hash = mix( hash, ufoMillis() );
+        hash = mix( hash, random.getState() );
+        hash = mix( hash, randomShots.getState() );
+        return (int)( hash ^ ( hash >>> 32 ) );
+    }
+
+    /**
+     * Folds one value into an FNV-1a hash, one byte at a time.
+     *
+     * @param hash the hash so far
+     * @param value the value to add
+     * @return the updated hash
+     */
+    private static long mix( long hash, long value )
+    {
+        for ( int i = 0; i < 8; i++ )
+        {
+            hash = ( hash ^ ( value & 0xFF ) ) * 0x100000001B3L;
+            value >>>= 8;
+        }
+        return hash;
+    }
+}
@@ -1,9 +1,7 @@
 package edu.aav66;
 
 import java.awt.*;
-import java.awt.event.*;
 import javax.swing.JButton;
-import javax.swing.Timer;
 
 /**
  * This class represents the game state of the game. It contains methods for starting the game, initializing timers,
@@ -12,248 +10,277 @@ import javax.swing.Timer;
 class GameState
 {
     static final int DELAY = 16;
-    static int ALIEN_MOVEMENT_DELAY = 80;
-    static int ALIEN_MOVEMENT_RESET_DELAY = 80;
-    static int ALIEN_MOVEMENT_GAMEWON_DELAY = ALIEN_MOVEMENT_RESET_DELAY - ( GamePanel.difficultyMultiplier * 20 );
 
     // Font Constants
     private static final Font UI_FONT = new Font( "Futura", Font.PLAIN, 20 );    // Font for UI text
     private static final Font LARGE_FONT = new Font( "Futura", Font.BOLD, 75 );  // Font for large text
     private static final Font MEDIUM_FONT = new Font( "Futura", Font.BOLD, 40 ); // Font for medium text
 
-    // Processes
-    static Timer timer;
-    static Timer alienTimer;
-    static Timer ufoTimer;
-    static JButton replayButton;
+    private static final int LEADERBOARD_ROWS = 5; // Rows shown on the game over screen
+
+    // Shelters
+    static final int SHELTER_Y = GamePanel.SCREEN_HEIGHT - 3 * GamePanel.UNIT_SIZE; // Top of the shelters
 
     /**
      * Starts the game by enabling ship and alien movements and firing capabilities, hiding the replay button,
-     * and starting the main game timer along with alien and UFO timers. This sets up the game for active gameplay.
+     * and starting the game clock. The alien march and UFO spawns are driven by the ticks of that clock. This
+     * sets up the game for active gameplay.
      *
      * @param panel the GamePanel object representing the game panel
      */
     static void startGame( GamePanel panel )
     {
-        replayButton.setEnabled( false );
-        replayButton.setVisible( false );
+        panel.replayButton.setEnabled( false );
+        panel.replayButton.setVisible( false );
 
-        GamePanel.shipMoving = true;
-        GamePanel.aliensMoving = true;
-        GamePanel.alienShooting = true;
+        panel.session.shipMoving = true;
+        panel.session.aliensMoving = true;
+        panel.session.alienShooting = true;
 
-        timer = new Timer( DELAY, panel );
-        timer.start();
-        alienTimer.start();
+        panel.clock.start();
     }
 
     /**
-     * Sets the game to the game over state. This method stops all game timers, resets the UFO and alien settings,
-     * updates and possibly records the high score, and displays the replay button.
+     * Sets the game to the game over state. This method resets the UFO and alien settings and, except in a two-player
+     * game, shows the end of the game with showGameOver.
+     *
+     * @param panel the GamePanel object whose game is over
      */
-    static void gameOver()
+    static void gameOver( GamePanel panel )
     {
         // Set the game over state
-        GamePanel.isGameOver = true;
-        GamePanel.difficultyMultiplier = 0;
-        ALIEN_MOVEMENT_GAMEWON_DELAY = ALIEN_MOVEMENT_RESET_DELAY - ( GamePanel.difficultyMultiplier * 20 );
+        panel.session.isGameOver = true;
+        panel.session.finalWave = panel.session.difficultyMultiplier + 1;
+        panel.session.difficultyMultiplier = 0;
+        int resetDelay = panel.session.waveAt( 0 ).marchDelay;
+        panel.session.alienMovementGameWonDelay = resetDelay - ( panel.session.difficultyMultiplier * 20 );
 
-        ALIEN_MOVEMENT_DELAY = ALIEN_MOVEMENT_RESET_DELAY;
+        panel.session.setAlienMovementDelay( resetDelay );
 
-        ufoTimer.stop();
-        GamePanel.ufoActive = false;
-        alienTimer.stop();
-        timer.stop();
+        panel.session.ufoActive = false;
 
-        // Update the high score
-        GamePanel.highScore = Math.max( GamePanel.highScore, GamePanel.score );
-        if ( GamePanel.score > GamePanel.highScore )
-            Helpers.writeHighScore( GamePanel.highScore );
+        // A two-player game may still roll back past its end, so NetPlay shows it once both inputs are known
+        if ( panel.netPlay == null )
+            showGameOver( panel );
+    }
+
+    /**
+     * Shows the end of a game: stops the game clock, publishes the end of the game, whose persistence subscriber
+     * records it on the leaderboard and updates the high score, and displays the replay button. The length of the game
+     * is recorded in game time, so time spent paused or at another speed does not count. The clock of a two-player
+     * game keeps running, since a restart is agreed over the network.
+     *
+     * @param panel the GamePanel object whose game is over
+     */
+    static void showGameOver( GamePanel panel )
+    {
+        if ( panel.netPlay == null )
+            panel.clock.stop();
+        long durationMillis = panel.session.gameTicks * DELAY;
+        panel.publish( GameEvents.GAME_OVER, 0, 0, (int)Math.min( durationMillis, Integer.MAX_VALUE ) );
+        setupReplayButton( panel );
+    }
+
+    /**
+     * Persists what an event changed: raises the high score when the score went up and records finished games on the
+     * leaderboard. Runs on the persistence thread of the event bus. A two-player game may still roll back the score of
+     * a tick, so its high score is only raised once its end is certain.
+     *
+     * @param panel the GamePanel object that published the event
+     * @param event the event
+     */
+    static void persist( GamePanel panel, GameEvents.Event event )
+    {
+        switch ( event.type )
+        {
+        case GameEvents.ALIEN_KILLED:
+        case GameEvents.UFO_HIT:
+        case GameEvents.WAVE_CLEARED:
+            if ( panel.netPlay == null )
+                raiseHighScore( event.score );
+            break;
+        case GameEvents.GAME_OVER:
+            Helpers.recordGame( event.score, event.wave, event.value );
+            raiseHighScore( event.score );
+            panel.repaint(); // Shows the game on the leaderboard of the game over screen
+            break;
+        }
+    }
 
-        setupReplayButton();
+    /**
+     * Raises the high score to a score if it is higher, and saves it. Only called from the persistence thread.
+     *
+     * @param score the score
+     */
+    private static void raiseHighScore( int score )
+    {
+        if ( score > GamePanel.highScore )
+        {
+            GamePanel.highScore = score;
+            Helpers.writeHighScore( score );
+        }
     }
 
     /**
-     * Handles the player winning the game by incrementing the difficulty, resetting game state variables,
-     * reinitializing game elements like aliens and shelters, and restarting game timers. This prepares the game
-     * for a new level with increased difficulty.
+     * Handles the player winning the game by incrementing the difficulty, starting the next wave of the campaign,
+     * resetting game state variables, reinitializing game elements like aliens and shelters, and restarting game
+     * timers. This prepares the game for a new level with increased difficulty.
      *
      * @param panel the GamePanel object representing the game panel
      */
     static void gameWon( GamePanel panel )
     {
-        GamePanel.difficultyMultiplier++;
-        ALIEN_MOVEMENT_GAMEWON_DELAY = ALIEN_MOVEMENT_RESET_DELAY - ( GamePanel.difficultyMultiplier * 20 );
+        FlightEvents.WaveTransition event = new FlightEvents.WaveTransition();
+        event.begin();
+
+        panel.session.difficultyMultiplier++;
+        panel.session.startWave();
+        panel.session.alienMovementGameWonDelay =
+            panel.session.wave.marchDelay - ( panel.session.difficultyMultiplier * 20 );
 
         // Alien delay is reduced to increase difficulty
-        ALIEN_MOVEMENT_DELAY = Math.max( 20, ALIEN_MOVEMENT_GAMEWON_DELAY );
+        panel.session.setAlienMovementDelay( Math.max( 20, panel.session.alienMovementGameWonDelay ) );
 
         // Reset game state variables
-        GamePanel.shipDirection = ' ';
-        GamePanel.directionQueue.clear();
-        GamePanel.shipMoving = true;
-        GamePanel.alienShooting = true;
-        GamePanel.shipShooting = true;
+        panel.session.shipDirection = ' ';
+        panel.session.shipMoving = true;
+        panel.session.alienShooting = true;
+        panel.session.shipShooting = true;
 
-        alienTimer.stop();
-        ufoTimer.restart();
-        GamePanel.ufoActive = false;
-        timer.stop();
+        panel.session.resetUfoCountdown();
+        panel.session.ufoActive = false;
+        panel.clock.stop();
 
         // Reset bullets
-        GamePanel.shipBullet.clear();
-        GamePanel.alienBullet.clear();
+        panel.session.shipBullet.clear();
+        panel.session.alienBullet.clear();
         panel.resetAlienShootCooldown();
 
         // Reinitialize alien positions
-        initAliens();
-        initAlienTimer( panel );
+        panel.session.xOfAliens.clear();
+        panel.session.yOfAliens.clear();
+        panel.session.slotOfAliens.clear();
+        initAliens( panel.session );
+        panel.session.resetAlienMarch();
 
-        // Reset the ship's position
-        GamePanel.xOfShip[0] = ( GamePanel.SCREEN_WIDTH / 2 ) - ( GamePanel.UNIT_SIZE / 2 );
+        // Reset the ships' positions
+        panel.session.placeShips();
 
-        initShelters();
+        initShelters( panel.session );
 
-        // Update the high score
-        GamePanel.highScore = Math.max( GamePanel.highScore, GamePanel.score );
-        Helpers.writeHighScore( GamePanel.highScore );
+        panel.publish( GameEvents.WAVE_CLEARED, 0, 0, panel.session.difficultyMultiplier + 1 );
 
         // Start or restart the game timers
-        if ( timer != null )
-            timer.stop();
-
-        timer = new Timer( DELAY, panel );
-        timer.start();
+        restartGameTimer( panel );
         panel.repaint();
+
+        event.wave = panel.session.difficultyMultiplier + 1;
+        event.score = panel.session.score;
+        event.alienDelay = panel.session.alienMovementDelay;
+        event.commit();
     }
 
     /**
-     * Restarts the game by resetting all game-related variables and settings to their initial states,
-     * clears and reinitializes game elements like aliens and shelters, and restarts the game timers.
+     * Restarts the game by replacing the panel's session with a fresh one, which starts with full lives, no score and
+     * a new formation and shelters, and restarts the game timers. The fresh session continues the random streams of
+     * the previous one.
      *
      * @param panel the GamePanel object representing the game panel
      */
     static void restartGame( GamePanel panel )
     {
-        GamePanel.isGameOver = false;
-        GamePanel.lives = 3;
-        GamePanel.score = 0;
-
-        // Clear the alien positions lists
-        GamePanel.xOfAliens.clear();
-        GamePanel.yOfAliens.clear();
-
-        // Reset bullets
-        GamePanel.shipBullet.clear();
-        GamePanel.alienBullet.clear();
-        panel.resetAlienShootCooldown();
-
-        // Reset game state variables
-        GamePanel.shipDirection = ' ';
-        GamePanel.directionQueue.clear();
-        GamePanel.shipMoving = true;
-        GamePanel.alienShooting = true;
-
-        // Reinitialize alien positions
-        initAliens();
-        initAlienTimer( panel );
+        if ( panel.recorder != null )
+            panel.recorder.gameRestarted();
 
-        ufoTimer.restart();
-        GamePanel.ufoActive = false;
-
-        // Reset the ship's position
-        GamePanel.xOfShip[0] = ( GamePanel.SCREEN_WIDTH / 2 ) - ( GamePanel.UNIT_SIZE / 2 );
-
-        initShelters();
+        panel.session = new GameSession( panel.session );
 
         // Disable the replay button until the game is over
-        replayButton.setEnabled( false );
-        replayButton.setVisible( false );
+        panel.replayButton.setEnabled( false );
+        panel.replayButton.setVisible( false );
 
         // Start or restart the game timers
-        if ( timer != null )
-            timer.stop();
-
-        timer = new Timer( DELAY, panel );
-        timer.start();
+        restartGameTimer( panel );
 
         panel.repaint();
     }
 
     /**
-     * Initializes and starts a timer that controls the periodic movement of aliens across the GamePanel.
-     * This contributes to the dynamic gameplay by enabling consistent alien advancement.
+     * Creates a headless panel for a new game. The game starts exactly as an interactive game with the same seed
+     * does, so it can replay a recording or reproduce a session.
      *
-     * @param panel the GamePanel object where the aliens are to be moved
-     * @throws NullPointerException if the panel parameter is null
+     * @param seed the seed of the game's random choices
+     * @return the headless panel, ready for its first tick
      */
-    static void initAlienTimer( GamePanel panel )
+    static GamePanel newHeadlessGame( long seed )
     {
-        if ( panel == null )
-            throw new NullPointerException( "GamePanel object cannot be null" );
-
-        alienTimer = new Timer( ALIEN_MOVEMENT_DELAY, new ActionListener() {
-            @Override public void actionPerformed( ActionEvent e )
-            {
-                GamePanel.moveAliens();
-                panel.repaint();
-            }
-        } );
-
-        alienTimer.start();
+        GamePanel panel = new GamePanel( false, seed, null );
+        restartGame( panel );
+        return panel;
     }
 
     /**
-     * Initializes the positions of the aliens on the game panel.
+     * Brings the clock and the replay button in line with a game that was just restored from a snapshot: a game in
+     * progress is ticked again and hides the replay button, a finished game stops the clock and shows it. A paused
+     * game stays paused.
      *
-     * This method calculates the starting positions of the aliens on the game panel based on the screen width, unit
-     * size, and spacing between aliens. The aliens are arranged in a grid pattern with 11 columns and 5 rows.
+     * @param panel the GamePanel object that was restored
+     */
+    static void snapshotRestored( GamePanel panel )
+    {
+        if ( panel.session.isGameOver )
+        {
+            panel.clock.stop();
+            setupReplayButton( panel );
+        }
+        else
+        {
+            panel.replayButton.setEnabled( false );
+            panel.replayButton.setVisible( false );
+            if ( !panel.clock.isRunning() )
+                restartGameTimer( panel );
+        }
+        panel.repaint();
+    }
+
+    /**
+     * Restarts the game clock of the given panel. Headless panels are ticked by their owner, so their clock is only
+     * stopped.
      *
-     * @param None
-     * @return None
+     * @param panel the GamePanel object the clock ticks
      */
-    static void initAliens()
+    private static void restartGameTimer( GamePanel panel )
     {
-        double alienSpacing = GamePanel.UNIT_SIZE / 1.5; // Space between aliens
-        int startX = (int)( ( GamePanel.SCREEN_WIDTH - ( 11 * GamePanel.UNIT_SIZE ) - ( 10 * alienSpacing ) ) / 2 );
+        panel.clock.stop();
 
-        int startY = 4 * GamePanel.UNIT_SIZE; // Adjust this multiplier to change the vertical start position
+        if ( !panel.interactive )
+            return;
 
-        for ( int row = 0; row < 5; row++ )
-        {
-            for ( int col = 0; col < 11; col++ )
-            {
-                GamePanel.xOfAliens.add( (int)( startX + col * ( GamePanel.UNIT_SIZE + alienSpacing ) ) );
-                GamePanel.yOfAliens.add( (int)( startY + row * ( GamePanel.UNIT_SIZE + alienSpacing ) ) );
-            }
-        }
+        panel.clock.start();
     }
 
     /**
-     * Initializes a timer for the UFO in the game panel.
+     * Initializes the positions of the aliens on the game panel.
      *
-     * This method creates a new Timer object with a specified interval for the UFO to appear on the game panel.
-     * When the timer triggers, it sets the UFO's X position to 0 and marks the UFO as active.
-     * It then calls the repaint method on the provided GamePanel instance to update the display.
+     * This method fills the formation with an alien in every slot of the grid of the session's wave, at the home
+     * positions compiled from the wave's definition.
      *
-     * @param panel The GamePanel instance on which the UFO will appear and be updated.
-     * @throws NullPointerException if the panel parameter is null.
+     * @param session the game session receiving the aliens
      */
-    static void initUfoTimer( GamePanel panel )
+    static void initAliens( GameSession session )
     {
-        if ( panel == null )
-            throw new NullPointerException( "The panel parameter cannot be null." );
-
-        ufoTimer = new Timer( GamePanel.UFO_INTERVAL, e -> {
-            GamePanel.ufoX = 0;
-            GamePanel.ufoActive = true;
-            panel.repaint(); // Call repaint on the passed instance
-        } );
-        ufoTimer.start();
+        session.formationX = 0;
+        session.formationY = 0;
+        for ( int slot = 0; slot < session.wave.slots(); slot++ )
+        {
+            session.xOfAliens.add( session.wave.homeX( slot ) );
+            session.yOfAliens.add( session.wave.homeY( slot ) );
+            session.slotOfAliens.add( slot );
+        }
     }
 
     /**
      * This method is responsible for rendering the UI elements on the screen, such as lives, score, and high score.
+     * The speed of the game clock is shown under the lives when it is not 1x, and a paused game says so.
      *
      * @param g The Graphics object used for rendering the UI elements.
      * @param panel The GamePanel object that contains information about the game state.
@@ -265,16 +292,25 @@ class GameState
         g.setColor( GamePanel.SCORE_COLOR );
 
         // Draw lives on the top left
-        g.drawString( "Lives: " + GamePanel.lives, 10, 30 );
+        g.drawString( "Lives: " + panel.session.lives, 10, 30 );
 
         // Draw score on the top center
         FontMetrics metrics = panel.getFontMetrics( UI_FONT );
-        String scoreText = "Score: " + GamePanel.score;
+        String scoreText = "Score: " + panel.session.score;
         g.drawString( scoreText, ( GamePanel.SCREEN_WIDTH - metrics.stringWidth( scoreText ) ) / 2, 30 );
 
         // Draw high score on the top right
         String highScoreText = "High Score: " + GamePanel.highScore;
         g.drawString( highScoreText, GamePanel.SCREEN_WIDTH - metrics.stringWidth( highScoreText ) - 10, 30 );
+
+        // Draw the clock speed under the lives
+        double speed = panel.clock.speed();
+        if ( speed != 1 )
+            g.drawString( "Speed: " + ( speed < 1 ? String.valueOf( speed ) : String.valueOf( (int)speed ) ) + "x", 10,
+                          30 + metrics.getHeight() );
+
+        if ( panel.clock.isPaused() )
+            drawCenteredText( g, "Paused", LARGE_FONT, GamePanel.SCREEN_HEIGHT / 2, false, panel );
     }
 
     /**
@@ -289,9 +325,30 @@ class GameState
         drawCenteredText( g, "Game Over", LARGE_FONT, GamePanel.SCREEN_HEIGHT / 3, false, panel );
         drawCenteredText( g, "High Score: " + GamePanel.highScore, MEDIUM_FONT,
                           GamePanel.SCREEN_HEIGHT / 3 + LARGE_FONT.getSize(), true, panel );
-        drawCenteredText( g, "Score: " + GamePanel.score, MEDIUM_FONT,
+        drawCenteredText( g, "Score: " + panel.session.score, MEDIUM_FONT,
                           GamePanel.SCREEN_HEIGHT / 3 + LARGE_FONT.getSize() + MEDIUM_FONT.getSize() + 20, true,
                           panel );
+        drawLeaderboard( g, GamePanel.SCREEN_HEIGHT / 3 + LARGE_FONT.getSize() + MEDIUM_FONT.getSize() * 2 + 20,
+                         panel );
+    }
+
+    /**
+     * Draws the best games from the leaderboard as a ranked table, one row per game with the rank, initials, score
+     * and wave reached.
+     *
+     * @param g the Graphics object used for drawing
+     * @param yPos the y position of the first row
+     * @param panel the GamePanel object to get font metrics from
+     */
+    private static void drawLeaderboard( Graphics g, int yPos, GamePanel panel )
+    {
+        Leaderboard.Entry[] entries = Helpers.topScores( LEADERBOARD_ROWS );
+        for ( int i = 0; i < entries.length; i++ )
+        {
+            Leaderboard.Entry entry = entries[i];
+            String row = String.format( "%d. %-4s %7d  Wave %d", i + 1, entry.initials, entry.score, entry.wave );
+            drawCenteredText( g, row, UI_FONT, yPos + i * ( UI_FONT.getSize() + 4 ), true, panel );
+        }
     }
 
     /**
@@ -332,35 +389,40 @@ class GameState
      * @param buttonHeight the height of the replay button
      * @param buttonX the x-coordinate of the replay button
      * @param buttonY the y-coordinate of the replay button
+     * @param panel the GamePanel object holding the replay button
      */
-    static void setupReplayButton()
+    static void setupReplayButton( GamePanel panel )
     {
         int buttonWidth = 150;
         int buttonHeight = 50;
         int buttonX = ( GamePanel.SCREEN_WIDTH - buttonWidth ) / 2;
         int buttonY = GamePanel.SCREEN_HEIGHT - 120;
 
-        replayButton.setBounds( buttonX, buttonY, buttonWidth, buttonHeight );
-        replayButton.setEnabled( true );
-        replayButton.setVisible( true );
+        panel.replayButton.setBounds( buttonX, buttonY, buttonWidth, buttonHeight );
+        panel.replayButton.setEnabled( true );
+        panel.replayButton.setVisible( true );
     }
 
-    static void initShelters()
+    /**
+     * Places a fresh row of the shelters of the session's wave, replacing any left from the previous wave.
+     *
+     * @param session the game session receiving the shelters
+     */
+    static void initShelters( GameSession session )
     {
         // Clear the current shelters list
-        GamePanel.shelters.clear();
+        session.shelters.clear();
 
         // Create new shelters and add them to the list
-        int numberOfShelters = 4; // Number of shelters
+        int numberOfShelters = session.wave.shelters; // Number of shelters
         int firstShelterX = ( GamePanel.SCREEN_WIDTH - ( numberOfShelters * Shelter.SHELTER_WIDTH +
                                                          ( numberOfShelters - 1 ) * Shelter.SHELTER_PADDING ) ) /
                             2;
-        int shelterY = GamePanel.SCREEN_HEIGHT - 3 * GamePanel.UNIT_SIZE; // Position the shelters vertically
 
         for ( int i = 0; i < numberOfShelters; i++ )
         {
-            GamePanel.shelters.add(
-                new Shelter( firstShelterX + i * ( Shelter.SHELTER_WIDTH + Shelter.SHELTER_PADDING ), shelterY ) );
+            session.shelters.add(
+                new Shelter( firstShelterX + i * ( Shelter.SHELTER_WIDTH + Shelter.SHELTER_PADDING ), SHELTER_Y ) );
         }
     }
 }
@@ -0,0 +1,318 @@
+package edu.aav66;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * Live game statistics and tuning knobs exposed over JMX, so that they can be inspected and changed from JConsole or
+ * any other JMX client attached to the running game. The game loop publishes a copy of its counters into volatile
+ * fields at the end of every tick, which JMX threads read without touching the game state. Writes from JMX threads
+ * only record the requested value; the game loop picks the pending values up at the start of the next tick and
+ * applies them there.
+ */
+class GameStats implements GameStatsMBean
+{
+    static final String OBJECT_NAME = "edu.aav66:type=GameStats";
+
+    // Tuning knobs
+    private static final int ALIEN_MOVEMENT_DELAY = 0;
+    private static final int UFO_INTERVAL = 1;
+    private static final int MIN_ALIEN_SHOT_STAGGER_TIME = 2;
+    private static final int MAX_ALIEN_SHOT_STAGGER_TIME = 3;
+    private static final int MAX_ALIEN_BULLETS = 4;
+    private static final int MAX_SHIP_BULLETS = 5;
+    private static final int KNOBS = 6;
+    private static final long NONE = -1;
+
+    private static final AtomicLongArray pending = new AtomicLongArray( KNOBS );
+    private static volatile boolean tuningPending = false;
+
+    // Counters published by the game loop
+    private static volatile long ticks = 0;
+    private static volatile long lastTickNanos = 0;
+    private static volatile int aliensAlive = 0;
+    private static volatile int shipBulletsAlive = 0;
+    private static volatile int alienBulletsAlive = 0;
+    private static volatile int explosionsAlive = 0;
+    private static volatile int score = 0;
+    private static volatile int lives = 0;
+    private static volatile int wave = 0;
+    private static volatile int highScore = 0;
+    private static volatile int alienMovementDelay = Waves.campaign().get( 0 ).marchDelay;
+    private static volatile long minAlienShotStagger = Waves.campaign().get( 0 ).minStagger;
+    private static volatile long maxAlienShotStagger = Waves.campaign().get( 0 ).maxStagger;
+    private static volatile int maxAlienBullets = Waves.campaign().get( 0 ).maxBullets;
+    private static volatile int ufoInterval = GameSession.DEFAULT_UFO_INTERVAL;
+    private static volatile int maxShipBullets = GameSession.DEFAULT_MAX_SHIP_BULLETS;
+
+    // Counters of the events published on the game's event bus, since the game started
+    private static volatile long aliensKilled = 0;
+    private static volatile long shipsHit = 0;
+    private static volatile long ufosHit = 0;
+    private static volatile long wavesCleared = 0;
+    private static volatile long droppedEvents = 0;
+
+    static
+    {
+        for ( int i = 0; i < KNOBS; i++ )
+        {
+            pending.set( i, NONE );
+        }
+    }
+
+    /**
+     * Registers the statistics with the platform MBean server. Failing to register only disables the JMX view.
+     */
+    static void register()
+    {
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                new StandardMBean( new GameStats(), GameStatsMBean.class ), new ObjectName( OBJECT_NAME ) );
+        }
+        catch ( JMException e )
+        {
+            System.err.println( "Problem registering the " + OBJECT_NAME + " MBean." );
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Applies the tuning values set since the previous tick. Must be called from the game loop thread at the start of
+     * a tick; returns immediately when nothing was changed.
+     *
+     * @param session the session of the interactive game, which receives the new values and reschedules its timers to
+     *                them
+     */
+    static void applyPendingTuning( GameSession session )
+    {
+        if ( !tuningPending )
+            return;
+        tuningPending = false;
+
+        long value = pending.getAndSet( ALIEN_MOVEMENT_DELAY, NONE );
+        if ( value != NONE )
+            session.setAlienMovementDelay( (int)value );
+        value = pending.getAndSet( UFO_INTERVAL, NONE );
+        if ( value != NONE )
+        {
+            session.ufoInterval = (int)value;
+            session.scheduleUfo();
+        }
+
+        value = pending.getAndSet( MIN_ALIEN_SHOT_STAGGER_TIME, NONE );
+        if ( value != NONE )
+        {
+            session.minAlienShotStagger = value;
+            session.scheduleVolley();
+        }
+        value = pending.getAndSet( MAX_ALIEN_SHOT_STAGGER_TIME, NONE );
+        if ( value != NONE )
+            session.maxAlienShotStagger = value;
+        // The random shot delay needs a non-empty range
+        session.maxAlienShotStagger = Math.max( session.maxAlienShotStagger, session.minAlienShotStagger );
+
+        value = pending.getAndSet( MAX_ALIEN_BULLETS, NONE );
+        if ( value != NONE )
+            session.maxAlienBullets = (int)value;
+        value = pending.getAndSet( MAX_SHIP_BULLETS, NONE );
+        if ( value != NONE )
+            session.maxShipBullets = (int)value;
+    }
+
+    /**
+     * Publishes the counters of a finished tick. Must be called from the game loop thread at the end of a tick.
+     *
+     * @param panel the GamePanel that ran the tick
+     * @param tickNanos the duration of the tick in nanoseconds
+     */
+    static void tickCompleted( GamePanel panel, long tickNanos )
+    {
+        ticks = ticks + 1; // Single writer
+        lastTickNanos = tickNanos;
+        aliensAlive = panel.session.xOfAliens.size();
+        shipBulletsAlive = panel.session.shipBullet.size();
+        alienBulletsAlive = panel.session.alienBullet.size();
+        explosionsAlive = panel.session.explosions.size();
+        score = panel.session.score;
+        lives = panel.session.lives;
+        wave = panel.session.difficultyMultiplier + 1;
+        highScore = GamePanel.highScore;
+        alienMovementDelay = panel.session.alienMovementDelay;
+        minAlienShotStagger = panel.session.minAlienShotStagger;
+        maxAlienShotStagger = panel.session.maxAlienShotStagger;
+        maxAlienBullets = panel.session.maxAlienBullets;
+        ufoInterval = panel.session.ufoInterval;
+        maxShipBullets = panel.session.maxShipBullets;
+        if ( panel.events != null )
+            droppedEvents = panel.events.dropped();
+    }
+
+    /**
+     * Counts an event published by the game. Subscribed to the event bus of the interactive panel, so only ever called
+     * from the game loop thread.
+     *
+     * @param event the event
+     * @param endOfBatch whether the event is the last one of its batch, unused
+     */
+    static void eventPublished( GameEvents.Event event, boolean endOfBatch )
+    {
+        switch ( event.type )
+        {
+        case GameEvents.ALIEN_KILLED:
+            aliensKilled = aliensKilled + 1; // Single writer
+            break;
+        case GameEvents.SHIP_HIT:
+            shipsHit = shipsHit + 1;
+            break;
+        case GameEvents.UFO_HIT:
+            ufosHit = ufosHit + 1;
+            break;
+        case GameEvents.WAVE_CLEARED:
+            wavesCleared = wavesCleared + 1;
+            break;
+        }
+    }
+
+    /**
+     * Records a tuning value to be applied at the next tick.
+     *
+     * @param knob the knob, one of the knob constants
+     * @param value the validated value
+     */
+    private static void request( int knob, long value )
+    {
+        pending.set( knob, value );
+        tuningPending = true;
+    }
+
+    /**
+     * Rejects a tuning value outside its range.
+     *
+     * @param name the name of the attribute
+     * @param value the requested value
+     * @param min the smallest allowed value
+     * @param max the largest allowed value
+     * @throws IllegalArgumentException if the value is out of range
+     */
+    private static void checkRange( String name, long value, long min, long max )
+    {
+        if ( value < min || value > max )
+            throw new IllegalArgumentException( name + " must be between " + min + " and " + max + ", got " + value );
+    }
+
+    /**
+     * Reads a knob, preferring a value that is set but not yet applied.
+     *
+     * @param knob the knob, one of the knob constants
+     * @param current the value currently in effect
+     * @return the pending value if there is one, otherwise the current value
+     */
+    private static long read( int knob, long current )
+    {
+        long value = pending.get( knob );
+        return value != NONE ? value : current;
+    }
+
+    @Override public long getTicks() { return ticks; }
+
+    @Override public double getLastTickMillis() { return lastTickNanos / 1_000_000.0; }
+
+    @Override public double getTickP99Millis()
+    {
+        return FrameMetrics.stage( FrameMetrics.TICK ).percentile( 99 ) / 1_000_000.0;
+    }
+
+    @Override public double getPaintP99Millis()
+    {
+        return FrameMetrics.stage( FrameMetrics.PAINT ).percentile( 99 ) / 1_000_000.0;
+    }
+
+    @Override public long getDroppedFrames() { return FrameMetrics.droppedFrames(); }
+
+    @Override public int getAliensAlive() { return aliensAlive; }
+
+    @Override public int getShipBulletsAlive() { return shipBulletsAlive; }
+
+    @Override public int getAlienBulletsAlive() { return alienBulletsAlive; }
+
+    @Override public int getExplosionsAlive() { return explosionsAlive; }
+
+    @Override public int getScore() { return score; }
+
+    @Override public int getLives() { return lives; }
+
+    @Override public int getWave() { return wave; }
+
+    @Override public int getHighScore() { return highScore; }
+
+    @Override public long getAliensKilled() { return aliensKilled; }
+
+    @Override public long getShipsHit() { return shipsHit; }
+
+    @Override public long getUfosHit() { return ufosHit; }
+
+    @Override public long getWavesCleared() { return wavesCleared; }
+
+    @Override public long getDroppedEvents() { return droppedEvents; }
+
+    @Override public int getAlienMovementDelay()
+    {
+        return (int)read( ALIEN_MOVEMENT_DELAY, alienMovementDelay );
+    }
+
+    @Override public void setAlienMovementDelay( int millis )
+    {
+        checkRange( "AlienMovementDelay", millis, 1, Integer.MAX_VALUE );
+        request( ALIEN_MOVEMENT_DELAY, millis );
+    }
+
+    @Override public int getUfoInterval() { return (int)read( UFO_INTERVAL, ufoInterval ); }
+
+    @Override public void setUfoInterval( int millis )
+    {
+        checkRange( "UfoInterval", millis, 1, Integer.MAX_VALUE );
+        request( UFO_INTERVAL, millis );
+    }
+
+    @Override public long getMinAlienShotStaggerTime()
+    {
+        return read( MIN_ALIEN_SHOT_STAGGER_TIME, minAlienShotStagger );
+    }
+
+    @Override public void setMinAlienShotStaggerTime( long millis )
+    {
+        checkRange( "MinAlienShotStaggerTime", millis, 0, Integer.MAX_VALUE );
+        request( MIN_ALIEN_SHOT_STAGGER_TIME, millis );
+    }
+
+    @Override public long getMaxAlienShotStaggerTime()
+    {
+        return read( MAX_ALIEN_SHOT_STAGGER_TIME, maxAlienShotStagger );
+    }
+
+    @Override public void setMaxAlienShotStaggerTime( long millis )
+    {
+        checkRange( "MaxAlienShotStaggerTime", millis, 0, Integer.MAX_VALUE );
+        request( MAX_ALIEN_SHOT_STAGGER_TIME, millis );
+    }
+
+    @Override public int getMaxAlienBullets() { return (int)read( MAX_ALIEN_BULLETS, maxAlienBullets ); }
+
+    @Override public void setMaxAlienBullets( int count )
+    {
+        checkRange( "MaxAlienBullets", count, 0, GamePanel.GAME_UNITS );
+        request( MAX_ALIEN_BULLETS, count );
+    }
+
+    @Override public int getMaxShipBullets() { return (int)read( MAX_SHIP_BULLETS, maxShipBullets ); }
+
+    @Override public void setMaxShipBullets( int count )
+    {
+        checkRange( "MaxShipBullets", count, 0, GamePanel.GAME_UNITS );
+        request( MAX_SHIP_BULLETS, count );
+    }
+}
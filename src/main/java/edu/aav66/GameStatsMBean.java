@@ -0,0 +1,171 @@
+package edu.aav66;
+
+/**
+ * Management interface of the live game statistics, registered with the platform MBean server under
+ * {@value GameStats#OBJECT_NAME}. The read-only attributes are published by the game loop at the end of every tick.
+ * The writable attributes are tuning knobs: a new value is validated when it is set and takes effect at the start of
+ * the next tick, so the game loop never observes a half-applied change.
+ */
+public interface GameStatsMBean
+{
+    /**
+     * @return the number of ticks run since the game started
+     */
+    long getTicks();
+
+    /**
+     * @return the duration of the last tick in milliseconds
+     */
+    double getLastTickMillis();
+
+    /**
+     * @return the 99th percentile tick duration in milliseconds since the overlay statistics were last reset
+     */
+    double getTickP99Millis();
+
+    /**
+     * @return the 99th percentile paint duration in milliseconds since the overlay statistics were last reset
+     */
+    double getPaintP99Millis();
+
+    /**
+     * @return the number of dropped frames since the overlay statistics were last reset
+     */
+    long getDroppedFrames();
+
+    /**
+     * @return the number of aliens alive
+     */
+    int getAliensAlive();
+
+    /**
+     * @return the number of ship bullets in flight
+     */
+    int getShipBulletsAlive();
+
+    /**
+     * @return the number of alien bullets in flight
+     */
+    int getAlienBulletsAlive();
+
+    /**
+     * @return the number of explosions being shown
+     */
+    int getExplosionsAlive();
+
+    /**
+     * @return the current score
+     */
+    int getScore();
+
+    /**
+     * @return the remaining lives
+     */
+    int getLives();
+
+    /**
+     * @return the current wave, beginning at 1
+     */
+    int getWave();
+
+    /**
+     * @return the high score
+     */
+    int getHighScore();
+
+    /**
+     * @return the number of aliens killed since the game started
+     */
+    long getAliensKilled();
+
+    /**
+     * @return the number of times a ship was hit since the game started
+     */
+    long getShipsHit();
+
+    /**
+     * @return the number of UFOs shot down since the game started
+     */
+    long getUfosHit();
+
+    /**
+     * @return the number of waves cleared since the game started
+     */
+    long getWavesCleared();
+
+    /**
+     * @return the number of game events dropped because a subscriber of the event bus fell behind
+     */
+    long getDroppedEvents();
+
+    /**
+     * @return the delay between alien formation steps in milliseconds
+     */
+    int getAlienMovementDelay();
+
+    /**
+     * Sets the delay between alien formation steps. The game keeps shortening it as aliens are destroyed and resets it
+     * at the next wave.
+     *
+     * @param millis the delay in milliseconds, at least 1
+     */
+    void setAlienMovementDelay( int millis );
+
+    /**
+     * @return the interval between UFO appearances in milliseconds
+     */
+    int getUfoInterval();
+
+    /**
+     * @param millis the interval between UFO appearances in milliseconds, at least 1
+     */
+    void setUfoInterval( int millis );
+
+    /**
+     * @return the minimum time between alien shots in milliseconds
+     */
+    long getMinAlienShotStaggerTime();
+
+    /**
+     * Sets the minimum time between alien shots. If it exceeds the maximum, the maximum is raised to match. The next
+     * wave resets it to the wave's own.
+     *
+     * @param millis the minimum time in milliseconds, at least 0
+     */
+    void setMinAlienShotStaggerTime( long millis );
+
+    /**
+     * @return the maximum time between alien shots in milliseconds
+     */
+    long getMaxAlienShotStaggerTime();
+
+    /**
+     * Sets the maximum time between alien shots. If it is below the minimum, it is raised to the minimum. The next
+     * wave resets it to the wave's own.
+     *
+     * @param millis the maximum time in milliseconds, at least 0
+     */
+    void setMaxAlienShotStaggerTime( long millis );
+
+    /**
+     * @return the maximum number of alien bullets in flight
+     */
+    int getMaxAlienBullets();
+
+    /**
+     * Sets the maximum number of alien bullets in flight. The next wave resets it to the wave's own.
+     *
+     * @param count the maximum number of alien bullets in flight, between 0 and the number of bullet slots
+     */
+    void setMaxAlienBullets( int count );
+
+    /**
+     * @return the maximum number of ship bullets in flight
+     */
+    int getMaxShipBullets();
+
+    /**
+     * @param count the maximum number of ship bullets in flight, between 0 and the number of bullet slots
+     */
+    void setMaxShipBullets( int count );
+}
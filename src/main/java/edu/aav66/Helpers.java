@@ -2,15 +2,12 @@ package edu.aav66;
 
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.Scanner;
 import javax.imageio.ImageIO;
-import javazoom.jl.player.Player;
 
 /**
  * This class provides utility functions to support the game,
@@ -28,26 +25,48 @@ class Helpers
         "/Users/andreaventi/Developer/GameDev/AlienInvaders/src/main/resources/";
 
     private static String highScorePath;
+    private static volatile HighScoreWriter highScoreWriter; // Created by the persistence thread, flushed at exit
+    private static Leaderboard leaderboard;
     private static final String devPath = resourcesPath + "highscore.txt";
     private static final String prodPath = "highscore.txt";
 
     private static final String trackPath =
         resourcesPath + "Loyalty_Freak_Music_-_02_-_High_Technologic_Beat_Explosion(chosic.com).mp3";
 
+    private static MusicPlayer music;
+    private static SoundMixer sounds;
+
     private static final String ufoPath = resourcesPath + "ufo.png";
     private static final String yellowAlienPath = resourcesPath + "yellow.png";
     private static final String greenAlienPath = resourcesPath + "green.png";
     private static final String redAlienPath = resourcesPath + "red.png";
     private static final String playerShipPath = resourcesPath + "player.png";
 
-    static { loadSprites(); }
+    /**
+     * Loads the sprites when it is first initialized, which the JVM does exactly once, on whichever thread first needs
+     * a sprite, while other threads needing one wait for it.
+     */
+    private static final class SpriteLoader
+    {
+        static { loadSprites(); }
+
+        /**
+         * Initializes the class, and so loads the sprites, unless that is already done.
+         */
+        static void ensureLoaded() {}
+    }
 
     /**
-     * Loads and resizes sprite images from files upon class loading. Each sprite is resized according to the unit size
+     * Loads the sprites now rather than when the first frame is drawn, as the asset service does at startup.
+     */
+    static void preloadSprites() { SpriteLoader.ensureLoaded(); }
+
+    /**
+     * Loads and resizes sprite images from files. Each sprite is resized according to the unit size
      * defined in GamePanel to ensure consistency with the game's scaling. If images fail to load, an error message is
      * printed and the error is logged.
      */
-    static void loadSprites()
+    private static void loadSprites()
     {
         try
         {
@@ -90,59 +109,139 @@ class Helpers
      * Retrieves the UFO image.
      * @return The UFO BufferedImage.
      */
-    public static BufferedImage getUfo() { return ufo; }
+    public static BufferedImage getUfo()
+    {
+        SpriteLoader.ensureLoaded();
+        return ufo;
+    }
 
     /**
      * Retrieves the yellow alien image.
      * @return The yellow alien BufferedImage.
      */
-    public static BufferedImage getYellowAlien() { return yellowAlien; }
+    public static BufferedImage getYellowAlien()
+    {
+        SpriteLoader.ensureLoaded();
+        return yellowAlien;
+    }
 
     /**
      * Retrieves the green alien image.
      * @return The green alien BufferedImage.
      */
-    public static BufferedImage getGreenAlien() { return greenAlien; }
+    public static BufferedImage getGreenAlien()
+    {
+        SpriteLoader.ensureLoaded();
+        return greenAlien;
+    }
 
     /**
      * Retrieves the red alien image.
      * @return The red alien BufferedImage.
      */
-    public static BufferedImage getRedAlien() { return redAlien; }
+    public static BufferedImage getRedAlien()
+    {
+        SpriteLoader.ensureLoaded();
+        return redAlien;
+    }
 
     /**
      * Retrieves the player ship image.
      * @return The player ship BufferedImage.
      */
-    public static BufferedImage getPlayerShip() { return playerShip; }
+    public static BufferedImage getPlayerShip()
+    {
+        SpriteLoader.ensureLoaded();
+        return playerShip;
+    }
 
     /**
-     * Plays background music continuously from a specified file path. The music playback runs in a separate thread to
-     * prevent blocking the GUI thread. If there is an issue loading or playing the music file, it logs an error.
-     * The music will loop indefinitely until the application is closed or the thread is interrupted.
+     * Plays background music continuously from a specified file path. Playback runs on a daemon thread to prevent
+     * blocking the GUI thread; the track is decoded once and then looped from memory until the application exits.
+     * Calling this method again has no effect once the music is playing.
      */
     static void playMusic()
     {
-        new Thread( new Runnable() {
-            public void run()
-            {
-                try
-                {
-                    while ( true )
-                    { // Loop to allow the music to replay indefinitely
-                        FileInputStream fileInputStream = new FileInputStream( trackPath );
-                        Player player = new Player( fileInputStream );
-                        player.play();
-                        player.close();
-                    }
-                }
-                catch ( Exception e )
-                {
-                    System.err.println( "Problem playing file " + trackPath );
-                    e.printStackTrace();
-                }
-            }
-        } ).start();
+        if ( music == null )
+            music = new MusicPlayer( trackPath );
+        music.start();
+    }
+
+    /**
+     * Sets the background music volume.
+     * @param volume The volume between 0 (silent) and 1 (full).
+     */
+    static void setMusicVolume( float volume )
+    {
+        if ( music != null )
+            music.setVolume( volume );
+    }
+
+    /**
+     * Retrieves the background music volume.
+     * @return The volume between 0 and 1, or 0 if no music is playing.
+     */
+    static float getMusicVolume() { return music != null ? music.getVolume() : 0.0f; }
+
+    /**
+     * Pauses or resumes the background music.
+     * @param paused true to pause the music, false to resume it.
+     */
+    static void setMusicPaused( boolean paused )
+    {
+        if ( music != null )
+            music.setPaused( paused );
+    }
+
+    /**
+     * Checks whether the background music is paused.
+     * @return true if the music is paused or not playing, false otherwise.
+     */
+    static boolean isMusicPaused() { return music == null || music.isPaused(); }
+
+    /**
+     * Creates the sound effects mixer and starts its thread. Calling this method again has no effect once the mixer
+     * is running.
+     */
+    static void startSoundEffects()
+    {
+        if ( sounds == null )
+            sounds = new SoundMixer();
+        sounds.start();
+    }
+
+    /**
+     * Plays a sound effect through the mixer. Does nothing if the mixer has not been started or is muted.
+     * @param sound The sound effect to play, one of the SoundMixer constants.
+     */
+    static void playSound( int sound )
+    {
+        if ( sounds != null )
+            sounds.play( sound );
+    }
+
+    /**
+     * Plays the sound effect of a game event, if it has one. Subscribed to the event bus of the interactive panel.
+     * @param event The event published by the game.
+     * @param endOfBatch Whether the event is the last one of its batch, unused.
+     */
+    static void soundOf( GameEvents.Event event, boolean endOfBatch )
+    {
+        switch ( event.type )
+        {
+        case GameEvents.SHOT_FIRED:
+            playSound( SoundMixer.SHOT );
+            break;
+        case GameEvents.ALIEN_KILLED:
+            playSound( SoundMixer.ALIEN_HIT );
+            break;
+        case GameEvents.UFO_HIT:
+            playSound( SoundMixer.UFO_HIT );
+            break;
+        case GameEvents.SHIP_HIT:
+            playSound( SoundMixer.SHIP_HIT );
+            break;
+        }
     }
 
     /**
@@ -160,22 +259,110 @@ class Helpers
     }
 
     /**
-     * Writes the high score to a designated file.
-     * @param highScore The high score to be written to the file.
+     * Opens the leaderboard log stored next to the high score file. If the log cannot be opened the leaderboard is
+     * disabled and an error is logged.
      */
-    static void writeHighScore( int highScore )
+    static void initializeLeaderboard()
     {
-        try ( BufferedWriter writer = new BufferedWriter( new FileWriter( highScorePath ) ) )
+        try
         {
-            writer.write( Integer.toString( highScore ) );
+            leaderboard = new Leaderboard( Paths.get( highScorePath ).resolveSibling( "leaderboard.dat" ) );
         }
         catch ( IOException e )
         {
-            System.err.println( "Problem writing high score file " + highScorePath );
+            System.err.println( "Problem opening leaderboard next to " + highScorePath );
             e.printStackTrace();
         }
     }
 
+    /**
+     * Records a finished game on the leaderboard. The ranking is updated immediately and the log is written in the
+     * background.
+     * @param score The final score.
+     * @param wave The wave reached, starting at 1.
+     * @param durationMillis The length of the game in milliseconds.
+     */
+    static void recordGame( int score, int wave, long durationMillis )
+    {
+        if ( leaderboard != null )
+            leaderboard.record(
+                new Leaderboard.Entry( score, wave, durationMillis, System.currentTimeMillis(), playerInitials() ) );
+    }
+
+    /**
+     * Waits for the games recorded on the leaderboard to be written to its log.
+     * @param timeoutMillis The maximum time to wait in milliseconds.
+     * @return true if every recorded game was written, false if the timeout expired first.
+     */
+    static boolean flushLeaderboard( long timeoutMillis )
+    {
+        if ( leaderboard == null )
+            return true;
+        try
+        {
+            return leaderboard.flush( timeoutMillis );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Retrieves the best games on the leaderboard.
+     * @param count The maximum number of entries to return.
+     * @return Up to count entries, best first, or an empty array if the leaderboard is unavailable.
+     */
+    static Leaderboard.Entry[] topScores( int count )
+    {
+        return leaderboard != null ? leaderboard.top( count ) : new Leaderboard.Entry[0];
+    }
+
+    /**
+     * Derives the player's initials from the account name, as there is no name entry screen.
+     * @return Up to three upper case letters, or "???" if the account name has no letters.
+     */
+    private static String playerInitials()
+    {
+        String initials = System.getProperty( "user.name", "" ).replaceAll( "[^A-Za-z]", "" ).toUpperCase();
+        return initials.isEmpty() ? "???" : initials.substring( 0, Math.min( 3, initials.length() ) );
+    }
+
+    /**
+     * Schedules the high score to be written to the designated file. The write happens on a background thread, so
+     * this method never blocks the game loop.
+     * @param highScore The high score to be written to the file.
+     */
+    static void writeHighScore( int highScore )
+    {
+        if ( highScorePath == null )
+            return; // High score file not initialized, as for headless panels
+        if ( highScoreWriter == null )
+            highScoreWriter = new HighScoreWriter( Paths.get( highScorePath ) );
+        highScoreWriter.submit( highScore );
+    }
+
+    /**
+     * Waits for pending high score writes to reach the disk.
+     * @param timeoutMillis The maximum time to wait in milliseconds.
+     * @return true if every pending write completed, false if the timeout expired first.
+     */
+    static boolean flushHighScore( long timeoutMillis )
+    {
+        if ( highScoreWriter == null )
+            return true;
+        try
+        {
+            return highScoreWriter.flush( timeoutMillis );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
     /**
      * Reads and returns the high score from the configured file path. If the file does not exist, is inaccessible, or
      * contains invalid data, it returns 0 and logs the issue.
@@ -0,0 +1,212 @@
+package edu.aav66;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Persists the high score on a background virtual thread so that the game loop never waits on disk I/O. The state is
+ * guarded by a ReentrantLock rather than a monitor, so the thread unmounts from its carrier while it waits for a
+ * score. Submitted scores are
+ * coalesced: while a write is in progress only the latest score is kept, and a score equal to the one already on disk
+ * is not written again. Every write goes to a temporary file in the same directory, is forced to disk and then
+ * atomically renamed over the high score file, so the file always holds either the old or the new score.
+ */
+class HighScoreWriter
+{
+    private static final int NONE = -1;
+
+    private final Path path;
+    private final Path tempPath;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition(); // Signalled when a score is submitted or written
+    private int pending = NONE;
+    private int written = NONE;
+    private boolean writing = false;
+    private Thread thread;
+
+    /**
+     * Constructs a writer for the given high score file. The writer thread is started lazily on the first submit.
+     *
+     * @param path the high score file
+     */
+    HighScoreWriter( Path path )
+    {
+        this.path = path.toAbsolutePath();
+        this.tempPath = this.path.resolveSibling( this.path.getFileName() + ".tmp" );
+    }
+
+    /**
+     * Schedules a high score to be written. Returns immediately; if a previous score has not been written yet it is
+     * replaced by this one.
+     *
+     * @param highScore the high score to persist
+     */
+    void submit( int highScore )
+    {
+        lock.lock();
+        try
+        {
+            if ( highScore == written && pending == NONE )
+                return;
+
+            pending = highScore;
+            if ( thread == null )
+                thread = Thread.ofVirtual().name( "highscore-writer" ).start( this::run );
+            changed.signalAll();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until every submitted score has been written or the timeout expires.
+     *
+     * @param timeoutMillis the maximum time to wait in milliseconds
+     * @return true if all submitted scores are on disk, false if the timeout expired first
+     * @throws InterruptedException if the calling thread is interrupted while waiting
+     */
+    boolean flush( long timeoutMillis ) throws InterruptedException
+    {
+        long remaining = TimeUnit.MILLISECONDS.toNanos( timeoutMillis );
+        lock.lock();
+        try
+        {
+            while ( pending != NONE || writing )
+            {
+                if ( remaining <= 0 )
+                    return false;
+                remaining = changed.awaitNanos( remaining );
+            }
+            return true;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Body of the writer thread. Waits for a pending score, writes it outside the lock and repeats.
+     */
+    private void run()
+    {
+        while ( true )
+        {
+            int score;
+            lock.lock();
+            try
+            {
+                while ( pending == NONE )
+                {
+                    try
+                    {
+                        changed.await();
+                    }
+                    catch ( InterruptedException e )
+                    {
+                        return;
+                    }
+                }
+                score = pending;
+                pending = NONE;
+                writing = true;
+            }
+            finally
+            {
+                lock.unlock();
+            }
+
+            boolean success = write( score );
+
+            lock.lock();
+            try
+            {
+                if ( success )
+                    written = score;
+                writing = false;
+                changed.signalAll();
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Writes the score to the temporary file, forces it to disk and renames it over the high score file.
+     *
+     * @param score the score to write
+     * @return true if the file was replaced, false if an error occurred
+     */
+    private boolean write( int score )
+    {
+        FlightEvents.HighScoreWrite event = new FlightEvents.HighScoreWrite();
+        event.begin();
+        event.score = score;
+        event.success = false;
+        ByteBuffer data = ByteBuffer.wrap( Integer.toString( score ).getBytes( StandardCharsets.US_ASCII ) );
+        try
+        {
+            try ( FileChannel channel = FileChannel.open( tempPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                          StandardOpenOption.TRUNCATE_EXISTING ) )
+            {
+                while ( data.hasRemaining() )
+                {
+                    channel.write( data );
+                }
+                channel.force( true );
+            }
+
+            try
+            {
+                Files.move( tempPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING );
+            }
+            catch ( AtomicMoveNotSupportedException e )
+            {
+                Files.move( tempPath, path, StandardCopyOption.REPLACE_EXISTING );
+            }
+            syncDirectory();
+            event.success = true;
+            return true;
+        }
+        catch ( IOException e )
+        {
+            System.err.println( "Problem writing high score file " + path );
+            e.printStackTrace();
+            return false;
+        }
+        finally
+        {
+            event.commit();
+        }
+    }
+
+    /**
+     * Forces the directory entry of the renamed file to disk. Not every platform allows opening a directory, in which
+     * case the rename is left to the file system.
+     */
+    private void syncDirectory()
+    {
+        try ( FileChannel directory = FileChannel.open( path.getParent(), StandardOpenOption.READ ) )
+        {
+            directory.force( true );
+        }
+        catch ( IOException e )
+        {
+            // Directories cannot be opened on this platform
+        }
+    }
+}
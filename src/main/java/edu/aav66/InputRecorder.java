@@ -0,0 +1,343 @@
+package edu.aav66;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Records the input of a game, one input byte per tick, so that the game can be replayed headlessly. Because the
+ * simulation takes all its randomness from the seed and all its timing from the tick count, the seed and the input of
+ * every tick are enough to reproduce the whole game. Consecutive ticks with the same input are stored as a single
+ * run, so an hour of play usually takes a few kilobytes. A checksum of the game state is stored at regular intervals
+ * so that a replay can detect the first point at which it diverges from the recorded game, and a full snapshot of the
+ * game is stored as a keyframe at longer intervals so that ReplayFile can seek without replaying from the start.
+ *
+ * The file is little-endian:
+ * <pre>
+ * header   magic "SIR3" (int), checksum interval (int), keyframe interval (int), seed (long)
+ * block    runs covering one checksum interval, then the state checksum after its last tick (int)
+ * run      input byte, number of ticks as an unsigned LEB128 varint
+ * keyframe KEYFRAME byte, snapshot length (int), Snapshot of the game after the preceding block
+ * end      END byte, total ticks (varint), state checksum after the last tick (int)
+ * index    keyframe count (int), then for every keyframe its tick (long) and file offset (long)
+ * footer   index offset (long), total ticks (long), magic "SIRX" (int)
+ * </pre>
+ * A file cut short by a crash has no index; it is still readable up to the last complete run.
+ */
+final class InputRecorder
+{
+    static final int MAGIC = 0x33524953;        // "SIR3"
+    static final int FOOTER_MAGIC = 0x58524953; // "SIRX"
+    static final int HEADER_SIZE = 20;
+    static final int FOOTER_SIZE = 20;
+    static final int DEFAULT_CHECKSUM_INTERVAL = 30;
+    static final int DEFAULT_KEYFRAME_INTERVAL = 600; // 10 seconds of play
+
+    // Input byte
+    static final int MOVING = 1;
+    static final int SHOOTING = 2;
+    static final int LEFT = 4;
+    static final int RIGHT = 8;
+    static final int RESTART = 16; // The game was restarted before the tick
+    static final int KEYFRAME = 0xFE;
+    static final int END = 0xFF;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate( BUFFER_SIZE ).order( ByteOrder.LITTLE_ENDIAN );
+    private final ByteBuffer snapshot = ByteBuffer.allocate( Snapshot.MAX_SIZE ).order( ByteOrder.LITTLE_ENDIAN );
+    private final int checksumInterval;
+    private final int keyframeInterval;
+    private long bytesWritten = 0;
+    private long[] keyframeTicks = new long[16];
+    private long[] keyframeOffsets = new long[16];
+    private int keyframes = 0;
+    private int runInput = -1;
+    private long runLength = 0;
+    private long ticks = 0;
+    private int lastChecksum = 0;
+    private boolean restartPending = false;
+    private boolean closed = false;
+
+    /**
+     * Creates the recording file, replacing any existing file, and writes its header.
+     *
+     * @param path the recording file
+     * @param seed the seed of the recorded game
+     * @param checksumInterval the number of ticks between state checksums
+     * @param keyframeInterval the number of ticks between keyframes, a multiple of the checksum interval
+     * @throws IOException if the file cannot be created
+     * @throws IllegalArgumentException if an interval is not positive or the intervals do not line up
+     */
+    InputRecorder( Path path, long seed, int checksumInterval, int keyframeInterval ) throws IOException
+    {
+        if ( checksumInterval <= 0 || keyframeInterval <= 0 || keyframeInterval % checksumInterval != 0 )
+            throw new IllegalArgumentException( "keyframeInterval must be a positive multiple of checksumInterval" );
+        this.checksumInterval = checksumInterval;
+        this.keyframeInterval = keyframeInterval;
+        channel = FileChannel.open( path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                    StandardOpenOption.TRUNCATE_EXISTING );
+        buffer.putInt( MAGIC );
+        buffer.putInt( checksumInterval );
+        buffer.putInt( keyframeInterval );
+        buffer.putLong( seed );
+        drain();
+    }
+
+    /**
+     * Encodes the input state of the ship as the simulation sees it at the start of a tick.
+     *
+     * @param session the game session
+     * @return the input byte without the restart flag
+     */
+    static int encode( GameSession session )
+    {
+        int input = 0;
+        if ( session.shipMoving )
+            input |= MOVING;
+        if ( session.shipShooting )
+            input |= SHOOTING;
+        if ( session.shipDirection == 'L' )
+            input |= LEFT;
+        else if ( session.shipDirection == 'R' )
+            input |= RIGHT;
+        return input;
+    }
+
+    /**
+     * Sets the input state of the ship from an input byte.
+     *
+     * @param session the game session
+     * @param input the input byte
+     */
+    static void apply( GameSession session, int input )
+    {
+        session.shipMoving = ( input & MOVING ) != 0;
+        session.shipShooting = ( input & SHOOTING ) != 0;
+        session.shipDirection = directionOf( input );
+    }
+
+    /**
+     * Decodes the direction of an input byte.
+     *
+     * @param input the input byte
+     * @return 'L' for left, 'R' for right or ' ' for neither
+     */
+    static char directionOf( int input ) { return ( input & LEFT ) != 0 ? 'L' : ( input & RIGHT ) != 0 ? 'R' : ' '; }
+
+    /**
+     * Reads an unsigned LEB128 varint.
+     *
+     * @param buffer the buffer positioned at the varint
+     * @return the value
+     * @throws java.nio.BufferUnderflowException if the buffer ends inside the varint
+     */
+    static long getVarint( ByteBuffer buffer )
+    {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do
+        {
+            b = buffer.get();
+            value |= (long)( b & 0x7F ) << shift;
+            shift += 7;
+        } while ( ( b & 0x80 ) != 0 );
+        return value;
+    }
+
+    /**
+     * Notes that the game is being restarted, so that the next tick is recorded with the restart flag.
+     */
+    synchronized void gameRestarted() { restartPending = true; }
+
+    /**
+     * Records the input of the tick that is starting.
+     *
+     * @param session the session being ticked
+     */
+    synchronized void recordInput( GameSession session )
+    {
+        if ( closed )
+            return;
+
+        int input = encode( session );
+        if ( restartPending )
+            input |= RESTART;
+        restartPending = false;
+
+        if ( input == runInput )
+        {
+            runLength++;
+            return;
+        }
+        writeRun();
+        runInput = input;
+        runLength = 1;
+    }
+
+    /**
+     * Completes the tick that recordInput started. Ends the block with a checksum every checksum interval, adds a
+     * keyframe every keyframe interval, and pushes everything recorded so far to the file when the game is over.
+     *
+     * @param panel the GamePanel that ran the tick
+     */
+    synchronized void tickCompleted( GamePanel panel )
+    {
+        if ( closed )
+            return;
+
+        ticks++;
+        lastChecksum = panel.session.stateChecksum();
+        if ( ticks % checksumInterval == 0 )
+        {
+            writeRun();
+            ensureRemaining( 4 );
+            buffer.putInt( lastChecksum );
+        }
+        if ( ticks % keyframeInterval == 0 )
+            writeKeyframe( panel );
+        if ( panel.session.isGameOver )
+            drain();
+    }
+
+    /**
+     * Writes the end of the recording and the keyframe index, and closes the file. Further ticks are not recorded.
+     */
+    synchronized void close()
+    {
+        if ( closed )
+            return;
+        closed = true;
+
+        try
+        {
+            writeRun();
+            ensureRemaining( 1 + 10 + 4 );
+            buffer.put( (byte)END );
+            putVarint( ticks );
+            buffer.putInt( lastChecksum );
+
+            long indexOffset = bytesWritten + buffer.position();
+            ensureRemaining( 4 );
+            buffer.putInt( keyframes );
+            for ( int i = 0; i < keyframes; i++ )
+            {
+                ensureRemaining( 16 );
+                buffer.putLong( keyframeTicks[i] );
+                buffer.putLong( keyframeOffsets[i] );
+            }
+            ensureRemaining( FOOTER_SIZE );
+            buffer.putLong( indexOffset );
+            buffer.putLong( ticks );
+            buffer.putInt( FOOTER_MAGIC );
+            drain();
+            channel.close();
+        }
+        catch ( IOException e )
+        {
+            System.err.println( "Problem closing input recording." );
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Appends a keyframe holding a snapshot of the game and remembers its offset for the index.
+     *
+     * @param panel the game to snapshot
+     */
+    private void writeKeyframe( GamePanel panel )
+    {
+        snapshot.clear();
+        Snapshot.save( panel.session, snapshot );
+        snapshot.flip();
+
+        if ( keyframes == keyframeTicks.length )
+        {
+            keyframeTicks = Arrays.copyOf( keyframeTicks, keyframes * 2 );
+            keyframeOffsets = Arrays.copyOf( keyframeOffsets, keyframes * 2 );
+        }
+        keyframeTicks[keyframes] = ticks;
+        keyframeOffsets[keyframes] = bytesWritten + buffer.position();
+        keyframes++;
+
+        ensureRemaining( 5 );
+        buffer.put( (byte)KEYFRAME );
+        buffer.putInt( snapshot.remaining() );
+        while ( snapshot.hasRemaining() )
+        {
+            ensureRemaining( 1 );
+            int length = Math.min( snapshot.remaining(), buffer.remaining() );
+            buffer.put( buffer.position(), snapshot, snapshot.position(), length );
+            buffer.position( buffer.position() + length );
+            snapshot.position( snapshot.position() + length );
+        }
+    }
+
+    /**
+     * Appends the current run to the buffer and starts a new one.
+     */
+    private void writeRun()
+    {
+        if ( runLength == 0 )
+            return;
+        ensureRemaining( 1 + 10 );
+        buffer.put( (byte)runInput );
+        putVarint( runLength );
+        runInput = -1;
+        runLength = 0;
+    }
+
+    /**
+     * Appends an unsigned LEB128 varint to the buffer.
+     *
+     * @param value the non-negative value
+     */
+    private void putVarint( long value )
+    {
+        while ( ( value & ~0x7FL ) != 0 )
+        {
+            buffer.put( (byte)( ( value & 0x7F ) | 0x80 ) );
+            value >>>= 7;
+        }
+        buffer.put( (byte)value );
+    }
+
+    /**
+     * Makes room in the buffer, writing it to the file if needed.
+     *
+     * @param bytes the number of bytes about to be appended
+     */
+    private void ensureRemaining( int bytes )
+    {
+        if ( buffer.remaining() < bytes )
+            drain();
+    }
+
+    /**
+     * Writes the buffered bytes to the file. A failed write stops the recording instead of interrupting the game.
+     */
+    private void drain()
+    {
+        buffer.flip();
+        try
+        {
+            while ( buffer.hasRemaining() )
+            {
+                bytesWritten += channel.write( buffer );
+            }
+        }
+        catch ( IOException e )
+        {
+            System.err.println( "Problem writing input recording, recording stopped." );
+            e.printStackTrace();
+            closed = true;
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,121 @@
+package edu.aav66;
+
+import java.awt.event.KeyEvent;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free single-producer single-consumer ring of key events, from the event dispatch thread to the game loop. A key
+ * listener pushes one int per press or release of a ship button; once per tick the game loop drains the ring and folds
+ * the events into the buttons held, then samples them as an input byte in the InputRecorder format. The simulation only
+ * ever sees that byte, so input takes effect at tick boundaries whatever the EDT timing, the tick reads exactly what is
+ * recorded, and neither side allocates, boxes or locks.
+ *
+ * A button pressed and released between two ticks still counts as held for the next tick, so a quick tap of the fire
+ * button fires a bullet. Every event carries the System.nanoTime at which the key event arrived, so the game loop can
+ * measure how long a press takes to reach the tick and the screen.
+ */
+final class InputRing
+{
+    static final int CAPACITY = 256;         // Must be a power of two
+    private static final int PRESSED = 1;    // Low bit of an event, the button is in the bits above
+
+    // Pending events, written by the EDT and drained by the game loop
+    private final int[] events = new int[CAPACITY];
+    private final long[] arrivals = new long[CAPACITY];
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    // Buttons held after the last drained event, only touched by the game loop
+    private int held = 0;
+    private long pressedAt = -1;
+
+    /**
+     * Maps a key code to the ship button it controls.
+     *
+     * @param keyCode the key code of a KeyEvent
+     * @return InputRecorder.LEFT, RIGHT or SHOOTING, or 0 if the key is not a ship button
+     */
+    static int buttonOf( int keyCode )
+    {
+        switch ( keyCode )
+        {
+        case KeyEvent.VK_LEFT:
+        case KeyEvent.VK_A:
+            return InputRecorder.LEFT;
+        case KeyEvent.VK_RIGHT:
+        case KeyEvent.VK_D:
+            return InputRecorder.RIGHT;
+        case KeyEvent.VK_SPACE:
+            return InputRecorder.SHOOTING;
+        default:
+            return 0;
+        }
+    }
+
+    /**
+     * Queues a press or release of a button. Must be called from a single thread, the EDT. If the ring is full the
+     * event is dropped, which takes more than CAPACITY events within one tick.
+     *
+     * @param button the button, as returned by buttonOf
+     * @param pressed true for a press, false for a release
+     * @param arrival the System.nanoTime at which the key event arrived
+     * @return true if the event was queued
+     */
+    boolean offer( int button, boolean pressed, long arrival )
+    {
+        long t = tail.get();
+        if ( t - head.get() >= CAPACITY )
+            return false;
+
+        events[(int)( t & ( CAPACITY - 1 ) )] = ( button << 1 ) | ( pressed ? PRESSED : 0 );
+        arrivals[(int)( t & ( CAPACITY - 1 ) )] = arrival;
+        tail.lazySet( t + 1 );
+        return true;
+    }
+
+    /**
+     * Drains every queued event and samples the input for the tick about to run. Must be called from a single thread,
+     * the game loop. The ship moves while a direction button is held, to the left if both are; it fires while the fire
+     * button is held.
+     *
+     * @return the input byte, without the restart flag
+     */
+    int sample()
+    {
+        int tapped = 0;
+        pressedAt = -1;
+        long h = head.get();
+        long t = tail.get();
+        for ( ; h < t; h++ )
+        {
+            int event = events[(int)( h & ( CAPACITY - 1 ) )];
+            int button = event >>> 1;
+            if ( ( event & PRESSED ) != 0 )
+            {
+                held |= button;
+                tapped |= button;
+                if ( pressedAt < 0 )
+                    pressedAt = arrivals[(int)( h & ( CAPACITY - 1 ) )];
+            }
+            else
+            {
+                held &= ~button;
+            }
+        }
+        head.lazySet( h );
+
+        int buttons = held | tapped;
+        if ( ( buttons & InputRecorder.LEFT ) != 0 )
+            buttons &= ~InputRecorder.RIGHT;
+        if ( ( buttons & ( InputRecorder.LEFT | InputRecorder.RIGHT ) ) != 0 )
+            buttons |= InputRecorder.MOVING;
+        return buttons;
+    }
+
+    /**
+     * Retrieves the arrival time of the first press drained by the last sample.
+     *
+     * @return the System.nanoTime at which the key event arrived, or -1 if the last sample drained no press
+     */
+    long pressedAt() { return pressedAt; }
+}
@@ -0,0 +1,161 @@
+package edu.aav66;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Growable list of ints, which holds the coordinates and slots of the aliens and the indices of the bullets on screen.
+ * The game loop reads and writes these lists every tick; unlike a List or Deque of Integer they never box, and once
+ * their array has grown to the largest formation or volley of the game they no longer allocate either. Elements keep
+ * the order in which they were added.
+ */
+final class IntList
+{
+    private int[] values;
+    private int size;
+
+    /**
+     * Constructs an empty list with room for 16 elements.
+     */
+    IntList() { this( 16 ); }
+
+    /**
+     * Constructs an empty list.
+     *
+     * @param capacity the number of elements the list holds before it grows
+     */
+    IntList( int capacity ) { values = new int[Math.max( capacity, 1 )]; }
+
+    /**
+     * Returns the number of elements.
+     *
+     * @return the size of the list
+     */
+    int size() { return size; }
+
+    /**
+     * Tells whether the list has no elements.
+     *
+     * @return true if the list is empty
+     */
+    boolean isEmpty() { return size == 0; }
+
+    /**
+     * Returns an element.
+     *
+     * @param i the index of the element
+     * @return the element
+     * @throws IndexOutOfBoundsException if the index is not below the size
+     */
+    int get( int i )
+    {
+        return values[Objects.checkIndex( i, size )];
+    }
+
+    /**
+     * Replaces an element.
+     *
+     * @param i the index of the element
+     * @param value the new value
+     * @throws IndexOutOfBoundsException if the index is not below the size
+     */
+    void set( int i, int value )
+    {
+        values[Objects.checkIndex( i, size )] = value;
+    }
+
+    /**
+     * Returns the last element.
+     *
+     * @return the element at index size() - 1
+     * @throws IndexOutOfBoundsException if the list is empty
+     */
+    int last()
+    {
+        return get( size - 1 );
+    }
+
+    /**
+     * Appends an element, doubling the array when it is full.
+     *
+     * @param value the value to append
+     */
+    void add( int value )
+    {
+        if ( size == values.length )
+            values = Arrays.copyOf( values, size * 2 );
+        values[size++] = value;
+    }
+
+    /**
+     * Removes an element and shifts the elements after it down by one.
+     *
+     * @param i the index of the element
+     * @return the removed element
+     * @throws IndexOutOfBoundsException if the index is not below the size
+     */
+    int remove( int i )
+    {
+        int value = get( i );
+        System.arraycopy( values, i + 1, values, i, size - i - 1 );
+        size--;
+        return value;
+    }
+
+    /**
+     * Removes the last element.
+     *
+     * @return the removed element
+     * @throws IndexOutOfBoundsException if the list is empty
+     */
+    int removeLast()
+    {
+        return remove( size - 1 );
+    }
+
+    /**
+     * Removes the elements past a given size.
+     *
+     * @param newSize the number of elements to keep
+     */
+    void truncate( int newSize )
+    {
+        if ( size > newSize )
+            size = newSize;
+    }
+
+    /**
+     * Removes every element, keeping the array.
+     */
+    void clear() { size = 0; }
+
+    /**
+     * Tells whether the list holds a value.
+     *
+     * @param value the value to look for
+     * @return true if some element equals the value
+     */
+    boolean contains( int value )
+    {
+        for ( int i = 0; i < size; i++ )
+        {
+            if ( values[i] == value )
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the largest element.
+     *
+     * @return the largest element
+     * @throws IndexOutOfBoundsException if the list is empty
+     */
+    int max()
+    {
+        int max = get( 0 );
+        for ( int i = 1; i < size; i++ )
+            max = Math.max( max, values[i] );
+        return max;
+    }
+}
@@ -0,0 +1,142 @@
+package edu.aav66;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of durations in nanoseconds. Values are counted in log-linear buckets: every power of two is
+ * split into 16 equal sub-buckets, which keeps the relative error of any reported percentile under about 6% while
+ * covering everything from single nanoseconds to many minutes in a few hundred counters. Recording is a single atomic
+ * increment, so it is safe to record from one thread while another reads.
+ */
+class LatencyHistogram
+{
+    private static final int SUB_BITS = 4;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int MAX_EXPONENT = 42; // Values are clamped to about 73 minutes
+    private static final int BUCKETS = SUB_COUNT + ( MAX_EXPONENT - SUB_BITS + 1 ) * SUB_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray( BUCKETS );
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a duration.
+     *
+     * @param nanos the duration in nanoseconds, negative values are recorded as 0
+     */
+    void record( long nanos )
+    {
+        long value = Math.max( 0, nanos );
+        counts.incrementAndGet( bucketOf( value ) );
+        count.incrementAndGet();
+        long current;
+        while ( value > ( current = max.get() ) && !max.compareAndSet( current, value ) )
+        {
+            // Retry until the maximum is at least this value
+        }
+    }
+
+    /**
+     * Retrieves the number of recorded durations.
+     * @return the number of values recorded since the last reset
+     */
+    long count() { return count.get(); }
+
+    /**
+     * Retrieves the largest recorded duration.
+     * @return the exact maximum in nanoseconds, or 0 if nothing was recorded
+     */
+    long max() { return max.get(); }
+
+    /**
+     * Estimates a percentile of the recorded durations.
+     *
+     * @param percentile the percentile between 0 and 100
+     * @return the upper bound of the bucket holding the percentile in nanoseconds, or 0 if nothing was recorded
+     */
+    long percentile( double percentile )
+    {
+        long total = count.get();
+        if ( total == 0 )
+            return 0;
+
+        long target = Math.max( 1, (long)Math.ceil( total * percentile / 100.0 ) );
+        long seen = 0;
+        for ( int i = 0; i < BUCKETS; i++ )
+        {
+            seen += counts.get( i );
+            if ( seen >= target )
+                return Math.min( upperBoundOf( i ), max.get() );
+        }
+        return max.get();
+    }
+
+    /**
+     * Adds every value recorded by another histogram to this one.
+     *
+     * @param other the histogram to add, which should not be recording concurrently
+     */
+    void add( LatencyHistogram other )
+    {
+        for ( int i = 0; i < BUCKETS; i++ )
+        {
+            long bucketCount = other.counts.get( i );
+            if ( bucketCount != 0 )
+                counts.addAndGet( i, bucketCount );
+        }
+        count.addAndGet( other.count.get() );
+        long otherMax = other.max.get();
+        long current;
+        while ( otherMax > ( current = max.get() ) && !max.compareAndSet( current, otherMax ) )
+        {
+            // Retry until the maximum is at least the other maximum
+        }
+    }
+
+    /**
+     * Clears every bucket. Values recorded concurrently with a reset may be partially lost.
+     */
+    void reset()
+    {
+        for ( int i = 0; i < BUCKETS; i++ )
+        {
+            counts.set( i, 0 );
+        }
+        count.set( 0 );
+        max.set( 0 );
+    }
+
+    /**
+     * Computes the bucket of a value.
+     *
+     * @param value a non-negative value
+     * @return the index of the bucket counting the value
+     */
+    private static int bucketOf( long value )
+    {
+        if ( value < SUB_COUNT )
+            return (int)value;
+
+        int exponent = Math.min( 63 - Long.numberOfLeadingZeros( value ), MAX_EXPONENT );
+        int shift = exponent - SUB_BITS;
+        int sub = (int)Math.min( ( value >>> shift ) - SUB_COUNT, SUB_COUNT - 1 );
+        return SUB_COUNT + shift * SUB_COUNT + sub;
+    }
+
+    /**
+     * Computes the largest value counted by a bucket.
+     *
+     * @param bucket the index of the bucket
+     * @return the inclusive upper bound of the bucket
+     */
+    private static long upperBoundOf( int bucket )
+    {
+        if ( bucket < SUB_COUNT )
+            return bucket;
+
+        int shift = ( bucket - SUB_COUNT ) / SUB_COUNT;
+        int sub = ( bucket - SUB_COUNT ) % SUB_COUNT;
+        return ( (long)( SUB_COUNT + sub + 1 ) << shift ) - 1;
+    }
+}
@@ -0,0 +1,385 @@
+package edu.aav66;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent leaderboard backed by an append-only binary log. Each finished game is appended as a fixed-size record
+ * protected by a CRC32, so a record cut short by a crash is detected and truncated away the next time the log is
+ * opened. Only the best entries are kept in memory, in a bounded min-heap and a sorted index that the game over screen
+ * reads without touching the disk. Once the log holds many more records than are ranked it is compacted down to the
+ * best entries already in the log through a temporary file and an atomic rename.
+ */
+class Leaderboard
+{
+    static final int CAPACITY = 100; // Number of ranked entries kept
+
+    private static final int MAGIC = 0x4C424431; // "LBD1"
+    static final int HEADER_SIZE = 8;
+    static final int RECORD_SIZE = 32;
+    private static final int INITIALS_LENGTH = 4;
+    static final int COMPACT_THRESHOLD = CAPACITY * 8;
+
+    private static final Comparator<Entry> RANKING =
+        Comparator.comparingInt( ( Entry e ) -> e.score ).thenComparingLong( e -> -e.timestamp );
+
+    /**
+     * A single finished game on the leaderboard.
+     */
+    static final class Entry
+    {
+        final int score;
+        final int wave;
+        final long durationMillis;
+        final long timestamp;
+        final String initials;
+
+        /**
+         * Constructs an entry.
+         *
+         * @param score the final score
+         * @param wave the wave reached, starting at 1
+         * @param durationMillis the length of the game in milliseconds
+         * @param timestamp the time the game ended, in milliseconds since the epoch
+         * @param initials the player's initials, truncated to four characters
+         */
+        Entry( int score, int wave, long durationMillis, long timestamp, String initials )
+        {
+            this.score = score;
+            this.wave = wave;
+            this.durationMillis = durationMillis;
+            this.timestamp = timestamp;
+            this.initials = initials.length() > INITIALS_LENGTH ? initials.substring( 0, INITIALS_LENGTH ) : initials;
+        }
+    }
+
+    private final Path path;
+    private final PriorityQueue<Entry> topHeap = new PriorityQueue<>( CAPACITY + 1, RANKING );
+    private final PriorityQueue<Entry> loggedHeap = new PriorityQueue<>( CAPACITY + 1, RANKING ); // Appender only
+    private volatile Entry[] ranked = new Entry[0];
+    private final ExecutorService appender =
+        Executors.newSingleThreadExecutor( Thread.ofVirtual().name( "leaderboard-writer" ).factory() );
+    private long recordCount;
+
+    /**
+     * Opens the leaderboard log, creating it if it does not exist. Every intact record is loaded into the ranking;
+     * a trailing partial or corrupt record is truncated from the file.
+     *
+     * @param path the log file
+     * @throws IOException if the log cannot be read or repaired
+     */
+    Leaderboard( Path path ) throws IOException
+    {
+        this.path = path.toAbsolutePath();
+        load();
+    }
+
+    /**
+     * Records a finished game. The in-memory ranking is updated immediately and the record is appended to the log on
+     * a background thread.
+     *
+     * @param entry the finished game
+     */
+    void record( Entry entry )
+    {
+        synchronized ( topHeap )
+        {
+            offer( topHeap, entry );
+            rebuildIndex();
+        }
+        appender.execute( () -> append( entry ) );
+    }
+
+    /**
+     * Retrieves the best entries, highest score first.
+     *
+     * @param count the maximum number of entries to return
+     * @return up to count entries, sorted from best to worst
+     */
+    Entry[] top( int count )
+    {
+        Entry[] index = ranked;
+        return Arrays.copyOf( index, Math.min( count, index.length ) );
+    }
+
+    /**
+     * Waits for every recorded game to be appended to the log.
+     *
+     * @param timeoutMillis the maximum time to wait in milliseconds
+     * @return true if the log is up to date, false if the timeout expired first
+     * @throws InterruptedException if the calling thread is interrupted while waiting
+     */
+    boolean flush( long timeoutMillis ) throws InterruptedException
+    {
+        try
+        {
+            appender.submit( () -> {} ).get( timeoutMillis, TimeUnit.MILLISECONDS );
+            return true;
+        }
+        catch ( ExecutionException | TimeoutException e )
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Reads every intact record of the log into the ranking and truncates anything after the last intact record.
+     *
+     * @throws IOException if the log cannot be read or repaired
+     */
+    private void load() throws IOException
+    {
+        try ( FileChannel channel = FileChannel.open( path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                                      StandardOpenOption.WRITE ) )
+        {
+            if ( channel.size() < HEADER_SIZE )
+            {
+                writeHeader( channel );
+                return;
+            }
+
+            ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE ).order( ByteOrder.LITTLE_ENDIAN );
+            readFully( channel, header, 0 );
+            if ( header.getInt( 0 ) != MAGIC )
+                throw new IOException( "Not a leaderboard file: " + path );
+
+            ByteBuffer record = ByteBuffer.allocate( RECORD_SIZE ).order( ByteOrder.LITTLE_ENDIAN );
+            long position = HEADER_SIZE;
+            while ( position + RECORD_SIZE <= channel.size() )
+            {
+                record.clear();
+                readFully( channel, record, position );
+                Entry entry = decode( record );
+                if ( entry == null )
+                    break; // Corrupt record, everything from here on is discarded
+                offer( topHeap, entry );
+                offer( loggedHeap, entry );
+                recordCount++;
+                position += RECORD_SIZE;
+            }
+
+            if ( position < channel.size() )
+            {
+                System.err.println( "Leaderboard log truncated after " + recordCount + " intact records." );
+                channel.truncate( position );
+                channel.force( true );
+            }
+        }
+        rebuildIndex();
+    }
+
+    /**
+     * Appends a record to the log and compacts the log once it has grown past the threshold. Runs on the appender
+     * thread only.
+     *
+     * @param entry the entry to append
+     */
+    private void append( Entry entry )
+    {
+        try ( FileChannel channel = FileChannel.open( path, StandardOpenOption.WRITE, StandardOpenOption.APPEND ) )
+        {
+            ByteBuffer record = encode( entry );
+            while ( record.hasRemaining() )
+            {
+                channel.write( record );
+            }
+            channel.force( false );
+            offer( loggedHeap, entry );
+            recordCount++;
+        }
+        catch ( IOException e )
+        {
+            System.err.println( "Problem appending to leaderboard " + path );
+            e.printStackTrace();
+            return;
+        }
+
+        if ( recordCount > COMPACT_THRESHOLD )
+            compact();
+    }
+
+    /**
+     * Rewrites the log with only the best entries already appended to it, through a temporary file that is atomically
+     * renamed over the log. Entries still queued for the appender are not in the rewritten log, so they are written
+     * exactly once when their turn comes. Runs on the appender thread only.
+     */
+    private void compact()
+    {
+        Entry[] entries = loggedHeap.toArray( new Entry[0] );
+        Arrays.sort( entries, RANKING.reversed() );
+        Path tempPath = path.resolveSibling( path.getFileName() + ".tmp" );
+        try
+        {
+            try ( FileChannel channel = FileChannel.open( tempPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                          StandardOpenOption.TRUNCATE_EXISTING ) )
+            {
+                writeHeader( channel );
+                for ( int i = entries.length - 1; i >= 0; i-- )
+                {
+                    ByteBuffer record = encode( entries[i] );
+                    while ( record.hasRemaining() )
+                    {
+                        channel.write( record );
+                    }
+                }
+                channel.force( true );
+            }
+
+            try
+            {
+                Files.move( tempPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING );
+            }
+            catch ( AtomicMoveNotSupportedException e )
+            {
+                Files.move( tempPath, path, StandardCopyOption.REPLACE_EXISTING );
+            }
+            syncDirectory();
+            recordCount = entries.length;
+        }
+        catch ( IOException e )
+        {
+            System.err.println( "Problem compacting leaderboard " + path );
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Forces the directory entry of the renamed log to disk. Not every platform allows opening a directory, in which
+     * case the rename is left to the file system.
+     */
+    private void syncDirectory()
+    {
+        try ( FileChannel directory = FileChannel.open( path.getParent(), StandardOpenOption.READ ) )
+        {
+            directory.force( true );
+        }
+        catch ( IOException e )
+        {
+            // Directories cannot be opened on this platform
+        }
+    }
+
+    /**
+     * Adds an entry to a bounded heap, evicting the lowest ranked entry once the heap is full.
+     *
+     * @param heap the heap to add to
+     * @param entry the entry to add
+     */
+    private static void offer( PriorityQueue<Entry> heap, Entry entry )
+    {
+        heap.offer( entry );
+        if ( heap.size() > CAPACITY )
+            heap.poll();
+    }
+
+    /**
+     * Rebuilds the sorted index from the heap, best entry first.
+     */
+    private void rebuildIndex()
+    {
+        Entry[] index = topHeap.toArray( new Entry[0] );
+        Arrays.sort( index, RANKING.reversed() );
+        ranked = index;
+    }
+
+    /**
+     * Encodes an entry into a record.
+     *
+     * @param entry the entry to encode
+     * @return a buffer holding the record, ready to be written
+     */
+    private static ByteBuffer encode( Entry entry )
+    {
+        ByteBuffer record = ByteBuffer.allocate( RECORD_SIZE ).order( ByteOrder.LITTLE_ENDIAN );
+        record.putInt( entry.score );
+        record.putInt( entry.wave );
+        record.putLong( entry.durationMillis );
+        record.putLong( entry.timestamp );
+        byte[] initials = Arrays.copyOf( entry.initials.getBytes( StandardCharsets.US_ASCII ), INITIALS_LENGTH );
+        record.put( initials );
+
+        CRC32 crc = new CRC32();
+        crc.update( record.array(), 0, RECORD_SIZE - 4 );
+        record.putInt( (int)crc.getValue() );
+        record.flip();
+        return record;
+    }
+
+    /**
+     * Decodes a record, verifying its checksum.
+     *
+     * @param record a buffer holding one complete record
+     * @return the decoded entry, or null if the checksum does not match
+     */
+    private static Entry decode( ByteBuffer record )
+    {
+        CRC32 crc = new CRC32();
+        crc.update( record.array(), 0, RECORD_SIZE - 4 );
+        if ( (int)crc.getValue() != record.getInt( RECORD_SIZE - 4 ) )
+            return null;
+
+        byte[] initials = new byte[INITIALS_LENGTH];
+        record.position( 24 );
+        record.get( initials );
+        int length = 0;
+        while ( length < INITIALS_LENGTH && initials[length] != 0 )
+        {
+            length++;
+        }
+        return new Entry( record.getInt( 0 ), record.getInt( 4 ), record.getLong( 8 ), record.getLong( 16 ),
+                          new String( initials, 0, length, StandardCharsets.US_ASCII ) );
+    }
+
+    /**
+     * Writes the file header at the start of the channel.
+     *
+     * @param channel the channel to write to
+     * @throws IOException if the header cannot be written
+     */
+    private static void writeHeader( FileChannel channel ) throws IOException
+    {
+        ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE ).order( ByteOrder.LITTLE_ENDIAN );
+        header.putInt( MAGIC ).putInt( RECORD_SIZE ).flip();
+        channel.truncate( 0 );
+        channel.position( 0 );
+        while ( header.hasRemaining() )
+        {
+            channel.write( header );
+        }
+    }
+
+    /**
+     * Reads from the channel until the buffer is full.
+     *
+     * @param channel the channel to read from
+     * @param buffer the buffer to fill
+     * @param position the file position to read from
+     * @throws IOException if the end of the file is reached before the buffer is full
+     */
+    private static void readFully( FileChannel channel, ByteBuffer buffer, long position ) throws IOException
+    {
+        while ( buffer.hasRemaining() )
+        {
+            int read = channel.read( buffer, position + buffer.position() );
+            if ( read < 0 )
+                throw new IOException( "Unexpected end of leaderboard file" );
+        }
+    }
+}
@@ -6,12 +6,355 @@
  */
 package edu.aav66;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
 public class Main
 {
+    private static final String USAGE =
+        "Usage: Main [--jfr] [--seed N] [--record FILE] [--replay FILE [--seek TICK]]\n" +
+        "            [--batch GAMES [--player sweep|track] [--threads N] [--max-ticks N]]\n" +
+        "            [--spectate PORT | --watch PORT] [--host PORT | --join PORT]\n" +
+        "            [--net-latency MS] [--net-loss PERCENT] [--netplay-test FRAMES]\n" +
+        "            [--world-state FILE | --observe FILE]";
+
     /**
      * The main method of the program. It creates a new instance of the GameFrame class and starts the game.
+     * Passing --jfr records the interactive game in a continuous flight recording that is dumped to disk whenever a
+     * frame spikes; the recording starts once the options are valid and no other mode was asked for. Live
+     * statistics and tuning knobs are always published over JMX as edu.aav66:type=GameStats.
+     *
+     * --seed N starts a reproducible game from the given seed, --record FILE records the input of every tick to a
+     * file, and --replay FILE replays such a recording headlessly at full speed instead of starting the game.
+     * --seek TICK makes the replay start at a tick, restored from the closest keyframe of the recording.
+     *
+     * --batch GAMES plays that many headless games in parallel with a bot player and prints the distributions of
+     * survival time, score and wave reached. The games use the seeds from --seed on; --player sweep|track picks the
+     * bot, --threads N the parallelism and --max-ticks N the tick limit of each game.
+     *
+     * --spectate PORT publishes the game being played to spectators on that port of the loopback interface, and
+     * --watch PORT opens a spectator window on such a game instead of starting one.
+     *
+     * --host PORT waits for a second player on that port of the loopback interface and --join PORT joins as that
+     * player, for a two-player game with rollback netcode; --net-latency MS and --net-loss PERCENT hold back and drop
+     * the packets sent, to try the netcode as over a real network. --netplay-test FRAMES plays two bots against each
+     * other under a range of latencies and losses and checks that they stay in sync.
+     *
+     * --world-state FILE publishes the state of the game after every tick into a memory-mapped file, for other
+     * processes to read with WorldStateReader, and --observe FILE follows such a file instead of starting a game.
+     *
+     * An unknown option, an option without its value or a number that does not parse prints the usage and exits with
+     * status 1.
      *
      * @param args The command line arguments passed to the program
      */
-    public static void main( String[] args ) { new GameFrame(); }
+    public static void main( String[] args )
+    {
+        boolean jfr = false;
+        long seed = System.nanoTime();
+        Path recordPath = null;
+        Path replayPath = null;
+        long seekTick = -1;
+        long batchGames = 0;
+        String player = "sweep";
+        int threads = Runtime.getRuntime().availableProcessors();
+        long maxTicks = BatchRunner.DEFAULT_MAX_TICKS;
+        int spectatePort = -1;
+        int watchPort = -1;
+        int hostPort = -1;
+        int joinPort = -1;
+        int netLatency = 0;
+        int netLoss = 0;
+        int netplayTestFrames = 0;
+        Path worldStatePath = null;
+        Path observePath = null;
+        try
+        {
+            for ( int i = 0; i < args.length; i++ )
+            {
+                switch ( args[i] )
+                {
+                case "--jfr":
+                    jfr = true;
+                    break;
+                case "--seed":
+                    seed = longValue( args, ++i );
+                    break;
+                case "--record":
+                    recordPath = Paths.get( value( args, ++i ) );
+                    break;
+                case "--replay":
+                    replayPath = Paths.get( value( args, ++i ) );
+                    break;
+                case "--seek":
+                    seekTick = longValue( args, ++i );
+                    break;
+                case "--batch":
+                    batchGames = longValue( args, ++i );
+                    break;
+                case "--player":
+                    player = value( args, ++i );
+                    break;
+                case "--threads":
+                    threads = intValue( args, ++i );
+                    break;
+                case "--max-ticks":
+                    maxTicks = longValue( args, ++i );
+                    break;
+                case "--spectate":
+                    spectatePort = intValue( args, ++i );
+                    break;
+                case "--watch":
+                    watchPort = intValue( args, ++i );
+                    break;
+                case "--host":
+                    hostPort = intValue( args, ++i );
+                    break;
+                case "--join":
+                    joinPort = intValue( args, ++i );
+                    break;
+                case "--net-latency":
+                    netLatency = intValue( args, ++i );
+                    break;
+                case "--net-loss":
+                    netLoss = intValue( args, ++i );
+                    break;
+                case "--netplay-test":
+                    netplayTestFrames = intValue( args, ++i );
+                    break;
+                case "--world-state":
+                    worldStatePath = Paths.get( value( args, ++i ) );
+                    break;
+                case "--observe":
+                    observePath = Paths.get( value( args, ++i ) );
+                    break;
+                default:
+                    throw new IllegalArgumentException( "Unknown option " + args[i] );
+                }
+            }
+        }
+        catch ( IllegalArgumentException e )
+        {
+            System.err.println( e.getMessage() );
+            System.err.println( USAGE );
+            System.exit( 1 );
+        }
+
+        if ( replayPath != null )
+        {
+            System.setProperty( "java.awt.headless", "true" );
+            System.exit( ReplayRunner.run( replayPath, seekTick ) );
+        }
+        if ( batchGames > 0 )
+        {
+            System.setProperty( "java.awt.headless", "true" );
+            System.exit( BatchRunner.run( batchGames, seed, player, maxTicks, threads ) );
+        }
+
+        if ( netplayTestFrames > 0 )
+        {
+            System.setProperty( "java.awt.headless", "true" );
+            System.exit( NetPlayHarness.run( netplayTestFrames, seed ) );
+        }
+
+        if ( watchPort >= 0 )
+            System.exit( SpectatorViewer.run( watchPort ) );
+        if ( observePath != null )
+            System.exit( WorldStateReader.observe( observePath ) );
+
+        NetPlay netPlay = null;
+        if ( hostPort >= 0 || joinPort >= 0 )
+        {
+            netPlay = openNetPlay( hostPort, joinPort, seed, netLatency, netLoss );
+            if ( netPlay == null )
+                System.exit( 1 );
+            seed = netPlay.seed();
+            if ( recordPath != null )
+            {
+                System.err.println( "Two-player games cannot be recorded yet, the game is not recorded." );
+                recordPath = null;
+            }
+        }
+
+        if ( jfr )
+            FlightRecording.start();
+        new GameFrame( seed, openRecorder( recordPath, seed ), openSpectatorServer( spectatePort ), netPlay,
+                       openWorldState( worldStatePath ) );
+    }
+
+    /**
+     * Retrieves the value of an option.
+     *
+     * @param args the command line arguments
+     * @param i the index of the value, just after the option
+     * @return the value
+     * @throws IllegalArgumentException if the option is the last argument
+     */
+    static String value( String[] args, int i )
+    {
+        if ( i >= args.length )
+            throw new IllegalArgumentException( args[i - 1] + " needs a value" );
+        return args[i];
+    }
+
+    /**
+     * Retrieves the value of an option that takes a long.
+     *
+     * @param args the command line arguments
+     * @param i the index of the value, just after the option
+     * @return the value
+     * @throws IllegalArgumentException if the option is the last argument or its value is not a long
+     */
+    static long longValue( String[] args, int i )
+    {
+        String value = value( args, i );
+        try
+        {
+            return Long.parseLong( value );
+        }
+        catch ( NumberFormatException e )
+        {
+            throw new IllegalArgumentException( args[i - 1] + " expects a number, not " + value );
+        }
+    }
+
+    /**
+     * Retrieves the value of an option that takes an int.
+     *
+     * @param args the command line arguments
+     * @param i the index of the value, just after the option
+     * @return the value
+     * @throws IllegalArgumentException if the option is the last argument or its value is not an int
+     */
+    private static int intValue( String[] args, int i )
+    {
+        String value = value( args, i );
+        try
+        {
+            return Integer.parseInt( value );
+        }
+        catch ( NumberFormatException e )
+        {
+            throw new IllegalArgumentException( args[i - 1] + " expects a number, not " + value );
+        }
+    }
+
+    /**
+     * Connects to the other player of a two-player game, as the host or as the guest, and arranges for the
+     * statistics of the connection to be printed when the program exits.
+     *
+     * @param hostPort the port to host on, or -1 when joining
+     * @param joinPort the port to join on, or -1 when hosting
+     * @param seed the seed of the game if hosting
+     * @param latencyMillis the one-way latency to add to every packet sent
+     * @param lossPercent the percentage of packets sent to drop
+     * @return the connection, or null if it could not be established
+     */
+    private static NetPlay openNetPlay( int hostPort, int joinPort, long seed, int latencyMillis, int lossPercent )
+    {
+        int port = hostPort >= 0 ? hostPort : joinPort;
+        try
+        {
+            NetPlay netPlay;
+            if ( hostPort >= 0 )
+            {
+                System.out.println( "Waiting for the second player to join with --join " + hostPort );
+                netPlay = NetPlay.host( NetPlay.bind( hostPort ), seed, Long.MAX_VALUE );
+            }
+            else
+            {
+                netPlay = NetPlay.join( NetPlay.bind( 0 ), joinPort );
+            }
+            if ( latencyMillis > 0 || lossPercent > 0 )
+                netPlay.simulateLink( latencyMillis, lossPercent, seed );
+            System.out.println( "Playing as player " + ( netPlay.player() + 1 ) + " from seed " + netPlay.seed() );
+            Runtime.getRuntime().addShutdownHook( new Thread( netPlay::printStatistics, "netplay-statistics" ) );
+            return netPlay;
+        }
+        catch ( IOException e )
+        {
+            System.err.println( "Problem connecting to the other player on port " + port );
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Opens the spectator server.
+     *
+     * @param port the port to publish on, or -1 when not publishing
+     * @return the server, or null if not publishing or the port cannot be bound
+     */
+    private static SpectatorServer openSpectatorServer( int port )
+    {
+        if ( port < 0 )
+            return null;
+
+        try
+        {
+            SpectatorServer server = new SpectatorServer( port );
+            System.out.println( "Spectators can watch with --watch " + port );
+            return server;
+        }
+        catch ( IOException e )
+        {
+            System.err.println( "Problem opening the spectator server on port " + port + ", no one can watch." );
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Opens the world state file and arranges for it to be marked closed when the program exits.
+     *
+     * @param path the file, or null when not publishing
+     * @return the file, or null if not publishing or the file cannot be mapped
+     */
+    private static WorldStateFile openWorldState( Path path )
+    {
+        if ( path == null )
+            return null;
+
+        try
+        {
+            WorldStateFile worldState = new WorldStateFile( path );
+            Runtime.getRuntime().addShutdownHook( new Thread( worldState::close, "world-state-close" ) );
+            System.out.println( "Other processes can follow the game with --observe " + path );
+            return worldState;
+        }
+        catch ( IOException e )
+        {
+            System.err.println( "Problem mapping world state " + path + ", the state is not published." );
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Opens the input recorder and arranges for the recording to be completed when the program exits.
+     *
+     * @param path the recording file, or null when not recording
+     * @param seed the seed of the recorded game
+     * @return the recorder, or null if not recording or the file cannot be created
+     */
+    private static InputRecorder openRecorder( Path path, long seed )
+    {
+        if ( path == null )
+            return null;
+
+        try
+        {
+            InputRecorder recorder = new InputRecorder( path, seed, InputRecorder.DEFAULT_CHECKSUM_INTERVAL,
+                                                        InputRecorder.DEFAULT_KEYFRAME_INTERVAL );
+            Runtime.getRuntime().addShutdownHook( new Thread( recorder::close, "recording-close" ) );
+            return recorder;
+        }
+        catch ( IOException e )
+        {
+            System.err.println( "Problem creating recording " + path + ", the game is not recorded." );
+            e.printStackTrace();
+            return null;
+        }
+    }
 }
@@ -0,0 +1,241 @@
+package edu.aav66;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.SourceDataLine;
+import javazoom.jl.decoder.Bitstream;
+import javazoom.jl.decoder.Decoder;
+import javazoom.jl.decoder.Header;
+import javazoom.jl.decoder.SampleBuffer;
+
+/**
+ * Loops a background music track through a single SourceDataLine. The MP3 is decoded only once: the first pass
+ * decodes frame by frame while it plays and keeps the PCM samples, every later pass replays those samples straight
+ * from memory, so the loop is gapless and the decoder stays idle after the first pass. Volume and pause can be
+ * changed from any thread.
+ */
+class MusicPlayer
+{
+    private static final int WRITE_FRAMES = 2048; // Frames written to the line per chunk
+
+    private final String trackPath;
+    private final Object pauseLock = new Object();
+    private volatile float volume = 1.0f;
+    private volatile boolean paused = false;
+    private Thread thread;
+
+    // Decoded track, filled during the first pass
+    private short[] pcm = new short[0];
+    private int pcmLength = 0;
+    private int channels;
+    private int sampleRate;
+
+    /**
+     * Constructs a MusicPlayer for the given MP3 file. Nothing is opened or decoded until start is called.
+     *
+     * @param trackPath the path to the MP3 file to loop
+     */
+    MusicPlayer( String trackPath ) { this.trackPath = trackPath; }
+
+    /**
+     * Starts the playback thread if it is not already running. The thread is a daemon so it never keeps the JVM alive.
+     */
+    synchronized void start()
+    {
+        if ( thread != null )
+            return;
+
+        thread = new Thread( this::run, "music" );
+        thread.setDaemon( true );
+        thread.start();
+    }
+
+    /**
+     * Sets the playback volume.
+     *
+     * @param volume the volume between 0 (silent) and 1 (full), values outside the range are clamped
+     */
+    void setVolume( float volume ) { this.volume = Math.max( 0.0f, Math.min( 1.0f, volume ) ); }
+
+    /**
+     * Retrieves the playback volume.
+     * @return The volume between 0 and 1.
+     */
+    float getVolume() { return volume; }
+
+    /**
+     * Pauses or resumes playback. While paused the playback thread blocks and uses no CPU.
+     *
+     * @param paused true to pause, false to resume
+     */
+    void setPaused( boolean paused )
+    {
+        synchronized ( pauseLock )
+        {
+            this.paused = paused;
+            pauseLock.notifyAll();
+        }
+    }
+
+    /**
+     * Checks whether playback is paused.
+     * @return true if playback is paused, false otherwise
+     */
+    boolean isPaused() { return paused; }
+
+    /**
+     * Body of the playback thread. Decodes and plays the first pass, then loops over the decoded samples until the
+     * thread is interrupted.
+     */
+    private void run()
+    {
+        SourceDataLine line = null;
+        try ( InputStream in = new BufferedInputStream( new FileInputStream( trackPath ) ) )
+        {
+            Bitstream bitstream = new Bitstream( in );
+            Decoder decoder = new Decoder();
+            byte[] out = null;
+
+            // First pass: decode each frame, keep its samples and play them
+            Header header;
+            while ( ( header = bitstream.readFrame() ) != null )
+            {
+                SampleBuffer frame = (SampleBuffer)decoder.decodeFrame( header, bitstream );
+                bitstream.closeFrame();
+
+                if ( line == null )
+                {
+                    channels = frame.getChannelCount();
+                    sampleRate = frame.getSampleFrequency();
+                    line = openLine();
+                    out = new byte[WRITE_FRAMES * channels * 2];
+                }
+
+                append( frame.getBuffer(), frame.getBufferLength() );
+                write( line, out, frame.getBuffer(), 0, frame.getBufferLength() );
+            }
+            bitstream.close();
+
+            if ( line == null || pcmLength == 0 )
+                return;
+
+            // Following passes: loop over the decoded samples without touching the decoder
+            int chunk = WRITE_FRAMES * channels;
+            int position = 0;
+            while ( !Thread.currentThread().isInterrupted() )
+            {
+                int length = Math.min( chunk, pcmLength - position );
+                write( line, out, pcm, position, length );
+                position += length;
+                if ( position >= pcmLength )
+                    position = 0; // Wrap around, the next chunk starts with the first sample
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+        catch ( Exception e )
+        {
+            System.err.println( "Problem playing file " + trackPath );
+            e.printStackTrace();
+        }
+        finally
+        {
+            if ( line != null )
+            {
+                line.stop();
+                line.close();
+            }
+        }
+    }
+
+    /**
+     * Opens and starts a 16-bit signed little-endian line matching the decoded track.
+     *
+     * @return the opened line
+     * @throws Exception if no matching line is available
+     */
+    private SourceDataLine openLine() throws Exception
+    {
+        AudioFormat format = new AudioFormat( sampleRate, 16, channels, true, false );
+        SourceDataLine line = AudioSystem.getSourceDataLine( format );
+        line.open( format );
+        line.start();
+        return line;
+    }
+
+    /**
+     * Appends decoded samples to the in-memory track, growing the buffer geometrically.
+     *
+     * @param samples the interleaved samples to append
+     * @param length the number of samples to append
+     */
+    private void append( short[] samples, int length )
+    {
+        if ( pcmLength + length > pcm.length )
+        {
+            pcm = Arrays.copyOf( pcm, Math.max( pcmLength + length, pcm.length * 2 ) );
+        }
+        System.arraycopy( samples, 0, pcm, pcmLength, length );
+        pcmLength += length;
+    }
+
+    /**
+     * Scales samples by the current volume, converts them to bytes and writes them to the line, blocking first while
+     * playback is paused.
+     *
+     * @param line the line to write to
+     * @param out a scratch buffer large enough for WRITE_FRAMES frames
+     * @param samples the interleaved samples to write
+     * @param offset the first sample to write
+     * @param length the number of samples to write
+     * @throws InterruptedException if the thread is interrupted while paused
+     */
+    private void write( SourceDataLine line, byte[] out, short[] samples, int offset, int length )
+        throws InterruptedException
+    {
+        awaitResume( line );
+
+        float gain = volume;
+        int end = offset + length;
+        while ( offset < end )
+        {
+            int count = Math.min( out.length / 2, end - offset );
+            for ( int i = 0; i < count; i++ )
+            {
+                int sample = (int)( samples[offset + i] * gain );
+                out[i * 2] = (byte)sample;
+                out[i * 2 + 1] = (byte)( sample >> 8 );
+            }
+            line.write( out, 0, count * 2 );
+            offset += count;
+        }
+    }
+
+    /**
+     * Blocks while playback is paused, stopping the line so that no audio is consumed in the meantime.
+     *
+     * @param line the line to stop and restart
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    private void awaitResume( SourceDataLine line ) throws InterruptedException
+    {
+        if ( !paused )
+            return;
+
+        line.stop();
+        synchronized ( pauseLock )
+        {
+            while ( paused )
+            {
+                pauseLock.wait();
+            }
+        }
+        line.start();
+    }
+}
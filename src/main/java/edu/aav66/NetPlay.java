@@ -0,0 +1,646 @@
+package edu.aav66;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Rollback netcode for a two-player game over UDP on the loopback interface, in the style of GGPO. Both players run
+ * the whole simulation; the host steers the first ship and the guest the second, and they share the lives and the
+ * score. The players only exchange their input bytes, in the InputRecorder format, one per frame: a frame is one tick
+ * of the game, numbered from 0 for the whole connection.
+ *
+ * A player never waits for the other's input. Each frame runs at once with the local input and a prediction of the
+ * remote one, the last remote input known with the restart flag cleared, and the state before the frame is saved as a
+ * Snapshot. When the remote input of a frame turns out to differ from its prediction, the state before that frame is
+ * restored and every frame since is simulated again with what is now known; since a tick takes microseconds and so
+ * does a snapshot, this fits in one frame even at MAX_PREDICTION frames deep. A player that has run MAX_PREDICTION
+ * frames past the last remote input it knows stalls until more arrives, and a player that runs ahead of the other
+ * skips a frame now and then so that both see about the same latency.
+ *
+ * Every packet starts with MAGIC and a type byte. HELLO, from the guest, asks to join; WELCOME answers it with the seed
+ * of the game. INPUT carries the sender's next frame (long), the number of frames of remote input it knows (long), its
+ * frame advantage (byte), then the first frame (long), a count (byte) and the input bytes of the frames the receiver
+ * may still lack, so a lost packet is covered by the next one and nothing is retransmitted. Whatever a rollback could
+ * undo, the leaderboard, the high score and the replay button, waits until the frames before it are confirmed.
+ */
+final class NetPlay
+{
+    static final int MAX_PREDICTION = 10; // Frames a player may run past the last remote input it knows
+    static final long JOIN_TIMEOUT = TimeUnit.SECONDS.toNanos( 30 );
+
+    private static final int MAGIC = 0x504E4953; // "SINP"
+    private static final byte HELLO = 0;
+    private static final byte WELCOME = 1;
+    private static final byte INPUT = 2;
+    private static final int MAX_INPUTS = 2 * MAX_PREDICTION; // Frames of input the other player can be missing
+    private static final int MAX_PACKET = 4 + 1 + 8 + 8 + 1 + 8 + 1 + MAX_INPUTS;
+    private static final int RING = 64;                       // Frames of input kept, a power of two
+    private static final int SYNC_INTERVAL = 10;              // Frames between two frames skipped to slow down
+    private static final long HELLO_INTERVAL = TimeUnit.MILLISECONDS.toNanos( 100 );
+    private static final int DELAYED_PACKETS = 256;           // Packets a simulated link can hold back
+
+    private final DatagramChannel channel;
+    private final SocketAddress peer;
+    private final int player; // Ship of the local player, 0 for the host and 1 for the guest
+    private final long seed;
+    private final ByteBuffer in = ByteBuffer.allocate( MAX_PACKET );
+    private final ByteBuffer out = ByteBuffer.allocate( MAX_PACKET );
+    private GamePanel panel;
+
+    // Inputs, frame n in slot n % RING
+    private final int[] localInputs = new int[RING];
+    private final int[] remoteInputs = new int[RING];
+    private final long[] remoteFrames = new long[RING]; // Frame whose remote input each slot holds, -1 if none
+    private final int[] usedInputs = new int[RING];     // Remote input each frame was last simulated with
+
+    // State before frame n in slot n % states.length
+    private final ByteBuffer[] states = new ByteBuffer[MAX_PREDICTION + 1];
+
+    private long frame = 0;                    // Next frame to simulate
+    private long confirmed = 0;                // Frames whose remote input is known, all of them below this one
+    private long mispredicted = Long.MAX_VALUE; // First frame simulated with a wrong prediction
+    private long peerConfirmed = 0;            // Frames of local input the other player is known to have
+    private long peerFrame = 0;                // Latest next frame the other player reported
+    private int peerAdvantage = 0;             // Frames the other player reported being ahead of the local one
+    private long nextSync = 0;                 // Earliest frame that may be skipped to slow down
+    private boolean restartRequested = false;
+    private long endedOn = -1;                 // Frame on which the game last ended
+    private long shownEnd = -1;                // Frame of the end last shown
+
+    // Statistics
+    long rollbacks = 0;
+    long resimulatedFrames = 0;
+    long deepestRollback = 0;
+    long rollbackNanos = 0;
+    long slowestRollbackNanos = 0;
+    long simulatedFrames = 0;
+    long simulationNanos = 0;
+    long saveNanos = 0;
+    long stalls = 0;
+    long skippedFrames = 0;
+    long packetsSent = 0;
+    long packetsDropped = 0; // By the simulated link
+
+    // Artificial latency and loss of outgoing packets, for testing
+    private int latencyMillis = 0;
+    private int lossPercent = 0;
+    private SplittableRandom linkRandom;
+    private ByteBuffer[] delayed;
+    private long[] releaseAt;
+    private int delayedHead = 0;
+    private int delayedCount = 0;
+
+    /**
+     * Constructs the rollback session of a player whose connection is established.
+     *
+     * @param channel the non-blocking channel bound on the loopback interface
+     * @param peer the address of the other player
+     * @param player the ship of the local player
+     * @param seed the seed of the game
+     */
+    private NetPlay( DatagramChannel channel, SocketAddress peer, int player, long seed )
+    {
+        this.channel = channel;
+        this.peer = peer;
+        this.player = player;
+        this.seed = seed;
+        Arrays.fill( remoteFrames, -1 );
+        for ( int i = 0; i < states.length; i++ )
+        {
+            states[i] = ByteBuffer.allocate( Snapshot.MAX_SIZE );
+        }
+    }
+
+    /**
+     * Opens a non-blocking channel on a port of the loopback interface.
+     *
+     * @param port the port, or 0 for any free port
+     * @return the channel
+     * @throws IOException if the port cannot be bound
+     */
+    static DatagramChannel bind( int port ) throws IOException
+    {
+        DatagramChannel channel = DatagramChannel.open();
+        channel.bind( new InetSocketAddress( InetAddress.getLoopbackAddress(), port ) );
+        channel.configureBlocking( false );
+        return channel;
+    }
+
+    /**
+     * Waits for a guest to join, then welcomes it to a game. The local player steers the first ship.
+     *
+     * @param channel the channel the guest sends to, from bind
+     * @param seed the seed of the game
+     * @param timeout the longest wait for a guest in nanoseconds, Long.MAX_VALUE to wait as long as it takes
+     * @return the rollback session, before its first frame
+     * @throws IOException if the channel fails or no guest joins in time
+     */
+    static NetPlay host( DatagramChannel channel, long seed, long timeout ) throws IOException
+    {
+        ByteBuffer packet = ByteBuffer.allocate( MAX_PACKET );
+        long start = System.nanoTime();
+        while ( System.nanoTime() - start < timeout )
+        {
+            packet.clear();
+            SocketAddress from = channel.receive( packet );
+            packet.flip();
+            if ( from != null && packet.remaining() >= 5 && packet.getInt() == MAGIC && packet.get() == HELLO )
+            {
+                NetPlay net = new NetPlay( channel, from, 0, seed );
+                net.sendWelcome();
+                return net;
+            }
+            if ( from == null )
+                LockSupport.parkNanos( TimeUnit.MILLISECONDS.toNanos( 5 ) );
+        }
+        throw new IOException( "no one joined" );
+    }
+
+    /**
+     * Joins the game hosted on a port of the loopback interface. The local player steers the second ship.
+     *
+     * @param channel the channel to send from, from bind
+     * @param port the port of the host
+     * @return the rollback session, before its first frame
+     * @throws IOException if the channel fails or the host does not answer within JOIN_TIMEOUT
+     */
+    static NetPlay join( DatagramChannel channel, int port ) throws IOException
+    {
+        SocketAddress host = new InetSocketAddress( InetAddress.getLoopbackAddress(), port );
+        ByteBuffer packet = ByteBuffer.allocate( MAX_PACKET );
+        long start = System.nanoTime();
+        long nextHello = start;
+        while ( System.nanoTime() - start < JOIN_TIMEOUT )
+        {
+            if ( System.nanoTime() - nextHello >= 0 )
+            {
+                packet.clear();
+                packet.putInt( MAGIC ).put( HELLO ).flip();
+                channel.send( packet, host );
+                nextHello += HELLO_INTERVAL;
+            }
+
+            packet.clear();
+            SocketAddress from = channel.receive( packet );
+            packet.flip();
+            if ( from != null && from.equals( host ) && packet.remaining() >= 13 && packet.getInt() == MAGIC &&
+                 packet.get() == WELCOME )
+                return new NetPlay( channel, host, 1, packet.getLong() );
+            if ( from == null )
+                LockSupport.parkNanos( TimeUnit.MILLISECONDS.toNanos( 5 ) );
+        }
+        throw new IOException( "no game answered on port " + port );
+    }
+
+    /**
+     * Holds back every packet sent from now on by a fixed latency and drops a share of them, to test the netcode on
+     * the loopback interface as if it ran over a real network.
+     *
+     * @param latencyMillis the one-way latency added to every packet
+     * @param lossPercent the percentage of packets dropped
+     * @param linkSeed the seed of the choice of packets dropped
+     */
+    void simulateLink( int latencyMillis, int lossPercent, long linkSeed )
+    {
+        this.latencyMillis = latencyMillis;
+        this.lossPercent = lossPercent;
+        linkRandom = new SplittableRandom( linkSeed );
+        delayed = new ByteBuffer[DELAYED_PACKETS];
+        releaseAt = new long[DELAYED_PACKETS];
+        for ( int i = 0; i < DELAYED_PACKETS; i++ )
+        {
+            delayed[i] = ByteBuffer.allocate( MAX_PACKET );
+        }
+    }
+
+    /**
+     * Starts a two-player game on a panel: replaces its game with a fresh one from the seed, with the second ship in,
+     * and ticks the panel from now on. Must be called from the thread that ticks the panel.
+     *
+     * @param panel the panel
+     */
+    void attach( GamePanel panel )
+    {
+        this.panel = panel;
+        panel.session = new GameSession( seed );
+        panel.session.addSecondShip();
+        panel.netPlay = this;
+    }
+
+    /**
+     * Prints how the connection went: frames, rollbacks, stalls and packets.
+     */
+    void printStatistics()
+    {
+        System.out.printf( Locale.ROOT,
+                           "Two-player game: %d frames, %d rollbacks re-simulating %d frames (deepest %d, %.1f us on "
+                               + "average), %d stalls, %d frames skipped, %d packets sent, %d dropped%n",
+                           frame, rollbacks, resimulatedFrames, deepestRollback,
+                           rollbacks == 0 ? 0 : rollbackNanos / 1e3 / rollbacks, stalls, skippedFrames, packetsSent,
+                           packetsDropped );
+    }
+
+    /**
+     * @return the seed of the game, chosen by the host
+     */
+    long seed() { return seed; }
+
+    /**
+     * @return the ship of the local player, 0 for the host and 1 for the guest
+     */
+    int player() { return player; }
+
+    /**
+     * @return the next frame to simulate
+     */
+    long frame() { return frame; }
+
+    /**
+     * @return the number of frames whose remote input is known
+     */
+    long confirmed() { return confirmed; }
+
+    /**
+     * @return the number of frames of local input the other player is known to have received
+     */
+    long peerConfirmed() { return peerConfirmed; }
+
+    /**
+     * Retrieves the local input a recent frame was simulated with.
+     *
+     * @param f the frame, one of the last RING simulated
+     * @return the input byte
+     */
+    int localInput( long f ) { return localInputs[slot( f )]; }
+
+    /**
+     * Asks for the game to restart once it is over. The restart flag goes out with the next local input, and both
+     * players restart on the frame that carries it.
+     */
+    void requestRestart() { restartRequested = true; }
+
+    /**
+     * Runs the next frame with a local input, unless the local player is too far ahead of the other one. Before that
+     * it reads the remote inputs that arrived and rolls back if any was mispredicted; afterwards it sends the local
+     * inputs the other player may lack. Called once per tick of the game clock.
+     *
+     * @param localInput the input byte of the local ship, without the restart flag
+     */
+    void advance( int localInput )
+    {
+        receive();
+        if ( mispredicted < frame )
+            rollback();
+
+        if ( frame - confirmed >= MAX_PREDICTION )
+            stalls++;
+        else if ( aheadOfPeer() )
+            skippedFrames++;
+        else
+        {
+            if ( restartRequested )
+                localInput |= InputRecorder.RESTART;
+            restartRequested = false;
+            localInputs[slot( frame )] = localInput;
+            send();
+            simulateFrame( frame );
+            frame++;
+            present();
+            return;
+        }
+        send();
+        present();
+    }
+
+    /**
+     * Keeps the connection going without running a frame: reads the remote inputs, rolls back if needed and sends
+     * the local inputs again, as at the end of a test run.
+     */
+    void idle()
+    {
+        receive();
+        if ( mispredicted < frame )
+            rollback();
+        send();
+        present();
+    }
+
+    /**
+     * Closes the channel.
+     */
+    void close()
+    {
+        try
+        {
+            channel.close();
+        }
+        catch ( IOException e )
+        {
+            System.err.println( "Problem closing the connection to the other player." );
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Runs one frame of a two-player game: restarts a game that is over if either input asks to, sets the input of
+     * both ships and ticks the panel. A game that is over does not tick, so both players can keep exchanging frames
+     * until they restart it. Every player, and anything reproducing a two-player game, must run frames this way.
+     *
+     * @param panel the panel of the game
+     * @param first the input byte of the first ship
+     * @param second the input byte of the second ship
+     */
+    static void simulate( GamePanel panel, int first, int second )
+    {
+        if ( ( ( first | second ) & InputRecorder.RESTART ) != 0 && panel.session.isGameOver )
+            panel.session = new GameSession( panel.session );
+        InputRecorder.apply( panel.session, first );
+        panel.session.secondShipInput = second & ~InputRecorder.RESTART;
+        if ( !panel.session.isGameOver )
+            panel.tick();
+    }
+
+    /**
+     * Saves the state before a frame and runs it with the local input and the remote input, known or predicted.
+     *
+     * @param f the frame
+     */
+    private void simulateFrame( long f )
+    {
+        long start = System.nanoTime();
+        ByteBuffer state = states[(int)( f % states.length )];
+        state.clear();
+        Snapshot.save( panel.session, state );
+        state.flip();
+        long saved = System.nanoTime();
+
+        int remote = remoteFrames[slot( f )] == f ? remoteInputs[slot( f )] : prediction();
+        usedInputs[slot( f )] = remote;
+        int local = localInputs[slot( f )];
+        boolean over = panel.session.isGameOver;
+        if ( player == 0 )
+            simulate( panel, local, remote );
+        else
+            simulate( panel, remote, local );
+        if ( panel.session.isGameOver && !over )
+            endedOn = f;
+
+        simulatedFrames++;
+        saveNanos += saved - start;
+        simulationNanos += System.nanoTime() - saved;
+    }
+
+    /**
+     * Predicts the remote input of a frame not received yet: the ship keeps doing what it last did, but never restarts.
+     *
+     * @return the predicted input byte
+     */
+    private int prediction()
+    {
+        long last = confirmed - 1;
+        return last < 0 ? 0 : remoteInputs[slot( last )] & ~InputRecorder.RESTART;
+    }
+
+    /**
+     * Restores the state before the first mispredicted frame and simulates every frame since again, silently.
+     */
+    private void rollback()
+    {
+        long start = System.nanoTime();
+        long from = mispredicted;
+        mispredicted = Long.MAX_VALUE;
+
+        Snapshot.restore( panel.session, states[(int)( from % states.length )] );
+        panel.resimulating = true;
+        try
+        {
+            for ( long f = from; f < frame; f++ )
+            {
+                simulateFrame( f );
+            }
+        }
+        finally
+        {
+            panel.resimulating = false;
+        }
+
+        long elapsed = System.nanoTime() - start;
+        rollbacks++;
+        resimulatedFrames += frame - from;
+        deepestRollback = Math.max( deepestRollback, frame - from );
+        rollbackNanos += elapsed;
+        slowestRollbackNanos = Math.max( slowestRollbackNanos, elapsed );
+    }
+
+    /**
+     * Decides whether to skip a frame so the other player can catch up. Each player knows how far it runs ahead of the
+     * last frame it heard of from the other, and the other reports the same; half the difference is how far the local
+     * player is really ahead, both seeing the same latency.
+     *
+     * @return true to skip the frame
+     */
+    private boolean aheadOfPeer()
+    {
+        if ( frame < nextSync || ( frame - peerFrame - peerAdvantage ) / 2 < 1 )
+            return false;
+        nextSync = frame + SYNC_INTERVAL;
+        return true;
+    }
+
+    /**
+     * Shows the end of the game once the frame it ended on is confirmed, so that no rollback can undo it, and hides the
+     * replay button once the game restarts.
+     */
+    private void present()
+    {
+        if ( panel.session.isGameOver && endedOn < confirmed )
+        {
+            if ( shownEnd != endedOn )
+            {
+                shownEnd = endedOn;
+                GameState.showGameOver( panel );
+            }
+            else if ( !panel.replayButton.isVisible() )
+            {
+                GameState.setupReplayButton( panel );
+            }
+        }
+        else if ( !panel.session.isGameOver && panel.replayButton.isVisible() )
+        {
+            panel.replayButton.setEnabled( false );
+            panel.replayButton.setVisible( false );
+        }
+    }
+
+    /**
+     * Reads every packet that arrived, answering a repeated HELLO and taking in the inputs, and moves the confirmed
+     * frame past the remote inputs now known without a gap.
+     */
+    private void receive()
+    {
+        flushDelayed();
+        while ( true )
+        {
+            in.clear();
+            SocketAddress from;
+            try
+            {
+                from = channel.receive( in );
+            }
+            catch ( IOException e )
+            {
+                System.err.println( "Problem receiving from the other player." );
+                e.printStackTrace();
+                return;
+            }
+            if ( from == null )
+                break;
+            in.flip();
+            if ( !from.equals( peer ) || in.remaining() < 5 || in.getInt() != MAGIC )
+                continue;
+
+            byte type = in.get();
+            if ( type == HELLO && player == 0 )
+                sendWelcome(); // The guest missed the welcome
+            else if ( type == INPUT && in.remaining() >= MAX_PACKET - MAX_INPUTS - 5 )
+                readInputs();
+        }
+
+        while ( remoteFrames[slot( confirmed )] == confirmed )
+        {
+            confirmed++;
+        }
+    }
+
+    /**
+     * Takes in the remote inputs of an INPUT packet, noting the first one that differs from what its frame was
+     * simulated with.
+     */
+    private void readInputs()
+    {
+        peerFrame = Math.max( peerFrame, in.getLong() );
+        peerConfirmed = Math.max( peerConfirmed, in.getLong() );
+        peerAdvantage = in.get();
+        long first = in.getLong();
+        int count = Math.min( in.get() & 0xFF, in.remaining() );
+        for ( int i = 0; i < count; i++ )
+        {
+            long f = first + i;
+            int input = in.get() & 0xFF;
+            if ( f < confirmed || f - confirmed >= RING - 1 || remoteFrames[slot( f )] == f )
+                continue;
+
+            remoteFrames[slot( f )] = f;
+            remoteInputs[slot( f )] = input;
+            if ( f < frame && usedInputs[slot( f )] != input )
+                mispredicted = Math.min( mispredicted, f );
+        }
+    }
+
+    /**
+     * Sends the local inputs the other player may lack, with the frames reached on both sides.
+     */
+    private void send()
+    {
+        long first = Math.max( peerConfirmed, frame - MAX_INPUTS );
+        out.clear();
+        out.putInt( MAGIC );
+        out.put( INPUT );
+        out.putLong( frame );
+        out.putLong( confirmed );
+        out.put( (byte)Math.max( Byte.MIN_VALUE, Math.min( Byte.MAX_VALUE, frame - peerFrame ) ) );
+        out.putLong( first );
+        out.put( (byte)( frame - first ) );
+        for ( long f = first; f < frame; f++ )
+        {
+            out.put( (byte)localInputs[slot( f )] );
+        }
+        out.flip();
+        transmit();
+    }
+
+    /**
+     * Sends the seed of the game to the guest.
+     */
+    private void sendWelcome()
+    {
+        out.clear();
+        out.putInt( MAGIC );
+        out.put( WELCOME );
+        out.putLong( seed );
+        out.flip();
+        transmit();
+    }
+
+    /**
+     * Sends the packet in the output buffer to the other player, or hands it to the simulated link.
+     */
+    private void transmit()
+    {
+        packetsSent++;
+        if ( delayed != null )
+        {
+            if ( linkRandom.nextInt( 100 ) < lossPercent || delayedCount == DELAYED_PACKETS )
+            {
+                packetsDropped++;
+                return;
+            }
+            int slot = ( delayedHead + delayedCount ) % DELAYED_PACKETS;
+            delayed[slot].clear();
+            delayed[slot].put( out ).flip();
+            releaseAt[slot] = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos( latencyMillis );
+            delayedCount++;
+            flushDelayed();
+            return;
+        }
+
+        try
+        {
+            channel.send( out, peer );
+        }
+        catch ( IOException e )
+        {
+            System.err.println( "Problem sending to the other player." );
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Sends the packets held back by the simulated link whose latency has passed, in the order they were sent.
+     */
+    private void flushDelayed()
+    {
+        long now = System.nanoTime();
+        while ( delayedCount > 0 && now - releaseAt[delayedHead] >= 0 )
+        {
+            try
+            {
+                channel.send( delayed[delayedHead], peer );
+            }
+            catch ( IOException e )
+            {
+                System.err.println( "Problem sending to the other player." );
+                e.printStackTrace();
+            }
+            delayedHead = ( delayedHead + 1 ) % DELAYED_PACKETS;
+            delayedCount--;
+        }
+    }
+
+    /**
+     * Maps a frame to its slot in the input rings.
+     *
+     * @param f the frame
+     * @return the slot
+     */
+    private static int slot( long f ) { return (int)( f & ( RING - 1 ) ); }
+}
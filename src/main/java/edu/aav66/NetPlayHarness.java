@@ -0,0 +1,243 @@
+package edu.aav66;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.DatagramChannel;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays two-player games between two bots over the loopback interface, at the real pace of the game, under a range of
+ * artificial latencies and packet losses. Each player runs on its own thread with its own headless panel and NetPlay,
+ * exactly as two processes would. After every run both players must end in the same state as a single game that was
+ * fed both players' inputs without any network, which proves that every misprediction was rolled back and simulated
+ * again correctly; the harness prints how often and how deep the players rolled back and what it cost.
+ */
+final class NetPlayHarness
+{
+    static final int DEFAULT_FRAMES = 600; // 10 seconds of play per link
+
+    // One-way latency in milliseconds and loss in percent of each link tested
+    private static final int[][] LINKS = { { 0, 0 }, { 30, 5 }, { 80, 10 }, { 150, 20 } };
+    private static final long DRAIN_TIMEOUT = TimeUnit.SECONDS.toNanos( 30 );
+
+    /**
+     * One of the two players of a run.
+     */
+    private static final class Peer implements Runnable
+    {
+        final boolean host;
+        final DatagramChannel channel;
+        final int hostPort;
+        final long seed;
+        final int frames;
+        final int[] link;
+        final AtomicInteger finished;
+        final int[] inputs; // Local input of every frame
+        NetPlay net;
+        GamePanel panel;
+        boolean timedOut = false;
+
+        /**
+         * Constructs a player.
+         *
+         * @param host true for the host, false for the guest
+         * @param channel the channel of the player, from NetPlay.bind
+         * @param hostPort the port of the host
+         * @param seed the seed of the game, only used by the host
+         * @param frames the number of frames to play
+         * @param link the latency and loss of the packets the player sends
+         * @param finished the number of players done, shared by both
+         */
+        Peer( boolean host, DatagramChannel channel, int hostPort, long seed, int frames, int[] link,
+              AtomicInteger finished )
+        {
+            this.host = host;
+            this.channel = channel;
+            this.hostPort = hostPort;
+            this.seed = seed;
+            this.frames = frames;
+            this.link = link;
+            this.finished = finished;
+            this.inputs = new int[frames];
+        }
+
+        /**
+         * Connects, plays the frames with a bot that holds a random input for a random number of frames and restarts
+         * the game whenever it is over, then keeps exchanging packets until both players have all the inputs.
+         */
+        @Override public void run()
+        {
+            try
+            {
+                net = host ? NetPlay.host( channel, seed, NetPlay.JOIN_TIMEOUT ) : NetPlay.join( channel, hostPort );
+                net.simulateLink( link[0], link[1], net.seed() + net.player() );
+                panel = new GamePanel( false, net.seed(), null );
+                net.attach( panel );
+            }
+            catch ( IOException e )
+            {
+                System.err.println( "Problem connecting the " + ( host ? "host" : "guest" ) + "." );
+                e.printStackTrace();
+                timedOut = true;
+                finished.incrementAndGet();
+                return;
+            }
+
+            SplittableRandom bot = new SplittableRandom( net.seed() ^ ( net.player() + 1 ) );
+            int input = 0;
+            int hold = 0;
+            boolean done = false;
+            long drainStart = -1;
+            long next = System.nanoTime();
+            while ( finished.get() < 2 )
+            {
+                long frame = net.frame();
+                if ( frame < frames )
+                {
+                    if ( hold-- <= 0 )
+                    {
+                        input = bot.nextInt( 3 ) == 0 ? 0 : InputRecorder.MOVING |
+                                ( bot.nextBoolean() ? InputRecorder.LEFT : InputRecorder.RIGHT );
+                        input |= bot.nextBoolean() ? InputRecorder.SHOOTING : 0;
+                        hold = bot.nextInt( 5, 40 );
+                    }
+                    if ( panel.replayButton.isVisible() )
+                        net.requestRestart();
+                    net.advance( input );
+                    if ( net.frame() > frame )
+                        inputs[(int)frame] = net.localInput( frame );
+                }
+                else if ( !done )
+                {
+                    net.idle();
+                    if ( drainStart < 0 )
+                        drainStart = System.nanoTime();
+                    timedOut = System.nanoTime() - drainStart > DRAIN_TIMEOUT;
+                    done = timedOut || ( net.confirmed() >= frames && net.peerConfirmed() >= frames );
+                    if ( done )
+                        finished.incrementAndGet();
+                }
+                else
+                {
+                    net.idle();
+                }
+
+                next += TimeUnit.MILLISECONDS.toNanos( GameState.DELAY );
+                LockSupport.parkNanos( next - System.nanoTime() );
+            }
+            net.close();
+        }
+    }
+
+    private NetPlayHarness() {}
+
+    /**
+     * Plays a run on every link and prints the results.
+     *
+     * @param frames the number of frames of each run
+     * @param seed the seed of the games
+     * @return 0 if the players stayed in sync on every link, 1 otherwise
+     */
+    static int run( int frames, long seed )
+    {
+        if ( frames <= 0 )
+        {
+            System.err.println( "The number of frames must be positive." );
+            return 1;
+        }
+
+        System.out.printf( Locale.ROOT, "Playing %d frames per link from seed %d over the loopback interface%n",
+                           frames, seed );
+        System.out.println( "Latency  Loss  Rollbacks  Resimulated  Deepest  Stalls  Skipped  "
+                            + "Tick us  Save us  Rollback us (mean/max)  State" );
+        boolean inSync = true;
+        for ( int[] link : LINKS )
+        {
+            inSync &= runLink( frames, seed, link );
+        }
+        System.out.println( inSync ? "Both players stayed in sync on every link." : "The players fell out of sync." );
+        return inSync ? 0 : 1;
+    }
+
+    /**
+     * Plays one run on a link and prints its line of results.
+     *
+     * @param frames the number of frames to play
+     * @param seed the seed of the game
+     * @param link the one-way latency and loss of the link
+     * @return true if both players ended in the state of the reference game
+     */
+    private static boolean runLink( int frames, long seed, int[] link )
+    {
+        Peer host;
+        Peer guest;
+        try
+        {
+            AtomicInteger finished = new AtomicInteger();
+            DatagramChannel hostChannel = NetPlay.bind( 0 );
+            int port = ( (InetSocketAddress)hostChannel.getLocalAddress() ).getPort();
+            host = new Peer( true, hostChannel, port, seed, frames, link, finished );
+            guest = new Peer( false, NetPlay.bind( 0 ), port, seed, frames, link, finished );
+        }
+        catch ( IOException e )
+        {
+            System.err.println( "Problem opening the loopback channels." );
+            e.printStackTrace();
+            return false;
+        }
+
+        Thread hostThread = new Thread( host, "netplay-host" );
+        Thread guestThread = new Thread( guest, "netplay-guest" );
+        hostThread.start();
+        guestThread.start();
+        try
+        {
+            hostThread.join();
+            guestThread.join();
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+
+        if ( host.net == null || guest.net == null )
+        {
+            System.out.printf( Locale.ROOT, "%5d ms  %3d%%  could not connect%n", link[0], link[1] );
+            return false;
+        }
+
+        String state = "timed out";
+        boolean inSync = false;
+        if ( !host.timedOut && !guest.timedOut )
+        {
+            GamePanel reference = new GamePanel( false, seed, null );
+            reference.session.addSecondShip();
+            for ( int f = 0; f < frames; f++ )
+            {
+                NetPlay.simulate( reference, host.inputs[f], guest.inputs[f] );
+            }
+            int expected = reference.session.stateChecksum();
+            inSync = host.panel.session.stateChecksum() == expected && guest.panel.session.stateChecksum() == expected;
+            state = inSync ? "in sync" : "DESYNC";
+        }
+
+        NetPlay a = host.net;
+        NetPlay b = guest.net;
+        long rollbacks = a.rollbacks + b.rollbacks;
+        long simulated = a.simulatedFrames + b.simulatedFrames;
+        System.out.printf( Locale.ROOT, "%5d ms  %3d%%  %9d  %11d  %7d  %6d  %7d  %7.1f  %7.1f  %11.1f / %8.1f  %s%n",
+                           link[0], link[1], rollbacks, a.resimulatedFrames + b.resimulatedFrames,
+                           Math.max( a.deepestRollback, b.deepestRollback ), a.stalls + b.stalls,
+                           a.skippedFrames + b.skippedFrames,
+                           ( a.simulationNanos + b.simulationNanos ) / 1e3 / simulated,
+                           ( a.saveNanos + b.saveNanos ) / 1e3 / simulated,
+                           rollbacks == 0 ? 0 : ( a.rollbackNanos + b.rollbackNanos ) / 1e3 / rollbacks,
+                           Math.max( a.slowestRollbackNanos, b.slowestRollbackNanos ) / 1e3, state );
+        return inSync;
+    }
+}
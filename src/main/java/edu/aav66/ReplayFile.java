@@ -0,0 +1,331 @@
+package edu.aav66;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A recording made by InputRecorder, memory-mapped for reading. The keyframe index is read from the footer, or rebuilt
+ * by scanning the file when the recording was cut short and has no footer. A Playback replays the recording on a
+ * headless GamePanel from its start or from any tick: seeking restores the closest keyframe at or before the tick and
+ * simulates forward from there, so it costs at most one keyframe interval of ticks however long the recording is.
+ */
+final class ReplayFile
+{
+    /**
+     * Replays the recording tick by tick from a position, verifying the state checksum at every checkpoint. Playback
+     * stops at the end of the recording or at the first checkpoint whose checksum does not match.
+     */
+    final class Playback
+    {
+        final GamePanel panel;
+        private final ByteBuffer data;
+        private long tick;
+        private int input = 0;
+        private long runRemaining = 0;
+        private boolean runStarting = false;
+        private boolean ended = false;
+        private boolean complete = false;
+        private long checkpoints = 0;
+        private long divergedAtTick = -1;
+
+        /**
+         * Constructs a playback positioned at a tick of the recording.
+         *
+         * @param panel the game, already in the state of the recording after the tick
+         * @param position the file offset of the first element after the tick
+         * @param tick the number of ticks before the position
+         */
+        private Playback( GamePanel panel, int position, long tick )
+        {
+            this.panel = panel;
+            this.data = mapped.duplicate().order( ByteOrder.LITTLE_ENDIAN );
+            this.data.position( position );
+            this.tick = tick;
+        }
+
+        /**
+         * Plays the next tick of the recording.
+         *
+         * @return true if a tick was played, false if the playback has ended
+         */
+        boolean step()
+        {
+            if ( ended )
+                return false;
+
+            try
+            {
+                while ( runRemaining == 0 )
+                {
+                    int element = data.get() & 0xFF;
+                    if ( element == InputRecorder.KEYFRAME )
+                    {
+                        int length = data.getInt();
+                        data.position( data.position() + length );
+                    }
+                    else if ( element == InputRecorder.END )
+                    {
+                        long recordedTicks = InputRecorder.getVarint( data );
+                        int checksum = data.getInt();
+                        checkpoints++;
+                        if ( recordedTicks != tick || checksum != panel.session.stateChecksum() )
+                            divergedAtTick = tick;
+                        complete = true;
+                        ended = true;
+                        return false;
+                    }
+                    else
+                    {
+                        input = element;
+                        runRemaining = InputRecorder.getVarint( data );
+                        runStarting = true;
+                    }
+                }
+            }
+            catch ( BufferUnderflowException | IllegalArgumentException e )
+            {
+                // Cut short inside an element
+                ended = true;
+                return false;
+            }
+
+            if ( runStarting && ( input & InputRecorder.RESTART ) != 0 )
+                GameState.restartGame( panel );
+            runStarting = false;
+            InputRecorder.apply( panel.session, input );
+            panel.tick();
+            runRemaining--;
+            tick++;
+
+            if ( tick % checksumInterval == 0 )
+            {
+                if ( data.remaining() < 4 )
+                {
+                    ended = true;
+                    return true;
+                }
+                checkpoints++;
+                if ( data.getInt() != panel.session.stateChecksum() )
+                {
+                    divergedAtTick = tick;
+                    ended = true;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Plays the recording until a tick or until the playback ends.
+         *
+         * @param target the number of ticks to have played
+         */
+        void playTo( long target )
+        {
+            while ( tick < target && step() ) {}
+        }
+
+        /**
+         * @return the number of ticks of the recording the game has played, counted from the start of the recording
+         */
+        long tick() { return tick; }
+
+        /**
+         * @return the number of checksums verified by this playback
+         */
+        long checkpoints() { return checkpoints; }
+
+        /**
+         * @return the tick whose checksum did not match the recording, or -1 if every checksum matched
+         */
+        long divergedAtTick() { return divergedAtTick; }
+
+        /**
+         * @return true if the playback reached the end marker of the recording
+         */
+        boolean complete() { return complete; }
+    }
+
+    final long seed;
+    final int checksumInterval;
+    final int keyframeInterval;
+    private final ByteBuffer mapped;
+    private long[] keyframeTicks = new long[16];
+    private int[] keyframeOffsets = new int[16];
+    private int keyframes = 0;
+    private long ticks = 0;
+    private boolean indexed = false;
+
+    /**
+     * Maps a recording file and reads its header and keyframe index.
+     *
+     * @param path the recording file
+     * @throws IOException if the file cannot be read
+     * @throws IllegalArgumentException if the file is not a recording
+     */
+    ReplayFile( Path path ) throws IOException
+    {
+        try ( FileChannel channel = FileChannel.open( path, StandardOpenOption.READ ) )
+        {
+            if ( channel.size() > Integer.MAX_VALUE )
+                throw new IllegalArgumentException( "recording too large" );
+            mapped = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() ).order( ByteOrder.LITTLE_ENDIAN );
+        }
+
+        if ( mapped.limit() < InputRecorder.HEADER_SIZE || mapped.getInt( 0 ) != InputRecorder.MAGIC )
+            throw new IllegalArgumentException( "not an input recording, or recorded by an older version" );
+        checksumInterval = mapped.getInt( 4 );
+        keyframeInterval = mapped.getInt( 8 );
+        seed = mapped.getLong( 12 );
+        if ( checksumInterval <= 0 || keyframeInterval <= 0 )
+            throw new IllegalArgumentException( "corrupt recording header" );
+
+        if ( !readIndex() )
+            scan();
+    }
+
+    /**
+     * @return the number of ticks in the recording, or in its complete runs if it was cut short
+     */
+    long ticks() { return ticks; }
+
+    /**
+     * @return the number of keyframes in the recording
+     */
+    int keyframes() { return keyframes; }
+
+    /**
+     * @return true if the keyframe index was read from the footer, false if it was rebuilt by scanning the file
+     */
+    boolean indexed() { return indexed; }
+
+    /**
+     * Starts a playback from the beginning of the recording on a new headless game.
+     *
+     * @return the playback, positioned before the first tick
+     */
+    Playback start()
+    {
+        return new Playback( GameState.newHeadlessGame( seed ), InputRecorder.HEADER_SIZE, 0 );
+    }
+
+    /**
+     * Starts a playback positioned at a tick, restoring the closest keyframe at or before the tick and playing forward
+     * from there.
+     *
+     * @param target the number of ticks to have played, clamped to the recording
+     * @return the playback, positioned at the tick or at the point where the playback ended before reaching it
+     */
+    Playback seek( long target )
+    {
+        target = Math.max( 0, Math.min( target, ticks ) );
+        int keyframe = Arrays.binarySearch( keyframeTicks, 0, keyframes, target );
+        if ( keyframe < 0 )
+            keyframe = -keyframe - 2; // The keyframe before the insertion point
+
+        Playback playback;
+        if ( keyframe < 0 )
+        {
+            playback = start();
+        }
+        else
+        {
+            GamePanel panel = GameState.newHeadlessGame( seed );
+            ByteBuffer data = mapped.duplicate().order( ByteOrder.LITTLE_ENDIAN );
+            data.position( keyframeOffsets[keyframe] + 1 );
+            int length = data.getInt();
+            int snapshotStart = data.position();
+            Snapshot.restore( panel.session, data );
+            playback = new Playback( panel, snapshotStart + length, keyframeTicks[keyframe] );
+        }
+        playback.playTo( target );
+        return playback;
+    }
+
+    /**
+     * Reads the keyframe index from the footer.
+     *
+     * @return true if the file has a valid footer
+     */
+    private boolean readIndex()
+    {
+        int size = mapped.limit();
+        if ( size < InputRecorder.HEADER_SIZE + InputRecorder.FOOTER_SIZE ||
+             mapped.getInt( size - 4 ) != InputRecorder.FOOTER_MAGIC )
+            return false;
+
+        long indexOffset = mapped.getLong( size - InputRecorder.FOOTER_SIZE );
+        if ( indexOffset < InputRecorder.HEADER_SIZE || indexOffset + 4 > size - InputRecorder.FOOTER_SIZE )
+            return false;
+        int count = mapped.getInt( (int)indexOffset );
+        if ( count < 0 || indexOffset + 4 + count * 16L != size - InputRecorder.FOOTER_SIZE )
+            return false;
+
+        keyframeTicks = new long[Math.max( count, 1 )];
+        keyframeOffsets = new int[Math.max( count, 1 )];
+        for ( int i = 0; i < count; i++ )
+        {
+            int entry = (int)indexOffset + 4 + i * 16;
+            keyframeTicks[i] = mapped.getLong( entry );
+            keyframeOffsets[i] = (int)mapped.getLong( entry + 8 );
+        }
+        keyframes = count;
+        ticks = mapped.getLong( size - InputRecorder.FOOTER_SIZE + 8 );
+        indexed = true;
+        return true;
+    }
+
+    /**
+     * Rebuilds the keyframe index and tick count by walking the elements of the file, without simulating.
+     */
+    private void scan()
+    {
+        ByteBuffer data = mapped.duplicate().order( ByteOrder.LITTLE_ENDIAN );
+        data.position( InputRecorder.HEADER_SIZE );
+        long tick = 0;
+        try
+        {
+            while ( true )
+            {
+                int position = data.position();
+                int element = data.get() & 0xFF;
+                if ( element == InputRecorder.KEYFRAME )
+                {
+                    int length = data.getInt();
+                    if ( length > data.remaining() )
+                        break;
+                    if ( keyframes == keyframeTicks.length )
+                    {
+                        keyframeTicks = Arrays.copyOf( keyframeTicks, keyframes * 2 );
+                        keyframeOffsets = Arrays.copyOf( keyframeOffsets, keyframes * 2 );
+                    }
+                    keyframeTicks[keyframes] = tick;
+                    keyframeOffsets[keyframes] = position;
+                    keyframes++;
+                    data.position( data.position() + length );
+                }
+                else if ( element == InputRecorder.END )
+                {
+                    tick = InputRecorder.getVarint( data );
+                    break;
+                }
+                else
+                {
+                    tick += InputRecorder.getVarint( data );
+                    if ( tick % checksumInterval == 0 )
+                        data.getInt();
+                }
+            }
+        }
+        catch ( BufferUnderflowException e )
+        {
+            // Cut short, the ticks scanned so far are all there is
+        }
+        ticks = tick;
+    }
+}
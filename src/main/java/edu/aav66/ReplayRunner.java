@@ -0,0 +1,79 @@
+package edu.aav66;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Replays a recording made by InputRecorder on a headless GamePanel as fast as the simulation can run. The game is
+ * started from the recorded seed, or from the keyframe closest to the requested starting tick, the recorded input is
+ * applied before every tick and the state checksum is compared with the recorded one at every checkpoint, so the
+ * replay stops at the first block in which it diverges from the recorded game.
+ */
+final class ReplayRunner
+{
+    private ReplayRunner() {}
+
+    /**
+     * Replays a recording file to its end and prints a summary.
+     *
+     * @param path the recording file
+     * @param seekTick the tick to seek to before replaying the rest of the recording, or -1 to replay from the start
+     * @return 0 if the replay matched the recording, 1 if it diverged or the file is not a recording
+     */
+    static int run( Path path, long seekTick )
+    {
+        ReplayFile file;
+        try
+        {
+            file = new ReplayFile( path );
+        }
+        catch ( IOException e )
+        {
+            System.err.println( "Problem reading recording " + path );
+            e.printStackTrace();
+            return 1;
+        }
+        catch ( IllegalArgumentException e )
+        {
+            System.err.println( path + ": " + e.getMessage() );
+            return 1;
+        }
+
+        if ( !file.indexed() )
+            System.out.println( "The recording has no keyframe index, it was probably cut short. Index rebuilt." );
+
+        long start = System.nanoTime();
+        ReplayFile.Playback playback;
+        if ( seekTick >= 0 )
+        {
+            playback = file.seek( seekTick );
+            System.out.printf( "Seeked to tick %d of %d in %.2f ms using %d keyframes%n", playback.tick(),
+                               file.ticks(), ( System.nanoTime() - start ) / 1e6, file.keyframes() );
+            System.out.printf( "Score %d, lives %d, wave %d%n", playback.panel.session.score,
+                               playback.panel.session.lives, playback.panel.session.difficultyMultiplier + 1 );
+        }
+        else
+        {
+            playback = file.start();
+        }
+        long first = playback.tick();
+        playback.playTo( Long.MAX_VALUE );
+        double seconds = ( System.nanoTime() - start ) / 1e9;
+
+        long ticks = playback.tick() - first;
+        System.out.printf( "Replayed %d ticks (%.1f s of play) in %.2f s, %.0f ticks/s%n", ticks,
+                           ticks * GameState.DELAY / 1000.0, seconds, ticks / seconds );
+        System.out.printf( "Score %d, lives %d, wave %d%n", playback.panel.session.score, playback.panel.session.lives,
+                           playback.panel.session.difficultyMultiplier + 1 );
+        if ( !playback.complete() && playback.divergedAtTick() < 0 )
+            System.out.println( "The recording ends without an end marker, it was probably cut short." );
+        if ( playback.divergedAtTick() >= 0 )
+        {
+            System.out.println( "DIVERGED: the state checksum after tick " + playback.divergedAtTick() +
+                                " does not match the recording." );
+            return 1;
+        }
+        System.out.println( "All " + playback.checkpoints() + " checksums match the recording." );
+        return 0;
+    }
+}
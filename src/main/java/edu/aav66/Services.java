@@ -0,0 +1,142 @@
+package edu.aav66;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Starts and stops the background services of the interactive game: persistence (high score and leaderboard), audio
+ * (sound effects and music), assets (sprites) and telemetry (JMX). Startup runs the initialization of every service at
+ * once, each on a virtual thread of its own, and returns once all of them are done, so the game starts after the
+ * slowest service rather than after the sum of them; a service that fails to start is reported and the game runs
+ * without it. Background work that waits, such as the persistence subscriber of the event bus and the leaderboard
+ * writer, runs on virtual threads as well; only the audio threads stay platform threads, since they block in the audio
+ * device and the mixer needs its priority.
+ *
+ * A shutdown hook, run however the game exits, waits up to SHUTDOWN_DEADLINE for the event bus to hand over its last
+ * events and for the high score and leaderboard writes to reach the disk, and reports anything left unwritten.
+ */
+final class Services
+{
+    static final long SHUTDOWN_DEADLINE = TimeUnit.SECONDS.toMillis( 2 );
+
+    private static final ThreadFactory VIRTUAL = Thread.ofVirtual().name( "service-", 0 ).factory();
+
+    private static GameEvents events; // Event bus of the interactive panel, drained at shutdown
+
+    private Services() {}
+
+    /**
+     * Starts every service for an interactive panel and arranges for them to be drained when the program exits.
+     * Returns once every service has started or failed to.
+     *
+     * @param panel the interactive panel, whose event bus exists and whose game has not started yet
+     */
+    static void start( GamePanel panel )
+    {
+        events = panel.events;
+        Runtime.getRuntime().addShutdownHook( new Thread( Services::shutdown, "services-shutdown" ) );
+
+        // Each scope waits, when closed, for every task it started
+        try ( ExecutorService scope = Executors.newThreadPerTaskExecutor( VIRTUAL ) )
+        {
+            Future<?> persistence = scope.submit( () -> {
+                GamePanel.highScore = Helpers.initializeHighScore( GamePanel.highScore );
+                Helpers.initializeLeaderboard();
+            } );
+            Future<?> audio = scope.submit( () -> {
+                Helpers.playMusic();
+                Helpers.startSoundEffects();
+            } );
+            Future<?> assets = scope.submit( Helpers::preloadSprites );
+            Future<?> telemetry = scope.submit( GameStats::register );
+
+            report( "persistence", persistence );
+            report( "audio", audio );
+            report( "assets", assets );
+            report( "telemetry", telemetry );
+        }
+    }
+
+    /**
+     * Drains the services within SHUTDOWN_DEADLINE: first the event bus, whose persistence subscriber submits the last
+     * writes, then the high score and the leaderboard writes together.
+     */
+    static void shutdown()
+    {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos( SHUTDOWN_DEADLINE );
+        if ( events != null && !events.drain( remainingMillis( deadline ) ) )
+            System.err.println( "Some game events were not handled before exit." );
+
+        try ( ExecutorService scope = Executors.newThreadPerTaskExecutor( VIRTUAL ) )
+        {
+            Future<Boolean> highScore = scope.submit( () -> Helpers.flushHighScore( remainingMillis( deadline ) ) );
+            Future<Boolean> leaderboard = scope.submit( () -> Helpers.flushLeaderboard( remainingMillis( deadline ) ) );
+            if ( !flushed( highScore ) )
+                System.err.println( "The high score was not written before exit." );
+            if ( !flushed( leaderboard ) )
+                System.err.println( "The leaderboard was not written before exit." );
+        }
+    }
+
+    /**
+     * Waits for a service to start and reports it if it failed.
+     *
+     * @param name the name of the service
+     * @param started the initialization of the service
+     */
+    private static void report( String name, Future<?> started )
+    {
+        try
+        {
+            started.get();
+        }
+        catch ( ExecutionException e )
+        {
+            System.err.println( "Problem starting the " + name + " service, the game runs without it." );
+            e.getCause().printStackTrace();
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Waits for a flush to finish.
+     *
+     * @param flush the flush
+     * @return true if the flush wrote everything, false if it failed or timed out
+     */
+    private static boolean flushed( Future<Boolean> flush )
+    {
+        try
+        {
+            return flush.get();
+        }
+        catch ( ExecutionException e )
+        {
+            e.getCause().printStackTrace();
+            return false;
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Computes the time left until a deadline.
+     *
+     * @param deadline the deadline, as a System.nanoTime
+     * @return the milliseconds left, at least 1 so a timed wait still checks once
+     */
+    private static long remainingMillis( long deadline )
+    {
+        return Math.max( 1, TimeUnit.NANOSECONDS.toMillis( deadline - System.nanoTime() ) );
+    }
+}
@@ -27,14 +27,12 @@ public class Shelter
     }
 
     /**
-     * Reduces the hit points of the shelter by 1 and repaints the game panel.
-     * If the hit points reach 0 or below, the shelter is considered destroyed.
-     * @param panel the GamePanel object to repaint
+     * Reduces the hit points of the shelter by 1. The panel publishes the damage as an event, whose rendering
+     * subscriber repaints the panel. If the hit points reach 0 or below, the shelter is considered destroyed.
      */
-    public void takeDamage( GamePanel panel )
+    public void takeDamage()
     {
         hitPoints--;
-        panel.repaint(); // Ensure the panel is repainted whenever a shelter takes damage
         if ( hitPoints <= 0 )
         {
             // Handle shelter destruction here
@@ -0,0 +1,386 @@
+package edu.aav66;
+
+import java.awt.Point;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Compact binary snapshot of the simulation state: everything a tick reads, so that a game restored from a snapshot
+ * plays on exactly as the original did. The formation is stored as a bit mask of the occupied slots and the distance
+ * it has marched, which takes a few bytes for the 55 aliens of the classic wave; a formation that does not sit on the
+ * grid of its wave, as tools sometimes build, is stored as explicit positions instead. Coordinates and bullet indices
+ * are stored as shorts.
+ *
+ * The tuning knobs (movement delays and the fire rate of the wave aside), the high score and the replay button are not
+ * part of the snapshot. Version 2 added the second ship at the end; version 1 snapshots, as found in older recordings,
+ * restore as one-player games. Version 3 added the wave before the formation and its fire rate at the end; older
+ * snapshots restore the wave the campaign plays at their difficulty, which was always the classic wave. Version 4
+ * added the slot of every alien to explicit formations; older ones give every alien the slot of its index, which is
+ * how those versions typed aliens.
+ */
+final class Snapshot
+{
+    static final int VERSION = 4;
+    static final int MAX_SIZE = 64 * 1024; // Upper bound for buffers holding a snapshot of a normal game
+
+    private static final short EXPLICIT_FORMATION = -1;
+
+    // Flags
+    private static final int GAME_OVER = 1;
+    private static final int UFO_ACTIVE = 2;
+    private static final int SHIP_MOVING = 4;
+    private static final int SHIP_SHOOTING = 8;
+
+    private Snapshot() {}
+
+    /**
+     * Writes the state of a game into a buffer at its position. The buffer's byte order is used as is.
+     *
+     * @param session the game to save
+     * @param buffer the buffer receiving the snapshot
+     * @throws java.nio.BufferOverflowException if the snapshot does not fit
+     */
+    static void save( GameSession session, ByteBuffer buffer )
+    {
+        buffer.put( (byte)VERSION );
+        int flags = 0;
+        if ( session.isGameOver )
+            flags |= GAME_OVER;
+        if ( session.ufoActive )
+            flags |= UFO_ACTIVE;
+        if ( session.shipMoving )
+            flags |= SHIP_MOVING;
+        if ( session.shipShooting )
+            flags |= SHIP_SHOOTING;
+        buffer.put( (byte)flags );
+        buffer.put( (byte)session.shipDirection );
+        buffer.put( (byte)session.aliensDirection );
+
+        // Clock, timers and random generators
+        buffer.putLong( session.gameTicks );
+        buffer.putLong( session.lastAlienShotTime );
+        buffer.putInt( (int)session.marchMillis() );
+        buffer.putInt( (int)session.ufoMillis() );
+        buffer.putLong( session.random.getState() );
+        buffer.putLong( session.randomShots.getState() );
+
+        // Score and difficulty
+        buffer.putInt( session.score );
+        buffer.putShort( (short)session.lives );
+        buffer.putShort( (short)session.difficultyMultiplier );
+        buffer.putShort( (short)session.alienMovementDelay );
+        buffer.putShort( (short)session.alienMovementGameWonDelay );
+
+        // Ship and UFO
+        buffer.putShort( (short)session.xOfShip[0] );
+        buffer.putShort( (short)session.ufoX );
+
+        buffer.putShort( (short)session.wave.index );
+        saveFormation( session, buffer );
+
+        // Bullets
+        buffer.putShort( (short)session.shipBullet.size() );
+        for ( int i = 0; i < session.shipBullet.size(); i++ )
+        {
+            int index = session.shipBullet.get( i );
+            buffer.putShort( (short)index );
+            buffer.putShort( (short)session.xOfShipBullet[index] );
+            buffer.putShort( (short)session.yOfShipBullet[index] );
+        }
+        buffer.putShort( (short)session.alienBullet.size() );
+        for ( int i = 0; i < session.alienBullet.size(); i++ )
+        {
+            int index = session.alienBullet.get( i );
+            buffer.putShort( (short)index );
+            buffer.putShort( (short)session.xOfAlienBullet[index] );
+            buffer.putShort( (short)session.yOfAlienBullet[index] );
+        }
+
+        // Shelters, whose positions are fixed
+        buffer.put( (byte)session.shelters.size() );
+        for ( Shelter shelter : session.shelters )
+        {
+            buffer.put( (byte)shelter.hitPoints );
+        }
+
+        // Explosions
+        buffer.putShort( (short)session.explosions.size() );
+        for ( Explosion explosion : session.explosions )
+        {
+            buffer.putShort( (short)explosion.location.x );
+            buffer.putShort( (short)explosion.location.y );
+            buffer.put( (byte)( session.timers.deadline( explosion.expiry ) - session.gameTicks ) );
+        }
+
+        // Second ship
+        buffer.put( (byte)session.ships );
+        for ( int ship = 1; ship < session.ships; ship++ )
+        {
+            buffer.putShort( (short)session.xOfShip[ship] );
+        }
+        buffer.put( (byte)session.secondShipInput );
+
+        // Fire rate
+        buffer.putShort( (short)session.maxAlienBullets );
+        buffer.putInt( (int)session.minAlienShotStagger );
+        buffer.putInt( (int)session.maxAlienShotStagger );
+    }
+
+    /**
+     * Replaces the state of a game with a snapshot read from a buffer at its position.
+     *
+     * @param session the game to restore
+     * @param buffer the buffer holding the snapshot, in the byte order it was written with
+     * @throws IllegalArgumentException if the snapshot was written by an incompatible version
+     * @throws java.nio.BufferUnderflowException if the snapshot is cut short
+     */
+    static void restore( GameSession session, ByteBuffer buffer )
+    {
+        int version = buffer.get();
+        if ( version < 1 || version > VERSION )
+            throw new IllegalArgumentException( "unsupported snapshot version " + version );
+        int flags = buffer.get();
+        session.isGameOver = ( flags & GAME_OVER ) != 0;
+        session.ufoActive = ( flags & UFO_ACTIVE ) != 0;
+        session.shipMoving = ( flags & SHIP_MOVING ) != 0;
+        session.shipShooting = ( flags & SHIP_SHOOTING ) != 0;
+        session.shipDirection = (char)buffer.get();
+        session.aliensDirection = (char)buffer.get();
+
+        session.gameTicks = buffer.getLong();
+        session.resetTimers();
+        session.lastAlienShotTime = buffer.getLong();
+        session.marchBaseMillis = buffer.getInt();
+        session.marchBaseTick = session.gameTicks;
+        session.ufoCountdownStart = session.gameTicks - buffer.getInt() / GameState.DELAY;
+        session.random.setState( buffer.getLong() );
+        session.randomShots.setState( buffer.getLong() );
+
+        session.score = buffer.getInt();
+        session.lives = buffer.getShort();
+        session.difficultyMultiplier = buffer.getShort();
+        session.alienMovementDelay = buffer.getShort();
+        session.alienMovementGameWonDelay = buffer.getShort();
+
+        session.xOfShip[0] = buffer.getShort();
+        session.ufoX = buffer.getShort();
+
+        if ( version >= 3 )
+            session.wave = Waves.get( buffer.getShort() );
+        else
+            session.startWave();
+        restoreFormation( session, buffer, version );
+
+        session.shipBullet.clear();
+        for ( int i = buffer.getShort(); i > 0; i-- )
+        {
+            int index = buffer.getShort();
+            session.xOfShipBullet[index] = buffer.getShort();
+            session.yOfShipBullet[index] = buffer.getShort();
+            session.shipBullet.add( index );
+        }
+        session.alienBullet.clear();
+        for ( int i = buffer.getShort(); i > 0; i-- )
+        {
+            int index = buffer.getShort();
+            session.xOfAlienBullet[index] = buffer.getShort();
+            session.yOfAlienBullet[index] = buffer.getShort();
+            session.alienBullet.add( index );
+        }
+
+        int shelters = buffer.get();
+        if ( session.shelters.size() != shelters )
+            GameState.initShelters( session );
+        for ( int i = 0; i < shelters; i++ )
+        {
+            session.shelters.get( i ).hitPoints = buffer.get();
+        }
+
+        // Explosions already in the list are reused, so that restoring a running game does not allocate
+        int explosions = buffer.getShort();
+        for ( int i = 0; i < explosions; i++ )
+        {
+            int x = buffer.getShort();
+            int y = buffer.getShort();
+            int ticksLeft = buffer.get();
+            Explosion explosion;
+            if ( i < session.explosions.size() )
+            {
+                explosion = session.explosions.get( i );
+                explosion.location.setLocation( x, y );
+            }
+            else
+            {
+                explosion = new Explosion( new Point( x, y ) );
+                session.explosions.add( explosion );
+            }
+            explosion.expiry = session.timers.schedule( ticksLeft, GameSession.EXPLOSION, explosion );
+        }
+        trim( session.explosions, explosions );
+
+        session.ships = 1;
+        session.secondShipInput = 0;
+        if ( version >= 2 )
+        {
+            session.ships = buffer.get();
+            for ( int ship = 1; ship < session.ships; ship++ )
+            {
+                session.xOfShip[ship] = buffer.getShort();
+            }
+            session.secondShipInput = buffer.get() & 0xFF;
+        }
+        if ( version >= 3 )
+        {
+            session.maxAlienBullets = buffer.getShort();
+            session.minAlienShotStagger = buffer.getInt();
+            session.maxAlienShotStagger = buffer.getInt();
+        }
+
+        // The remaining timers follow from the restored state
+        session.scheduleMarch();
+        session.scheduleUfo();
+        session.scheduleVolley();
+    }
+
+    /**
+     * Removes the elements of a list past a given size.
+     *
+     * @param list the list
+     * @param size the number of elements to keep
+     */
+    private static void trim( List<?> list, int size )
+    {
+        if ( list.size() > size )
+            list.subList( size, list.size() ).clear();
+    }
+
+    /**
+     * Sets the position and slot of an alien, adding it if the formation has fewer aliens.
+     *
+     * @param session the game whose formation is restored
+     * @param i the index of the alien
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @param slot the slot of the alien
+     */
+    private static void setAlien( GameSession session, int i, int x, int y, int slot )
+    {
+        if ( i < session.xOfAliens.size() )
+        {
+            session.xOfAliens.set( i, x );
+            session.yOfAliens.set( i, y );
+            session.slotOfAliens.set( i, slot );
+        }
+        else
+        {
+            session.xOfAliens.add( x );
+            session.yOfAliens.add( y );
+            session.slotOfAliens.add( slot );
+        }
+    }
+
+    /**
+     * Writes the formation. If every alien sits on its slot of the grid of its wave shifted by the marched distance,
+     * with the slots in order, the formation is written as the slot count, the occupied slots as a bit mask and the
+     * marched distance; otherwise as EXPLICIT_FORMATION followed by the alien count, the position and slot of every
+     * alien and the marched distance.
+     *
+     * @param session the game whose formation is saved
+     * @param buffer the buffer receiving the formation
+     */
+    private static void saveFormation( GameSession session, ByteBuffer buffer )
+    {
+        Waves.Wave wave = session.wave;
+        int slots = wave.slots();
+        int aliens = session.xOfAliens.size();
+        int start = buffer.position();
+        int words = ( slots + 63 ) / 64;
+
+        buffer.putShort( (short)slots );
+        int previous = -1;
+        long word = 0;
+        int written = 0;
+        for ( int i = 0; i < aliens; i++ )
+        {
+            int slot = session.slotOfAliens.get( i );
+            if ( slot <= previous || slot >= slots ||
+                 wave.homeX( slot ) != session.xOfAliens.get( i ) - session.formationX ||
+                 wave.homeY( slot ) != session.yOfAliens.get( i ) - session.formationY )
+            {
+                // Off the grid, fall back to explicit positions
+                buffer.position( start );
+                buffer.putShort( EXPLICIT_FORMATION );
+                buffer.putShort( (short)aliens );
+                for ( int j = 0; j < aliens; j++ )
+                {
+                    buffer.putShort( (short)session.xOfAliens.get( j ) );
+                    buffer.putShort( (short)session.yOfAliens.get( j ) );
+                    buffer.putShort( (short)session.slotOfAliens.get( j ) );
+                }
+                buffer.putInt( session.formationX );
+                buffer.putInt( session.formationY );
+                return;
+            }
+
+            while ( written < slot / 64 )
+            {
+                buffer.putLong( word );
+                word = 0;
+                written++;
+            }
+            word |= 1L << ( slot % 64 );
+            previous = slot;
+        }
+        while ( written < words )
+        {
+            buffer.putLong( word );
+            word = 0;
+            written++;
+        }
+        buffer.putInt( session.formationX );
+        buffer.putInt( session.formationY );
+    }
+
+    /**
+     * Reads the formation written by saveFormation, on the grid of the wave already restored.
+     *
+     * @param session the game whose formation is restored
+     * @param buffer the buffer holding the formation
+     * @param version the version of the snapshot
+     */
+    private static void restoreFormation( GameSession session, ByteBuffer buffer, int version )
+    {
+        int aliens = 0;
+        int slots = buffer.getShort();
+        if ( slots == EXPLICIT_FORMATION )
+        {
+            for ( int i = buffer.getShort(); i > 0; i-- )
+            {
+                int x = buffer.getShort();
+                int y = buffer.getShort();
+                setAlien( session, aliens, x, y, version >= 4 ? buffer.getShort() : aliens );
+                aliens++;
+            }
+            session.formationX = buffer.getInt();
+            session.formationY = buffer.getInt();
+        }
+        else
+        {
+            int words = ( slots + 63 ) / 64;
+            int maskStart = buffer.position();
+            buffer.position( maskStart + words * 8 );
+            session.formationX = buffer.getInt();
+            session.formationY = buffer.getInt();
+            for ( int slot = 0; slot < slots; slot++ )
+            {
+                long word = buffer.getLong( maskStart + ( slot / 64 ) * 8 );
+                if ( ( word & ( 1L << ( slot % 64 ) ) ) != 0 )
+                    setAlien( session, aliens++, session.wave.homeX( slot ) + session.formationX,
+                              session.wave.homeY( slot ) + session.formationY, slot );
+            }
+        }
+        session.xOfAliens.truncate( aliens );
+        session.yOfAliens.truncate( aliens );
+        session.slotOfAliens.truncate( aliens );
+    }
+}
@@ -0,0 +1,319 @@
+package edu.aav66;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.SourceDataLine;
+
+/**
+ * Software mixer for the game's sound effects. All effects are synthesized once into PCM clips when the mixer is
+ * created; a dedicated thread sums a fixed pool of voices into a single SourceDataLine in small blocks, which keeps
+ * the latency between a trigger and the sound bounded by roughly two blocks. Triggering a sound only writes the clip
+ * number into a preallocated ring, so it never allocates and never blocks the game loop; a trigger that finds the
+ * ring full is dropped and counted. When no audio device is available, or the audio.mute system property is set, the
+ * mixer is silent and triggers are ignored.
+ */
+class SoundMixer
+{
+    // Sound Effects
+    static final int SHOT = 0;
+    static final int ALIEN_HIT = 1;
+    static final int UFO_HIT = 2;
+    static final int SHIP_HIT = 3;
+
+    static final int BLOCK_FRAMES = 256;    // About 11.6 ms of audio per mixed block
+    static final int VOICES = 8;            // Maximum number of sounds playing at once
+    static final int TRIGGER_CAPACITY = 64; // Must be a power of two
+
+    private static final int SAMPLE_RATE = 22050;
+
+    private final short[][] clips;
+    private final SourceDataLine line;
+    private volatile Thread thread;
+
+    // Voice pool, only touched by the mixer thread
+    private final int[] voiceClip = new int[VOICES];
+    private final int[] voicePosition = new int[VOICES];
+
+    // Pending triggers, written by the game thread and drained by the mixer thread
+    private final int[] triggers = new int[TRIGGER_CAPACITY];
+    private final AtomicLong triggerHead = new AtomicLong();
+    private final AtomicLong triggerTail = new AtomicLong();
+    private long droppedTriggers = 0; // Only touched by the game thread
+
+    /**
+     * Constructs a mixer, synthesizing every clip and opening the output line. If the line cannot be opened the mixer
+     * stays silent.
+     */
+    SoundMixer()
+    {
+        clips = new short[][] { synthesizeShot(), synthesizeAlienHit(), synthesizeUfoHit(), synthesizeShipHit() };
+        Arrays.fill( voiceClip, -1 );
+        line = Boolean.getBoolean( "audio.mute" ) ? null : openLine();
+    }
+
+    /**
+     * Starts the mixer thread if there is an output line and the thread is not already running.
+     */
+    synchronized void start()
+    {
+        if ( line == null || thread != null )
+            return;
+
+        thread = new Thread( this::run, "sound-mixer" );
+        thread.setDaemon( true );
+        thread.setPriority( Thread.MAX_PRIORITY );
+        thread.start();
+    }
+
+    /**
+     * Checks whether the mixer produces sound.
+     * @return true if an output line is open, false if the mixer is muted
+     */
+    boolean isAudible() { return line != null; }
+
+    /**
+     * Queues a sound effect to be played. Must be called from a single thread, the game loop. If the trigger ring is
+     * full the sound is dropped.
+     *
+     * @param sound the sound effect, one of SHOT, ALIEN_HIT, UFO_HIT or SHIP_HIT
+     */
+    void play( int sound )
+    {
+        if ( thread == null )
+            return;
+
+        if ( enqueue( sound ) )
+            LockSupport.unpark( thread );
+    }
+
+    /**
+     * Retrieves how many triggers were dropped because the ring was full. Must be called from the game loop.
+     *
+     * @return the number of triggers dropped
+     */
+    long droppedTriggers() { return droppedTriggers; }
+
+    /**
+     * Writes a trigger into the ring for the mixer thread, or drops and counts it if the ring is full. Must be called
+     * from a single thread, the game loop.
+     *
+     * @param sound the sound effect
+     * @return true if the trigger was queued, false if it was dropped
+     */
+    boolean enqueue( int sound )
+    {
+        long tail = triggerTail.get();
+        if ( tail - triggerHead.get() >= TRIGGER_CAPACITY )
+        {
+            droppedTriggers++;
+            return false;
+        }
+
+        triggers[(int)( tail & ( TRIGGER_CAPACITY - 1 ) )] = sound;
+        triggerTail.lazySet( tail + 1 );
+        return true;
+    }
+
+    /**
+     * Counts the voices playing a clip. Must be called from the mixer thread, or while it is not running.
+     *
+     * @return the number of active voices, at most VOICES
+     */
+    int activeVoices()
+    {
+        int active = 0;
+        for ( int v = 0; v < VOICES; v++ )
+        {
+            if ( voiceClip[v] != -1 )
+                active++;
+        }
+        return active;
+    }
+
+    /**
+     * Body of the mixer thread. Assigns pending triggers to voices, mixes one block at a time and writes it to the
+     * line. While no voice is playing the thread parks until the next trigger.
+     */
+    private void run()
+    {
+        int[] mix = new int[BLOCK_FRAMES];
+        byte[] out = new byte[BLOCK_FRAMES * 2];
+
+        while ( !Thread.currentThread().isInterrupted() )
+        {
+            drainTriggers();
+            if ( !mixBlock( mix ) )
+            {
+                LockSupport.park( this );
+                continue;
+            }
+
+            for ( int i = 0; i < BLOCK_FRAMES; i++ )
+            {
+                int sample = Math.max( Short.MIN_VALUE, Math.min( Short.MAX_VALUE, mix[i] ) );
+                out[i * 2] = (byte)sample;
+                out[i * 2 + 1] = (byte)( sample >> 8 );
+            }
+            line.write( out, 0, out.length );
+        }
+    }
+
+    /**
+     * Moves every pending trigger onto a voice. A free voice is used when there is one, otherwise the voice that has
+     * played the longest is stolen. Runs on the mixer thread, or while it is not running.
+     */
+    void drainTriggers()
+    {
+        long head = triggerHead.get();
+        long tail = triggerTail.get();
+        for ( ; head < tail; head++ )
+        {
+            int sound = triggers[(int)( head & ( TRIGGER_CAPACITY - 1 ) )];
+            int voice = 0;
+            for ( int v = 0; v < VOICES; v++ )
+            {
+                if ( voiceClip[v] == -1 )
+                {
+                    voice = v;
+                    break;
+                }
+                if ( voicePosition[v] > voicePosition[voice] )
+                {
+                    voice = v;
+                }
+            }
+            voiceClip[voice] = sound;
+            voicePosition[voice] = 0;
+        }
+        triggerHead.lazySet( head );
+    }
+
+    /**
+     * Sums one block of every active voice into the mix buffer, releasing voices that reach the end of their clip.
+     *
+     * @param mix the buffer to fill, one entry per frame
+     * @return true if at least one voice was active, false if the block is silent
+     */
+    boolean mixBlock( int[] mix )
+    {
+        Arrays.fill( mix, 0 );
+        boolean active = false;
+        for ( int v = 0; v < VOICES; v++ )
+        {
+            if ( voiceClip[v] == -1 )
+                continue;
+
+            active = true;
+            short[] clip = clips[voiceClip[v]];
+            int position = voicePosition[v];
+            int count = Math.min( BLOCK_FRAMES, clip.length - position );
+            for ( int i = 0; i < count; i++ )
+            {
+                mix[i] += clip[position + i];
+            }
+            voicePosition[v] = position + count;
+            if ( voicePosition[v] >= clip.length )
+            {
+                voiceClip[v] = -1;
+            }
+        }
+        return active;
+    }
+
+    /**
+     * Opens a mono 16-bit line with a buffer of two blocks, which bounds the output latency.
+     *
+     * @return the opened line, or null if no line is available
+     */
+    private static SourceDataLine openLine()
+    {
+        try
+        {
+            AudioFormat format = new AudioFormat( SAMPLE_RATE, 16, 1, true, false );
+            SourceDataLine line = AudioSystem.getSourceDataLine( format );
+            line.open( format, BLOCK_FRAMES * 2 * 2 );
+            line.start();
+            return line;
+        }
+        catch ( Exception | LinkageError e )
+        {
+            System.err.println( "No audio device available, sound effects are muted." );
+            return null;
+        }
+    }
+
+    /**
+     * Synthesizes the ship's shot, a short square wave sweeping down in pitch.
+     * @return the PCM samples of the clip
+     */
+    private static short[] synthesizeShot()
+    {
+        short[] clip = new short[SAMPLE_RATE * 90 / 1000];
+        double phase = 0;
+        for ( int i = 0; i < clip.length; i++ )
+        {
+            double t = (double)i / clip.length;
+            phase += ( 1200 - 800 * t ) / SAMPLE_RATE;
+            double square = ( phase % 1.0 ) < 0.5 ? 1 : -1;
+            clip[i] = (short)( square * ( 1 - t ) * 5000 );
+        }
+        return clip;
+    }
+
+    /**
+     * Synthesizes an alien being destroyed, a burst of noise with a fast decay.
+     * @return the PCM samples of the clip
+     */
+    private static short[] synthesizeAlienHit()
+    {
+        Random noise = new Random( 1 );
+        short[] clip = new short[SAMPLE_RATE * 150 / 1000];
+        for ( int i = 0; i < clip.length; i++ )
+        {
+            double envelope = Math.pow( 1 - (double)i / clip.length, 2 );
+            clip[i] = (short)( ( noise.nextDouble() * 2 - 1 ) * envelope * 7000 );
+        }
+        return clip;
+    }
+
+    /**
+     * Synthesizes the UFO being hit, a warbling tone falling in pitch.
+     * @return the PCM samples of the clip
+     */
+    private static short[] synthesizeUfoHit()
+    {
+        short[] clip = new short[SAMPLE_RATE * 300 / 1000];
+        double phase = 0;
+        for ( int i = 0; i < clip.length; i++ )
+        {
+            double t = (double)i / clip.length;
+            double frequency = 900 - 500 * t + 120 * Math.sin( 2 * Math.PI * 18 * t * 0.3 );
+            phase += frequency / SAMPLE_RATE;
+            clip[i] = (short)( Math.sin( 2 * Math.PI * phase ) * ( 1 - t ) * 6000 );
+        }
+        return clip;
+    }
+
+    /**
+     * Synthesizes the player's ship being hit, a low rumble of filtered noise.
+     * @return the PCM samples of the clip
+     */
+    private static short[] synthesizeShipHit()
+    {
+        Random noise = new Random( 2 );
+        short[] clip = new short[SAMPLE_RATE * 400 / 1000];
+        double filtered = 0;
+        for ( int i = 0; i < clip.length; i++ )
+        {
+            double t = (double)i / clip.length;
+            filtered += ( ( noise.nextDouble() * 2 - 1 ) - filtered ) * 0.08; // One-pole low-pass
+            double rumble = Math.sin( 2 * Math.PI * 70 * i / SAMPLE_RATE );
+            clip[i] = (short)( ( filtered * 3 + rumble * 0.5 ) * ( 1 - t ) * 8000 );
+        }
+        return clip;
+    }
+}
@@ -0,0 +1,348 @@
+package edu.aav66;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Publishes the state of the interactive game to spectators over TCP on the loopback interface, one frame per tick.
+ * Everything runs on the game loop thread with non-blocking NIO: after each tick the server accepts new spectators,
+ * reads their acknowledgements, takes a Snapshot of the game and writes a frame to every spectator that is keeping up.
+ * A frame still being written to a slow spectator is never queued behind: that spectator skips ticks, and so does one
+ * that has HISTORY / 2 frames in flight without acknowledging them, so the game loop never waits on a spectator.
+ *
+ * Every frame is the frame length as an int, the sequence number of the frame, the sequence number of its base frame,
+ * and the payload. A keyframe has the base KEYFRAME and holds the snapshot as is. Any other frame is a delta against
+ * the base, the last frame the spectator acknowledged: the snapshot length as an int, then runs of an unsigned short
+ * count of bytes equal to the base, an unsigned short count of differing bytes and those bytes XORed with the base,
+ * where a base shorter than the snapshot counts as zeros past its end. Since the snapshot lays out the formation as a
+ * bit mask and bullets, score and timers at stable offsets, a delta holds the aliens destroyed, the bullets moved and
+ * the score changed since the base. A spectator whose base is no longer among the last HISTORY frames, or whose delta
+ * would be larger than the snapshot, is sent a keyframe.
+ *
+ * A spectator acknowledges every frame it has applied by sending its sequence number back as a long. The sequence
+ * numbers count frames from 0 for the whole connection, across restarted games.
+ */
+final class SpectatorServer
+{
+    static final int HISTORY = 32;         // Frames kept as delta bases, on both ends
+    static final int HEADER = 4 + 8 + 8;   // Frame length, sequence number and base sequence number
+    static final long KEYFRAME = -1;       // Base of a frame that holds a whole snapshot
+    static final int MAX_RUN = 0xFFFF;     // Longest run of equal or differing bytes in a delta
+
+    private static final int MAX_IN_FLIGHT = HISTORY / 2;
+
+    /**
+     * A connected spectator and the frame being written to it.
+     */
+    private static final class Spectator
+    {
+        final SocketChannel channel;
+        final ByteBuffer out = ByteBuffer.allocateDirect( HEADER + 4 + Snapshot.MAX_SIZE );
+        final ByteBuffer acks = ByteBuffer.allocate( 8 * MAX_IN_FLIGHT );
+        final long connected; // Sequence number of the first frame offered to the spectator
+        long acked = KEYFRAME;
+
+        /**
+         * Constructs a spectator with nothing to write.
+         *
+         * @param channel the non-blocking channel of the spectator
+         * @param connected the sequence number of the next frame
+         */
+        Spectator( SocketChannel channel, long connected )
+        {
+            this.channel = channel;
+            this.connected = connected;
+            out.limit( 0 );
+        }
+    }
+
+    private final ServerSocketChannel server;
+    private final Selector selector;
+    private final List<Spectator> spectators = new ArrayList<>();
+    private final ByteBuffer[] history = new ByteBuffer[HISTORY]; // Snapshot of frame n in slot n % HISTORY
+    private long sequence = 0;                                     // Sequence number of the next frame
+    // Snapshot of the next frame while it is taken, swapped into the history once it is complete
+    private ByteBuffer scratch = ByteBuffer.allocate( Snapshot.MAX_SIZE );
+    private boolean oversizeReported = false;
+
+    /**
+     * Opens a server on a port of the loopback interface.
+     *
+     * @param port the port to listen on
+     * @throws IOException if the port cannot be bound
+     */
+    SpectatorServer( int port ) throws IOException
+    {
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.bind( new InetSocketAddress( InetAddress.getLoopbackAddress(), port ) );
+        server.configureBlocking( false );
+        server.register( selector, SelectionKey.OP_ACCEPT );
+        for ( int i = 0; i < HISTORY; i++ )
+        {
+            history[i] = ByteBuffer.allocate( Snapshot.MAX_SIZE );
+        }
+    }
+
+    /**
+     * Publishes the state of a game after a tick. Must be called from the game loop thread. Does not block, and only
+     * takes a snapshot when someone is watching.
+     *
+     * @param session the game that just ticked
+     */
+    void tickCompleted( GameSession session )
+    {
+        poll();
+        if ( spectators.isEmpty() )
+            return;
+
+        ByteBuffer snapshot = scratch;
+        snapshot.clear();
+        try
+        {
+            Snapshot.save( session, snapshot );
+        }
+        catch ( BufferOverflowException e )
+        {
+            if ( !oversizeReported )
+                System.err.println( "The game state no longer fits in a snapshot, spectators skip such ticks." );
+            oversizeReported = true;
+            return;
+        }
+        snapshot.flip();
+        int slot = (int)( sequence % HISTORY );
+        scratch = history[slot];
+        history[slot] = snapshot;
+
+        for ( int i = spectators.size() - 1; i >= 0; i-- )
+        {
+            Spectator spectator = spectators.get( i );
+            try
+            {
+                // A spectator still receiving an earlier frame, or too far behind in acknowledging, skips this one
+                spectator.channel.write( spectator.out );
+                long inFlight = sequence - ( spectator.acked == KEYFRAME ? spectator.connected : spectator.acked );
+                if ( spectator.out.hasRemaining() || inFlight > MAX_IN_FLIGHT )
+                    continue;
+
+                encode( spectator, snapshot );
+                spectator.channel.write( spectator.out );
+            }
+            catch ( IOException e )
+            {
+                disconnect( spectator );
+            }
+        }
+        sequence++;
+    }
+
+    /**
+     * Closes the server and the connections of all spectators.
+     */
+    void close()
+    {
+        for ( int i = spectators.size() - 1; i >= 0; i-- )
+        {
+            disconnect( spectators.get( i ) );
+        }
+        try
+        {
+            selector.close();
+            server.close();
+        }
+        catch ( IOException e )
+        {
+            System.err.println( "Problem closing the spectator server." );
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Accepts the spectators that connected and reads the acknowledgements that arrived since the previous tick.
+     */
+    private void poll()
+    {
+        try
+        {
+            if ( selector.selectNow() == 0 )
+                return;
+        }
+        catch ( IOException e )
+        {
+            System.err.println( "Problem polling the spectator connections." );
+            e.printStackTrace();
+            return;
+        }
+
+        for ( SelectionKey key : selector.selectedKeys() )
+        {
+            if ( !key.isValid() )
+                continue;
+            if ( key.isAcceptable() )
+                accept();
+            else if ( key.isReadable() )
+                readAcks( (Spectator)key.attachment() );
+        }
+        selector.selectedKeys().clear();
+    }
+
+    /**
+     * Accepts every pending connection.
+     */
+    private void accept()
+    {
+        try
+        {
+            for ( SocketChannel channel = server.accept(); channel != null; channel = server.accept() )
+            {
+                channel.configureBlocking( false );
+                channel.setOption( StandardSocketOptions.TCP_NODELAY, true );
+                Spectator spectator = new Spectator( channel, sequence );
+                channel.register( selector, SelectionKey.OP_READ, spectator );
+                spectators.add( spectator );
+                System.out.println( "Spectator connected from " + channel.getRemoteAddress() );
+            }
+        }
+        catch ( IOException e )
+        {
+            System.err.println( "Problem accepting a spectator." );
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Reads the acknowledgements of a spectator, keeping the latest, or disconnects it if it closed the connection.
+     *
+     * @param spectator the spectator
+     */
+    private void readAcks( Spectator spectator )
+    {
+        try
+        {
+            int read;
+            while ( ( read = spectator.channel.read( spectator.acks ) ) > 0 )
+            {
+                spectator.acks.flip();
+                while ( spectator.acks.remaining() >= 8 )
+                {
+                    long ack = spectator.acks.getLong();
+                    if ( ack > spectator.acked && ack < sequence )
+                        spectator.acked = ack;
+                }
+                spectator.acks.compact();
+            }
+            if ( read < 0 )
+                disconnect( spectator );
+        }
+        catch ( IOException e )
+        {
+            disconnect( spectator );
+        }
+    }
+
+    /**
+     * Closes the connection of a spectator and forgets it.
+     *
+     * @param spectator the spectator
+     */
+    private void disconnect( Spectator spectator )
+    {
+        spectators.remove( spectator );
+        try
+        {
+            spectator.channel.close();
+        }
+        catch ( IOException e )
+        {
+            // The connection is gone either way
+        }
+        System.out.println( "Spectator disconnected." );
+    }
+
+    /**
+     * Encodes the frame of the current tick for a spectator into its output buffer, as a delta against the last
+     * frame it acknowledged if that frame is still in the history, or as a keyframe.
+     *
+     * @param spectator the spectator
+     * @param snapshot the snapshot of the current tick, from 0 to its limit
+     */
+    private void encode( Spectator spectator, ByteBuffer snapshot )
+    {
+        ByteBuffer out = spectator.out;
+        out.clear();
+        out.position( HEADER );
+
+        long base = spectator.acked;
+        if ( base == KEYFRAME || sequence - base >= HISTORY ||
+             !encodeDelta( snapshot, history[(int)( base % HISTORY )], out ) )
+        {
+            base = KEYFRAME;
+            out.position( HEADER );
+            out.put( snapshot );
+            snapshot.rewind();
+        }
+
+        out.putInt( 0, out.position() - 4 );
+        out.putLong( 4, sequence );
+        out.putLong( 12, base );
+        out.flip();
+    }
+
+    /**
+     * Encodes a snapshot as a delta against a base snapshot.
+     *
+     * @param snapshot the snapshot, from 0 to its limit
+     * @param base the base snapshot, from 0 to its limit
+     * @param out the buffer receiving the delta at its position
+     * @return true if the delta was written, false if it would be larger than the snapshot
+     */
+    private static boolean encodeDelta( ByteBuffer snapshot, ByteBuffer base, ByteBuffer out )
+    {
+        int length = snapshot.limit();
+        int budget = out.position() + 4 + length;
+        out.putInt( length );
+        int i = 0;
+        while ( i < length )
+        {
+            int equalStart = i;
+            while ( i < length && i - equalStart < MAX_RUN && snapshot.get( i ) == byteAt( base, i ) )
+            {
+                i++;
+            }
+            int differingStart = i;
+            while ( i < length && i - differingStart < MAX_RUN && snapshot.get( i ) != byteAt( base, i ) )
+            {
+                i++;
+            }
+            if ( out.position() + 4 + ( i - differingStart ) > budget )
+                return false;
+
+            out.putShort( (short)( differingStart - equalStart ) );
+            out.putShort( (short)( i - differingStart ) );
+            for ( int j = differingStart; j < i; j++ )
+            {
+                out.put( (byte)( snapshot.get( j ) ^ byteAt( base, j ) ) );
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads a byte of a base snapshot, counting zeros past its end.
+     *
+     * @param base the base snapshot, from 0 to its limit
+     * @param i the offset of the byte
+     * @return the byte
+     */
+    private static byte byteAt( ByteBuffer base, int i ) { return i < base.limit() ? base.get( i ) : 0; }
+}
@@ -0,0 +1,176 @@
+package edu.aav66;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.swing.JFrame;
+import javax.swing.SwingUtilities;
+
+/**
+ * Watches a game published by a SpectatorServer in a window of its own. A reader thread receives the frames, rebuilds
+ * the snapshot of each from its base, acknowledges it and hands the latest snapshot to the event dispatch thread,
+ * which restores it into a headless GamePanel and repaints; frames that arrive faster than they can be painted replace
+ * each other. The viewer keeps the last HISTORY snapshots, which covers every base the server may still use.
+ */
+final class SpectatorViewer
+{
+    private final GamePanel panel = new GamePanel( false, 0, null );
+    private final AtomicReference<byte[]> pending = new AtomicReference<>();
+
+    // Snapshots received, frame n in slot n % HISTORY
+    private final byte[][] snapshots = new byte[SpectatorServer.HISTORY][];
+    private final long[] sequences = new long[SpectatorServer.HISTORY];
+
+    /**
+     * Constructs a viewer showing an empty game until the first frame arrives.
+     */
+    private SpectatorViewer()
+    {
+        Arrays.fill( sequences, -1 );
+        panel.replayButton.setVisible( false );
+    }
+
+    /**
+     * Connects to a game on a port of the loopback interface and shows it until the game closes the connection.
+     *
+     * @param port the port the game publishes on
+     * @return 0 if the game ended the connection, 1 if it could not be reached or sent something unreadable
+     */
+    static int run( int port )
+    {
+        try ( Socket socket = new Socket( InetAddress.getLoopbackAddress(), port ) )
+        {
+            socket.setTcpNoDelay( true );
+            SpectatorViewer viewer = new SpectatorViewer();
+            viewer.open();
+            viewer.receive( new DataInputStream( new BufferedInputStream( socket.getInputStream() ) ),
+                            new DataOutputStream( socket.getOutputStream() ) );
+            System.out.println( "The game closed the connection." );
+            return 0;
+        }
+        catch ( IOException e )
+        {
+            System.err.println( "Problem watching the game on port " + port );
+            e.printStackTrace();
+            return 1;
+        }
+        catch ( IllegalArgumentException e )
+        {
+            System.err.println( "The game sent an unreadable frame: " + e.getMessage() );
+            return 1;
+        }
+    }
+
+    /**
+     * Opens the window showing the game, as GameFrame does for a game being played.
+     */
+    private void open()
+    {
+        JFrame frame = new JFrame( "Space Invaders - Spectator" );
+        frame.add( panel );
+        frame.setDefaultCloseOperation( JFrame.EXIT_ON_CLOSE );
+        frame.setResizable( false );
+        frame.pack();
+        frame.setVisible( true );
+        frame.setLocationRelativeTo( null );
+    }
+
+    /**
+     * Receives frames until the end of the stream, acknowledging each one applied.
+     *
+     * @param in the stream of frames
+     * @param out the stream receiving the acknowledgements
+     * @throws IOException if the connection fails
+     */
+    private void receive( DataInputStream in, DataOutputStream out ) throws IOException
+    {
+        while ( true )
+        {
+            int length;
+            try
+            {
+                length = in.readInt();
+            }
+            catch ( EOFException e )
+            {
+                return;
+            }
+            long sequence = in.readLong();
+            long base = in.readLong();
+            byte[] payload = new byte[length - 16];
+            in.readFully( payload );
+
+            byte[] snapshot;
+            if ( base == SpectatorServer.KEYFRAME )
+            {
+                snapshot = payload;
+            }
+            else
+            {
+                int slot = (int)( base % SpectatorServer.HISTORY );
+                if ( sequences[slot] != base )
+                    continue; // Base no longer held; unacknowledged, the server soon sends a keyframe
+                snapshot = applyDelta( ByteBuffer.wrap( payload ), snapshots[slot] );
+            }
+
+            int slot = (int)( sequence % SpectatorServer.HISTORY );
+            snapshots[slot] = snapshot;
+            sequences[slot] = sequence;
+            out.writeLong( sequence );
+            out.flush();
+
+            if ( pending.getAndSet( snapshot ) == null )
+                SwingUtilities.invokeLater( this::show );
+        }
+    }
+
+    /**
+     * Rebuilds a snapshot from a delta and its base.
+     *
+     * @param delta the delta, as written by the server
+     * @param base the base snapshot
+     * @return the snapshot
+     * @throws IllegalArgumentException if the delta does not fit its length
+     */
+    static byte[] applyDelta( ByteBuffer delta, byte[] base )
+    {
+        byte[] snapshot = new byte[delta.getInt()];
+        int i = 0;
+        while ( delta.hasRemaining() )
+        {
+            int equal = delta.getShort() & SpectatorServer.MAX_RUN;
+            int differing = delta.getShort() & SpectatorServer.MAX_RUN;
+            if ( i + equal + differing > snapshot.length )
+                throw new IllegalArgumentException( "delta runs past the end of the snapshot" );
+            for ( int end = i + equal; i < end; i++ )
+            {
+                snapshot[i] = i < base.length ? base[i] : 0;
+            }
+            for ( int end = i + differing; i < end; i++ )
+            {
+                snapshot[i] = (byte)( delta.get() ^ ( i < base.length ? base[i] : 0 ) );
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Shows the latest snapshot received. Runs on the event dispatch thread.
+     */
+    private void show()
+    {
+        byte[] snapshot = pending.getAndSet( null );
+        if ( snapshot == null )
+            return;
+
+        Snapshot.restore( panel.session, ByteBuffer.wrap( snapshot ) );
+        panel.repaint();
+    }
+}
@@ -0,0 +1,261 @@
+package edu.aav66;
+
+import java.util.Arrays;
+
+/**
+ * Hierarchical timer wheel counting game ticks. Four levels of 64 slots cover deadlines up to 2^24 ticks, about three
+ * days of play, ahead of the current tick; a timer sits in the level whose slot width matches how far away it is, and
+ * moves down a level each time the level above turns over onto its slot, until it reaches the bottom level and
+ * expires on its exact tick. Deadlines further away wait in an overflow list, sorted again on each revolution of the
+ * top level.
+ *
+ * Timers live in preallocated parallel arrays, linked into their slot through int indices, so scheduling, cancelling
+ * and expiring a timer is O(1) and allocates nothing; the arrays only grow, by doubling, when more timers are pending
+ * than ever before. A timer is identified by its index, which is reused once the timer expires or is cancelled, so
+ * the owner of a timer must forget it at that point. Timers that expire on the same tick fire in an order that only
+ * depends on when they were scheduled, which keeps a game that schedules the same timers on the same ticks
+ * deterministic.
+ */
+final class TimerWheel
+{
+    static final int NONE = -1; // No timer
+
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int LEVELS = 4;
+    private static final int OVERFLOW = LEVELS * SLOTS; // Slot of the timers beyond the top level
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * Receives the timers of a wheel as they expire.
+     */
+    interface Handler
+    {
+        /**
+         * Handles an expired timer. The handler may schedule and cancel timers, including on the same wheel.
+         *
+         * @param kind the kind the timer was scheduled with
+         * @param target the target the timer was scheduled with, possibly null
+         */
+        void expired( int kind, Object target );
+    }
+
+    // Timers, indexed by timer; free timers are chained through next
+    private long[] deadlines = new long[INITIAL_CAPACITY];
+    private int[] kinds = new int[INITIAL_CAPACITY];
+    private Object[] targets = new Object[INITIAL_CAPACITY];
+    private int[] next = new int[INITIAL_CAPACITY];
+    private int[] prev = new int[INITIAL_CAPACITY];
+    private int[] slotOf = new int[INITIAL_CAPACITY]; // Slot holding the timer, NONE if it is free
+    private int free = NONE;
+
+    // Slots of every level, level by level, then the overflow slot, as doubly linked lists of timers
+    private final int[] heads = new int[OVERFLOW + 1];
+    private final int[] tails = new int[OVERFLOW + 1];
+
+    private long current;
+
+    /**
+     * Constructs an empty wheel at tick 0.
+     */
+    TimerWheel() { reset( 0 ); }
+
+    /**
+     * Cancels every timer and moves the wheel to a tick.
+     *
+     * @param now the current tick
+     */
+    void reset( long now )
+    {
+        Arrays.fill( heads, NONE );
+        Arrays.fill( tails, NONE );
+        Arrays.fill( targets, null );
+        Arrays.fill( slotOf, NONE );
+        for ( int timer = 0; timer < next.length; timer++ )
+        {
+            next[timer] = timer + 1 < next.length ? timer + 1 : NONE;
+        }
+        free = 0;
+        current = now;
+    }
+
+    /**
+     * @return the tick the wheel has advanced to
+     */
+    long now() { return current; }
+
+    /**
+     * Schedules a timer.
+     *
+     * @param delay the number of ticks from now until the timer expires, at least 1
+     * @param kind the kind passed to the handler
+     * @param target the target passed to the handler, or null
+     * @return the timer, valid until it expires or is cancelled
+     */
+    int schedule( long delay, int kind, Object target )
+    {
+        if ( free == NONE )
+            grow();
+
+        int timer = free;
+        free = next[timer];
+        deadlines[timer] = current + Math.max( 1, delay );
+        kinds[timer] = kind;
+        targets[timer] = target;
+        insert( timer );
+        return timer;
+    }
+
+    /**
+     * Cancels a pending timer.
+     *
+     * @param timer the timer, or NONE to do nothing
+     */
+    void cancel( int timer )
+    {
+        if ( timer == NONE || slotOf[timer] == NONE )
+            return;
+
+        unlink( timer );
+        release( timer );
+    }
+
+    /**
+     * Retrieves the tick on which a pending timer expires.
+     *
+     * @param timer the timer
+     * @return the tick of its deadline
+     */
+    long deadline( int timer ) { return deadlines[timer]; }
+
+    /**
+     * Advances the wheel tick by tick up to a given tick, passing every timer that expires to a handler.
+     *
+     * @param now the tick to advance to
+     * @param handler the handler of the expired timers
+     */
+    void advance( long now, Handler handler )
+    {
+        while ( current < now )
+        {
+            current++;
+
+            // Bring down the timers of every level that turned over, highest first
+            int level = 1;
+            while ( level <= LEVELS && ( current & ( ( 1L << ( level * SLOT_BITS ) ) - 1 ) ) == 0 )
+            {
+                level++;
+            }
+            if ( level > LEVELS )
+                cascade( OVERFLOW );
+            for ( level = Math.min( level - 1, LEVELS - 1 ); level >= 1; level-- )
+            {
+                cascade( level * SLOTS + (int)( ( current >>> ( level * SLOT_BITS ) ) & ( SLOTS - 1 ) ) );
+            }
+
+            // Every timer in the bottom slot of the current tick expires now; the handler can only schedule later ticks
+            int slot = (int)( current & ( SLOTS - 1 ) );
+            for ( int timer = heads[slot]; timer != NONE; timer = heads[slot] )
+            {
+                int kind = kinds[timer];
+                Object target = targets[timer];
+                unlink( timer );
+                release( timer );
+                handler.expired( kind, target );
+            }
+        }
+    }
+
+    /**
+     * Moves every timer of a slot to the slot matching its deadline.
+     *
+     * @param slot the slot, counted over all levels
+     */
+    private void cascade( int slot )
+    {
+        int timer = heads[slot];
+        heads[slot] = NONE;
+        tails[slot] = NONE;
+        while ( timer != NONE )
+        {
+            int following = next[timer];
+            insert( timer );
+            timer = following;
+        }
+    }
+
+    /**
+     * Appends a timer to the slot matching its deadline: the lowest level whose slots are wide enough to hold both
+     * the current tick and the deadline in the same revolution, or the overflow slot if the deadline is further away.
+     *
+     * @param timer the timer, whose deadline is set
+     */
+    private void insert( int timer )
+    {
+        long deadline = Math.max( deadlines[timer], current );
+        long differing = deadline ^ current;
+        int level = differing == 0 ? 0 : ( 63 - Long.numberOfLeadingZeros( differing ) ) / SLOT_BITS;
+        int slot = level < LEVELS ? level * SLOTS + (int)( ( deadline >>> ( level * SLOT_BITS ) ) & ( SLOTS - 1 ) )
+                                  : OVERFLOW;
+
+        slotOf[timer] = slot;
+        next[timer] = NONE;
+        prev[timer] = tails[slot];
+        if ( tails[slot] == NONE )
+            heads[slot] = timer;
+        else
+            next[tails[slot]] = timer;
+        tails[slot] = timer;
+    }
+
+    /**
+     * Removes a timer from its slot.
+     *
+     * @param timer the pending timer
+     */
+    private void unlink( int timer )
+    {
+        int slot = slotOf[timer];
+        if ( prev[timer] == NONE )
+            heads[slot] = next[timer];
+        else
+            next[prev[timer]] = next[timer];
+        if ( next[timer] == NONE )
+            tails[slot] = prev[timer];
+        else
+            prev[next[timer]] = prev[timer];
+    }
+
+    /**
+     * Returns an unlinked timer to the free list.
+     *
+     * @param timer the timer
+     */
+    private void release( int timer )
+    {
+        slotOf[timer] = NONE;
+        targets[timer] = null;
+        next[timer] = free;
+        free = timer;
+    }
+
+    /**
+     * Doubles the number of timers, chaining the new ones into the free list.
+     */
+    private void grow()
+    {
+        int capacity = deadlines.length;
+        deadlines = Arrays.copyOf( deadlines, capacity * 2 );
+        kinds = Arrays.copyOf( kinds, capacity * 2 );
+        targets = Arrays.copyOf( targets, capacity * 2 );
+        next = Arrays.copyOf( next, capacity * 2 );
+        prev = Arrays.copyOf( prev, capacity * 2 );
+        slotOf = Arrays.copyOf( slotOf, capacity * 2 );
+        for ( int timer = capacity; timer < capacity * 2; timer++ )
+        {
+            slotOf[timer] = NONE;
+            next[timer] = timer + 1 < capacity * 2 ? timer + 1 : NONE;
+        }
+        free = capacity;
+    }
+}
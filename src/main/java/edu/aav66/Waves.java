@@ -0,0 +1,416 @@
+package edu.aav66;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The alien waves described in the waves.txt resource: for every wave the formation grid, the type of every row, the
+ * march, the fire rate and the shelters, then the campaign of waves a game plays and the stress waves that measure how
+ * far the simulation and the renderer scale. The resource is parsed once, by whichever thread first needs a wave, and
+ * every wave is compiled into the home position of each slot of its grid and the points and sprite of each row, so
+ * starting a wave only copies positions into the formation of the session.
+ */
+final class Waves
+{
+    static final String RESOURCE = "/waves.txt";
+    static final int MAX_SLOTS = 4096; // Slots of the largest grid a wave may have
+
+    // Sprites of an alien type
+    static final int YELLOW = 0;
+    static final int GREEN = 1;
+    static final int RED = 2;
+
+    private static final List<String> SPRITES = List.of( "yellow", "green", "red" );
+
+    /**
+     * A wave, compiled from its definition. Every alien keeps the grid slot it started in, and its type and column are
+     * those of its slot whichever aliens have been killed; slots past the last row, which only formations restored
+     * from old snapshots can hold, take the type of the last row.
+     */
+    static final class Wave
+    {
+        final String name;
+        final int index;      // Position in the resource, which identifies the wave in snapshots
+        final int columns;
+        final int rows;
+        final int pitchX;     // Pixels between neighbouring aliens, left to left
+        final int pitchY;     // Pixels between neighbouring aliens, top to top
+        final int marchDelay; // Milliseconds between steps on the first pass through the campaign
+        final int marchStep;  // Pixels per step sideways
+        final int marchDrop;  // Pixels down at an edge
+        final int maxBullets;
+        final long minStagger;
+        final long maxStagger;
+        final int shelters;
+
+        private final int[] homeX; // Position of every slot before the formation moves
+        private final int[] homeY;
+        private final int[] rowPoints;
+        private final int[] rowSprites;
+
+        /**
+         * Compiles a wave.
+         *
+         * @param name the name of the wave
+         * @param index the position of the wave in the resource
+         * @param definition the values of the wave, by key
+         * @param types the alien types, points and sprite by name
+         * @throws IllegalArgumentException if a value is missing, out of range or does not fit on the screen
+         */
+        Wave( String name, int index, Map<String, String[]> definition, Map<String, int[]> types )
+        {
+            this.name = name;
+            this.index = index;
+            int[] grid = numbers( definition, "grid", 2 );
+            int[] pitch = numbers( definition, "pitch", 2 );
+            int top = numbers( definition, "top", 1 )[0];
+            int[] march = numbers( definition, "march", 3 );
+            int[] fire = numbers( definition, "fire", 3 );
+            columns = grid[0];
+            rows = grid[1];
+            pitchX = pitch[0];
+            pitchY = pitch[1];
+            marchDelay = march[0];
+            marchStep = march[1];
+            marchDrop = march[2];
+            maxBullets = fire[0];
+            minStagger = fire[1];
+            maxStagger = fire[2];
+            shelters = numbers( definition, "shelters", 1 )[0];
+
+            int width = ( columns - 1 ) * pitch[0] + GamePanel.UNIT_SIZE;
+            int bottom = top + ( rows - 1 ) * pitch[1] + GamePanel.UNIT_SIZE;
+            if ( columns < 1 || rows < 1 || columns * rows > MAX_SLOTS )
+                throw new IllegalArgumentException( "grid must hold 1 to " + MAX_SLOTS + " aliens" );
+            if ( pitch[0] < 1 || pitch[1] < 1 || width > GamePanel.SCREEN_WIDTH - 2 * GamePanel.UNIT_SIZE )
+                throw new IllegalArgumentException( "formation is " + width + " pixels wide, too wide to march" );
+            if ( top < 0 || bottom > GameState.SHELTER_Y )
+                throw new IllegalArgumentException( "formation reaches y " + bottom + ", below the shelters" );
+            if ( marchDelay < 1 || marchStep < 1 || marchDrop < 0 )
+                throw new IllegalArgumentException( "march needs a delay and a step of at least 1" );
+            if ( maxBullets < 0 || minStagger < 0 || maxStagger < minStagger )
+                throw new IllegalArgumentException( "fire needs at least 0 bullets and a stagger range" );
+            int shelterWidth = shelters * ( Shelter.SHELTER_WIDTH + Shelter.SHELTER_PADDING );
+            if ( shelters < 0 || shelterWidth > GamePanel.SCREEN_WIDTH )
+                throw new IllegalArgumentException( "shelters do not fit on the screen" );
+
+            homeX = new int[columns * rows];
+            homeY = new int[columns * rows];
+            int startX = ( GamePanel.SCREEN_WIDTH - width ) / 2;
+            for ( int slot = 0; slot < homeX.length; slot++ )
+            {
+                homeX[slot] = startX + ( slot % columns ) * pitch[0];
+                homeY[slot] = top + ( slot / columns ) * pitch[1];
+            }
+
+            rowPoints = new int[rows];
+            rowSprites = new int[rows];
+            int row = 0;
+            for ( String token : value( definition, "rows" ) )
+            {
+                int star = token.indexOf( '*' );
+                int count = star < 0 ? 1 : Integer.parseInt( token.substring( 0, star ) );
+                int[] type = types.get( token.substring( star + 1 ) );
+                if ( type == null )
+                    throw new IllegalArgumentException( "unknown alien type " + token.substring( star + 1 ) );
+                if ( count < 1 || row + count > rows )
+                    throw new IllegalArgumentException( "rows describe more than " + rows + " rows" );
+                Arrays.fill( rowPoints, row, row + count, type[0] );
+                Arrays.fill( rowSprites, row, row + count, type[1] );
+                row += count;
+            }
+            if ( row != rows )
+                throw new IllegalArgumentException( "rows describe " + row + " of " + rows + " rows" );
+        }
+
+        /**
+         * Tells whether neighbouring aliens of the wave overlap, which only a stress wave may allow.
+         *
+         * @return true if the pitch is smaller than an alien in either direction
+         */
+        boolean overlapping() { return pitchX < GamePanel.UNIT_SIZE || pitchY < GamePanel.UNIT_SIZE; }
+
+        /**
+         * Returns the number of slots of the grid.
+         *
+         * @return columns times rows
+         */
+        int slots() { return homeX.length; }
+
+        /**
+         * Returns the x-coordinate of a slot before the formation moves.
+         *
+         * @param slot the slot, numbered row by row from the top left
+         * @return the x-coordinate
+         */
+        int homeX( int slot ) { return homeX[slot]; }
+
+        /**
+         * Returns the y-coordinate of a slot before the formation moves.
+         *
+         * @param slot the slot, numbered row by row from the top left
+         * @return the y-coordinate
+         */
+        int homeY( int slot ) { return homeY[slot]; }
+
+        /**
+         * Returns the points scored for killing an alien.
+         *
+         * @param slot the slot of the alien
+         * @return the points of the type of its row
+         */
+        int points( int slot ) { return rowPoints[Math.min( slot / columns, rows - 1 )]; }
+
+        /**
+         * Returns the sprite of an alien.
+         *
+         * @param slot the slot of the alien
+         * @return YELLOW, GREEN or RED, the sprite of the type of its row
+         */
+        int sprite( int slot ) { return rowSprites[Math.min( slot / columns, rows - 1 )]; }
+
+        /**
+         * Returns the column of an alien.
+         *
+         * @param slot the slot of the alien
+         * @return the column of its slot, from 0 to columns
+         */
+        int column( int slot ) { return slot % columns; }
+    }
+
+    /**
+     * Parses the resource when it is first initialized, which the JVM does exactly once, on whichever thread first
+     * needs a wave, while other threads needing one wait for it.
+     */
+    private static final class Loaded
+    {
+        static final Waves WAVES = load();
+    }
+
+    private final List<Wave> waves = new ArrayList<>();
+    private final List<Wave> campaign = new ArrayList<>();
+    private final List<Wave> stress = new ArrayList<>();
+
+    private Waves() {}
+
+    /**
+     * Retrieves the campaign, the waves a game plays in order.
+     *
+     * @return the campaign, of at least one wave, whose last wave repeats
+     */
+    static List<Wave> campaign() { return Loaded.WAVES.campaign; }
+
+    /**
+     * Retrieves the stress waves, smallest first.
+     *
+     * @return the stress waves
+     */
+    static List<Wave> stress() { return Loaded.WAVES.stress; }
+
+    /**
+     * Retrieves a wave by its position in the resource.
+     *
+     * @param index the index of the wave
+     * @return the wave
+     * @throws IllegalArgumentException if there is no such wave
+     */
+    static Wave get( int index )
+    {
+        if ( index < 0 || index >= Loaded.WAVES.waves.size() )
+            throw new IllegalArgumentException( "unknown wave " + index );
+        return Loaded.WAVES.waves.get( index );
+    }
+
+    /**
+     * Retrieves a wave by name.
+     *
+     * @param name the name of the wave
+     * @return the wave, or null if there is none by that name
+     */
+    static Wave get( String name )
+    {
+        for ( Wave wave : Loaded.WAVES.waves )
+        {
+            if ( wave.name.equals( name ) )
+                return wave;
+        }
+        return null;
+    }
+
+    /**
+     * Reads and compiles the resource.
+     *
+     * @return the waves
+     * @throws UncheckedIOException if the resource is missing, cannot be read or is not valid, since no game can be
+     *                              played without its waves
+     */
+    private static Waves load()
+    {
+        try ( InputStream in = Waves.class.getResourceAsStream( RESOURCE ) )
+        {
+            if ( in == null )
+                throw new IOException( "Missing resource " + RESOURCE );
+            return parse( new BufferedReader( new InputStreamReader( in, StandardCharsets.UTF_8 ) ) );
+        }
+        catch ( IOException e )
+        {
+            throw new UncheckedIOException( e );
+        }
+    }
+
+    /**
+     * Parses wave definitions in the format described at the top of the resource.
+     *
+     * @param reader the definitions
+     * @return the waves
+     * @throws IOException if the definitions cannot be read or are not valid, naming the offending line
+     */
+    private static Waves parse( BufferedReader reader ) throws IOException
+    {
+        Waves parsed = new Waves();
+        Map<String, int[]> types = new HashMap<>();
+        List<String> names = new ArrayList<>();
+        List<Map<String, String[]>> definitions = new ArrayList<>();
+        String[] campaign = null;
+        String[] stress = new String[0];
+
+        Map<String, String[]> definition = null; // Of the wave being read
+        int lineNumber = 0;
+        String line;
+        while ( ( line = reader.readLine() ) != null )
+        {
+            lineNumber++;
+            int comment = line.indexOf( '#' );
+            String[] tokens = ( comment < 0 ? line : line.substring( 0, comment ) ).trim().split( "\\s+" );
+            if ( tokens[0].isEmpty() )
+                continue;
+
+            String[] values = Arrays.copyOfRange( tokens, 1, tokens.length );
+            try
+            {
+                switch ( tokens[0] )
+                {
+                case "type":
+                    if ( values.length != 3 || !SPRITES.contains( values[2] ) )
+                        throw new IllegalArgumentException( "expected type NAME POINTS yellow|green|red" );
+                    types.put( values[0], new int[] { Integer.parseInt( values[1] ), SPRITES.indexOf( values[2] ) } );
+                    break;
+                case "wave":
+                    if ( values.length != 1 || names.contains( values[0] ) )
+                        throw new IllegalArgumentException( "expected wave NAME, with a new name" );
+                    names.add( values[0] );
+                    definition = new HashMap<>();
+                    definitions.add( definition );
+                    break;
+                case "campaign":
+                    campaign = values;
+                    break;
+                case "stress":
+                    stress = values;
+                    break;
+                default:
+                    if ( definition == null )
+                        throw new IllegalArgumentException( "unknown keyword " + tokens[0] );
+                    definition.put( tokens[0], values );
+                    break;
+                }
+            }
+            catch ( IllegalArgumentException e )
+            {
+                throw new IOException( RESOURCE + " line " + lineNumber + ": " + e.getMessage(), e );
+            }
+        }
+
+        for ( int i = 0; i < names.size(); i++ )
+        {
+            try
+            {
+                parsed.waves.add( new Wave( names.get( i ), i, definitions.get( i ), types ) );
+            }
+            catch ( IllegalArgumentException e )
+            {
+                throw new IOException( RESOURCE + " wave " + names.get( i ) + ": " + e.getMessage(), e );
+            }
+        }
+        if ( campaign == null || campaign.length == 0 )
+            throw new IOException( RESOURCE + ": no campaign" );
+        parsed.resolve( campaign, parsed.campaign );
+        parsed.resolve( stress, parsed.stress );
+        for ( Wave wave : parsed.campaign )
+        {
+            if ( wave.overlapping() )
+                throw new IOException( RESOURCE + ": wave " + wave.name + " overlaps its aliens, it cannot be played" );
+        }
+        return parsed;
+    }
+
+    /**
+     * Looks up waves by name.
+     *
+     * @param names the names of the waves
+     * @param resolved the list receiving the waves
+     * @throws IOException if a wave is not defined
+     */
+    private void resolve( String[] names, List<Wave> resolved ) throws IOException
+    {
+        for ( String name : names )
+        {
+            Wave wave = null;
+            for ( Wave defined : waves )
+            {
+                if ( defined.name.equals( name ) )
+                    wave = defined;
+            }
+            if ( wave == null )
+                throw new IOException( RESOURCE + ": wave " + name + " is not defined" );
+            resolved.add( wave );
+        }
+    }
+
+    /**
+     * Reads the numbers of a key of a wave.
+     *
+     * @param definition the values of the wave, by key
+     * @param key the key
+     * @param count the number of values expected
+     * @return the values
+     * @throws IllegalArgumentException if the key is missing or its values are not count integers
+     */
+    private static int[] numbers( Map<String, String[]> definition, String key, int count )
+    {
+        String[] values = value( definition, key );
+        if ( values.length != count )
+            throw new IllegalArgumentException( key + " expects " + count + " values" );
+        int[] numbers = new int[count];
+        for ( int i = 0; i < count; i++ )
+        {
+            numbers[i] = Integer.parseInt( values[i] );
+        }
+        return numbers;
+    }
+
+    /**
+     * Reads the values of a key of a wave.
+     *
+     * @param definition the values of the wave, by key
+     * @param key the key
+     * @return the values
+     * @throws IllegalArgumentException if the key is missing
+     */
+    private static String[] value( Map<String, String[]> definition, String key )
+    {
+        String[] values = definition.get( key );
+        if ( values == null )
+            throw new IllegalArgumentException( "missing " + key );
+        return values;
+    }
+}
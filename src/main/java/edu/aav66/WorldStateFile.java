@@ -0,0 +1,243 @@
+package edu.aav66;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Publishes the state of a game after every tick as a fixed-layout record in a memory-mapped file, so that dashboards
+ * and test harnesses in other processes can observe the game by reading memory, without sockets, JMX or system calls.
+ * WorldStateReader is the reading side.
+ *
+ * The record is guarded by a seqlock: the writer makes the sequence number odd, writes the record and makes it even
+ * again with release ordering, and a reader keeps a copy only if the sequence number was the same even value before
+ * and after it read. The writer never waits for readers, and a reader retries the rare sample that overlaps a write.
+ *
+ * The record is little-endian, at fixed offsets:
+ * <pre>
+ *   0 magic "SIWS" (int), version (int), record size (int), 4 bytes unused
+ *  16 sequence number (long), odd while a tick is being written, 0 until the first one
+ *  24 tick (long)
+ *  32 score, lives, wave, flags (ints): GAME_OVER, UFO_ACTIVE, CLOSED
+ *  48 ships, x of the first ship, x of the second ship, x of the UFO (ints)
+ *  64 aliens alive, formation slots or -1 if the formation is off its grid, formation x and y (ints)
+ *  80 duration of the input, timers, movement and collision stages and of the whole tick in nanoseconds (longs)
+ * 120 alive mask: bit s of word s / 64 set if formation slot s holds an alien, Waves.MAX_SLOTS bits (longs)
+ * 632 ship bullets, alien bullets (ints), the number on screen, of which the first MAX_BULLETS are listed below
+ * 640 x and y of every ship bullet listed (shorts), MAX_BULLETS pairs, then the same for the alien bullets
+ * </pre>
+ */
+final class WorldStateFile
+{
+    static final int MAGIC = 0x53574953; // "SIWS"
+    static final int VERSION = 1;
+    static final int MAX_BULLETS = 256;
+    static final int STAGES = 5;
+
+    // Flags
+    static final int GAME_OVER = 1;
+    static final int UFO_ACTIVE = 2;
+    static final int CLOSED = 4; // The game has exited
+
+    // Offsets
+    static final int OFF_MAGIC = 0;
+    static final int OFF_VERSION = 4;
+    static final int OFF_SIZE = 8;
+    static final int OFF_SEQUENCE = 16;
+    static final int OFF_TICK = 24;
+    static final int OFF_SCORE = 32;
+    static final int OFF_LIVES = 36;
+    static final int OFF_WAVE = 40;
+    static final int OFF_FLAGS = 44;
+    static final int OFF_SHIPS = 48;
+    static final int OFF_SHIP_X = 52;
+    static final int OFF_UFO_X = 60;
+    static final int OFF_ALIENS = 64;
+    static final int OFF_SLOTS = 68;
+    static final int OFF_FORMATION_X = 72;
+    static final int OFF_FORMATION_Y = 76;
+    static final int OFF_STAGES = 80;
+    static final int OFF_ALIVE = OFF_STAGES + 8 * STAGES;
+    static final int OFF_SHIP_BULLETS = OFF_ALIVE + Waves.MAX_SLOTS / 8;
+    static final int OFF_ALIEN_BULLETS = OFF_SHIP_BULLETS + 4;
+    static final int OFF_BULLETS = OFF_ALIEN_BULLETS + 4;
+    static final int SIZE = OFF_BULLETS + 2 * MAX_BULLETS * 4;
+
+    // The sequence number, with the memory ordering the seqlock needs
+    static final VarHandle SEQUENCE = MethodHandles.byteBufferViewVarHandle( long[].class, ByteOrder.LITTLE_ENDIAN );
+
+    private final FileChannel channel;
+    private final MappedByteBuffer record;
+    private long sequence = 0;
+    private boolean closed = false;
+
+    /**
+     * Creates or reuses a file and maps the record into memory, empty until the first tick.
+     *
+     * @param path the file
+     * @throws IOException if the file cannot be created or mapped
+     */
+    WorldStateFile( Path path ) throws IOException
+    {
+        channel = FileChannel.open( path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                    StandardOpenOption.WRITE );
+        channel.truncate( SIZE );
+        record = channel.map( FileChannel.MapMode.READ_WRITE, 0, SIZE );
+        record.order( ByteOrder.LITTLE_ENDIAN );
+        for ( int i = 0; i < SIZE; i += 8 )
+        {
+            record.putLong( i, 0 );
+        }
+        record.putInt( OFF_VERSION, VERSION );
+        record.putInt( OFF_SIZE, SIZE );
+        SEQUENCE.setRelease( record, OFF_SEQUENCE, 0L );
+        record.putInt( OFF_MAGIC, MAGIC );
+    }
+
+    /**
+     * Publishes the state of a game after a tick, unless the file is closed. Must be called from the thread that ticks
+     * the game; allocates nothing but the iterators over the bullet deques, as the tick itself does, and only
+     * synchronizes with close, which is never contended while the game runs.
+     *
+     * @param session the game that just ticked
+     * @param input the duration of the input stage of the tick in nanoseconds
+     * @param timers the duration of the timers stage
+     * @param movement the duration of the movement stage
+     * @param collisions the duration of the collision stage
+     */
+    synchronized void tickCompleted( GameSession session, long input, long timers, long movement, long collisions )
+    {
+        if ( closed )
+            return;
+        beginWrite();
+
+        record.putLong( OFF_TICK, session.gameTicks );
+        record.putInt( OFF_SCORE, session.score );
+        record.putInt( OFF_LIVES, session.lives );
+        record.putInt( OFF_WAVE, session.isGameOver ? session.finalWave : session.difficultyMultiplier + 1 );
+        record.putInt( OFF_FLAGS, ( session.isGameOver ? GAME_OVER : 0 ) | ( session.ufoActive ? UFO_ACTIVE : 0 ) );
+        record.putInt( OFF_SHIPS, session.ships );
+        for ( int ship = 0; ship < GameSession.MAX_SHIPS; ship++ )
+        {
+            record.putInt( OFF_SHIP_X + 4 * ship, ship < session.ships ? session.xOfShip[ship] : 0 );
+        }
+        record.putInt( OFF_UFO_X, session.ufoX );
+        record.putInt( OFF_ALIENS, session.xOfAliens.size() );
+        record.putInt( OFF_FORMATION_X, session.formationX );
+        record.putInt( OFF_FORMATION_Y, session.formationY );
+
+        record.putLong( OFF_STAGES, input );
+        record.putLong( OFF_STAGES + 8, timers );
+        record.putLong( OFF_STAGES + 16, movement );
+        record.putLong( OFF_STAGES + 24, collisions );
+        record.putLong( OFF_STAGES + 32, input + timers + movement + collisions );
+
+        writeAliveMask( session );
+
+        record.putInt( OFF_SHIP_BULLETS, session.shipBullet.size() );
+        int offset = OFF_BULLETS;
+        for ( int i = 0; i < Math.min( session.shipBullet.size(), MAX_BULLETS ); i++ )
+        {
+            int index = session.shipBullet.get( i );
+            record.putShort( offset, (short)session.xOfShipBullet[index] );
+            record.putShort( offset + 2, (short)session.yOfShipBullet[index] );
+            offset += 4;
+        }
+        record.putInt( OFF_ALIEN_BULLETS, session.alienBullet.size() );
+        offset = OFF_BULLETS + MAX_BULLETS * 4;
+        for ( int i = 0; i < Math.min( session.alienBullet.size(), MAX_BULLETS ); i++ )
+        {
+            int index = session.alienBullet.get( i );
+            record.putShort( offset, (short)session.xOfAlienBullet[index] );
+            record.putShort( offset + 2, (short)session.yOfAlienBullet[index] );
+            offset += 4;
+        }
+
+        endWrite();
+    }
+
+    /**
+     * Marks the record as closed, so readers know the game has exited, and closes the file. The record stays readable.
+     * Called from a shutdown hook, while the game may still be ticking.
+     */
+    synchronized void close()
+    {
+        if ( closed )
+            return;
+        closed = true;
+        beginWrite();
+        record.putInt( OFF_FLAGS, record.getInt( OFF_FLAGS ) | CLOSED );
+        endWrite();
+        try
+        {
+            channel.close();
+        }
+        catch ( IOException e )
+        {
+            System.err.println( "Problem closing the world state file." );
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Makes the sequence number odd, before anything else of the record is written.
+     */
+    private void beginWrite()
+    {
+        SEQUENCE.setOpaque( record, OFF_SEQUENCE, ++sequence );
+        VarHandle.storeStoreFence();
+    }
+
+    /**
+     * Makes the sequence number even, after everything else of the record is written.
+     */
+    private void endWrite() { SEQUENCE.setRelease( record, OFF_SEQUENCE, ++sequence ); }
+
+    /**
+     * Writes the formation slot count and the alive mask. As in Snapshot, a formation whose aliens do not all sit on
+     * their slots of the grid of its wave, shifted by the marched distance, with the slots in order, is written as -1
+     * slots and an empty mask. No wave has more slots than the mask has bits.
+     *
+     * @param session the game
+     */
+    private void writeAliveMask( GameSession session )
+    {
+        Waves.Wave wave = session.wave;
+        int slots = wave.slots();
+        int previous = -1;
+        long word = 0;
+        int written = 0;
+        for ( int i = 0; i < session.xOfAliens.size(); i++ )
+        {
+            int slot = session.slotOfAliens.get( i );
+            if ( slot <= previous || slot >= slots ||
+                 wave.homeX( slot ) != session.xOfAliens.get( i ) - session.formationX ||
+                 wave.homeY( slot ) != session.yOfAliens.get( i ) - session.formationY )
+            {
+                slots = -1; // Off the grid
+                word = 0;
+                written = 0;
+                break;
+            }
+
+            while ( written < slot / 64 )
+            {
+                record.putLong( OFF_ALIVE + 8 * written++, word );
+                word = 0;
+            }
+            word |= 1L << ( slot % 64 );
+            previous = slot;
+        }
+        while ( written < Waves.MAX_SLOTS / 64 )
+        {
+            record.putLong( OFF_ALIVE + 8 * written++, word );
+            word = 0;
+        }
+        record.putInt( OFF_SLOTS, slots );
+    }
+}
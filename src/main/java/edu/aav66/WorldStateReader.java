@@ -0,0 +1,263 @@
+package edu.aav66;
+
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads the world state a game publishes with --world-state, from any other JVM that has this class on its class path.
+ * The file is mapped once and every read samples the mapping directly into a reused Sample: no system call, no copy
+ * through the heap beyond the sample itself and no allocation, so a reader can poll at any rate without disturbing the
+ * game. A read that overlaps the game writing a tick is detected by the seqlock of the record and retried.
+ *
+ * <pre>
+ *   WorldStateReader reader = WorldStateReader.open( path );
+ *   WorldStateReader.Sample sample = new WorldStateReader.Sample();
+ *   if ( reader.read( sample ) ) ... sample.score, sample.isAlive( slot ), sample.stageNanos[Sample.TICK] ...
+ * </pre>
+ */
+public final class WorldStateReader
+{
+    private static final int MAX_ATTEMPTS = 1000; // Reads of a record being rewritten before giving up
+
+    /**
+     * The state of a game after one tick, as published by WorldStateFile. Fields are overwritten by every successful
+     * read; a sample is only ever consistent, never partially updated, after read returned true.
+     */
+    public static final class Sample
+    {
+        // Indices of stageNanos
+        public static final int INPUT = 0;
+        public static final int TIMERS = 1;
+        public static final int MOVEMENT = 2;
+        public static final int COLLISIONS = 3;
+        public static final int TICK = 4;
+
+        public long sequence;          // Changes with every tick published
+        public long tick;
+        public int score;
+        public int lives;
+        public int wave;
+        public int flags;
+        public int ships;
+        public final int[] shipX = new int[GameSession.MAX_SHIPS];
+        public int ufoX;
+        public int aliens;
+        public int slots;              // Formation slots the alive mask covers, -1 if the formation is off its grid
+        public int formationX;
+        public int formationY;
+        public final long[] stageNanos = new long[WorldStateFile.STAGES];
+        public final long[] alive = new long[Waves.MAX_SLOTS / 64];
+        public int shipBullets;        // On screen, of which the first MAX_BULLETS are listed
+        public int alienBullets;
+        public final int[] shipBulletX = new int[WorldStateFile.MAX_BULLETS];
+        public final int[] shipBulletY = new int[WorldStateFile.MAX_BULLETS];
+        public final int[] alienBulletX = new int[WorldStateFile.MAX_BULLETS];
+        public final int[] alienBulletY = new int[WorldStateFile.MAX_BULLETS];
+
+        /**
+         * Returns whether the game is over and waiting for a restart.
+         *
+         * @return true if the game is over
+         */
+        public boolean isGameOver() { return ( flags & WorldStateFile.GAME_OVER ) != 0; }
+
+        /**
+         * Returns whether the UFO is crossing the screen.
+         *
+         * @return true if the UFO is active
+         */
+        public boolean isUfoActive() { return ( flags & WorldStateFile.UFO_ACTIVE ) != 0; }
+
+        /**
+         * Returns whether the game has exited; the sample is then the last state it published.
+         *
+         * @return true if the game has exited
+         */
+        public boolean isClosed() { return ( flags & WorldStateFile.CLOSED ) != 0; }
+
+        /**
+         * Returns whether a formation slot holds an alien. Slots count along the rows from the top left.
+         *
+         * @param slot the slot, from 0 to slots
+         * @return true if the slot holds an alien
+         */
+        public boolean isAlive( int slot ) { return ( alive[slot / 64] & ( 1L << ( slot % 64 ) ) ) != 0; }
+    }
+
+    private final MappedByteBuffer record;
+    private long retries = 0;
+
+    /**
+     * Constructs a reader of a mapped record.
+     *
+     * @param record the record, mapped read-only
+     */
+    private WorldStateReader( MappedByteBuffer record ) { this.record = record; }
+
+    /**
+     * Maps the world state file of a game. The file may be opened before or while the game runs.
+     *
+     * @param path the file given to --world-state
+     * @return the reader
+     * @throws IOException if the file cannot be mapped or is not a world state file of this version
+     */
+    public static WorldStateReader open( Path path ) throws IOException
+    {
+        try ( FileChannel channel = FileChannel.open( path, StandardOpenOption.READ ) )
+        {
+            if ( channel.size() < WorldStateFile.SIZE )
+                throw new IOException( path + " is not a world state file" );
+            MappedByteBuffer record = channel.map( FileChannel.MapMode.READ_ONLY, 0, WorldStateFile.SIZE );
+            record.order( ByteOrder.LITTLE_ENDIAN );
+            if ( record.getInt( WorldStateFile.OFF_MAGIC ) != WorldStateFile.MAGIC ||
+                 record.getInt( WorldStateFile.OFF_SIZE ) != WorldStateFile.SIZE )
+                throw new IOException( path + " is not a world state file" );
+            if ( record.getInt( WorldStateFile.OFF_VERSION ) != WorldStateFile.VERSION )
+                throw new IOException( "Unsupported world state version " +
+                                       record.getInt( WorldStateFile.OFF_VERSION ) );
+            return new WorldStateReader( record ); // The mapping outlives the channel
+        }
+    }
+
+    /**
+     * Reads the latest state published into a sample, retrying while the game is writing a tick.
+     *
+     * @param sample the sample receiving the state
+     * @return true if the sample holds a consistent state, false if no tick has been published yet or the game kept
+     *         rewriting the record through every attempt, in which case the sample holds garbage
+     */
+    public boolean read( Sample sample )
+    {
+        for ( int attempt = 0; attempt < MAX_ATTEMPTS; attempt++ )
+        {
+            long before = (long)WorldStateFile.SEQUENCE.getAcquire( record, WorldStateFile.OFF_SEQUENCE );
+            if ( before == 0 )
+                return false;
+            if ( ( before & 1 ) == 0 )
+            {
+                copy( sample );
+                VarHandle.loadLoadFence();
+                if ( (long)WorldStateFile.SEQUENCE.getOpaque( record, WorldStateFile.OFF_SEQUENCE ) == before )
+                {
+                    sample.sequence = before;
+                    return true;
+                }
+            }
+            retries++;
+            Thread.onSpinWait();
+        }
+        return false;
+    }
+
+    /**
+     * Returns how many reads overlapped the game writing a tick and were retried, since the file was opened.
+     *
+     * @return the number of retries
+     */
+    public long retries() { return retries; }
+
+    /**
+     * Copies the record into a sample, without checking its consistency.
+     *
+     * @param sample the sample
+     */
+    private void copy( Sample sample )
+    {
+        sample.tick = record.getLong( WorldStateFile.OFF_TICK );
+        sample.score = record.getInt( WorldStateFile.OFF_SCORE );
+        sample.lives = record.getInt( WorldStateFile.OFF_LIVES );
+        sample.wave = record.getInt( WorldStateFile.OFF_WAVE );
+        sample.flags = record.getInt( WorldStateFile.OFF_FLAGS );
+        sample.ships = record.getInt( WorldStateFile.OFF_SHIPS );
+        for ( int ship = 0; ship < sample.shipX.length; ship++ )
+        {
+            sample.shipX[ship] = record.getInt( WorldStateFile.OFF_SHIP_X + 4 * ship );
+        }
+        sample.ufoX = record.getInt( WorldStateFile.OFF_UFO_X );
+        sample.aliens = record.getInt( WorldStateFile.OFF_ALIENS );
+        sample.slots = record.getInt( WorldStateFile.OFF_SLOTS );
+        sample.formationX = record.getInt( WorldStateFile.OFF_FORMATION_X );
+        sample.formationY = record.getInt( WorldStateFile.OFF_FORMATION_Y );
+        for ( int stage = 0; stage < sample.stageNanos.length; stage++ )
+        {
+            sample.stageNanos[stage] = record.getLong( WorldStateFile.OFF_STAGES + 8 * stage );
+        }
+        for ( int word = 0; word < sample.alive.length; word++ )
+        {
+            sample.alive[word] = record.getLong( WorldStateFile.OFF_ALIVE + 8 * word );
+        }
+
+        sample.shipBullets = record.getInt( WorldStateFile.OFF_SHIP_BULLETS );
+        sample.alienBullets = record.getInt( WorldStateFile.OFF_ALIEN_BULLETS );
+        // Counts read mid-write may be anything, so the listed bullets are bounded before they are copied
+        int listed = Math.max( 0, Math.min( sample.shipBullets, WorldStateFile.MAX_BULLETS ) );
+        int offset = WorldStateFile.OFF_BULLETS;
+        for ( int i = 0; i < listed; i++, offset += 4 )
+        {
+            sample.shipBulletX[i] = record.getShort( offset );
+            sample.shipBulletY[i] = record.getShort( offset + 2 );
+        }
+        listed = Math.max( 0, Math.min( sample.alienBullets, WorldStateFile.MAX_BULLETS ) );
+        offset = WorldStateFile.OFF_BULLETS + WorldStateFile.MAX_BULLETS * 4;
+        for ( int i = 0; i < listed; i++, offset += 4 )
+        {
+            sample.alienBulletX[i] = record.getShort( offset );
+            sample.alienBulletY[i] = record.getShort( offset + 2 );
+        }
+    }
+
+    /**
+     * Follows the world state of a game, printing a line every second until the game exits.
+     *
+     * @param path the file given to --world-state
+     * @return 0 once the game exited, 1 if the file cannot be read
+     */
+    static int observe( Path path )
+    {
+        WorldStateReader reader;
+        try
+        {
+            reader = open( path );
+        }
+        catch ( IOException e )
+        {
+            System.err.println( "Problem opening world state " + path );
+            e.printStackTrace();
+            return 1;
+        }
+
+        Sample sample = new Sample();
+        System.out.println( "    Tick  Score  Lives  Wave  Aliens  Bullets  Tick us  Read ns  Retries" );
+        while ( true )
+        {
+            long readStart = System.nanoTime();
+            boolean read = reader.read( sample );
+            long readNanos = System.nanoTime() - readStart;
+            if ( read )
+            {
+                System.out.printf( Locale.ROOT, "%8d  %5d  %5d  %4d  %6d  %3d/%-3d  %7.1f  %7d  %7d%s%n",
+                                   sample.tick, sample.score, sample.lives, sample.wave, sample.aliens,
+                                   sample.shipBullets, sample.alienBullets, sample.stageNanos[Sample.TICK] / 1e3,
+                                   readNanos, reader.retries(), sample.isGameOver() ? "  game over" : "" );
+                if ( sample.isClosed() )
+                    return 0;
+            }
+            try
+            {
+                TimeUnit.SECONDS.sleep( 1 );
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                return 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package edu.aav66;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the delivery of events to inline and threaded subscribers and the accounting of events dropped when a
+ * subscriber falls behind.
+ */
+class GameEventsTest
+{
+    private final GameEvents events = new GameEvents();
+    private final GameSession session = GameState.newHeadlessGame( 1 ).session;
+
+    /**
+     * Checks that an inline subscriber gets the events of a tick in order, with the last one ending the batch, and
+     * nothing when a tick published nothing.
+     */
+    @Test
+    void deliversTheEventsOfATickInline()
+    {
+        List<Integer> values = new ArrayList<>();
+        List<Boolean> ends = new ArrayList<>();
+        events.subscribe( ( event, endOfBatch ) -> {
+            assertEquals( GameEvents.ALIEN_KILLED, event.type );
+            assertEquals( session.score, event.score );
+            values.add( event.value );
+            ends.add( endOfBatch );
+        } );
+
+        for ( int i = 0; i < 3; i++ )
+        {
+            events.publish( GameEvents.ALIEN_KILLED, session, 10, 20, i );
+        }
+        assertTrue( values.isEmpty(), "inline subscribers run at the end of the tick" );
+        events.tickCompleted();
+        events.tickCompleted();
+        assertEquals( List.of( 0, 1, 2 ), values );
+        assertEquals( List.of( false, false, true ), ends );
+        assertEquals( 0, events.dropped() );
+    }
+
+    /**
+     * Checks that a subscriber that throws still gets the following events.
+     */
+    @Test
+    void keepsDeliveringAfterASubscriberThrows()
+    {
+        List<Integer> values = new ArrayList<>();
+        events.subscribe( ( event, endOfBatch ) -> {
+            values.add( event.value );
+            if ( event.value == 0 )
+                throw new IllegalStateException( "thrown on purpose by the test" );
+        } );
+        events.publish( GameEvents.SHOT_FIRED, session, 0, 0, 0 );
+        events.publish( GameEvents.SHOT_FIRED, session, 0, 0, 1 );
+        events.tickCompleted();
+        assertEquals( List.of( 0, 1 ), values );
+    }
+
+    /**
+     * Without subscribers nothing is ever unread, so nothing is dropped however much is published.
+     */
+    @Test
+    void dropsNothingWithoutSubscribers()
+    {
+        for ( int i = 0; i < 3 * GameEvents.CAPACITY; i++ )
+        {
+            events.publish( GameEvents.SHOT_FIRED, session, 0, 0, i );
+        }
+        assertEquals( 0, events.dropped() );
+    }
+
+    /**
+     * Blocks a threaded subscriber on its first event and publishes past the capacity of the ring: the events that
+     * would overwrite unread ones are dropped and counted, the subscriber gets every event that was kept, in order,
+     * once it resumes, and publishing works again once it has caught up.
+     */
+    @Test
+    void dropsAndCountsEventsPastASlowSubscriber() throws Exception
+    {
+        CountDownLatch release = new CountDownLatch( 1 );
+        List<Integer> values = new ArrayList<>();
+        events.subscribeOnThread( ( event, endOfBatch ) -> {
+            try
+            {
+                release.await();
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+            }
+            synchronized ( values )
+            {
+                values.add( event.value );
+            }
+        }, "test-subscriber" );
+
+        int extra = 100;
+        for ( int i = 0; i < GameEvents.CAPACITY + extra; i++ )
+        {
+            events.publish( GameEvents.SHOT_FIRED, session, 0, 0, i );
+            events.tickCompleted();
+        }
+        assertEquals( extra, events.dropped() );
+
+        release.countDown();
+        assertTrue( events.drain( 5000 ) );
+        synchronized ( values )
+        {
+            assertEquals( GameEvents.CAPACITY, values.size() );
+            for ( int i = 0; i < values.size(); i++ )
+            {
+                assertEquals( i, values.get( i ) );
+            }
+        }
+
+        events.publish( GameEvents.SHOT_FIRED, session, 0, 0, -1 );
+        events.tickCompleted();
+        assertTrue( events.drain( 5000 ) );
+        assertEquals( extra, events.dropped() );
+        synchronized ( values )
+        {
+            assertEquals( -1, values.get( values.size() - 1 ) );
+        }
+    }
+}
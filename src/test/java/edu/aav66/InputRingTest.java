@@ -0,0 +1,134 @@
+package edu.aav66;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.event.KeyEvent;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests how the ring folds key events into the input byte of each tick, its capacity and its handoff between threads.
+ */
+class InputRingTest
+{
+    private static final int LEFT = InputRecorder.LEFT | InputRecorder.MOVING;
+    private static final int RIGHT = InputRecorder.RIGHT | InputRecorder.MOVING;
+
+    private final InputRing ring = new InputRing();
+
+    /**
+     * Checks that only the ship keys map to buttons.
+     */
+    @Test
+    void mapsShipKeysToButtons()
+    {
+        assertEquals( InputRecorder.LEFT, InputRing.buttonOf( KeyEvent.VK_A ) );
+        assertEquals( InputRecorder.RIGHT, InputRing.buttonOf( KeyEvent.VK_RIGHT ) );
+        assertEquals( InputRecorder.SHOOTING, InputRing.buttonOf( KeyEvent.VK_SPACE ) );
+        assertEquals( 0, InputRing.buttonOf( KeyEvent.VK_P ) );
+    }
+
+    /**
+     * Checks that a held button stays held from tick to tick until it is released.
+     */
+    @Test
+    void heldButtonsLastUntilReleased()
+    {
+        ring.offer( InputRecorder.RIGHT, true, 100 );
+        assertEquals( RIGHT, ring.sample() );
+        assertEquals( RIGHT, ring.sample() );
+        ring.offer( InputRecorder.RIGHT, false, 200 );
+        assertEquals( 0, ring.sample() );
+    }
+
+    /**
+     * Checks that a button pressed and released between two ticks is held for exactly the next tick.
+     */
+    @Test
+    void tapBetweenTicksCountsForOneTick()
+    {
+        ring.offer( InputRecorder.SHOOTING, true, 100 );
+        ring.offer( InputRecorder.SHOOTING, false, 110 );
+        assertEquals( InputRecorder.SHOOTING, ring.sample() );
+        assertEquals( 0, ring.sample() );
+    }
+
+    /**
+     * Checks that holding both directions moves left.
+     */
+    @Test
+    void bothDirectionsMoveLeft()
+    {
+        ring.offer( InputRecorder.RIGHT, true, 100 );
+        ring.offer( InputRecorder.LEFT, true, 110 );
+        assertEquals( LEFT, ring.sample() );
+        ring.offer( InputRecorder.LEFT, false, 120 );
+        assertEquals( RIGHT, ring.sample() );
+    }
+
+    /**
+     * Checks that the arrival of the first press drained by a sample is reported, and -1 when it drained none.
+     */
+    @Test
+    void reportsTheArrivalOfTheFirstPress()
+    {
+        ring.offer( InputRecorder.LEFT, true, 100 );
+        ring.offer( InputRecorder.SHOOTING, true, 150 );
+        ring.sample();
+        assertEquals( 100, ring.pressedAt() );
+        ring.offer( InputRecorder.LEFT, false, 200 );
+        ring.sample();
+        assertEquals( -1, ring.pressedAt() );
+    }
+
+    /**
+     * Checks that events past the capacity are refused until the game loop drains the ring.
+     */
+    @Test
+    void refusesEventsPastCapacity()
+    {
+        for ( int i = 0; i < InputRing.CAPACITY; i++ )
+        {
+            assertTrue( ring.offer( InputRecorder.SHOOTING, i % 2 == 0, i ) );
+        }
+        assertFalse( ring.offer( InputRecorder.LEFT, true, InputRing.CAPACITY ) );
+        assertEquals( InputRecorder.SHOOTING, ring.sample() );
+        assertTrue( ring.offer( InputRecorder.LEFT, true, InputRing.CAPACITY ) );
+        assertEquals( LEFT, ring.sample() );
+    }
+
+    /**
+     * Streams presses and releases from another thread while sampling, and checks that every event arrives in order:
+     * the fire button ends released and the final press is seen.
+     */
+    @Test
+    void handsEventsOverBetweenThreads() throws Exception
+    {
+        int pairs = 200_000;
+        Thread producer = new Thread( () -> {
+            for ( int i = 0; i < 2 * pairs; i++ )
+            {
+                while ( !ring.offer( InputRecorder.SHOOTING, i % 2 == 0, i ) )
+                {
+                    Thread.onSpinWait();
+                }
+            }
+            while ( !ring.offer( InputRecorder.RIGHT, true, 2 * pairs ) )
+            {
+                Thread.onSpinWait();
+            }
+        } );
+        producer.start();
+
+        int input;
+        do
+        {
+            input = ring.sample();
+        }
+        while ( ( input & InputRecorder.RIGHT ) == 0 );
+        producer.join();
+
+        assertEquals( RIGHT, ring.sample() );
+    }
+}
@@ -0,0 +1,116 @@
+package edu.aav66;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * Tests the recovery of the leaderboard log after a crash and its compaction.
+ */
+class LeaderboardTest
+{
+    private static final int RECORDS = 5;
+
+    @TempDir
+    Path directory;
+
+    /**
+     * Cuts the log inside its last record, in the score and wave, in the duration and timestamp and in the initials,
+     * and checks that only the intact records are loaded and that the next record lands right after them.
+     *
+     * @param cut the number of bytes of the last record left in the log
+     */
+    @ParameterizedTest
+    @ValueSource( ints = { 2, 12, 26 } )
+    void truncatedTailIsDroppedAndOverwritten( int cut ) throws Exception
+    {
+        Path path = directory.resolve( "leaderboard.dat" );
+        Leaderboard leaderboard = new Leaderboard( path );
+        for ( int i = 0; i < RECORDS; i++ )
+        {
+            leaderboard.record( entry( 100 + i, i ) );
+        }
+        assertTrue( leaderboard.flush( 5000 ) );
+        assertEquals( size( RECORDS ), Files.size( path ) );
+
+        try ( FileChannel channel = FileChannel.open( path, StandardOpenOption.WRITE ) )
+        {
+            channel.truncate( size( RECORDS - 1 ) + cut );
+        }
+
+        Leaderboard reopened = new Leaderboard( path );
+        assertEquals( RECORDS - 1, reopened.top( Leaderboard.CAPACITY ).length );
+        assertEquals( size( RECORDS - 1 ), Files.size( path ) );
+
+        reopened.record( entry( 500, RECORDS ) );
+        assertTrue( reopened.flush( 5000 ) );
+        assertEquals( size( RECORDS ), Files.size( path ) );
+
+        Leaderboard.Entry[] top = new Leaderboard( path ).top( Leaderboard.CAPACITY );
+        assertEquals( RECORDS, top.length );
+        assertEquals( 500, top[0].score );
+        assertEquals( "P" + RECORDS, top[0].initials );
+    }
+
+    /**
+     * Records enough games to compact the log while later games are still queued, and checks that every game is in
+     * the compacted log exactly once.
+     */
+    @Test
+    void compactionWritesEveryEntryOnce() throws Exception
+    {
+        Path path = directory.resolve( "leaderboard.dat" );
+        Leaderboard leaderboard = new Leaderboard( path );
+        int games = Leaderboard.COMPACT_THRESHOLD + Leaderboard.CAPACITY / 2;
+        for ( int i = 0; i < games; i++ )
+        {
+            leaderboard.record( entry( i, i ) );
+        }
+        assertTrue( leaderboard.flush( 60000 ) );
+
+        long records = ( Files.size( path ) - Leaderboard.HEADER_SIZE ) / Leaderboard.RECORD_SIZE;
+        assertTrue( records < Leaderboard.COMPACT_THRESHOLD, "log was not compacted, " + records + " records" );
+
+        Leaderboard.Entry[] top = new Leaderboard( path ).top( Leaderboard.CAPACITY );
+        assertEquals( Leaderboard.CAPACITY, top.length );
+        Set<Long> timestamps = new HashSet<>();
+        for ( int i = 0; i < top.length; i++ )
+        {
+            assertEquals( games - 1 - i, top[i].score );
+            assertTrue( timestamps.add( top[i].timestamp ), "entry " + top[i].score + " written twice" );
+        }
+    }
+
+    /**
+     * Builds a distinct entry.
+     *
+     * @param score the score of the entry
+     * @param game the number of the game, used for its timestamp and initials
+     * @return the entry
+     */
+    private static Leaderboard.Entry entry( int score, int game )
+    {
+        return new Leaderboard.Entry( score, 1 + game % 10, 60000 + game, 1_700_000_000_000L + game, "P" + game );
+    }
+
+    /**
+     * Computes the size of a log holding a number of records.
+     *
+     * @param records the number of records
+     * @return the size of the log in bytes
+     */
+    private static long size( int records )
+    {
+        return Leaderboard.HEADER_SIZE + (long)records * Leaderboard.RECORD_SIZE;
+    }
+}
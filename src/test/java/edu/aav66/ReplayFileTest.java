@@ -0,0 +1,127 @@
+package edu.aav66;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests that a recording replays and seeks to the states of the recorded game, with its footer index and with the
+ * index rebuilt from a recording cut short.
+ */
+class ReplayFileTest
+{
+    private static final long SEED = 42;
+    private static final int TICKS = 5000;
+    private static final int KEYFRAME_INTERVAL = 300;
+
+    @TempDir
+    Path directory;
+
+    private Path path;
+    private final int[] checksums = new int[TICKS + 1]; // State checksum of the recorded game after every tick
+
+    /**
+     * Records a game played by a bot that changes its input at random.
+     */
+    @BeforeEach
+    void record() throws Exception
+    {
+        path = directory.resolve( "game.rec" );
+        InputRecorder recorder = new InputRecorder( path, SEED, InputRecorder.DEFAULT_CHECKSUM_INTERVAL,
+                                                    KEYFRAME_INTERVAL );
+        GamePanel panel = new GamePanel( false, SEED, recorder );
+        GameState.restartGame( panel );
+        Random bot = new Random( 7 );
+        checksums[0] = panel.session.stateChecksum();
+        for ( int tick = 1; tick <= TICKS; tick++ )
+        {
+            GameSession session = panel.session;
+            if ( tick % 20 == 0 )
+            {
+                session.shipMoving = bot.nextBoolean();
+                session.shipShooting = bot.nextInt( 4 ) != 0;
+                session.shipDirection = bot.nextBoolean() ? 'L' : 'R';
+            }
+            panel.tick();
+            checksums[tick] = session.stateChecksum();
+        }
+        recorder.close();
+    }
+
+    /**
+     * Replays the whole recording from its index and checks every checksum and the final state.
+     */
+    @Test
+    void replaysTheRecordedGame() throws Exception
+    {
+        ReplayFile file = new ReplayFile( path );
+        assertTrue( file.indexed() );
+        assertEquals( TICKS, file.ticks() );
+        assertEquals( TICKS / KEYFRAME_INTERVAL, file.keyframes() );
+
+        ReplayFile.Playback playback = file.start();
+        playback.playTo( Long.MAX_VALUE );
+        assertTrue( playback.complete() );
+        assertEquals( -1, playback.divergedAtTick() );
+        assertEquals( TICKS, playback.tick() );
+        assertEquals( checksums[TICKS], playback.panel.session.stateChecksum() );
+    }
+
+    /**
+     * Seeks to ticks before, on and between keyframes and checks that the game is in the recorded state there.
+     */
+    @Test
+    void seeksToTheRecordedState() throws Exception
+    {
+        ReplayFile file = new ReplayFile( path );
+        for ( long tick : new long[] { 0, 1, KEYFRAME_INTERVAL - 1, KEYFRAME_INTERVAL, 2345, TICKS - 1, TICKS } )
+        {
+            ReplayFile.Playback playback = file.seek( tick );
+            assertEquals( tick, playback.tick() );
+            assertEquals( checksums[(int)tick], playback.panel.session.stateChecksum(), "at tick " + tick );
+        }
+    }
+
+    /**
+     * Cuts the recording short, losing its end and footer, and checks that the index rebuilt by scanning finds the
+     * keyframes and ticks that are left and seeks as the footer index did.
+     */
+    @Test
+    void rebuildsTheIndexOfARecordingWithoutFooter() throws Exception
+    {
+        ReplayFile complete = new ReplayFile( path );
+        long size = Files.size( path );
+        try ( FileChannel channel = FileChannel.open( path, StandardOpenOption.WRITE ) )
+        {
+            channel.truncate( size * 2 / 3 );
+        }
+
+        ReplayFile cut = new ReplayFile( path );
+        assertFalse( cut.indexed() );
+        assertTrue( cut.ticks() > TICKS / 3 && cut.ticks() < TICKS, "scanned " + cut.ticks() + " ticks" );
+        assertTrue( cut.keyframes() > 0 && cut.keyframes() <= complete.keyframes() );
+        long keyframes = cut.ticks() / KEYFRAME_INTERVAL; // The last one may be cut off with the ticks after it
+        assertTrue( cut.keyframes() == keyframes || cut.keyframes() == keyframes - 1,
+                    cut.keyframes() + " keyframes in " + cut.ticks() + " ticks" );
+
+        ReplayFile.Playback playback = cut.seek( cut.ticks() );
+        assertEquals( cut.ticks(), playback.tick() );
+        assertEquals( -1, playback.divergedAtTick() );
+        assertEquals( checksums[(int)cut.ticks()], playback.panel.session.stateChecksum() );
+
+        playback = cut.start();
+        playback.playTo( Long.MAX_VALUE );
+        assertFalse( playback.complete() );
+        assertEquals( -1, playback.divergedAtTick() );
+        assertEquals( cut.ticks(), playback.tick() );
+    }
+}
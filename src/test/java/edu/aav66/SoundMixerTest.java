@@ -0,0 +1,110 @@
+package edu.aav66;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the trigger ring and the voice pool of the mixer. Runs with audio.mute set, so no line is opened and the
+ * mixer thread never starts; the test plays the part of both the game loop and the mixer thread.
+ */
+class SoundMixerTest
+{
+    private SoundMixer mixer;
+    private final int[] mix = new int[SoundMixer.BLOCK_FRAMES];
+
+    /**
+     * Creates a muted mixer.
+     */
+    @BeforeEach
+    void createMixer()
+    {
+        assertTrue( Boolean.getBoolean( "audio.mute" ), "tests must run with -Daudio.mute=true" );
+        mixer = new SoundMixer();
+        assertFalse( mixer.isAudible() );
+    }
+
+    /**
+     * Fills the ring past its capacity and checks that the extra triggers are dropped and counted, and that the ring
+     * takes triggers again once the mixer has drained it.
+     */
+    @Test
+    void triggersPastCapacityAreDroppedAndCounted()
+    {
+        int extra = 10;
+        int queued = 0;
+        for ( int i = 0; i < SoundMixer.TRIGGER_CAPACITY + extra; i++ )
+        {
+            if ( mixer.enqueue( SoundMixer.SHOT ) )
+                queued++;
+        }
+        assertEquals( SoundMixer.TRIGGER_CAPACITY, queued );
+        assertEquals( extra, mixer.droppedTriggers() );
+
+        mixer.drainTriggers();
+        assertTrue( mixer.enqueue( SoundMixer.ALIEN_HIT ) );
+        assertEquals( extra, mixer.droppedTriggers() );
+    }
+
+    /**
+     * Triggers more sounds than there are voices, between and without mixed blocks, and checks that the pool never
+     * grows past its size and that every voice is released once its clip ends.
+     */
+    @Test
+    void voiceStealingKeepsThePoolBounded()
+    {
+        for ( int round = 0; round < 4; round++ )
+        {
+            for ( int i = 0; i < SoundMixer.TRIGGER_CAPACITY; i++ )
+            {
+                assertTrue( mixer.enqueue( i % 4 ) );
+            }
+            mixer.drainTriggers();
+            assertEquals( SoundMixer.VOICES, mixer.activeVoices() );
+            assertTrue( mixer.mixBlock( mix ) );
+            assertEquals( SoundMixer.VOICES, mixer.activeVoices() );
+        }
+        assertEquals( 0, mixer.droppedTriggers() );
+
+        int blocks = 0;
+        while ( mixer.mixBlock( mix ) )
+        {
+            assertTrue( mixer.activeVoices() <= SoundMixer.VOICES );
+            blocks++;
+        }
+        assertEquals( 0, mixer.activeVoices() );
+        assertTrue( blocks > 0 && blocks < 100, "voices played for " + blocks + " blocks" );
+    }
+
+    /**
+     * Plays one sound, lets it run, then fills the other voices and triggers one more, and checks that the sound that
+     * has played the longest is the one cut off: it ends with the other voices instead of after them.
+     */
+    @Test
+    void stealsTheVoiceThatHasPlayedTheLongest()
+    {
+        mixer.enqueue( SoundMixer.SHIP_HIT ); // The longest clip
+        mixer.drainTriggers();
+        for ( int i = 0; i < 4; i++ )
+        {
+            mixer.mixBlock( mix );
+        }
+        for ( int i = 0; i < SoundMixer.VOICES; i++ )
+        {
+            mixer.enqueue( SoundMixer.SHOT ); // The last of these steals a voice
+        }
+        mixer.drainTriggers();
+        assertEquals( SoundMixer.VOICES, mixer.activeVoices() );
+
+        int blocks = 0;
+        while ( mixer.mixBlock( mix ) )
+        {
+            blocks++;
+        }
+        int shotBlocks = ( 22050 * 90 / 1000 + SoundMixer.BLOCK_FRAMES - 1 ) / SoundMixer.BLOCK_FRAMES;
+        assertEquals( shotBlocks, blocks );
+    }
+}
@@ -0,0 +1,141 @@
+package edu.aav66;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that timers fire on their exact tick wherever their deadline falls in the levels of the wheel, including the
+ * overflow list, and that cancelled timers never fire.
+ */
+class TimerWheelTest
+{
+    private static final long TOP = 1L << 24; // Ticks covered by the four levels
+
+    // Delays on both sides of the boundary of every level and of the overflow list
+    private static final long[] DELAYS = {
+        1, 2, 63, 64, 65, 127, 128, 4095, 4096, 4097, 8191, 8192, 262143, 262144, 262145,
+        TOP - 1, TOP, TOP + 1, TOP + 4096, 2 * TOP + 63, 3 * TOP + 5
+    };
+
+    private final TimerWheel wheel = new TimerWheel();
+    private final List<long[]> fired = new ArrayList<>(); // Deadline the timer was scheduled for, tick it fired on
+
+    /**
+     * Records the tick a timer fired on next to the deadline it carries as its target.
+     *
+     * @param kind the kind of the timer, unused
+     * @param target the deadline the timer was scheduled for
+     */
+    private void expired( int kind, Object target )
+    {
+        fired.add( new long[] { (Long)target, wheel.now() } );
+    }
+
+    /**
+     * Schedules every delay from tick 0 and checks that each timer fires once, on its exact tick.
+     */
+    @Test
+    void firesOnTheExactTickFromAlignedStart()
+    {
+        checkDelaysFrom( 0 );
+    }
+
+    /**
+     * Schedules every delay from a tick that sits in the middle of a slot on every level, so that the deadlines cross
+     * level boundaries at different points than from tick 0.
+     */
+    @Test
+    void firesOnTheExactTickFromUnalignedStart()
+    {
+        checkDelaysFrom( 4095 );
+        fired.clear();
+        wheel.reset( TOP - 70 );
+        checkDelaysFrom( TOP - 70 );
+    }
+
+    /**
+     * Schedules timers on the same tick at different distances and checks that they fire in the order they were
+     * scheduled, once cascaded down to the same slot.
+     */
+    @Test
+    void timersOnTheSameTickFireInSchedulingOrder()
+    {
+        List<Integer> order = new ArrayList<>();
+        TimerWheel.Handler handler = ( kind, target ) -> order.add( kind );
+        wheel.schedule( 5000, 0, null );
+        wheel.advance( 4000, handler );
+        wheel.schedule( 1000, 1, null );
+        wheel.advance( 4990, handler );
+        wheel.schedule( 10, 2, null );
+        wheel.advance( 5000, handler );
+        assertEquals( List.of( 0, 1, 2 ), order );
+    }
+
+    /**
+     * Cancels timers in the bottom level, in a higher level and in the overflow list and checks that none of them
+     * fires while the others do.
+     */
+    @Test
+    void cancelledTimersNeverFire()
+    {
+        int bottom = wheel.schedule( 10, 0, 10L );
+        int high = wheel.schedule( 100_000, 0, 100_000L );
+        int overflow = wheel.schedule( TOP + 10, 0, TOP + 10 );
+        wheel.schedule( 20, 0, 20L );
+        wheel.cancel( bottom );
+        wheel.cancel( high );
+        wheel.cancel( overflow );
+        wheel.cancel( TimerWheel.NONE );
+        wheel.advance( TOP + 100, this::expired );
+        assertEquals( 1, fired.size() );
+        assertEquals( 20, fired.get( 0 )[1] );
+    }
+
+    /**
+     * Schedules more timers than the initial capacity, from the handler as well, and checks that every one fires.
+     */
+    @Test
+    void growsAndSchedulesFromTheHandler()
+    {
+        int[] count = new int[1];
+        TimerWheel.Handler handler = ( kind, target ) -> {
+            count[0]++;
+            if ( kind > 0 )
+                wheel.schedule( kind, kind - 1, null );
+        };
+        for ( int i = 0; i < 1000; i++ )
+        {
+            wheel.schedule( 1 + i % 300, 3, null );
+        }
+        wheel.advance( 2000, handler );
+        assertEquals( 4000, count[0] );
+    }
+
+    /**
+     * Schedules every delay from a start tick, advances past the last deadline and checks what fired.
+     *
+     * @param start the tick to schedule from
+     */
+    private void checkDelaysFrom( long start )
+    {
+        wheel.advance( start, this::expired );
+        assertTrue( fired.isEmpty() );
+        for ( long delay : DELAYS )
+        {
+            int timer = wheel.schedule( delay, 0, start + delay );
+            assertEquals( start + delay, wheel.deadline( timer ) );
+        }
+        wheel.advance( start + DELAYS[DELAYS.length - 1] + 1000, this::expired );
+
+        assertEquals( DELAYS.length, fired.size() );
+        for ( int i = 0; i < DELAYS.length; i++ )
+        {
+            assertEquals( start + DELAYS[i], fired.get( i )[1], "delay " + DELAYS[i] + " from " + start );
+            assertEquals( fired.get( i )[0], fired.get( i )[1] );
+        }
+    }
+}
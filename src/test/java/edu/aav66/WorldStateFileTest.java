@@ -0,0 +1,123 @@
+package edu.aav66;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests that the world state file publishes the state of a game and that a reader in another thread only ever keeps
+ * consistent samples, whatever the writer is doing.
+ */
+class WorldStateFileTest
+{
+    @TempDir
+    Path directory;
+
+    /**
+     * Publishes a game after some ticks and checks that a reader sees its state, formation and bullets.
+     */
+    @Test
+    void publishesTheStateOfAGame() throws Exception
+    {
+        Path path = directory.resolve( "state.bin" );
+        WorldStateFile file = new WorldStateFile( path );
+        WorldStateReader reader = WorldStateReader.open( path );
+        WorldStateReader.Sample sample = new WorldStateReader.Sample();
+        assertFalse( reader.read( sample ), "nothing is published before the first tick" );
+
+        GamePanel panel = GameState.newHeadlessGame( 5 );
+        GameSession session = panel.session;
+        session.shipShooting = true;
+        for ( int i = 0; i < 600; i++ )
+        {
+            panel.tick();
+        }
+        session.xOfAliens.remove( 3 );
+        session.yOfAliens.remove( 3 );
+        session.slotOfAliens.remove( 3 );
+        file.tickCompleted( session, 1, 2, 3, 4 );
+
+        assertTrue( reader.read( sample ) );
+        assertEquals( session.gameTicks, sample.tick );
+        assertEquals( session.score, sample.score );
+        assertEquals( session.lives, sample.lives );
+        assertEquals( session.xOfShip[0], sample.shipX[0] );
+        assertEquals( session.xOfAliens.size(), sample.aliens );
+        assertEquals( session.wave.slots(), sample.slots );
+        for ( int slot = 0; slot < session.wave.slots(); slot++ )
+        {
+            assertEquals( session.slotOfAliens.contains( slot ), sample.isAlive( slot ), "slot " + slot );
+        }
+        assertEquals( 10, sample.stageNanos[WorldStateReader.Sample.TICK] );
+        assertEquals( session.shipBullet.size(), sample.shipBullets );
+        assertEquals( session.alienBullet.size(), sample.alienBullets );
+        for ( int i = 0; i < session.alienBullet.size(); i++ )
+        {
+            assertEquals( session.yOfAlienBullet[session.alienBullet.get( i )], sample.alienBulletY[i] );
+        }
+        assertFalse( sample.isClosed() );
+
+        file.close();
+        assertTrue( reader.read( sample ) );
+        assertTrue( sample.isClosed() );
+    }
+
+    /**
+     * Publishes ticks as fast as possible from one thread while another reads, and checks that every sample the reader
+     * keeps holds the values of a single tick and that the sequence number only moves forward.
+     */
+    @Test
+    void readersOnlyKeepConsistentSamples() throws Exception
+    {
+        Path path = directory.resolve( "state.bin" );
+        WorldStateFile file = new WorldStateFile( path );
+        WorldStateReader reader = WorldStateReader.open( path );
+        GameSession session = GameState.newHeadlessGame( 9 ).session;
+        int writes = 200_000;
+
+        AtomicBoolean done = new AtomicBoolean();
+        Thread writer = new Thread( () -> {
+            for ( int i = 1; i <= writes; i++ )
+            {
+                session.gameTicks = i;
+                session.score = i;
+                session.formationX = i;
+                session.formationY = -i;
+                file.tickCompleted( session, i, i, i, i );
+            }
+            done.set( true );
+        } );
+        writer.start();
+
+        WorldStateReader.Sample sample = new WorldStateReader.Sample();
+        long lastSequence = 0;
+        long samples = 0;
+        while ( !done.get() || samples == 0 )
+        {
+            if ( !reader.read( sample ) )
+                continue;
+            samples++;
+            long tick = sample.tick;
+            assertEquals( 0, sample.sequence & 1, "odd sequence" );
+            assertTrue( sample.sequence >= lastSequence, "sequence went back" );
+            assertEquals( tick, sample.score );
+            assertEquals( tick, sample.formationX );
+            assertEquals( -tick, sample.formationY );
+            assertEquals( tick, sample.stageNanos[WorldStateReader.Sample.INPUT] );
+            assertEquals( tick, sample.stageNanos[WorldStateReader.Sample.COLLISIONS] );
+            assertEquals( 4 * tick, sample.stageNanos[WorldStateReader.Sample.TICK] );
+            lastSequence = sample.sequence;
+        }
+        writer.join();
+
+        assertTrue( reader.read( sample ) );
+        assertEquals( writes, sample.tick );
+        assertEquals( 2L * writes, sample.sequence );
+        file.close();
+    }
+}